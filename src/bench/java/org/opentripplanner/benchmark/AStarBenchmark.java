@@ -0,0 +1,98 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.standalone.Router;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-to-point searches in the Columbus graph, including the creation and removal of the temporary vertices at the
+ * origin and destination as in a real request. The street searches use AStar directly; the transit search goes through
+ * GraphPathFinder, which adds the bidirectional heuristic and the repeated searches for several itineraries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AStarBenchmark {
+
+    private Graph graph;
+
+    private Router router;
+
+    private long dateTime;
+
+    @Setup
+    public void setup () throws Exception {
+        graph = BenchmarkGraphs.columbus();
+        router = new Router("benchmark", graph);
+        // The fake transit service runs every day
+        dateTime = LocalDateTime.of(2015, 9, 17, 8, 0).atZone(ZoneId.of("America/New_York")).toEpochSecond();
+    }
+
+    private RoutingRequest request (String modes) {
+        RoutingRequest request = new RoutingRequest(new TraverseModeSet(modes));
+        request.from = new GenericLocation(BenchmarkGraphs.COLUMBUS_FROM_LAT, BenchmarkGraphs.COLUMBUS_FROM_LON);
+        request.to = new GenericLocation(BenchmarkGraphs.COLUMBUS_TO_LAT, BenchmarkGraphs.COLUMBUS_TO_LON);
+        request.dateTime = dateTime;
+        request.setRoutingContext(graph);
+        return request;
+    }
+
+    private List<GraphPath> streetSearch (String modes) {
+        RoutingRequest request = request(modes);
+        request.numItineraries = 1;
+        try {
+            AStar aStar = new AStar();
+            ShortestPathTree spt = aStar.getShortestPathTree(request);
+            List<GraphPath> paths = aStar.getPathsToTarget();
+            spt.release();
+            return paths;
+        } finally {
+            request.cleanup();
+        }
+    }
+
+    @Benchmark
+    public List<GraphPath> walk () {
+        return streetSearch("WALK");
+    }
+
+    @Benchmark
+    public List<GraphPath> bicycle () {
+        return streetSearch("BICYCLE");
+    }
+
+    @Benchmark
+    public List<GraphPath> transit () {
+        RoutingRequest request = request("WALK,TRANSIT");
+        try {
+            return new GraphPathFinder(router).getPaths(request);
+        } finally {
+            request.cleanup();
+        }
+    }
+
+}
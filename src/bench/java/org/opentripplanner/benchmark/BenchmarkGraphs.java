@@ -0,0 +1,53 @@
+package org.opentripplanner.benchmark;
+
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+/**
+ * Reproducible graphs for the benchmarks, built from the test fixtures. Each graph is built once per JVM, and JMH runs
+ * each benchmark in a fresh JVM, so graph building is never part of a measurement.
+ */
+public class BenchmarkGraphs {
+
+    /** A point near downtown Columbus, OH, used as the origin of searches in the Columbus graph. */
+    public static final double COLUMBUS_FROM_LAT = 39.9908, COLUMBUS_FROM_LON = -83.0118;
+
+    /** A point a few kilometers east of the origin, used as the destination of searches in the Columbus graph. */
+    public static final double COLUMBUS_TO_LAT = 39.963417, COLUMBUS_TO_LON = -82.980799;
+
+    private static Graph columbus;
+
+    /**
+     * @return the Columbus street network from FakeGraph, with a regular grid of stops and many frequent two-stop
+     * lines, linked to the streets and indexed.
+     */
+    public static synchronized Graph columbus () throws Exception {
+        if (columbus == null) {
+            Graph graph = columbusWithUnlinkedStops();
+            FakeGraph.addTransitMultipleLines(graph);
+            FakeGraph.link(graph);
+            graph.index(new DefaultStreetVertexIndexFactory());
+            columbus = graph;
+        }
+        return columbus;
+    }
+
+    /** @return a new copy of the Columbus street network with a regular grid of stops that are not yet linked. */
+    public static Graph columbusWithUnlinkedStops () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addRegularStopGrid(graph);
+        return graph;
+    }
+
+    /** @return the Portland TriMet schedule (without streets) from the test resources, indexed. */
+    public static synchronized Graph portland () {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        if (graph.index == null) {
+            graph.index(new DefaultStreetVertexIndexFactory());
+        }
+        return graph;
+    }
+
+}
@@ -0,0 +1,44 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Linking every stop of the Columbus stop grid to the streets with SimpleStreetSplitter, as the graph builder does.
+ * Linking modifies the graph, so each measurement links a freshly built graph once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LinkingBenchmark {
+
+    private Graph graph;
+
+    @Setup(Level.Iteration)
+    public void setup () throws Exception {
+        graph = BenchmarkGraphs.columbusWithUnlinkedStops();
+    }
+
+    @Benchmark
+    public Graph link () {
+        new SimpleStreetSplitter(graph).link();
+        return graph;
+    }
+
+}
@@ -0,0 +1,350 @@
+package org.opentripplanner.benchmark;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.csvreader.CsvReader;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.error.PathNotFoundException;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.impl.MemoryGraphSource;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.standalone.CommandLineParameters;
+import org.opentripplanner.standalone.GrizzlyServer;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays a file of trip planning queries against a graph with a fixed number of concurrent clients, and reports the
+ * throughput, the latency percentiles, the number of vertices visited per request and the garbage collection pauses
+ * for each number of clients. Queries are planned either in-process through GraphPathFinder, or over HTTP through
+ * PlannerResource on a Grizzly server started in the same JVM with the same configuration as the real one.
+ *
+ * The query file is a CSV file with the columns fromLat, fromLon, toLat, toLon and time (an ISO local date and time,
+ * e.g. 2015-09-17T08:00, in the time zone of the graph), and optionally mode (e.g. WALK,TRANSIT) and arriveBy.
+ * It is run in its own JVM from the benchmark profile, e.g.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test
+ *     -Dexec.args="-Xmx4G -classpath %classpath org.opentripplanner.benchmark.PlannerLoadTest
+ *     --graph /var/otp/graphs/portland/Graph.obj --queries queries.csv --clients 1,4,16 --http"
+ */
+public class PlannerLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlannerLoadTest.class);
+
+    @Parameter(names = {"--graph"}, required = true, description = "Graph.obj file to load.")
+    public File graphFile;
+
+    @Parameter(names = {"--queries"}, required = true, description = "CSV file of queries to replay.")
+    public File queryFile;
+
+    @Parameter(names = {"--clients"}, description = "Numbers of concurrent clients to test, in turn.")
+    public List<Integer> clients = Arrays.asList(1, 2, 4, 8);
+
+    @Parameter(names = {"--requests"}, description = "Requests per number of clients (default: each query once).")
+    public int requests = 0;
+
+    @Parameter(names = {"--warmup"}, description = "Requests made before each measurement.")
+    public int warmup = 100;
+
+    @Parameter(names = {"--http"}, description = "Plan through PlannerResource on a local Grizzly server.")
+    public boolean http = false;
+
+    @Parameter(names = {"--help"}, help = true, description = "Print this help message.")
+    public boolean help = false;
+
+    private List<Query> queries;
+
+    private Router router;
+
+    /** The plan endpoint of the local server when testing over HTTP. */
+    private String planUrl;
+
+    /** The durations in milliseconds of the garbage collections during a measurement. */
+    private final TLongList gcPauses = new TLongArrayList();
+
+    private volatile boolean recordingGc = false;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main (String[] args) throws Exception {
+        PlannerLoadTest test = new PlannerLoadTest();
+        JCommander jc = new JCommander(test, args);
+        if (test.help) {
+            jc.usage();
+            return;
+        }
+        test.run();
+        // the Grizzly server threads are not daemons
+        System.exit(0);
+    }
+
+    /** One trip planning query read from the query file. */
+    static class Query {
+        double fromLat, fromLon, toLat, toLon;
+        LocalDateTime time;
+        String modes = "WALK,TRANSIT";
+        boolean arriveBy = false;
+    }
+
+    /** The outcome of a set of requests with one number of clients. */
+    private static class Measurement {
+        final TLongList latencies = new TLongArrayList();
+        long visitedVertices;
+        int noPath;
+        int errors;
+
+        synchronized void add (long latencyMicros, Result result) {
+            latencies.add(latencyMicros);
+            if (result == null) {
+                errors++;
+            } else {
+                visitedVertices += result.visitedVertices;
+                if (!result.pathFound) noPath++;
+            }
+        }
+    }
+
+    private static class Result {
+        final boolean pathFound;
+        final long visitedVertices;
+
+        Result (boolean pathFound, long visitedVertices) {
+            this.pathFound = pathFound;
+            this.visitedVertices = visitedVertices;
+        }
+    }
+
+    public void run () throws Exception {
+        queries = readQueries(queryFile);
+        LOG.info("Read {} queries from {}.", queries.size(), queryFile);
+        Graph graph = Graph.load(graphFile, Graph.LoadLevel.FULL);
+        GraphService graphService = new GraphService();
+        graphService.registerGraph("", new MemoryGraphSource("", graph));
+        router = graphService.getRouter();
+        Thread serverThread = null;
+        if (http) {
+            serverThread = startServer(graphService);
+        }
+        listenForGc();
+        int nRequests = requests > 0 ? requests : queries.size();
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%7s %8s %6s %6s %8s %8s %8s %8s %8s %8s %10s %6s %8s %8s", "clients", "requests",
+                "noPath", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms", "visited/req",
+                "GCs", "GC p99", "GC max"));
+        for (int nClients : clients) {
+            measure(nClients, warmup);
+            synchronized (gcPauses) {
+                gcPauses.clear();
+            }
+            recordingGc = true;
+            long start = System.nanoTime();
+            Measurement m = measure(nClients, nRequests);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            recordingGc = false;
+            long[] latencies = m.latencies.toArray();
+            Arrays.sort(latencies);
+            long[] pauses;
+            synchronized (gcPauses) {
+                pauses = gcPauses.toArray();
+            }
+            Arrays.sort(pauses);
+            report.add(String.format("%7d %8d %6d %6d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f %10d %6d %8d %8d",
+                    nClients, latencies.length, m.noPath, m.errors, latencies.length / seconds,
+                    percentile(latencies, 50) / 1000.0, percentile(latencies, 95) / 1000.0,
+                    percentile(latencies, 99) / 1000.0, percentile(latencies, 99.9) / 1000.0,
+                    percentile(latencies, 100) / 1000.0, m.visitedVertices / Math.max(1, latencies.length - m.errors),
+                    pauses.length, percentile(pauses, 99), percentile(pauses, 100)));
+            LOG.info(report.get(report.size() - 1));
+        }
+        LOG.info("Results planning {}:", http ? "over HTTP" : "in-process");
+        for (String line : report) {
+            LOG.info(line);
+        }
+        if (serverThread != null) {
+            serverThread.interrupt();
+        }
+    }
+
+    /** Make the given number of requests, cycling through the queries, with the given number of clients. */
+    private Measurement measure (int nClients, int nRequests) throws Exception {
+        Measurement measurement = new Measurement();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(nClients);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < nClients; c++) {
+            futures.add(executor.submit(() -> {
+                for (int i = next.getAndIncrement(); i < nRequests; i = next.getAndIncrement()) {
+                    Query query = queries.get(i % queries.size());
+                    long start = System.nanoTime();
+                    Result result;
+                    try {
+                        result = http ? planOverHttp(query) : plan(query);
+                    } catch (Exception e) {
+                        LOG.warn("Request {} failed: {}", i, e.toString());
+                        result = null;
+                    }
+                    measurement.add((System.nanoTime() - start) / 1000, result);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        return measurement;
+    }
+
+    private Result plan (Query query) {
+        RoutingRequest request = new RoutingRequest(new TraverseModeSet(query.modes));
+        request.from = new GenericLocation(query.fromLat, query.fromLon);
+        request.to = new GenericLocation(query.toLat, query.toLon);
+        request.dateTime = query.time.atZone(router.graph.getTimeZone().toZoneId()).toEpochSecond();
+        request.setArriveBy(query.arriveBy);
+        request.setRoutingContext(router.graph);
+        try {
+            new GraphPathFinder(router).graphPathFinderEntryPoint(request);
+            return new Result(true, request.rctx.debugOutput.visitedVertices);
+        } catch (PathNotFoundException e) {
+            return new Result(false, request.rctx.debugOutput.visitedVertices);
+        } finally {
+            request.cleanup();
+        }
+    }
+
+    private Result planOverHttp (Query query) throws IOException {
+        String url = planUrl + "?fromPlace=" + query.fromLat + "," + query.fromLon +
+                "&toPlace=" + query.toLat + "," + query.toLon +
+                "&date=" + query.time.toLocalDate() + "&time=" + query.time.toLocalTime() +
+                "&mode=" + URLEncoder.encode(query.modes, "UTF-8") + "&arriveBy=" + query.arriveBy;
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Accept", "application/json");
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            connection.getErrorStream().close();
+            throw new IOException("HTTP status " + status);
+        }
+        JsonNode response;
+        try (InputStream in = connection.getInputStream()) {
+            response = mapper.readTree(in);
+        }
+        return new Result(!response.has("error"), response.path("debugOutput").path("visitedVertices").asLong());
+    }
+
+    /** Start a Grizzly server on free local ports in a background thread, and wait until it accepts connections. */
+    private Thread startServer (GraphService graphService) throws Exception {
+        CommandLineParameters params = new CommandLineParameters();
+        params.bindAddress = "127.0.0.1";
+        params.port = freePort();
+        params.securePort = freePort();
+        params.basePath = graphFile.getAbsoluteFile().getParent();
+        params.infer();
+        GrizzlyServer server = new GrizzlyServer(params, new OTPServer(params, graphService));
+        Thread thread = new Thread(server::run, "grizzly");
+        thread.start();
+        for (int attempt = 0; ; attempt++) {
+            try (Socket socket = new Socket(params.bindAddress, params.port)) {
+                break;
+            } catch (IOException e) {
+                if (attempt == 100) throw e;
+                Thread.sleep(100);
+            }
+        }
+        planUrl = "http://" + params.bindAddress + ":" + params.port + "/otp/routers/default/plan";
+        LOG.info("Planning through {}", planUrl);
+        return thread;
+    }
+
+    private static int freePort () throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Record the duration of each garbage collection while measuring. For concurrent collectors the duration of an
+     * old generation cycle includes its concurrent phases, so it overstates the pause.
+     */
+    private void listenForGc () {
+        NotificationListener listener = (Notification notification, Object handback) -> {
+            if (!recordingGc ||
+                !notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            synchronized (gcPauses) {
+                gcPauses.add(info.getGcInfo().getDuration());
+            }
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+        }
+    }
+
+    /** @return the smallest value that is at least the given percentage of the sorted values, or 0 if there are none. */
+    static long percentile (long[] sorted, double percent) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    static List<Query> readQueries (File file) throws IOException {
+        List<Query> queries = new ArrayList<>();
+        CsvReader reader = new CsvReader(file.getPath(), ',', Charset.forName("UTF8"));
+        try {
+            reader.readHeaders();
+            while (reader.readRecord()) {
+                Query query = new Query();
+                query.fromLat = Double.parseDouble(reader.get("fromLat"));
+                query.fromLon = Double.parseDouble(reader.get("fromLon"));
+                query.toLat = Double.parseDouble(reader.get("toLat"));
+                query.toLon = Double.parseDouble(reader.get("toLon"));
+                query.time = LocalDateTime.parse(reader.get("time"));
+                if (!reader.get("mode").isEmpty()) query.modes = reader.get("mode");
+                query.arriveBy = Boolean.parseBoolean(reader.get("arriveBy"));
+                queries.add(query);
+            }
+        } finally {
+            reader.close();
+        }
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("No queries in " + file);
+        }
+        return queries;
+    }
+
+}
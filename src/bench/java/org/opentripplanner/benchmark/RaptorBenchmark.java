@@ -0,0 +1,83 @@
+package org.opentripplanner.benchmark;
+
+import gnu.trove.map.TIntIntMap;
+import org.joda.time.LocalDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.profile.PropagatedTimesStore;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorker;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RaptorWorker on the Columbus graph, both a single scheduled search (the rounds of doOneRound alone) and the full
+ * two-hour departure window with propagation to the street vertices that analyst requests perform.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RaptorBenchmark {
+
+    private Graph graph;
+
+    private ProfileRequest request;
+
+    private RaptorWorkerData data;
+
+    private TIntIntMap accessTimes;
+
+    private int[] nonTransitTimes;
+
+    @Setup
+    public void setup () throws Exception {
+        graph = BenchmarkGraphs.columbus();
+        request = new ProfileRequest();
+        request.fromLat = request.toLat = BenchmarkGraphs.COLUMBUS_FROM_LAT;
+        request.fromLon = request.toLon = BenchmarkGraphs.COLUMBUS_FROM_LON;
+        request.date = new LocalDate(2015, 9, 17);
+        request.walkSpeed = 1.3f;
+        request.fromTime = 7 * 3600;
+        request.toTime = 9 * 3600;
+        request.maxWalkTime = 20;
+        request.transitModes = new TraverseModeSet("TRANSIT");
+        request.accessModes = request.egressModes = request.directModes = new QualifiedModeSet("WALK");
+
+        data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, null, new TaskStatistics());
+        accessTimes = new RepeatedRaptorProfileRouter(graph, request).findInitialStops(false, data);
+        nonTransitTimes = new int[Vertex.getMaxIndex()];
+        Arrays.fill(nonTransitTimes, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public RaptorWorker scheduledSearch () {
+        RaptorWorker worker = new RaptorWorker(data, request);
+        worker.runRaptorScheduled(accessTimes, 8 * 3600);
+        return worker;
+    }
+
+    @Benchmark
+    public PropagatedTimesStore departureWindow () {
+        return new RaptorWorker(data, request).runRaptor(graph, accessTimes, nonTransitTimes, new TaskStatistics());
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traversal of individual street edges, the innermost operation of every walk, bike and car search. Each invocation
+ * traverses every outgoing street edge of a fixed random sample of intersections in the Columbus graph.
+ *
+ * StreetEdge builds the states it makes directly with State.makeStreetChild rather than through a StateEditor. To
+ * compare the cost of the two designs, the makeStreetChild and makeStateWithEditor benchmarks make the same states,
+ * with the changes found by traversing the edges beforehand, each way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StreetEdgeBenchmark {
+
+    private static final int SAMPLE_SIZE = 1000;
+
+    private List<org.opentripplanner.routing.core.State> states = new ArrayList<>();
+
+    private List<StreetEdge> edges = new ArrayList<>();
+
+    /** The states made by traversing the edges from the states, for those edges that can be traversed. */
+    private List<org.opentripplanner.routing.core.State> children = new ArrayList<>();
+
+    @Setup
+    public void setup () throws Exception {
+        Graph graph = BenchmarkGraphs.columbus();
+        List<Vertex> intersections = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof IntersectionVertex) intersections.add(v);
+        }
+        // Sort before shuffling so the sample does not depend on the iteration order of the graph's vertex map.
+        intersections.sort((v1, v2) -> v1.getLabel().compareTo(v2.getLabel()));
+        Collections.shuffle(intersections, new Random(42));
+        List<Vertex> sample = intersections.subList(0, Math.min(SAMPLE_SIZE, intersections.size()));
+
+        RoutingRequest request = new RoutingRequest(TraverseMode.WALK);
+        request.setRoutingContext(graph, sample.get(0), sample.get(sample.size() - 1));
+        for (Vertex v : sample) {
+            org.opentripplanner.routing.core.State state = new org.opentripplanner.routing.core.State(v, request);
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof StreetEdge) {
+                    states.add(state);
+                    edges.add((StreetEdge) e);
+                    children.add(e.traverse(state));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void traverse (Blackhole blackhole) {
+        for (int i = 0; i < edges.size(); i++) {
+            blackhole.consume(edges.get(i).traverse(states.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void makeStreetChild (Blackhole blackhole) {
+        for (int i = 0; i < edges.size(); i++) {
+            org.opentripplanner.routing.core.State s0 = states.get(i);
+            org.opentripplanner.routing.core.State child = children.get(i);
+            if (child == null) continue;
+            blackhole.consume(s0.makeStreetChild(edges.get(i), child.getBackMode(), child.isBackWalkingBike(), false,
+                    false, (int) (child.getElapsedTimeSeconds() - s0.getElapsedTimeSeconds()), child.getWeight(),
+                    child.getWalkDistance(), child.getPreTransitTime()));
+        }
+    }
+
+    @Benchmark
+    public void makeStateWithEditor (Blackhole blackhole) {
+        for (int i = 0; i < edges.size(); i++) {
+            org.opentripplanner.routing.core.State s0 = states.get(i);
+            org.opentripplanner.routing.core.State child = children.get(i);
+            if (child == null) continue;
+            StateEditor editor = s0.edit(edges.get(i));
+            editor.setBackMode(child.getBackMode());
+            editor.setBackWalkingBike(child.isBackWalkingBike());
+            editor.incrementTimeInSeconds((int) (child.getElapsedTimeSeconds() - s0.getElapsedTimeSeconds()));
+            editor.incrementWeight(child.getWeight() - s0.getWeight());
+            editor.incrementWalkDistance(child.getWalkDistance() - s0.getWalkDistance());
+            editor.setPreTransitTime(child.getPreTransitTime());
+            blackhole.consume(editor.makeState());
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timetable.getNextTrip, which finds the trip to board or alight at each stop a transit search reaches. Each
+ * invocation boards and alights the busiest pattern in the Portland schedule at every one of its stops, at times spread
+ * over the whole service day.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TimetableBenchmark {
+
+    /** The interval between the times at which trips are searched for at each stop. */
+    private static final int STEP_SECONDS = 15 * 60;
+
+    private Timetable timetable;
+
+    private ServiceDay serviceDay;
+
+    private org.opentripplanner.routing.core.State[] states;
+
+    private int nStops;
+
+    @Setup
+    public void setup () {
+        Graph graph = BenchmarkGraphs.portland();
+        TripPattern pattern = graph.index.patternForId.values().stream()
+                .max(Comparator.comparingInt((TripPattern p) -> p.scheduledTimetable.tripTimes.size())
+                        .thenComparing(p -> p.code))
+                .get();
+        timetable = pattern.scheduledTimetable;
+        nStops = pattern.getStops().size();
+
+        Vertex first = graph.index.stopVertexForStop.get(pattern.getStops().get(0));
+        Vertex last = graph.index.stopVertexForStop.get(pattern.getStops().get(nStops - 1));
+        long midnight = LocalDateTime.of(2009, 11, 2, 0, 0).atZone(ZoneId.of("America/Los_Angeles")).toEpochSecond();
+        RoutingRequest request = new RoutingRequest();
+        request.dateTime = midnight + 12 * 3600;
+        request.setRoutingContext(graph, first, last);
+        for (ServiceDay sd : request.rctx.serviceDays) {
+            if (sd.secondsSinceMidnight(request.dateTime) == 12 * 3600) serviceDay = sd;
+        }
+        states = new org.opentripplanner.routing.core.State[24 * 3600 / STEP_SECONDS];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new org.opentripplanner.routing.core.State(first, midnight + i * STEP_SECONDS, request);
+        }
+    }
+
+    @Benchmark
+    public void getNextTrip (Blackhole blackhole) {
+        for (org.opentripplanner.routing.core.State state : states) {
+            for (int stop = 0; stop < nStops; stop++) {
+                blackhole.consume(timetable.getNextTrip(state, serviceDay, stop, true));
+                blackhole.consume(timetable.getNextTrip(state, serviceDay, stop, false));
+            }
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -32,11 +33,12 @@ import java.util.stream.IntStream;
  * had an effect on output.
  *
  * Usage:
- *  graph_directory [compare_file] [output_file]
+ *  [--range-raptor] graph_directory [compare_file] [output_file]
  *
  * Graph directory is the directory from which to build the graph. Compare file is the previously saved
  * file; if omitted it will not be used. Output file is the MapDB file in which
- * to save output. If left blank it defaults to the OTP commit hash.
+ * to save output. If left blank it defaults to the OTP commit hash. With --range-raptor, the searches use the
+ * round-based range-RAPTOR variant, so its output can be compared against that of the default search.
  *
  */
 public class RepeatedRaptorComparison {
@@ -46,6 +48,11 @@ public class RepeatedRaptorComparison {
     public static final double OFFSET_X = 1e-4, OFFSET_Y = 1e-4;
 
     public static void main (String... args) {
+        boolean rangeRaptor = args.length > 0 && "--range-raptor".equals(args[0]);
+        if (rangeRaptor) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
         if (args.length == 0) {
             System.err.println("too few arguments.");
             return;
@@ -129,6 +136,7 @@ public class RepeatedRaptorComparison {
         template.walkSpeed = 1.3f;
         template.fromTime = 7 * 3600;
         template.toTime = 9 * 3600;
+        template.rangeRaptor = rangeRaptor;
 
         template.date = new LocalDate(2015, 8, 4);
 
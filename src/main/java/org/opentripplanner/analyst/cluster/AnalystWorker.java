@@ -11,8 +11,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -34,7 +32,6 @@ import org.opentripplanner.api.model.JodaLocalDateSerializer;
 import org.opentripplanner.api.model.QualifiedModeSetSerializer;
 import org.opentripplanner.api.model.TraverseModeSetSerializer;
 import org.opentripplanner.common.MavenVersion;
-import org.opentripplanner.profile.RaptorWorkerData;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
@@ -113,10 +110,8 @@ public class AnalystWorker implements Runnable {
 
     static final HttpClient httpClient;
 
-    /** Cache RAPTOR data by Job ID */
-    private Cache<String, RaptorWorkerData> workerDataCache = CacheBuilder.newBuilder()
-            .maximumSize(200)
-            .build();
+    /** Cache RAPTOR data by graph, time window, scenario and destinations */
+    private RaptorWorkerDataCache workerDataCache;
 
     static {
         PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager();
@@ -225,6 +220,13 @@ public class AnalystWorker implements Runnable {
 
         objectMapper.registerModule(new GeoJsonModule());
 
+        // By default let the RAPTOR data use up to a quarter of the heap.
+        long raptorDataCacheMegabytes = Long.parseLong(config.getProperty("raptor-data-cache-mb",
+                Long.toString(Runtime.getRuntime().maxMemory() / 4 / 1024 / 1024)));
+        String raptorDataCacheDir = config.getProperty("raptor-data-cache-dir");
+        workerDataCache = new RaptorWorkerDataCache(raptorDataCacheMegabytes,
+                raptorDataCacheDir == null ? null : new File(raptorDataCacheDir), objectMapper);
+
         instanceType = getInstanceType();
     }
 
@@ -390,17 +392,15 @@ public class AnalystWorker implements Runnable {
                     new RepeatedRaptorProfileRouter(graph, clusterRequest.profileRequest, sampleSet);
             router.ts = ts;
 
-            // Produce RAPTOR data tables, going through a cache where relevant.
-            // This is only used for multi-point requests. Single-point requests are assumed to be continually
-            // changing, so we create throw-away RAPTOR tables for them.
+            // Produce RAPTOR data tables, going through a cache. The cache is keyed on everything the tables are built
+            // from, including the contents of the scenario, so single-point requests that are repeated or only move
+            // the origin reuse the tables as well.
             // Ideally we'd want this cacheing to happen transparently inside the RepeatedRaptorProfileRouter,
-            // but the RepeatedRaptorProfileRouter doesn't know the job ID or other information from the cluster request.
-            // It would be possible to just supply the cache _key_ as a way of saying that the cache should be used.
-            // But then we'd need to pass in both the cache and the key, which is weird.
-            if (transit && !singlePoint) {
+            // but the RepeatedRaptorProfileRouter doesn't know the graph ID or other information from the cluster request.
+            if (transit) {
                 long dataStart = System.currentTimeMillis();
-                router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> RepeatedRaptorProfileRouter
-                        .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts));
+                router.raptorWorkerData = workerDataCache.get(clusterRequest.graphId, graph,
+                        clusterRequest.profileRequest, clusterRequest.destinationPointsetId, sampleSet, ts);
                 ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
             } else {
                 // The worker will generate a one-time throw-away table.
@@ -619,6 +619,8 @@ public class AnalystWorker implements Runnable {
      * auto-shutdown                Should this worker shut down its machine if it is idle (e.g. on throwaway cloud instances)
      * statistics-queue             SQS queue to which to send statistics (optional)
      * initial-graph-id             The graph ID for this worker to start on
+     * raptor-data-cache-mb         Approximate memory for cached RAPTOR tables, default a quarter of the heap (optional)
+     * raptor-data-cache-dir        Local directory in which to save RAPTOR tables for reuse after a restart (optional)
      */
     public static void main(String[] args) {
         LOG.info("Starting analyst worker");
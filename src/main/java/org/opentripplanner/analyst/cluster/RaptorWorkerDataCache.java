@@ -0,0 +1,200 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RaptorWorkerTimetable;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches RaptorWorkerData between requests. The data depend only on the graph, the date and time window, the scenario,
+ * the destination pointset and a few request parameters, so requests that agree on all of those share one copy, even
+ * across jobs and for single-point requests. The key includes a hash of the scenario as JSON rather than the scenario
+ * ID, since scenarios are not immutable.
+ *
+ * The cache is bounded by the approximate size of the tables it holds. Optionally the tables are also saved to a local
+ * directory, so that a restarted worker can load them instead of building them again. Data for scenarios that add trip
+ * patterns are only kept in memory, because their temporary stops refer to the street graph.
+ *
+ * The tables refer to stops and targets by vertex index. Indexes are assigned in the order vertices are created or
+ * loaded, so the key includes a fingerprint of the index of every vertex: saved tables are only loaded by a worker
+ * whose graph assigned the same index to every vertex.
+ */
+public class RaptorWorkerDataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataCache.class);
+
+    private static final FSTConfiguration fstConfiguration = FSTConfiguration.createDefaultConfiguration();
+
+    private final Cache<String, RaptorWorkerData> cache;
+
+    /** The directory in which to save tables, or null if they should only be kept in memory. */
+    private final File directory;
+
+    private final ObjectMapper objectMapper;
+
+    /** The vertex index fingerprint of each graph, which is computed once per graph. */
+    private final Map<Graph, String> vertexIndexFingerprints = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param maximumMegabytes the approximate total size of the tables held in memory.
+     * @param directory the directory in which to save tables, or null to keep them in memory only.
+     * @param objectMapper used to hash scenarios.
+     */
+    public RaptorWorkerDataCache (long maximumMegabytes, File directory, ObjectMapper objectMapper) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumMegabytes * 1024 * 1024)
+                .weigher((String key, RaptorWorkerData data) -> (int) Math.min(Integer.MAX_VALUE, estimateSize(data)))
+                .build();
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        if (directory != null) {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * Get the RaptorWorkerData for the given request, building it if it is neither in memory nor on disk.
+     * @param pointSetId the ID of the destination pointset of the sample set, or null if there is none.
+     */
+    public RaptorWorkerData get (String graphId, Graph graph, ProfileRequest request, String pointSetId,
+            SampleSet sampleSet, TaskStatistics ts) {
+        String key = key(graphId, graph, request, pointSetId);
+        if (key == null) {
+            return RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, ts);
+        }
+        try {
+            return cache.get(key, () -> {
+                RaptorWorkerData data = load(key);
+                if (data == null) {
+                    data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, ts);
+                    save(key, data);
+                }
+                return data;
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the cache key for the given request, or null if the request cannot be cached. Every request parameter
+     * that is used in building RaptorWorkerData must be part of the key.
+     */
+    private String key (String graphId, Graph graph, ProfileRequest request, String pointSetId) {
+        String scenario;
+        try {
+            scenario = request.scenario == null ? "" : objectMapper.writeValueAsString(request.scenario);
+        } catch (JsonProcessingException e) {
+            LOG.warn("Could not hash scenario, not caching RAPTOR data", e);
+            return null;
+        }
+        String key = String.join("\n", MavenVersion.VERSION.commit, graphId,
+                vertexIndexFingerprints.computeIfAbsent(graph, RaptorWorkerDataCache::vertexIndexFingerprint),
+                Integer.toString(graph.index.patternForId.size()),
+                String.valueOf(request.date), Integer.toString(request.fromTime), Integer.toString(request.toTime),
+                String.valueOf(request.boardingAssumption), Float.toString(request.walkSpeed),
+                Integer.toString(request.maxWalkTime), String.valueOf(pointSetId), scenario);
+        return Hashing.sha1().hashString(key, StandardCharsets.UTF_8).toString();
+    }
+
+    /** @return a hash of the index and label of every vertex in the graph. */
+    static String vertexIndexFingerprint (Graph graph) {
+        Vertex[] vertices = graph.getVertices().toArray(new Vertex[0]);
+        Arrays.sort(vertices, Comparator.comparingInt(Vertex::getIndex));
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (Vertex vertex : vertices) {
+            hasher.putInt(vertex.getIndex()).putString(vertex.getLabel(), StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    private RaptorWorkerData load (String key) {
+        if (directory == null) return null;
+        File file = new File(directory, key + ".dat");
+        if (!file.exists()) return null;
+        long start = System.currentTimeMillis();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            FSTObjectInput fst = new FSTObjectInput(in, fstConfiguration);
+            RaptorWorkerData data = (RaptorWorkerData) fst.readObject();
+            LOG.info("Loaded RAPTOR data from {} in {} msec", file, System.currentTimeMillis() - start);
+            return data;
+        } catch (Exception e) {
+            LOG.warn("Could not load RAPTOR data from {}, rebuilding it", file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void save (String key, RaptorWorkerData data) {
+        if (directory == null || !data.addedStops.isEmpty()) return;
+        File file = new File(directory, key + ".dat");
+        File tempFile = new File(directory, key + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                FSTObjectOutput fst = new FSTObjectOutput(out, fstConfiguration);
+                fst.writeObject(data);
+                fst.flush();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            LOG.warn("Could not save RAPTOR data to {}", file, e);
+            tempFile.delete();
+        }
+    }
+
+    /** @return the approximate size of the arrays in the given data, in bytes. */
+    static long estimateSize (RaptorWorkerData data) {
+        long ints = sizeOf(data.transfersForStop) + sizeOf(data.patternsForStop) + sizeOf(data.targetsForStop);
+        for (RaptorWorkerTimetable timetable : data.timetablesForPattern) {
+            if (timetable.timesPerTrip != null) {
+                for (int[] times : timetable.timesPerTrip) {
+                    if (times != null) ints += times.length;
+                }
+            }
+            if (timetable.stopIndices != null) ints += timetable.stopIndices.length;
+        }
+        return ints * 4;
+    }
+
+    private static long sizeOf (List<int[]> arrays) {
+        long ints = 0;
+        for (int[] array : arrays) {
+            if (array != null) ints += array.length;
+        }
+        return ints;
+    }
+
+}
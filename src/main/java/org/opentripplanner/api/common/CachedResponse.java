@@ -0,0 +1,24 @@
+package org.opentripplanner.api.common;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a web resource method whose successful responses depend only on the request and on the data of the router
+ * named by its routerId path parameter, so they can be cached and revalidated with ETags by the ResponseCacheFilter.
+ * Methods whose responses depend on the current time of day must not be annotated. A response can still be kept out of
+ * the cache by giving it a no-store Cache-Control header.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CachedResponse {
+
+    /**
+     * Whether the response includes realtime data, in which case it is only valid as long as the TimetableSnapshot
+     * and the current service date have not changed.
+     */
+    boolean realtime() default false;
+
+}
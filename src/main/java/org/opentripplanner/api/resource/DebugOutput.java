@@ -50,6 +50,23 @@ public class DebugOutput {
     public long totalTime;
     public boolean timedOut;
 
+    /* Time spent initializing heuristics, and time spent in the searches themselves, in milliseconds. */
+    public long heuristicTime;
+    public long searchTime;
+
+    /* Counters summed over all the searches performed for this request. */
+    public int searches;
+    /** The number of vertices visited. */
+    public long visitedVertices;
+    /** The number of states produced by traversing edges. */
+    public long createdStates;
+    /** The number of states put in the queue. */
+    public long enqueuedStates;
+    /** The number of queued states that had been dominated by the time they were taken from the queue. */
+    public long stalePops;
+    /** The number of states not enqueued because of the heuristic or the weight and time limits. */
+    public long prunedStates;
+
     /**
      * Record the time when we first began calculating a path for this request
      * (before any heuristic pre-calculation). Note that timings will not
@@ -67,10 +84,25 @@ public class DebugOutput {
     }
 
     /** Record the time when a path was found. */
-    public void foundPath() {
+    public synchronized void foundPath() {
         foundPaths.add(System.currentTimeMillis());
     }
 
+    /** Record the time taken to initialize the heuristic of one search. */
+    public synchronized void initializedHeuristic(long msec) {
+        heuristicTime += msec;
+    }
+
+    /** Record the counters of one search. Searches for alternative paths may run concurrently. */
+    public synchronized void finishedSearch(int visited, int created, int enqueued, int stale, int pruned) {
+        searches += 1;
+        visitedVertices += visited;
+        createdStates += created;
+        enqueuedStates += enqueued;
+        stalePops += stale;
+        prunedStates += pruned;
+    }
+
     /** Record the time when we finished calculating paths for this request. */
     public void finishedCalculating() {
         finishedCalculating = System.currentTimeMillis();
@@ -82,6 +114,11 @@ public class DebugOutput {
         computeSummary();
     }
 
+    /** @return whether all the phases of the request were completed and the elapsed times calculated. */
+    boolean isComplete() {
+        return finishedRendering != 0;
+    }
+
     /** Summarize and calculate elapsed times. */
     private void computeSummary() {
         precalculationTime = finishedPrecalculating - startedCalculating;
@@ -92,6 +129,7 @@ public class DebugOutput {
             last_t = t;
         }
         LOG.debug("times to find each path: {}", pathTimes);
+        searchTime = Math.max(0, finishedCalculating - startedCalculating - heuristicTime);
         renderingTime = finishedRendering - finishedCalculating;
         totalTime = finishedRendering - startedCalculating;
     }
@@ -22,6 +22,7 @@ import org.opentripplanner.api.model.TripPlan;
 import org.opentripplanner.api.model.TripTimesResponse;
 import org.opentripplanner.api.model.error.PlannerError;
 import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.edgetype.Timetable;
 import org.opentripplanner.routing.edgetype.TripPattern;
@@ -36,6 +37,8 @@ import org.slf4j.LoggerFactory;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriInfo;
@@ -66,9 +69,21 @@ public class PlannerResource extends RoutingResource {
     // We inject info about the incoming request so we can include the incoming query
     // parameters in the outgoing response. This is a TriMet requirement.
     // Jersey uses @Context to inject internal types and @InjectParam or @Resource for DI objects.
+    // The planning itself runs on a routing thread, which resumes the suspended response when it is done.
     @GET
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML + Q, MediaType.TEXT_XML + Q })
-    public Response plan(@Context UriInfo uriInfo, @Context Request grizzlyRequest) {
+    public void plan(@Context UriInfo uriInfo, @Context Request grizzlyRequest,
+                     @Suspended AsyncResponse asyncResponse) {
+
+        // Create response object, containing a copy of all request parameters. Maybe they should be in the debug section of the response.
+        // The injected request information is only available on the HTTP thread, so it is copied here.
+        Response response = new Response(uriInfo);
+        String clientIpAddress = grizzlyRequest.getRemoteAddr();
+        otpServer.routingExecutor.execute("plan", grizzlyRequest, asyncResponse,
+                cancellationToken -> plan(response, clientIpAddress, cancellationToken));
+    }
+
+    private Response plan(Response response, String clientIpAddress, CancellationToken cancellationToken) {
 
         /*
          * TODO: add Lang / Locale parameter, and thus get localized content (Messages & more...)
@@ -78,8 +93,6 @@ public class PlannerResource extends RoutingResource {
          *       out so it's used here too...
          */
 
-        // Create response object, containing a copy of all request parameters. Maybe they should be in the debug section of the response.
-        Response response = new Response(uriInfo);
         RoutingRequest request = null;
         Router router = null;
         List<GraphPath> paths = null;
@@ -87,10 +100,11 @@ public class PlannerResource extends RoutingResource {
 
             /* Fill in request fields from query parameters via shared superclass method, catching any errors. */
             request = super.buildRequest();
+            request.cancellationToken = cancellationToken;
             router = otpServer.getRouter(request.routerId);
 
             /* Find some good GraphPaths through the OTP Graph. */
-            GraphPathFinder gpFinder = new GraphPathFinder(router); // we could also get a persistent router-scoped GraphPathFinder but there's no setup cost here
+            GraphPathFinder gpFinder = new GraphPathFinder(router, otpServer.routingExecutor); // we could also get a persistent router-scoped GraphPathFinder but there's no setup cost here
             paths = gpFinder.graphPathFinderEntryPoint(request);
 
             /* Convert the internal GraphPaths to a TripPlan object that is included in an OTP web service Response. */
@@ -110,6 +124,9 @@ public class PlannerResource extends RoutingResource {
             if (request != null) {
                 if (request.rctx != null) {
                     response.debugOutput = request.rctx.debugOutput;
+                    if (router != null) {
+                        router.searchMetrics.record(request.rctx.debugOutput);
+                    }
                 }
                 request.cleanup(); // TODO verify that this cleanup step is being done on Analyst web services
             }
@@ -117,7 +134,6 @@ public class PlannerResource extends RoutingResource {
         /* Log this request if such logging is enabled. */
         if (request != null && router != null && router.requestLogger != null) {
             StringBuilder sb = new StringBuilder();
-            String clientIpAddress = grizzlyRequest.getRemoteAddr();
             //sb.append(LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
             sb.append(clientIpAddress);
             sb.append(' ');
@@ -1,6 +1,7 @@
 package org.opentripplanner.api.resource;
 
 import com.beust.jcommander.internal.Maps;
+import org.glassfish.grizzly.http.server.Request;
 import org.opentripplanner.analyst.SurfaceCache;
 import org.opentripplanner.analyst.TimeSurface;
 import org.opentripplanner.api.param.HourMinuteSecond;
@@ -13,10 +14,12 @@ import org.opentripplanner.profile.ProfileRequest;
 import org.opentripplanner.profile.ProfileResponse;
 import org.opentripplanner.profile.ProfileRouter;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.standalone.OTPServer;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.standalone.RoutingExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +29,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -42,16 +47,19 @@ public class ProfileResource {
     private static final Logger LOG = LoggerFactory.getLogger(ProfileResource.class);
     private Graph graph;
     private SurfaceCache surfaceCache;
+    private RoutingExecutor routingExecutor;
 
     public ProfileResource (@Context OTPServer otpServer, @PathParam("routerId") String routerId) {
         Router router = otpServer.getRouter(routerId);
         graph = router.graph;
         surfaceCache = otpServer.surfaceCache;
+        routingExecutor = otpServer.routingExecutor;
     }
 
+    /** The parameters are checked on the HTTP thread, and the routing itself runs on a routing thread. */
     @GET
     @Produces({ MediaType.APPLICATION_JSON })
-    public Response profileRoute (
+    public void profileRoute (
             @QueryParam("from")  LatLon from,
             @QueryParam("to")    LatLon to,
             @QueryParam("analyst")      @DefaultValue("false") boolean analyst,
@@ -77,7 +85,9 @@ public class ProfileResource {
             @QueryParam("egressModes")  @DefaultValue("WALK")         QualifiedModeSet egressModes,
             @QueryParam("directModes")  @DefaultValue("WALK,BICYCLE") QualifiedModeSet directModes,
             @QueryParam("transitModes") @DefaultValue("TRANSIT")      TraverseModeSet transitModes,
-            @QueryParam("banAgency") String banAgency)
+            @QueryParam("banAgency") String banAgency,
+            @Context Request grizzlyRequest,
+            @Suspended AsyncResponse asyncResponse)
             throws Exception {
 
         QueryParameter.checkRangeInclusive(limit, 0, Integer.MAX_VALUE);
@@ -127,6 +137,12 @@ public class ProfileResource {
         req.bikeTime     = bikeTime;
         req.suboptimalMinutes = suboptimalMinutes;
 
+        routingExecutor.execute("profile", grizzlyRequest, asyncResponse,
+                cancellationToken -> route(req, banAgency, cancellationToken));
+    }
+
+    private Response route (ProfileRequest req, String banAgency, CancellationToken cancellationToken)
+            throws Exception {
         if (req.analyst) {
             if (surfaceCache == null) {
                 LOG.error ("You must run OTP with the --analyst option to enable spatial analysis features.");
@@ -145,6 +161,7 @@ public class ProfileResource {
             return Response.status(Status.OK).entity(idForSurface).build();
         } else {
             ProfileRouter router = new ProfileRouter(graph, req);
+            router.cancellationToken = cancellationToken;
             try {
                 ProfileResponse response = router.route();
                 return Response.status(Status.OK).entity(response).build();
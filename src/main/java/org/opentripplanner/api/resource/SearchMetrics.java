@@ -0,0 +1,196 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.resource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregates the DebugOutput of every trip planning request made to a router into histograms of the time spent in each
+ * phase of the request and of the search counters, so they can be monitored in production without debug logging.
+ * Recording only increments a few atomic counters, so it is cheap enough to do on every request.
+ */
+public class SearchMetrics {
+
+    /** Upper bounds of the histogram buckets for times in milliseconds. */
+    private static final long[] TIME_BUCKETS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000};
+
+    /** Upper bounds of the histogram buckets for numbers of vertices or states. */
+    private static final long[] COUNT_BUCKETS =
+            {100, 1000, 10000, 30000, 100000, 300000, 1000000, 3000000, 10000000};
+
+    public final AtomicLong requests = new AtomicLong();
+
+    /** Requests that failed before their searches were completed, e.g. because an endpoint could not be found. */
+    public final AtomicLong failed = new AtomicLong();
+
+    /** Requests in which at least one search timed out. */
+    public final AtomicLong timedOut = new AtomicLong();
+
+    /** Times in milliseconds, by phase. */
+    final Map<String, Histogram> phases = new LinkedHashMap<>();
+
+    /** Search counters, by name. */
+    final Map<String, Histogram> counters = new LinkedHashMap<>();
+
+    public SearchMetrics() {
+        for (String phase : new String[] {"heuristic", "search", "rendering", "total"}) {
+            phases.put(phase, new Histogram(TIME_BUCKETS));
+        }
+        for (String counter : new String[] {"visited", "created", "enqueued", "stale", "pruned"}) {
+            counters.put(counter, new Histogram(COUNT_BUCKETS));
+        }
+    }
+
+    /** Record the outcome of one trip planning request. */
+    public void record(DebugOutput debugOutput) {
+        requests.incrementAndGet();
+        if (!debugOutput.isComplete()) {
+            failed.incrementAndGet();
+            return;
+        }
+        if (debugOutput.timedOut) {
+            timedOut.incrementAndGet();
+        }
+        phases.get("heuristic").add(debugOutput.heuristicTime);
+        phases.get("search").add(debugOutput.searchTime);
+        phases.get("rendering").add(debugOutput.renderingTime);
+        phases.get("total").add(debugOutput.totalTime);
+        counters.get("visited").add(debugOutput.visitedVertices);
+        counters.get("created").add(debugOutput.createdStates);
+        counters.get("enqueued").add(debugOutput.enqueuedStates);
+        counters.get("stale").add(debugOutput.stalePops);
+        counters.get("pruned").add(debugOutput.prunedStates);
+    }
+
+    /** @return a summary of all the metrics, with approximate percentiles, to be serialized as JSON. */
+    public Map<String, Object> summarize() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", requests.get());
+        summary.put("failed", failed.get());
+        summary.put("timedOut", timedOut.get());
+        Map<String, Object> phaseSummary = new LinkedHashMap<>();
+        for (Map.Entry<String, Histogram> entry : phases.entrySet()) {
+            phaseSummary.put(entry.getKey(), entry.getValue().summarize());
+        }
+        summary.put("phaseMilliseconds", phaseSummary);
+        Map<String, Object> counterSummary = new LinkedHashMap<>();
+        for (Map.Entry<String, Histogram> entry : counters.entrySet()) {
+            counterSummary.put(entry.getKey(), entry.getValue().summarize());
+        }
+        summary.put("searchCounters", counterSummary);
+        return summary;
+    }
+
+    /**
+     * Write all the metrics in the Prometheus text exposition format, labeled with the given router ID. Times are
+     * converted to seconds as Prometheus expects.
+     */
+    public void writePrometheus(StringBuilder sb, String routerId) {
+        String router = "router=\"" + routerId + "\"";
+        writeCounter(sb, "otp_plan_requests_total", "Trip planning requests.", router, requests.get());
+        writeCounter(sb, "otp_plan_failed_total", "Trip planning requests that failed before searching.", router,
+                failed.get());
+        writeCounter(sb, "otp_plan_timed_out_total", "Trip planning requests in which a search timed out.", router,
+                timedOut.get());
+        sb.append("# HELP otp_plan_phase_seconds Time spent in each phase of trip planning requests.\n");
+        sb.append("# TYPE otp_plan_phase_seconds histogram\n");
+        for (Map.Entry<String, Histogram> entry : phases.entrySet()) {
+            entry.getValue().writePrometheus(sb, "otp_plan_phase_seconds",
+                    router + ",phase=\"" + entry.getKey() + "\"", 1000);
+        }
+        sb.append("# HELP otp_plan_search_states Vertices and states counted over the searches of each request.\n");
+        sb.append("# TYPE otp_plan_search_states histogram\n");
+        for (Map.Entry<String, Histogram> entry : counters.entrySet()) {
+            entry.getValue().writePrometheus(sb, "otp_plan_search_states",
+                    router + ",counter=\"" + entry.getKey() + "\"", 1);
+        }
+    }
+
+    static void writeCounter(StringBuilder sb, String name, String help, String labels, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /** A histogram with fixed bucket bounds that can be updated concurrently without locking. */
+    static class Histogram {
+
+        /** The inclusive upper bound of each bucket but the last, which holds all larger values. */
+        private final long[] bounds;
+
+        private final AtomicLongArray buckets;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong sum = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void add(long value) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) bucket++;
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        /** @return the upper bound of the bucket containing the given percentile, or the maximum if it is smaller. */
+        long percentile(double percent) {
+            long n = count.get();
+            long rank = (long) Math.ceil(percent / 100 * n);
+            long seen = 0;
+            for (int b = 0; b < bounds.length; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) return Math.min(bounds[b], max.get());
+            }
+            return max.get();
+        }
+
+        Map<String, Object> summarize() {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            long n = count.get();
+            summary.put("count", n);
+            summary.put("mean", n == 0 ? 0 : sum.get() / n);
+            summary.put("p50", percentile(50));
+            summary.put("p95", percentile(95));
+            summary.put("p99", percentile(99));
+            summary.put("max", max.get());
+            return summary;
+        }
+
+        /** Write the cumulative buckets, dividing values by the given scale. */
+        void writePrometheus(StringBuilder sb, String name, String labels, double scale) {
+            long cumulative = 0;
+            for (int b = 0; b <= bounds.length; b++) {
+                cumulative += buckets.get(b);
+                String le = b < bounds.length ? Double.toString(bounds[b] / scale) : "+Inf";
+                sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(le).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            sb.append(name).append("_sum{").append(labels).append("} ").append(sum.get() / scale).append('\n');
+            sb.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.opentripplanner.api.resource;
+
+import com.google.common.cache.CacheStats;
+import org.opentripplanner.routing.algorithm.strategies.TargetStreetSearchCache;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Report the search metrics collected from the trip planning requests made to a router since it started, as JSON or in
+ * the Prometheus text format.
+ */
+@Path("/routers/{routerId}/metrics")
+public class SearchMetricsResource {
+
+    Router router;
+
+    public SearchMetricsResource (@Context OTPServer otpServer, @PathParam("routerId") String routerId) {
+        router = otpServer.getRouter(routerId);
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getMetrics () {
+        Map<String, Object> metrics = router.searchMetrics.summarize();
+        TargetStreetSearchCache cache = router.targetStreetSearchCache;
+        if (cache != null) {
+            CacheStats stats = cache.getStats();
+            Map<String, Object> cacheMetrics = new LinkedHashMap<>();
+            cacheMetrics.put("size", cache.size());
+            cacheMetrics.put("hits", stats.hitCount());
+            cacheMetrics.put("misses", stats.missCount());
+            cacheMetrics.put("evictions", stats.evictionCount());
+            metrics.put("targetStreetSearchCache", cacheMetrics);
+        }
+        return metrics;
+    }
+
+    @GET
+    @Path("/prometheus")
+    @Produces("text/plain; version=0.0.4")
+    public String getPrometheusMetrics () {
+        StringBuilder sb = new StringBuilder();
+        router.searchMetrics.writePrometheus(sb, router.id);
+        TargetStreetSearchCache cache = router.targetStreetSearchCache;
+        if (cache != null) {
+            CacheStats stats = cache.getStats();
+            String labels = "router=\"" + router.id + "\"";
+            SearchMetrics.writeCounter(sb, "otp_target_street_search_cache_hits_total",
+                    "Street searches around transit search targets reused from the cache.", labels, stats.hitCount());
+            SearchMetrics.writeCounter(sb, "otp_target_street_search_cache_misses_total",
+                    "Street searches around transit search targets not found in the cache.", labels,
+                    stats.missCount());
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,337 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * An immutable hash map in which adding or removing a key returns a new map that shares all but O(log n) of its
+ * structure with the original, rather than copying it. This is a hash array mapped trie: each level of the tree is
+ * indexed by the next 5 bits of the key's hash code, and only the nodes on the path to the changed key are copied.
+ *
+ * This makes it cheap to keep many versions of a large map that differ only by a few keys, such as the successive
+ * snapshots of the realtime timetables. Since instances never change, they can be read by any number of threads
+ * without synchronization. Null keys and values are not allowed.
+ */
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+    /** The root of the trie, or null if the map is empty. */
+    private final Node root;
+
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the value associated with the given key, or null if there is none. */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (root == null || key == null) return null;
+        return (V) root.find(hash(key), key, 0);
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /** @return a map with the given key associated with the given value, or this map if it already was. */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Null keys and values are not allowed.");
+        }
+        int hash = hash(key);
+        if (root == null) {
+            return new PersistentHashMap<>(new Leaf(hash, key, value), 1);
+        }
+        boolean[] added = new boolean[1];
+        Node newRoot = root.plus(hash, key, value, 0, added);
+        if (newRoot == root) return this;
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** @return a map without the given key, or this map if it did not contain the key. */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (root == null || key == null) return this;
+        Node newRoot = root.minus(hash(key), key, 0);
+        if (newRoot == root) return this;
+        return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    /** @return a map without the entries matching the given predicate, or this map if there are none. */
+    public PersistentHashMap<K, V> minusIf(BiPredicate<? super K, ? super V> predicate) {
+        PersistentHashMap<K, V> result = this;
+        // The removals do not affect this map, so it can be traversed while they are made.
+        Object[] keys = new Object[size];
+        int[] n = new int[1];
+        forEach((k, v) -> {
+            if (predicate.test(k, v)) keys[n[0]++] = k;
+        });
+        for (int i = 0; i < n[0]; i++) {
+            result = result.minus(keys[i]);
+        }
+        return result;
+    }
+
+    /** Perform the given action on every entry, in no particular order. */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+
+    /** Spread the high bits of the hash code to the low ones, which index the first levels of the trie. */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private interface Node {
+
+        /** @return the value of the given key in the subtree at the given depth, or null. */
+        Object find(int hash, Object key, int shift);
+
+        /**
+         * @return this node if the key is already associated with the value, or a copy of it with the key added or
+         *         replaced. added[0] is set if the key was added.
+         */
+        Node plus(int hash, Object key, Object value, int shift, boolean[] added);
+
+        /** @return this node if it does not contain the key, a copy of it without the key, or null if it is empty. */
+        Node minus(int hash, Object key, int shift);
+
+        void forEach(BiConsumer<Object, Object> action);
+    }
+
+    /** A single entry. It can be found at any depth, since it is only branched out when another key needs its slot. */
+    private static final class Leaf implements Node {
+
+        final int hash;
+        final Object key;
+        final Object value;
+
+        Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object find(int hash, Object key, int shift) {
+            return this.key.equals(key) ? value : null;
+        }
+
+        @Override
+        public Node plus(int hash, Object key, Object value, int shift, boolean[] added) {
+            if (this.key.equals(key)) {
+                return this.value == value ? this : new Leaf(hash, key, value);
+            }
+            added[0] = true;
+            Leaf leaf = new Leaf(hash, key, value);
+            if (this.hash == hash) {
+                return new Collision(hash, new Leaf[] {this, leaf});
+            }
+            return branch(this, this.hash, leaf, hash, shift);
+        }
+
+        @Override
+        public Node minus(int hash, Object key, int shift) {
+            return this.key.equals(key) ? null : this;
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            action.accept(key, value);
+        }
+    }
+
+    /** The entries of distinct keys with the same 32-bit hash, which cannot be told apart by going deeper. */
+    private static final class Collision implements Node {
+
+        final int hash;
+        final Leaf[] leaves;
+
+        Collision(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].key.equals(key)) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public Object find(int hash, Object key, int shift) {
+            if (hash != this.hash) return null;
+            int i = indexOf(key);
+            return i < 0 ? null : leaves[i].value;
+        }
+
+        @Override
+        public Node plus(int hash, Object key, Object value, int shift, boolean[] added) {
+            if (hash != this.hash) {
+                added[0] = true;
+                return branch(this, this.hash, new Leaf(hash, key, value), hash, shift);
+            }
+            int i = indexOf(key);
+            Leaf[] newLeaves;
+            if (i < 0) {
+                added[0] = true;
+                newLeaves = new Leaf[leaves.length + 1];
+                System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+                newLeaves[leaves.length] = new Leaf(hash, key, value);
+            } else {
+                if (leaves[i].value == value) return this;
+                newLeaves = leaves.clone();
+                newLeaves[i] = new Leaf(hash, key, value);
+            }
+            return new Collision(hash, newLeaves);
+        }
+
+        @Override
+        public Node minus(int hash, Object key, int shift) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            if (i < 0) return this;
+            if (leaves.length == 2) return leaves[1 - i];
+            Leaf[] newLeaves = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, i);
+            System.arraycopy(leaves, i + 1, newLeaves, i, newLeaves.length - i);
+            return new Collision(hash, newLeaves);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (Leaf leaf : leaves) action.accept(leaf.key, leaf.value);
+        }
+    }
+
+    /** An interior node, holding a child for each 5-bit hash fragment that is present at its depth. */
+    private static final class Branch implements Node {
+
+        final int bitmap;
+        final Node[] children;
+
+        Branch(int bitmap, Node[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object find(int hash, Object key, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return null;
+            return children[index(bit)].find(hash, key, shift + BITS);
+        }
+
+        @Override
+        public Node plus(int hash, Object key, Object value, int shift, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Node[] newChildren = new Node[children.length + 1];
+                System.arraycopy(children, 0, newChildren, 0, i);
+                newChildren[i] = new Leaf(hash, key, value);
+                System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+                return new Branch(bitmap | bit, newChildren);
+            }
+            Node child = children[i];
+            Node newChild = child.plus(hash, key, value, shift + BITS, added);
+            if (newChild == child) return this;
+            Node[] newChildren = children.clone();
+            newChildren[i] = newChild;
+            return new Branch(bitmap, newChildren);
+        }
+
+        @Override
+        public Node minus(int hash, Object key, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return this;
+            int i = index(bit);
+            Node child = children[i];
+            Node newChild = child.minus(hash, key, shift + BITS);
+            if (newChild == child) return this;
+            if (newChild != null) {
+                if (children.length == 1 && !(newChild instanceof Branch)) return newChild;
+                Node[] newChildren = children.clone();
+                newChildren[i] = newChild;
+                return new Branch(bitmap, newChildren);
+            }
+            if (children.length == 1) return null;
+            if (children.length == 2 && !(children[1 - i] instanceof Branch)) {
+                // A lone entry does not need a branch of its own, it can be moved up to this depth.
+                return children[1 - i];
+            }
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(children, i + 1, newChildren, i, newChildren.length - i);
+            return new Branch(bitmap & ~bit, newChildren);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (Node child : children) child.forEach(action);
+        }
+    }
+
+    /** @return a branch at the given depth holding two nodes, whose entries have different hashes. */
+    private static Node branch(Node a, int hashA, Node b, int hashB, int shift) {
+        int fragmentA = (hashA >>> shift) & MASK;
+        int fragmentB = (hashB >>> shift) & MASK;
+        if (fragmentA == fragmentB) {
+            return new Branch(1 << fragmentA, new Node[] {branch(a, hashA, b, hashB, shift + BITS)});
+        }
+        Node[] children = fragmentA < fragmentB ? new Node[] {a, b} : new Node[] {b, a};
+        return new Branch((1 << fragmentA) | (1 << fragmentB), children);
+    }
+
+}
@@ -15,7 +15,7 @@ package org.opentripplanner.common.pqueue;
 
 import java.util.Arrays;
 
-public class BinHeap<T> {
+public class BinHeap<T> implements OTPPriorityQueue<T> {
     
     private static final double GROW_FACTOR = 2.0;
     
@@ -64,6 +64,10 @@ public class BinHeap<T> {
     	throw new UnsupportedOperationException("BinHeap has no decrease key operation.");
     }
 
+    public boolean supportsDecreaseKey() {
+        return false;
+    }
+
     public void rekey(T e, double p) {
         // Perform "inefficient" but straightforward linear search 
     	// for an element then change its key by sifting up or down
@@ -0,0 +1,206 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+/**
+ * A 4-ary heap that supports replacing a queued element in place (decrease-key, or increase-key).
+ *
+ * Elements inserted with insert_or_dec_key are identified by a non-negative integer handle derived from the element
+ * itself, for example the index of the vertex a State is at. At most one element per handle is in the queue at a time:
+ * inserting another element with the same handle replaces the queued one and moves it to its new position.
+ * Elements added with the plain insert method have no handle and are never replaced. The positions of the handles are
+ * kept in a hash map rather than an array indexed by handle, so that a queue used for a small search over a large
+ * handle space (e.g. all the vertices of a graph) costs memory in proportion to the search rather than the space.
+ *
+ * A 4-ary heap is shallower than a binary heap, which makes insertion and re-keying (the common operations in a
+ * search) cheaper at the cost of slightly more comparisons per extraction, and it keeps the children of a node
+ * adjacent in memory.
+ */
+public class IndexedDaryHeap<T> implements OTPPriorityQueue<T> {
+
+    private static final int D = 4;
+
+    private static final int NO_HANDLE = -1;
+
+    private final ToIntFunction<T> handleFunction;
+
+    private double[] prio;
+
+    private T[] elem;
+
+    /** The handle of the element in each heap slot, or NO_HANDLE. */
+    private int[] handles;
+
+    /** The heap slot of the element having each handle that is in the queue. */
+    private final TIntIntMap slotOfHandle;
+
+    private int size;
+
+    /**
+     * @param capacity the initial number of elements the heap can hold before it is resized.
+     * @param handleCapacity the expected number of distinct handles in the queue at the same time.
+     * @param handleFunction returns the handle for an element passed to insert_or_dec_key.
+     */
+    @SuppressWarnings("unchecked")
+    public IndexedDaryHeap(int capacity, int handleCapacity, ToIntFunction<T> handleFunction) {
+        if (capacity < 10) capacity = 10;
+        this.handleFunction = handleFunction;
+        prio = new double[capacity];
+        elem = (T[]) new Object[capacity];
+        handles = new int[capacity];
+        slotOfHandle = new TIntIntHashMap(Math.max(handleCapacity, 16), 0.5f, NO_HANDLE, NO_HANDLE);
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[0];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    @Override
+    public T peek_min() {
+        return size > 0 ? elem[0] : null;
+    }
+
+    @Override
+    public void insert(T e, double p) {
+        insert(e, p, NO_HANDLE);
+    }
+
+    @Override
+    public void insert_or_dec_key(T e, double p) {
+        int handle = handleFunction.applyAsInt(e);
+        int slot = slotOfHandle.get(handle);
+        if (slot == NO_HANDLE) {
+            insert(e, p, handle);
+            return;
+        }
+        double oldPrio = prio[slot];
+        elem[slot] = e;
+        prio[slot] = p;
+        if (p < oldPrio) {
+            siftUp(slot);
+        } else {
+            siftDown(slot);
+        }
+    }
+
+    /** @return whether an element with the given handle is currently in the queue. */
+    public boolean contains(int handle) {
+        return slotOfHandle.containsKey(handle);
+    }
+
+    @Override
+    public boolean supportsDecreaseKey() {
+        return true;
+    }
+
+    private void insert(T e, double p, int handle) {
+        if (size == elem.length) {
+            int capacity = elem.length * 2;
+            prio = Arrays.copyOf(prio, capacity);
+            elem = Arrays.copyOf(elem, capacity);
+            handles = Arrays.copyOf(handles, capacity);
+        }
+        int slot = size++;
+        place(slot, e, p, handle);
+        siftUp(slot);
+    }
+
+    @Override
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[0];
+        if (handles[0] != NO_HANDLE) {
+            slotOfHandle.remove(handles[0]);
+        }
+        size -= 1;
+        if (size > 0) {
+            place(0, elem[size], prio[size], handles[size]);
+            siftDown(0);
+        }
+        elem[size] = null; // allow garbage collection
+        return minElem;
+    }
+
+    @Override
+    public void reset() {
+        slotOfHandle.clear();
+        Arrays.fill(elem, 0, size, null);
+        size = 0;
+    }
+
+    /** Put an element in the given slot and record its position. */
+    private void place(int slot, T e, double p, int handle) {
+        elem[slot] = e;
+        prio[slot] = p;
+        handles[slot] = handle;
+        if (handle != NO_HANDLE) {
+            slotOfHandle.put(handle, slot);
+        }
+    }
+
+    private void siftUp(int slot) {
+        T e = elem[slot];
+        double p = prio[slot];
+        int handle = handles[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) / D;
+            if (prio[parent] <= p) break;
+            place(slot, elem[parent], prio[parent], handles[parent]);
+            slot = parent;
+        }
+        place(slot, e, p, handle);
+    }
+
+    private void siftDown(int slot) {
+        T e = elem[slot];
+        double p = prio[slot];
+        int handle = handles[slot];
+        while (true) {
+            int firstChild = slot * D + 1;
+            if (firstChild >= size) break;
+            int lastChild = Math.min(firstChild + D, size);
+            int minChild = firstChild;
+            for (int c = firstChild + 1; c < lastChild; c++) {
+                if (prio[c] < prio[minChild]) minChild = c;
+            }
+            if (prio[minChild] >= p) break;
+            place(slot, elem[minChild], prio[minChild], handles[minChild]);
+            slot = minChild;
+        }
+        place(slot, e, p, handle);
+    }
+
+}
@@ -0,0 +1,51 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+/**
+ * The operations a search needs from its priority queue, allowing the search to choose an implementation.
+ * Method names follow those of the original BinHeap.
+ */
+public interface OTPPriorityQueue<T> {
+
+    int size();
+
+    boolean empty();
+
+    /** @return the key of the minimum element. Throws IllegalStateException if the queue is empty. */
+    double peek_min_key();
+
+    /** @return the minimum element, or null if the queue is empty. */
+    T peek_min();
+
+    /** Remove and return the minimum element, or null if the queue is empty. */
+    T extract_min();
+
+    /** Add an element to the queue, even if an equivalent element is already enqueued. */
+    void insert(T e, double p);
+
+    /**
+     * Add an element to the queue, replacing any queued element that the implementation considers to occupy the same
+     * slot, whether the new key is lower or higher. Implementations without this capability throw
+     * UnsupportedOperationException.
+     */
+    void insert_or_dec_key(T e, double p);
+
+    /** @return whether insert_or_dec_key is supported. */
+    boolean supportsDecreaseKey();
+
+    /** Empty the queue. */
+    void reset();
+
+}
@@ -15,6 +15,8 @@ package org.opentripplanner.graph_builder;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
 import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
@@ -36,6 +38,7 @@ import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderI
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 import org.opentripplanner.reflect.ReflectionLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.BinaryGraphFormat;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.standalone.CommandLineParameters;
@@ -43,6 +46,7 @@ import org.opentripplanner.standalone.GraphBuilderParameters;
 import org.opentripplanner.standalone.OTPMain;
 import org.opentripplanner.standalone.Router;
 import org.opentripplanner.standalone.S3BucketConfig;
+import org.opentripplanner.util.HeapUsage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,12 +55,20 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
  * This makes a Graph out of various inputs like GTFS and OSM.
  * It is modular: GraphBuilderModules are placed in a list and run in sequence.
+ *
+ * The modules all modify the same graph, which is not safe to do from several threads, so they build it one at a time.
+ * Their inputs (e.g. the OSM and GTFS files) can however be read ahead on other threads, so that the street graph is
+ * being built from the OSM data while the transit feeds are still being read.
  */
 public class GraphBuilder implements Runnable {
     
@@ -79,6 +91,18 @@ public class GraphBuilder implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
 
+    /** Should the graph be saved in the binary format (see BinaryGraphFormat) rather than with Java serialization? */
+    public boolean binaryGraphFormat = false;
+
+    /** When saving in the binary format, should street geometries and elevation go in a memory mapped file? */
+    public boolean mappedEdgeData = false;
+
+    /**
+     * Should the modules read their inputs concurrently, ahead of building the graph? This is faster, but the inputs
+     * of all modules are then held in memory at the same time.
+     */
+    public boolean concurrentInputLoading = false;
+
     public void addModule(GraphBuilderModule loader) {
         _graphBuilderModules.add(loader);
     }
@@ -151,15 +175,17 @@ public class GraphBuilder implements Runnable {
         for (GraphBuilderModule builder : _graphBuilderModules) {
             builder.checkInputs();
         }
-        
-        HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
-        for (GraphBuilderModule load : _graphBuilderModules)
-            load.buildGraph(graph, extra);
+        checkPrerequisites();
+        runModules();
 
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
             try {
-                graph.save(graphFile);
+                if (binaryGraphFormat) {
+                    BinaryGraphFormat.write(graph, graphFile, mappedEdgeData);
+                } else {
+                    graph.save(graphFile);
+                }
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
@@ -171,6 +197,104 @@ public class GraphBuilder implements Runnable {
         LOG.info(String.format("Graph building took %.1f minutes.", (endTime - startTime) / 1000 / 60.0));
     }
 
+    /**
+     * Warn about modules that are placed before the modules providing the stages they require, as declared by their
+     * provides() and getPrerequisites() methods.
+     */
+    private void checkPrerequisites() {
+        for (int i = 0; i < _graphBuilderModules.size(); i++) {
+            GraphBuilderModule module = _graphBuilderModules.get(i);
+            for (String stage : module.getPrerequisites()) {
+                boolean providedBefore = false;
+                boolean providedAfter = false;
+                for (int j = 0; j < _graphBuilderModules.size(); j++) {
+                    if (j != i && _graphBuilderModules.get(j).provides().contains(stage)) {
+                        if (j < i) providedBefore = true;
+                        else providedAfter = true;
+                    }
+                }
+                if (providedAfter && !providedBefore) {
+                    LOG.warn("{} requires '{}', which is only provided by modules that run after it.",
+                            module.getClass().getSimpleName(), stage);
+                } else if (!providedBefore) {
+                    LOG.debug("{} requires '{}', which no module provides.", module.getClass().getSimpleName(), stage);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run all modules in sequence, reporting how long each one took and how much heap was used while it ran. When
+     * inputs are loaded concurrently, the inputs of all modules that read their own are loaded on a thread pool while
+     * the modules run, and each module waits for its own inputs only.
+     */
+    private void runModules() {
+        HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
+        List<Future<?>> loadedInputs = new ArrayList<>();
+        ExecutorService inputLoader = null;
+        if (concurrentInputLoading) {
+            int nThreads = Math.max(1, Math.min(_graphBuilderModules.size(),
+                    Runtime.getRuntime().availableProcessors()));
+            inputLoader = Executors.newFixedThreadPool(nThreads,
+                    new ThreadFactoryBuilder().setNameFormat("graph-builder-input-%d").setDaemon(true).build());
+            for (GraphBuilderModule module : _graphBuilderModules) {
+                loadedInputs.add(loadsInputs(module) ? inputLoader.submit(() -> loadInputs(module)) : null);
+            }
+            inputLoader.shutdown();
+        }
+        try {
+            for (int i = 0; i < _graphBuilderModules.size(); i++) {
+                GraphBuilderModule module = _graphBuilderModules.get(i);
+                long waitStart = System.currentTimeMillis();
+                if (inputLoader != null && loadedInputs.get(i) != null) {
+                    waitFor(loadedInputs.get(i));
+                }
+                HeapUsage.resetPeakUsage();
+                long buildStart = System.currentTimeMillis();
+                module.buildGraph(graph, extra);
+                long buildEnd = System.currentTimeMillis();
+                LOG.info(String.format("%s took %.1f seconds (after waiting %.1f seconds for its inputs), " +
+                                "peak heap usage %d MB.", module.getClass().getSimpleName(),
+                        (buildEnd - buildStart) / 1000.0, (buildStart - waitStart) / 1000.0,
+                        HeapUsage.getPeakUsage() / 1024 / 1024));
+            }
+        } finally {
+            if (inputLoader != null) {
+                inputLoader.shutdownNow();
+            }
+        }
+    }
+
+    /** @return whether the given module reads its inputs in loadInputs, rather than using the default that does not. */
+    private static boolean loadsInputs(GraphBuilderModule module) {
+        try {
+            return module.getClass().getMethod("loadInputs").getDeclaringClass() != GraphBuilderModule.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static void loadInputs(GraphBuilderModule module) {
+        long startTime = System.currentTimeMillis();
+        module.loadInputs();
+        LOG.info(String.format("%s loaded its inputs in %.1f seconds.", module.getClass().getSimpleName(),
+                (System.currentTimeMillis() - startTime) / 1000.0));
+    }
+
+    /** Wait for the inputs of a module to be loaded, rethrowing any exception thrown while loading them. */
+    private static void waitFor(Future<?> loadedInputs) {
+        try {
+            loadedInputs.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+
 
     /**
      * Factory method to create and configure a GraphBuilder with all the appropriate modules to build a graph from
@@ -312,6 +436,9 @@ public class GraphBuilder implements Runnable {
             graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
         }
         graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
+        graphBuilder.binaryGraphFormat = builderParams.binaryGraphFormat;
+        graphBuilder.mappedEdgeData = builderParams.mappedEdgeData;
+        graphBuilder.concurrentInputLoading = builderParams.concurrentInputLoading;
         return graphBuilder;
     }
 
@@ -104,7 +104,7 @@ public class SimpleStreetSplitter {
             idx = new HashGridSpatialIndex<Edge>();
 
             for (StreetEdge se : Iterables.filter(graph.getEdges(), StreetEdge.class)) {
-                idx.insert(se.getGeometry(), se);
+                idx.insert(se.getEnvelope(), se);
             }
         } else {
             idx = hashGridSpatialIndex;
@@ -123,19 +123,53 @@ public class SimpleStreetSplitter {
         this(graph, null, null, true);
     }
 
-    /** Link all relevant vertices to the street network */
-    public void link () {	
-        for (Vertex v : graph.getVertices()) {
-            if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
-                if (!link(v)) {
-                    if (v instanceof TransitStop)
-                        LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
-                    else if (v instanceof BikeRentalStationVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
-                    else if (v instanceof BikeParkVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
-                };
+    /**
+     * Link all relevant vertices to the street network.
+     *
+     * This is done in two phases. First the edges each vertex should be linked to are found for all vertices in
+     * parallel, in the street network as it is before any of them are linked. Then the vertices are linked one by one
+     * in the same order as they would be without the first phase, splitting the edges found for them. Splitting an
+     * edge only replaces it with two edges that are no closer to any point, so the edges found for a vertex are still
+     * the ones it would be linked to unless one of them was split by a vertex linked before it, in which case they are
+     * found again. The result is thus the same as when linking the vertices one by one.
+     */
+    public void link () {
+        List<Vertex> vertices = graph.getVertices().stream()
+            .filter(v -> v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
+            .collect(Collectors.toList());
+
+        // The spatial index and the street edges are only read here, which can be done from several threads.
+        List<List<StreetEdge>> bestEdgesForVertices = vertices.parallelStream()
+            .map(v -> findBestEdges(v, TraverseMode.WALK))
+            .collect(Collectors.toList());
+
+        int nRelinked = 0;
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex v = vertices.get(i);
+            List<StreetEdge> bestEdges = bestEdgesForVertices.get(i);
+            boolean linked;
+            if (bestEdges.stream().allMatch(SimpleStreetSplitter::isInGraph)) {
+                double xscale = xscale(v);
+                for (StreetEdge edge : bestEdges) {
+                    link(v, edge, xscale, null);
+                }
+                linked = !bestEdges.isEmpty();
+            } else {
+                // an edge found for this vertex has been split when linking another one
+                linked = link(v);
+                nRelinked++;
+            }
+            if (!linked) {
+                if (v instanceof TransitStop)
+                    LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
+                else if (v instanceof BikeRentalStationVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
+                else if (v instanceof BikeParkVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+            }
         }
+        LOG.info("Linked {} vertices to the street network, searching again for {} of them.", vertices.size(),
+            nRelinked);
     }
 
     /** Link this vertex into the graph to the closest walkable edge */
@@ -145,60 +179,17 @@ public class SimpleStreetSplitter {
 
     /** Link this vertex into the graph */
     public boolean link(Vertex vertex, TraverseMode traverseMode, RoutingRequest options) {
-        // find nearby street edges
-        // TODO: we used to use an expanding-envelope search, which is more efficient in
-        // dense areas. but first let's see how inefficient this is. I suspect it's not too
-        // bad and the gains in simplicity are considerable.
         final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
 
-        Envelope env = new Envelope(vertex.getCoordinate());
-
-        // local equirectangular projection
-        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+        Envelope env = searchEnvelope(vertex);
 
-        env.expandBy(radiusDeg / xscale, radiusDeg);
+        final double xscale = xscale(vertex);
 
         double duplicateDeg = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
 
-        final TraverseModeSet traverseModeSet;
-        if (traverseMode == TraverseMode.BICYCLE) {
-            traverseModeSet = new TraverseModeSet(traverseMode, TraverseMode.WALK);
-        } else {
-            traverseModeSet = new TraverseModeSet(traverseMode);
-        }
-        // We sort the list of candidate edges by distance to the stop
-        // This should remove any issues with things coming out of the spatial index in different orders
-        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
-        // so that we capture back edges and duplicate ways.
-        List<StreetEdge> candidateEdges = idx.query(env).stream()
-            .filter(streetEdge -> streetEdge instanceof  StreetEdge)
-            .map(edge -> (StreetEdge) edge)
-            // note: not filtering by radius here as distance calculation is expensive
-            // we do that below.
-            .filter(edge -> edge.canTraverse(traverseModeSet) &&
-                // only link to edges still in the graph.
-                edge.getToVertex().getIncoming().contains(edge))
-            .collect(Collectors.toList());
+        List<StreetEdge> bestEdges = findBestEdges(vertex, traverseMode);
 
-        // make a map of distances
-        final TIntDoubleMap distances = new TIntDoubleHashMap();
-
-        for (StreetEdge e : candidateEdges) {
-            distances.put(e.getId(), distance(vertex, e, xscale));
-        }
-
-        // sort the list
-        Collections.sort(candidateEdges, (o1, o2) -> {
-            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
-            if (diff < 0)
-                return -1;
-            if (diff > 0)
-                return 1;
-            return 0;
-        });
-
-        // find the closest candidate edges
-        if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+        if (bestEdges.isEmpty()) {
             //We only link to stops if we are searching for origin/destination and for that we need transitStopIndex
             if (destructiveSplitting || transitStopIndex == null) {
                 return false;
@@ -251,21 +242,6 @@ public class SimpleStreetSplitter {
                 return true;
             }
         } else {
-
-            // find the best edges
-            List<StreetEdge> bestEdges = Lists.newArrayList();
-
-            // add edges until there is a break of epsilon meters.
-            // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
-            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-            // fall just inside or beyond the cutoff depending on floating-point operations.
-            int i = 0;
-            do {
-                bestEdges.add(candidateEdges.get(i++));
-            } while (i < candidateEdges.size() &&
-                distances.get(candidateEdges.get(i).getId()) - distances
-                    .get(candidateEdges.get(i - 1).getId()) < duplicateDeg);
-
             for (StreetEdge edge : bestEdges) {
                 link(vertex, edge, xscale, options);
             }
@@ -274,6 +250,105 @@ public class SimpleStreetSplitter {
         }
     }
 
+    /**
+     * Find the street edges this vertex should be linked to: the closest edge that can be traversed in the given mode,
+     * and any other edge almost as close. This only reads the street network, so it can be called from several
+     * threads as long as no edges are being split.
+     *
+     * @return the edges to link to, closest first, or an empty list if no edge is within the search radius.
+     */
+    private List<StreetEdge> findBestEdges(Vertex vertex, TraverseMode traverseMode) {
+        // find nearby street edges
+        // TODO: we used to use an expanding-envelope search, which is more efficient in
+        // dense areas. but first let's see how inefficient this is. I suspect it's not too
+        // bad and the gains in simplicity are considerable.
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+
+        Envelope env = searchEnvelope(vertex);
+
+        // local equirectangular projection
+        final double xscale = xscale(vertex);
+
+        double duplicateDeg = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+
+        final TraverseModeSet traverseModeSet;
+        if (traverseMode == TraverseMode.BICYCLE) {
+            traverseModeSet = new TraverseModeSet(traverseMode, TraverseMode.WALK);
+        } else {
+            traverseModeSet = new TraverseModeSet(traverseMode);
+        }
+        // We sort the list of candidate edges by distance to the stop
+        // This should remove any issues with things coming out of the spatial index in different orders
+        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
+        // so that we capture back edges and duplicate ways.
+        List<StreetEdge> candidateEdges = idx.query(env).stream()
+            .filter(streetEdge -> streetEdge instanceof  StreetEdge)
+            .map(edge -> (StreetEdge) edge)
+            // note: not filtering by radius here as distance calculation is expensive
+            // we do that below.
+            .filter(edge -> edge.canTraverse(traverseModeSet) &&
+                // only link to edges still in the graph.
+                isInGraph(edge))
+            .collect(Collectors.toList());
+
+        // make a map of distances
+        final TIntDoubleMap distances = new TIntDoubleHashMap();
+
+        for (StreetEdge e : candidateEdges) {
+            distances.put(e.getId(), distance(vertex, e, xscale));
+        }
+
+        // sort the list, breaking ties by id so that equally close edges (e.g. back edges) are always linked in the
+        // same order whatever order they come out of the spatial index in
+        Collections.sort(candidateEdges, (o1, o2) -> {
+            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
+            if (diff < 0)
+                return -1;
+            if (diff > 0)
+                return 1;
+            return Integer.compare(o1.getId(), o2.getId());
+        });
+
+        // find the closest candidate edges
+        if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+            return Collections.emptyList();
+        }
+
+        // find the best edges
+        List<StreetEdge> bestEdges = Lists.newArrayList();
+
+        // add edges until there is a break of epsilon meters.
+        // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
+        // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
+        // fall just inside or beyond the cutoff depending on floating-point operations.
+        int i = 0;
+        do {
+            bestEdges.add(candidateEdges.get(i++));
+        } while (i < candidateEdges.size() &&
+            distances.get(candidateEdges.get(i).getId()) - distances
+                .get(candidateEdges.get(i - 1).getId()) < duplicateDeg);
+
+        return bestEdges;
+    }
+
+    /** @return the envelope in which to search for the street edges or stops to link this vertex to. */
+    private static Envelope searchEnvelope(Vertex vertex) {
+        double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+        Envelope env = new Envelope(vertex.getCoordinate());
+        env.expandBy(radiusDeg / xscale(vertex), radiusDeg);
+        return env;
+    }
+
+    /** @return the scale of longitudes in the local equirectangular projection around this vertex. */
+    private static double xscale(Vertex vertex) {
+        return Math.cos(vertex.getLat() * Math.PI / 180);
+    }
+
+    /** @return whether this edge is still in the graph, i.e. has not been split. */
+    private static boolean isInGraph(StreetEdge edge) {
+        return edge.getToVertex().getIncoming().contains(edge);
+    }
+
     /** split the edge and link in the transit stop */
     private void link(Vertex tstop, StreetEdge edge, double xscale, RoutingRequest options) {
         // TODO: we've already built this line string, we should save it
@@ -366,6 +441,8 @@ public class SimpleStreetSplitter {
             // remove original edge from the graph
             edge.getToVertex().removeIncoming(edge);
             edge.getFromVertex().removeOutgoing(edge);
+            // the split edges replace it in the street layer snapshot too
+            graph.invalidateCompactStreetGraph();
         }
 
         return v;
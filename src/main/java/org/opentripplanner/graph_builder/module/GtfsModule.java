@@ -68,6 +68,9 @@ public class GtfsModule implements GraphBuilderModule {
 
     public List<GtfsBundle> gtfsBundles;
 
+    /** The feeds read by loadInputs, in the order of the bundles, until they are used by buildGraph. */
+    private List<GtfsMutableRelationalDao> loadedDaos;
+
     public GtfsModule(List<GtfsBundle> bundles) { this.gtfsBundles = bundles; };
 
     public List<String> provides() {
@@ -84,6 +87,27 @@ public class GtfsModule implements GraphBuilderModule {
         _fareServiceFactory = factory;
     }
 
+    /** Read all the GTFS feeds, so that only building the transit graph from them is left for buildGraph. */
+    @Override
+    public void loadInputs() {
+        List<GtfsMutableRelationalDao> daos = new ArrayList<>();
+        try {
+            for (GtfsBundle gtfsBundle : gtfsBundles) {
+                // apply global defaults to individual GTFSBundles (if globals have been set)
+                if (cacheDirectory != null && gtfsBundle.cacheDirectory == null)
+                    gtfsBundle.cacheDirectory = cacheDirectory;
+                if (useCached != null && gtfsBundle.useCached == null)
+                    gtfsBundle.useCached = useCached;
+                GtfsMutableRelationalDao dao = new GtfsRelationalDaoImpl();
+                loadBundle(gtfsBundle, dao);
+                daos.add(dao);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        loadedDaos = daos;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         // we're about to add another agency to the graph, so clear the cached timezone
@@ -96,43 +120,41 @@ public class GtfsModule implements GraphBuilderModule {
         MultiCalendarServiceImpl service = new MultiCalendarServiceImpl();
         GtfsStopContext stopContext = new GtfsStopContext();
         
-        try {
-            for (GtfsBundle gtfsBundle : gtfsBundles) {
-                // apply global defaults to individual GTFSBundles (if globals have been set)
-                if (cacheDirectory != null && gtfsBundle.cacheDirectory == null)
-                    gtfsBundle.cacheDirectory = cacheDirectory;
-                if (useCached != null && gtfsBundle.useCached == null)
-                    gtfsBundle.useCached = useCached;
-                GtfsMutableRelationalDao dao = new GtfsRelationalDaoImpl();
-                GtfsContext context = GtfsLibrary.createContext(gtfsBundle.getFeedId(), dao, service);
-                GTFSPatternHopFactory hf = new GTFSPatternHopFactory(context);
-                hf.setStopContext(stopContext);
-                hf.setFareServiceFactory(_fareServiceFactory);
-                hf.setMaxStopToShapeSnapDistance(gtfsBundle.getMaxStopToShapeSnapDistance());
-
-                loadBundle(gtfsBundle, graph, dao);
-
-                CalendarServiceDataFactoryImpl csfactory = new CalendarServiceDataFactoryImpl();
-                csfactory.setGtfsDao(dao);
-                CalendarServiceData data = csfactory.createData();
-                service.addData(data, dao);
-
-                hf.subwayAccessTime = gtfsBundle.subwayAccessTime;
-                hf.maxInterlineDistance = gtfsBundle.maxInterlineDistance;
-                hf.run(graph);
-
-                if (gtfsBundle.doesTransfersTxtDefineStationPaths()) {
-                    hf.createTransfersTxtTransfers();
-                }
-                if (gtfsBundle.linkStopsToParentStations) {
-                    hf.linkStopsToParentStations(graph);
-                } 
-                if (gtfsBundle.parentStationTransfers) {
-                    hf.createParentStationTransfers();
-                }
+        if (loadedDaos == null) {
+            loadInputs();
+        }
+        List<GtfsMutableRelationalDao> daos = loadedDaos;
+        // Do not keep the feeds once they are in the graph.
+        loadedDaos = null;
+
+        for (int i = 0; i < gtfsBundles.size(); i++) {
+            GtfsBundle gtfsBundle = gtfsBundles.get(i);
+            GtfsMutableRelationalDao dao = daos.get(i);
+            daos.set(i, null);
+            GtfsContext context = GtfsLibrary.createContext(gtfsBundle.getFeedId(), dao, service);
+            GTFSPatternHopFactory hf = new GTFSPatternHopFactory(context);
+            hf.setStopContext(stopContext);
+            hf.setFareServiceFactory(_fareServiceFactory);
+            hf.setMaxStopToShapeSnapDistance(gtfsBundle.getMaxStopToShapeSnapDistance());
+
+            CalendarServiceDataFactoryImpl csfactory = new CalendarServiceDataFactoryImpl();
+            csfactory.setGtfsDao(dao);
+            CalendarServiceData data = csfactory.createData();
+            service.addData(data, dao);
+
+            hf.subwayAccessTime = gtfsBundle.subwayAccessTime;
+            hf.maxInterlineDistance = gtfsBundle.maxInterlineDistance;
+            hf.run(graph);
+
+            if (gtfsBundle.doesTransfersTxtDefineStationPaths()) {
+                hf.createTransfersTxtTransfers();
+            }
+            if (gtfsBundle.linkStopsToParentStations) {
+                hf.linkStopsToParentStations(graph);
+            } 
+            if (gtfsBundle.parentStationTransfers) {
+                hf.createParentStationTransfers();
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
 
         // We need to save the calendar service data so we can use it later
@@ -149,7 +171,7 @@ public class GtfsModule implements GraphBuilderModule {
      * Private Methods
      ****/
 
-    private void loadBundle(GtfsBundle gtfsBundle, Graph graph, GtfsMutableRelationalDao dao)
+    private void loadBundle(GtfsBundle gtfsBundle, GtfsMutableRelationalDao dao)
             throws IOException {
 
         StoreImpl store = new StoreImpl(dao);
@@ -68,6 +68,9 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
     private HashMap<Vertex, Double> elevationData = new HashMap<Vertex, Double>();
 
+    /** The OSM data read by loadInputs, until it is used by buildGraph. */
+    private OSMDatabase loadedOsmdb;
+
     public boolean skipVisibility = false;
 
     // Members that can be set by clients.
@@ -156,15 +159,27 @@ public class OpenStreetMapModule implements GraphBuilderModule {
     public OpenStreetMapModule() {
     }
 
+    /** Read the OSM data from all the providers, so that only building the street graph is left for buildGraph. */
     @Override
-    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+    public void loadInputs() {
         OSMDatabase osmdb = new OSMDatabase();
-        Handler handler = new Handler(graph, osmdb);
         for (OpenStreetMapProvider provider : _providers) {
             LOG.info("Gathering OSM from provider: " + provider);
             provider.readOSM(osmdb);
         }
         osmdb.postLoad();
+        loadedOsmdb = osmdb;
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        if (loadedOsmdb == null) {
+            loadInputs();
+        }
+        OSMDatabase osmdb = loadedOsmdb;
+        // Do not keep the OSM data once the street graph is built.
+        loadedOsmdb = null;
+        Handler handler = new Handler(graph, osmdb);
         for (GraphBuilderAnnotation annotation : osmdb.getAnnotations()) {
             graph.addBuilderAnnotation(annotation);
         }
@@ -13,6 +13,7 @@
 
 package org.opentripplanner.graph_builder.services;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -27,4 +28,22 @@ public interface GraphBuilderModule {
     /** Check that all inputs to the graphbuilder are valid; throw an exception if not. */
     public void checkInputs();
 
+    /**
+     * Read and parse the inputs of this module without touching the graph, so that it can be done while other modules
+     * are running. The GraphBuilder may call this on another thread before buildGraph, which must still load the
+     * inputs itself when this was not called. Modules whose inputs depend on the graph keep the default, which does
+     * nothing.
+     */
+    public default void loadInputs() { }
+
+    /** A list of ids of stages which are provided by this module. */
+    public default List<String> provides() {
+        return Collections.emptyList();
+    }
+
+    /** A list of ids of stages which must be provided by earlier modules before this module runs. */
+    public default List<String> getPrerequisites() {
+        return Collections.emptyList();
+    }
+
 }
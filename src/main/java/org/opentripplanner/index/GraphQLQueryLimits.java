@@ -0,0 +1,206 @@
+package org.opentripplanner.index;
+
+import graphql.language.Definition;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.parser.Parser;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLInterfaceType;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNonNull;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeReference;
+import graphql.schema.GraphQLUnionType;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rejects GraphQL queries that are too large to be answered quickly before they are executed, so that a few huge nested
+ * queries cannot keep the server from answering the others, including trip planning requests. The size of a query is
+ * measured on its syntax tree, with fragments expanded where they are used: its depth is the greatest number of nested
+ * fields, and its number of fields is an estimate of the number of fields in its result. Each field of a list type is
+ * assumed to return listFanOut elements, so the fields selected within it are counted that many times, and the fields
+ * nested in several lists are counted as many times as the product of their fan-outs. Without a schema the types of
+ * the fields are unknown, and each field is counted once per fragment spread.
+ */
+public class GraphQLQueryLimits {
+
+    public static final int DEFAULT_MAX_DEPTH = 15;
+
+    public static final int DEFAULT_MAX_FIELDS = 10000;
+
+    /** The number of elements assumed to be returned by each list field, such as the stops of a pattern. */
+    public static final int DEFAULT_LIST_FAN_OUT = 10;
+
+    private final int maxDepth;
+
+    private final int maxFields;
+
+    private final int listFanOut;
+
+    /** The types of the schema by name, used to look up the types of the fields. Empty without a schema. */
+    private final Map<String, GraphQLType> types = new HashMap<>();
+
+    private final GraphQLType queryType;
+
+    /** Limit queries without knowing their schema, so that every field is counted once. */
+    public GraphQLQueryLimits(int maxDepth, int maxFields) {
+        this(null, maxDepth, maxFields, 1);
+    }
+
+    public GraphQLQueryLimits(GraphQLSchema schema, int maxDepth, int maxFields, int listFanOut) {
+        this.maxDepth = maxDepth;
+        this.maxFields = maxFields;
+        this.listFanOut = listFanOut;
+        if (schema != null) {
+            queryType = schema.getQueryType();
+            addType(queryType);
+        } else {
+            queryType = null;
+        }
+    }
+
+    /** Add the given type and all the types reachable through its fields to the types by name. */
+    private void addType(GraphQLType type) {
+        type = unwrap(type);
+        // References to types are resolved by name, once the types they refer to are found elsewhere.
+        if (type == null || type instanceof GraphQLTypeReference || types.containsKey(type.getName())) return;
+        types.put(type.getName(), type);
+        if (type instanceof GraphQLUnionType) {
+            for (GraphQLType member : ((GraphQLUnionType) type).getTypes()) addType(member);
+        }
+        if (type instanceof GraphQLObjectType) {
+            for (GraphQLType implemented : ((GraphQLObjectType) type).getInterfaces()) addType(implemented);
+        }
+        for (GraphQLFieldDefinition field : fieldDefinitions(type)) {
+            addType(field.getType());
+        }
+    }
+
+    private static List<GraphQLFieldDefinition> fieldDefinitions(GraphQLType type) {
+        if (type instanceof GraphQLObjectType) return ((GraphQLObjectType) type).getFieldDefinitions();
+        if (type instanceof GraphQLInterfaceType) return ((GraphQLInterfaceType) type).getFieldDefinitions();
+        return Collections.emptyList();
+    }
+
+    /** @return the named type wrapped in the given list and non-null types. */
+    private static GraphQLType unwrap(GraphQLType type) {
+        while (type instanceof GraphQLList || type instanceof GraphQLNonNull) {
+            type = type instanceof GraphQLList ?
+                    ((GraphQLList) type).getWrappedType() : ((GraphQLNonNull) type).getWrappedType();
+        }
+        return type;
+    }
+
+    private static boolean isList(GraphQLType type) {
+        if (type instanceof GraphQLNonNull) type = ((GraphQLNonNull) type).getWrappedType();
+        return type instanceof GraphQLList;
+    }
+
+    /**
+     * @return a message explaining why the given query exceeds the limits, or null if it does not. Queries that cannot
+     *         be parsed are left for the GraphQL execution to report.
+     */
+    public String check(String query) {
+        Document document;
+        try {
+            document = new Parser().parseDocument(query);
+        } catch (Exception e) {
+            return null;
+        }
+        Map<String, FragmentDefinition> fragments = new HashMap<>();
+        for (Definition definition : document.getDefinitions()) {
+            if (definition instanceof FragmentDefinition) {
+                fragments.put(((FragmentDefinition) definition).getName(), (FragmentDefinition) definition);
+            }
+        }
+        Size size = new Size(fragments);
+        for (Definition definition : document.getDefinitions()) {
+            if (definition instanceof OperationDefinition) {
+                size.measure(((OperationDefinition) definition).getSelectionSet(), queryType, 0, 1,
+                        new HashSet<>());
+            }
+            if (size.depth > maxDepth) {
+                return String.format("The query is nested %d fields deep, more than the maximum of %d.",
+                        size.depth, maxDepth);
+            }
+            if (size.fields > maxFields) {
+                return String.format("The result of the query would have more than the maximum of %d fields.",
+                        maxFields);
+            }
+        }
+        return null;
+    }
+
+    /** Accumulates the size of the operations of a query. */
+    private class Size {
+
+        private final Map<String, FragmentDefinition> fragments;
+
+        int depth = 0;
+
+        long fields = 0;
+
+        Size(Map<String, FragmentDefinition> fragments) {
+            this.fragments = fragments;
+        }
+
+        /**
+         * Measure the given selection set of the given type, which is null if it is unknown, found at the given depth
+         * within the given fragments. Each field selected is expected to appear the given number of times in the
+         * result. The measurement stops as soon as a limit is exceeded, so that fragments spread many times cannot
+         * make it take exponential time.
+         */
+        void measure(SelectionSet selectionSet, GraphQLType type, int parentDepth, long count,
+                     Set<String> enclosingFragments) {
+            if (selectionSet == null || depth > maxDepth || fields > maxFields) return;
+            for (Selection selection : selectionSet.getSelections()) {
+                if (selection instanceof Field) {
+                    Field field = (Field) selection;
+                    fields += count;
+                    depth = Math.max(depth, parentDepth + 1);
+                    GraphQLType fieldType = fieldType(type, field.getName());
+                    long nestedCount = fieldType != null && isList(fieldType) ? count * listFanOut : count;
+                    measure(field.getSelectionSet(), fieldType == null ? null : types.get(unwrap(fieldType).getName()),
+                            parentDepth + 1, nestedCount, enclosingFragments);
+                } else if (selection instanceof InlineFragment) {
+                    InlineFragment fragment = (InlineFragment) selection;
+                    GraphQLType fragmentType = fragment.getTypeCondition() == null ?
+                            type : types.get(fragment.getTypeCondition().getName());
+                    measure(fragment.getSelectionSet(), fragmentType, parentDepth, count, enclosingFragments);
+                } else if (selection instanceof FragmentSpread) {
+                    String name = ((FragmentSpread) selection).getName();
+                    FragmentDefinition fragment = fragments.get(name);
+                    // A fragment spreading itself is invalid, and reported as such by the validation.
+                    if (fragment == null || enclosingFragments.contains(name)) continue;
+                    Set<String> nestedFragments = new HashSet<>(enclosingFragments);
+                    nestedFragments.add(name);
+                    measure(fragment.getSelectionSet(), types.get(fragment.getTypeCondition().getName()),
+                            parentDepth, count, nestedFragments);
+                }
+            }
+        }
+
+        /** @return the type of the field with the given name of the given type, or null if it is unknown. */
+        private GraphQLType fieldType(GraphQLType type, String name) {
+            for (GraphQLFieldDefinition field : fieldDefinitions(type)) {
+                if (field.getName().equals(name)) return field.getType();
+            }
+            return null;
+        }
+    }
+
+}
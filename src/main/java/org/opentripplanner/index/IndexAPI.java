@@ -26,6 +26,7 @@ import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.api.common.CachedResponse;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.index.model.PatternDetail;
@@ -59,6 +60,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -103,6 +105,7 @@ public class IndexAPI {
    @Context UriInfo uriInfo;
 
     @GET
+    @CachedResponse
     @Path("/feeds")
     public Response getFeeds() {
         return Response.status(Status.OK).entity(index.agenciesForFeedId.keySet()).build();
@@ -110,6 +113,7 @@ public class IndexAPI {
 
    /** Return a list of all agencies in the graph. */
    @GET
+   @CachedResponse
    @Path("/agencies/{feedId}")
    public Response getAgencies (@PathParam("feedId") String feedId) {
        return Response.status(Status.OK).entity(
@@ -118,6 +122,7 @@ public class IndexAPI {
 
    /** Return specific agency in the graph, by ID. */
    @GET
+   @CachedResponse
    @Path("/agencies/{feedId}/{agencyId}")
    public Response getAgency (@PathParam("feedId") String feedId, @PathParam("agencyId") String agencyId) {
        for (Agency agency : index.agenciesForFeedId.get(feedId).values()) {
@@ -130,6 +135,7 @@ public class IndexAPI {
 
     /** Return all routes for the specific agency. */
     @GET
+    @CachedResponse
     @Path("/agencies/{feedId}/{agencyId}/routes")
     public Response getAgencyRoutes (@PathParam("feedId") String feedId, @PathParam("agencyId") String agencyId) {
         Collection<Route> routes = index.routeForId.values();
@@ -152,6 +158,7 @@ public class IndexAPI {
    
    /** Return specific transit stop in the graph, by ID. */
    @GET
+   @CachedResponse
    @Path("/stops/{stopId}")
    public Response getStop (@PathParam("stopId") String stopIdString) {
        AgencyAndId stopId = GtfsLibrary.convertIdFromString(stopIdString);
@@ -165,6 +172,7 @@ public class IndexAPI {
    
    /** Return a list of all stops within a circle around the given coordinate. */
    @GET
+   @CachedResponse
    @Path("/stops")
    public Response getStopsInRadius (
            @QueryParam("minLat") Double minLat,
@@ -217,6 +225,7 @@ public class IndexAPI {
    }
 
    @GET
+   @CachedResponse
    @Path("/stops/{stopId}/routes")
    public Response getRoutesForStop (@PathParam("stopId") String stopId) {
        Stop stop = index.stopForId.get(GtfsLibrary.convertIdFromString(stopId));
@@ -229,6 +238,7 @@ public class IndexAPI {
    }
 
    @GET
+   @CachedResponse
    @Path("/stops/{stopId}/patterns")
    public Response getPatternsForStop (@PathParam("stopId") String stopIdString) {
        AgencyAndId id = GtfsLibrary.convertIdFromString(stopIdString);
@@ -239,6 +249,7 @@ public class IndexAPI {
    }
 
     /** Return upcoming vehicle arrival/departure times at the given stop.
+     * The response is not cached, since it depends on the current time.
      *
      * @param stopIdString Stop ID in Agency:Stop ID format
      * @param startTime Start time for the search. Seconds from UNIX epoch
@@ -261,6 +272,7 @@ public class IndexAPI {
      * @param date in YYYYMMDD format
      */
     @GET
+    @CachedResponse(realtime = true)
     @Path("/stops/{stopId}/stoptimes/{date}")
     public Response getStoptimesForStopAndDate (@PathParam("stopId") String stopIdString,
                                                 @PathParam("date") String date) {
@@ -282,6 +294,7 @@ public class IndexAPI {
      * Return the generated transfers a stop in the graph, by stop ID
      */
     @GET
+    @CachedResponse
     @Path("/stops/{stopId}/transfers")
     public Response getTransfers(@PathParam("stopId") String stopIdString) {
         Stop stop = index.stopForId.get(GtfsLibrary.convertIdFromString(stopIdString));
@@ -313,6 +326,7 @@ public class IndexAPI {
    /** Return a list of all routes in the graph. */
    // with repeated hasStop parameters, replaces old routesBetweenStops
    @GET
+   @CachedResponse
    @Path("/routes")
    public Response getRoutes (@QueryParam("hasStop") List<String> stopIds) {
        Collection<Route> routes = index.routeForId.values();
@@ -335,6 +349,7 @@ public class IndexAPI {
 
    /** Return specific route in the graph, for the given ID. */
    @GET
+   @CachedResponse
    @Path("/routes/{routeId}")
    public Response getRoute (@PathParam("routeId") String routeIdString) {
        AgencyAndId routeId = GtfsLibrary.convertIdFromString(routeIdString);
@@ -348,6 +363,7 @@ public class IndexAPI {
 
    /** Return all stop patterns used by trips on the given route. */
    @GET
+   @CachedResponse
    @Path("/routes/{routeId}/patterns")
    public Response getPatternsForRoute (@PathParam("routeId") String routeIdString) {
        AgencyAndId routeId = GtfsLibrary.convertIdFromString(routeIdString);
@@ -362,6 +378,7 @@ public class IndexAPI {
 
    /** Return all stops in any pattern on a given route. */
    @GET
+   @CachedResponse
    @Path("/routes/{routeId}/stops")
    public Response getStopsForRoute (@PathParam("routeId") String routeIdString) {
        AgencyAndId routeId = GtfsLibrary.convertIdFromString(routeIdString);
@@ -380,6 +397,7 @@ public class IndexAPI {
 
    /** Return all trips in any pattern on the given route. */
    @GET
+   @CachedResponse
    @Path("/routes/{routeId}/trips")
    public Response getTripsForRoute (@PathParam("routeId") String routeIdString) {
        AgencyAndId routeId = GtfsLibrary.convertIdFromString(routeIdString);
@@ -401,6 +419,7 @@ public class IndexAPI {
     // @Path("/trips")
 
    @GET
+   @CachedResponse
    @Path("/trips/{tripId}")
    public Response getTrip (@PathParam("tripId") String tripIdString) {
        AgencyAndId tripId = GtfsLibrary.convertIdFromString(tripIdString);
@@ -413,6 +432,7 @@ public class IndexAPI {
    }
 
    @GET
+   @CachedResponse
    @Path("/trips/{tripId}/stops")
    public Response getStopsForTrip (@PathParam("tripId") String tripIdString) {
        AgencyAndId tripId = GtfsLibrary.convertIdFromString(tripIdString);
@@ -427,6 +447,7 @@ public class IndexAPI {
    }
 
     @GET
+    @CachedResponse
     @Path("/trips/{tripId}/semanticHash")
     public Response getSemanticHashForTrip (@PathParam("tripId") String tripIdString) {
         AgencyAndId tripId = GtfsLibrary.convertIdFromString(tripIdString);
@@ -441,6 +462,7 @@ public class IndexAPI {
     }
 
     @GET
+    @CachedResponse(realtime = true)
    @Path("/trips/{tripId}/stoptimes")
    public Response getStoptimesForTrip (@PathParam("tripId") String tripIdString) {
        AgencyAndId tripId = GtfsLibrary.convertIdFromString(tripIdString);
@@ -457,6 +479,7 @@ public class IndexAPI {
 
     /** Return geometry for the trip as a packed coordinate sequence */
     @GET
+    @CachedResponse
     @Path("/trips/{tripId}/geometry")
     public Response getGeometryForTrip (@PathParam("tripId") String tripIdString) {
         AgencyAndId tripId = GtfsLibrary.convertIdFromString(tripIdString);
@@ -470,6 +493,7 @@ public class IndexAPI {
     }
 
    @GET
+   @CachedResponse
    @Path("/patterns")
    public Response getPatterns () {
        Collection<TripPattern> patterns = index.patternForId.values();
@@ -477,6 +501,7 @@ public class IndexAPI {
    }
 
    @GET
+   @CachedResponse
    @Path("/patterns/{patternId}")
    public Response getPattern (@PathParam("patternId") String patternIdString) {
        TripPattern pattern = index.patternForId.get(patternIdString);
@@ -488,6 +513,7 @@ public class IndexAPI {
    }
 
    @GET
+   @CachedResponse
    @Path("/patterns/{patternId}/trips")
    public Response getTripsForPattern (@PathParam("patternId") String patternIdString) {
        TripPattern pattern = index.patternForId.get(patternIdString);
@@ -500,6 +526,7 @@ public class IndexAPI {
    }
 
    @GET
+   @CachedResponse
    @Path("/patterns/{patternId}/stops")
    public Response getStopsForPattern (@PathParam("patternId") String patternIdString) {
        // Pattern names are graph-unique because we made them that way (did not read them from GTFS).
@@ -513,6 +540,7 @@ public class IndexAPI {
    }
 
     @GET
+    @CachedResponse
     @Path("/patterns/{patternId}/semanticHash")
     public Response getSemanticHashForPattern (@PathParam("patternId") String patternIdString) {
         // Pattern names are graph-unique because we made them that way (did not read them from GTFS).
@@ -527,6 +555,7 @@ public class IndexAPI {
 
     /** Return geometry for the pattern as a packed coordinate sequence */
     @GET
+    @CachedResponse
     @Path("/patterns/{patternId}/geometry")
     public Response getGeometryForPattern (@PathParam("patternId") String patternIdString) {
         TripPattern pattern = index.patternForId.get(patternIdString);
@@ -542,6 +571,7 @@ public class IndexAPI {
 
     /** List basic information about all service IDs. */
     @GET
+    @CachedResponse
     @Path("/services")
     public Response getServices() {
         index.serviceForId.values(); // TODO complete
@@ -550,6 +580,7 @@ public class IndexAPI {
 
     /** List details about a specific service ID including which dates it runs on. Replaces the old /calendar. */
     @GET
+    @CachedResponse
     @Path("/services/{serviceId}")
     public Response getServices(@PathParam("serviceId") String serviceId) {
         index.serviceForId.get(serviceId); // TODO complete
@@ -558,6 +589,7 @@ public class IndexAPI {
 
     /** Return all clusters of stops. */
     @GET
+    @CachedResponse
     @Path("/clusters")
     public Response getAllStopClusters () {
         index.clusterStopsAsNeeded();
@@ -568,6 +600,7 @@ public class IndexAPI {
 
     /** Return a cluster of stops by its ID. */
     @GET
+    @CachedResponse
     @Path("/clusters/{clusterId}")
     public Response getStopCluster (@PathParam("clusterId") String clusterIdString) {
         index.clusterStopsAsNeeded();
@@ -580,6 +613,7 @@ public class IndexAPI {
     }
 
     @POST
+    @CachedResponse(realtime = true)
     @Path("/graphql")
     @Consumes(MediaType.APPLICATION_JSON)
     public Response getGraphQL (HashMap<String, Object> query) {
@@ -589,14 +623,30 @@ public class IndexAPI {
         } else {
             variables = new HashMap<>();
         }
-        return index.getGraphQLResponse((String) query.get("query"), variables);
+        return noStoreIfTimeDependent((String) query.get("query"),
+                index.getGraphQLResponse((String) query.get("query"), variables));
     }
 
     @POST
+    @CachedResponse(realtime = true)
     @Path("/graphql")
     @Consumes("application/graphql")
     public Response getGraphQL (String query) {
-        return index.getGraphQLResponse(query, new HashMap<>());
+        return noStoreIfTimeDependent(query, index.getGraphQLResponse(query, new HashMap<>()));
+    }
+
+    /** Keep the response to a GraphQL query out of the response cache if it may depend on the current time. */
+    private static Response noStoreIfTimeDependent (String query, Response response) {
+        if (query != null) {
+            for (String field : IndexGraphQLSchema.TIME_DEPENDENT_FIELDS) {
+                if (query.contains(field)) {
+                    CacheControl noStore = new CacheControl();
+                    noStore.setNoStore(true);
+                    return Response.fromResponse(response).cacheControl(noStore).build();
+                }
+            }
+        }
+        return response;
     }
 
 //    @GET
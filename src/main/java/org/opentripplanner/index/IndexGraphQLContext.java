@@ -0,0 +1,75 @@
+package org.opentripplanner.index;
+
+import com.google.common.base.Throwables;
+import graphql.schema.DataFetchingEnvironment;
+import org.opentripplanner.routing.edgetype.TimetableSnapshot;
+import org.opentripplanner.routing.graph.GraphIndex;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+/**
+ * The state shared by the data fetchers of the IndexGraphQLSchema during the execution of a single GraphQL query, which
+ * is passed to them as the GraphQL context.
+ *
+ * Nested queries reach the same objects through many paths (e.g. the stops of every pattern of every route), so, like a
+ * DataLoader, this memoizes the values of the more expensive fields for the duration of the query: each one is only
+ * computed once however many times it appears in the result. The fields of a query also all see the same realtime
+ * timetable snapshot and the same current time, so the result is consistent even when updates arrive during execution.
+ */
+public class IndexGraphQLContext {
+
+    /** The realtime timetables to use for the whole query, or null if there are no realtime updates. */
+    public final TimetableSnapshot timetableSnapshot;
+
+    /** The time at which the query started, in seconds since the epoch, used by fields that search from "now". */
+    public final long startTime;
+
+    /* Values fetched during this query, keyed on the name of the field and all the objects it was computed from. */
+    private final Map<List<Object>, Future<Object>> values = new ConcurrentHashMap<>();
+
+    public IndexGraphQLContext(GraphIndex index) {
+        timetableSnapshot = index.currentTimetableSnapshot();
+        startTime = System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * @return the context of the query being executed, or a new one if the query was executed without a context, in
+     *         which case nothing is shared with the other fields.
+     */
+    static IndexGraphQLContext of(DataFetchingEnvironment environment, GraphIndex index) {
+        Object context = environment.getContext();
+        return context instanceof IndexGraphQLContext ? (IndexGraphQLContext) context : new IndexGraphQLContext(index);
+    }
+
+    /**
+     * @return the value previously fetched in this query for the given key, or the value of the given fetcher. When
+     *         concurrent fields request the same key, the fetcher is called once and the others wait for its value.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(Supplier<T> fetcher, Object... key) {
+        FutureTask<Object> task = new FutureTask<>(fetcher::get);
+        Future<Object> value = values.putIfAbsent(Arrays.asList(key), task);
+        if (value == null) {
+            // The fetcher runs in this thread, outside of any lock on the map.
+            task.run();
+            value = task;
+        }
+        try {
+            return (T) value.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+}
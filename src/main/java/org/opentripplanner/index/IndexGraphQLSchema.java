@@ -31,6 +31,7 @@ import org.opentripplanner.index.model.StopTimesInPattern;
 import org.opentripplanner.index.model.TripTimeShort;
 import org.opentripplanner.profile.StopCluster;
 import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.TimetableSnapshot;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.GraphIndex;
 import org.opentripplanner.routing.trippattern.RealTimeState;
@@ -43,6 +44,13 @@ import java.util.stream.Collectors;
 
 public class IndexGraphQLSchema {
 
+    /**
+     * The fields whose values depend on the current time when their startTime argument is left to its default. Queries
+     * including them are not cached.
+     */
+    public static final List<String> TIME_DEPENDENT_FIELDS =
+        Arrays.asList("stoptimesForPatterns", "stoptimesWithoutPatterns");
+
     public static GraphQLEnumType locationTypeEnum = GraphQLEnumType.newEnum()
         .name("LocationType")
         .description("Identifies whether this stop represents a stop or station.")
@@ -130,6 +138,24 @@ public class IndexGraphQLSchema {
         }
     });
 
+    /**
+     * Fetch the upcoming departures from the stop that is the source of the given environment, memoized for the query
+     * so that fields asking for the same departures share them. The default start time is the start of the query.
+     */
+    private static List<StopTimesInPattern> stopTimesForStop(DataFetchingEnvironment environment, GraphIndex index) {
+        IndexGraphQLContext context = IndexGraphQLContext.of(environment, index);
+        Stop stop = (Stop) environment.getSource();
+        long startTime = Long.parseLong(environment.getArgument("startTime"));
+        if (startTime == 0) {
+            startTime = context.startTime;
+        }
+        int timeRange = environment.getArgument("timeRange");
+        int numberOfDepartures = environment.getArgument("numberOfDepartures");
+        long searchTime = startTime;
+        return context.load(() -> index.stopTimesForStop(stop, searchTime, timeRange, numberOfDepartures,
+                context.timetableSnapshot), "stopTimesForStop", stop, startTime, timeRange, numberOfDepartures);
+    }
+
     public IndexGraphQLSchema(GraphIndex index) {
 
         fuzzyTripMatcher = new GtfsRealtimeFuzzyTripMatcher(index);
@@ -285,12 +311,14 @@ public class IndexGraphQLSchema {
             .field(GraphQLFieldDefinition.newFieldDefinition()
                 .name("routes")
                 .type(new GraphQLList(new GraphQLNonNull(routeType)))
-                .dataFetcher(environment -> index.patternsForStop
-                    .get((Stop) environment.getSource())
-                    .stream()
-                    .map(pattern -> pattern.route)
-                    .distinct()
-                    .collect(Collectors.toList()))
+                .dataFetcher(environment -> IndexGraphQLContext.of(environment, index).load(() ->
+                    index.patternsForStop
+                        .get((Stop) environment.getSource())
+                        .stream()
+                        .map(pattern -> pattern.route)
+                        .distinct()
+                        .collect(Collectors.toList()),
+                    "routesForStop", environment.getSource()))
                 .build())
             .field(GraphQLFieldDefinition.newFieldDefinition()
                 .name("patterns")
@@ -320,10 +348,12 @@ public class IndexGraphQLSchema {
                     .type(Scalars.GraphQLString)
                     .build())
                 .dataFetcher(environment -> {
+                    IndexGraphQLContext context = IndexGraphQLContext.of(environment, index);
                     try {  // TODO: Add our own scalar types for at least serviceDate and AgencyAndId
-                        return index.getStopTimesForStop(
-                            (Stop) environment.getSource(),
-                            ServiceDate.parseString(environment.getArgument("date")));
+                        ServiceDate serviceDate = ServiceDate.parseString(environment.getArgument("date"));
+                        return context.load(() -> index.getStopTimesForStop(
+                                (Stop) environment.getSource(), serviceDate, context.timetableSnapshot),
+                            "stopTimesForServiceDate", environment.getSource(), serviceDate);
                     } catch (ParseException e) {
                         return null;
                     }
@@ -347,11 +377,7 @@ public class IndexGraphQLSchema {
                     .type(Scalars.GraphQLInt)
                     .defaultValue(5)
                     .build())
-                .dataFetcher(environment ->
-                    index.stopTimesForStop((Stop) environment.getSource(),
-                        Long.parseLong(environment.getArgument("startTime")),
-                        (int) environment.getArgument("timeRange"),
-                        (int) environment.getArgument("numberOfDepartures")))
+                .dataFetcher(environment -> stopTimesForStop(environment, index))
                 .build())
             .field(GraphQLFieldDefinition.newFieldDefinition()
                 .name("stoptimesWithoutPatterns")
@@ -372,11 +398,7 @@ public class IndexGraphQLSchema {
                     .defaultValue(5)
                     .build())
                 .dataFetcher(environment ->
-                    index.stopTimesForStop(
-                        (Stop) environment.getSource(),
-                        Long.parseLong(environment.getArgument("startTime")),
-                        (int) environment.getArgument("timeRange"),
-                        (int) environment.getArgument("numberOfDepartures"))
+                    stopTimesForStop(environment, index)
                     .stream()
                     .flatMap(stoptimesWithPattern -> stoptimesWithPattern.times.stream())
                     .sorted(Comparator.comparing(t -> t.serviceDay + t.realtimeDeparture))
@@ -552,11 +574,11 @@ public class IndexGraphQLSchema {
                 .dataFetcher(environment -> {
                     try {
                         Trip trip = (Trip) environment.getSource();
-                        return TripTimeShort.fromTripTimes(
-                            index.graph.timetableSnapshotSource.getTimetableSnapshot()
-                                .resolve(index.patternForTrip.get(trip),
-                                    ServiceDate.parseString(environment.getArgument("serviceDay")))
-                                , trip);
+                        TripPattern pattern = index.patternForTrip.get(trip);
+                        ServiceDate serviceDate = ServiceDate.parseString(environment.getArgument("serviceDay"));
+                        TimetableSnapshot snapshot = IndexGraphQLContext.of(environment, index).timetableSnapshot;
+                        return TripTimeShort.fromTripTimes(snapshot == null ? pattern.scheduledTimetable :
+                                snapshot.resolve(pattern, serviceDate), trip);
                     } catch (ParseException e) {
                          return null; // Invalid date format
                     }
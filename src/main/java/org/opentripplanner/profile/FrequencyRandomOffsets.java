@@ -28,6 +28,11 @@ public class FrequencyRandomOffsets {
                 });
     }
 
+    /** Reset the random number generator, so that the following draws are reproducible. */
+    public void setSeed (long seed) {
+        mt.setSeed(seed);
+    }
+
     public void randomize () {
         for (TIntObjectIterator<int[]> it = offsets.iterator(); it.hasNext();) {
             it.advance();
@@ -129,6 +129,24 @@ public class ProfileRequest implements Serializable, Cloneable {
     /** What assumption should be used when boarding frequency vehicles? */
     public RaptorWorkerTimetable.BoardingAssumption boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.RANDOM;
 
+    /**
+     * If true, the departure minutes of a RAPTOR search are split into chunks that are searched in parallel. This
+     * speeds up single large requests, but a cluster worker that already runs one request per core gains nothing.
+     */
+    public boolean parallelRaptor = false;
+
+    /**
+     * If true, searches on scheduled-only transit data use range-RAPTOR with separate arrival times for each round,
+     * rather than carrying only the best time at each stop from one departure minute to the next.
+     */
+    public boolean rangeRaptor = false;
+
+    /**
+     * Seed for the random frequency offsets. If set, the Monte Carlo draws depend only on the seed and the departure
+     * minute, so repeating the request gives identical results whether or not it is run in parallel.
+     */
+    public Long randomSeed;
+
     /* The relative importance of different factors when biking */
     /** The relative importance of maximizing safety when cycling */
     public int bikeSafe;
@@ -16,6 +16,7 @@ import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.T2;
 import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.algorithm.TraverseVisitor;
 import org.opentripplanner.routing.core.OptimizeType;
 import org.opentripplanner.routing.core.RoutingContext;
@@ -63,6 +64,9 @@ public class ProfileRouter {
     public final Graph graph;
     public final ProfileRequest request;
 
+    /** Stops the routing when cancelled, e.g. because the client has disconnected. May be null. */
+    public CancellationToken cancellationToken;
+
     public ProfileRouter(Graph graph, ProfileRequest request) {
         this.graph = graph;
         this.request = request;
@@ -300,6 +304,8 @@ public class ProfileRouter {
             }
             if (System.currentTimeMillis() > abortTime)
                 throw new RuntimeException("TIMEOUT");
+            if (cancellationToken != null && cancellationToken.isCancelled())
+                throw new RuntimeException("CANCELLED");
         }
         LOG.info("Profile routing request finished in {} sec.", (System.currentTimeMillis() - searchBeginTime) / 1000.0);
         if (request.analyst) {
@@ -448,6 +454,7 @@ public class ProfileRouter {
         // FIXME requires destination to be set, not necessary for analyst
         rr.to = new GenericLocation(request.toLat, request.toLon);
         rr.setArriveBy(dest);
+        rr.cancellationToken = cancellationToken;
         rr.setRoutingContext(graph);
         // Set batch after context, so both origin and dest vertices will be found.
         rr.batch = (true);
@@ -517,6 +524,7 @@ public class ProfileRouter {
         rr.from = (new GenericLocation(request.fromLat, request.fromLon));
         rr.to = new GenericLocation(request.toLat, request.toLon);
         rr.setArriveBy(false);
+        rr.cancellationToken = cancellationToken;
         rr.setRoutingContext(graph);
         rr.dominanceFunction = new DominanceFunction.MinimumWeight();
         // This is not a batch search, it is a point-to-point search with goal direction.
@@ -528,6 +536,7 @@ public class ProfileRouter {
         AStar astar = new AStar();
         rr.setNumItineraries(1);
         ShortestPathTree spt = astar.getShortestPathTree(rr, 5);
+        if (spt == null) return; // cancelled
         State state = spt.getState(rr.rctx.target);
         if (state != null) {
             LOG.info("Found non-transit option for {}", qmode);
@@ -64,6 +64,15 @@ public class PropagatedTimesStore {
     int[] mins, maxs, avgs;
     ProfileRequest req;
 
+    /**
+     * Running statistics while iterations are merged one at a time with mergeIteration, or null if they are not.
+     * Per target: the sum and number of times included in averages, and the number of iterations reaching it.
+     */
+    private int[] sums, counts, reachedCounts;
+
+    /** The number of iterations merged with mergeIteration, and how many of them are included in averages. */
+    private int mergedIterations, effectiveIterations;
+
     // number of times to bootstrap the mean.
     public final int N_BOOTSTRAPS = 400;
 
@@ -223,6 +232,98 @@ public class PropagatedTimesStore {
         }
     }
 
+    /**
+     * Merge the travel times of one iteration into running statistics, without keeping the times themselves. Once all
+     * iterations have been merged, finishIterations gives the same result as setFromArray with MIN_MAX confidence
+     * intervals on all of them, using memory proportional to the number of targets rather than to the number of
+     * targets times the number of iterations. Iterations may be merged in any order. This is not thread safe: searches
+     * running concurrently each merge their iterations into their own store, and combine them with mergeIterations.
+     *
+     * @param times an array of travel times to each destination, which may be reused by the caller once this returns.
+     * @param includeInAverages whether this iteration should be included in average calculations.
+     */
+    public void mergeIteration(int[] times, boolean includeInAverages) {
+        initIterations();
+        for (int target = 0; target < times.length; target++) {
+            int time = times[target];
+            if (time == RaptorWorker.UNREACHED)
+                continue;
+
+            if (includeInAverages) {
+                sums[target] += time;
+                counts[target]++;
+            }
+
+            reachedCounts[target]++;
+            // mins and maxs start out at MAX_VALUE, which here means that no time has been merged yet
+            if (time < mins[target])
+                mins[target] = time;
+            if (maxs[target] == Integer.MAX_VALUE || time > maxs[target])
+                maxs[target] = time;
+        }
+        mergedIterations++;
+        if (includeInAverages)
+            effectiveIterations++;
+    }
+
+    /**
+     * Merge the running statistics of the iterations merged into the given store into those of this store, as if its
+     * iterations had been merged into this store one by one.
+     */
+    public void mergeIterations(PropagatedTimesStore other) {
+        if (other.sums == null)
+            return;
+
+        initIterations();
+        for (int target = 0; target < size; target++) {
+            sums[target] += other.sums[target];
+            counts[target] += other.counts[target];
+            reachedCounts[target] += other.reachedCounts[target];
+            if (other.mins[target] < mins[target])
+                mins[target] = other.mins[target];
+            // MAX_VALUE means that no time has been merged yet, in either store
+            if (other.maxs[target] != Integer.MAX_VALUE
+                    && (maxs[target] == Integer.MAX_VALUE || other.maxs[target] > maxs[target]))
+                maxs[target] = other.maxs[target];
+        }
+        mergedIterations += other.mergedIterations;
+        effectiveIterations += other.effectiveIterations;
+    }
+
+    private void initIterations() {
+        if (sums == null) {
+            sums = new int[size];
+            counts = new int[size];
+            reachedCounts = new int[size];
+        }
+    }
+
+    /**
+     * Compute the final statistics from the iterations merged with mergeIteration. The rules are those of
+     * setFromArray with MIN_MAX confidence intervals.
+     */
+    public void finishIterations() {
+        if (sums == null)
+            return;
+
+        for (int target = 0; target < size; target++) {
+            if (counts[target] == 0) {
+                // never reachable in an iteration included in averages
+                mins[target] = maxs[target] = avgs[target] = Integer.MAX_VALUE;
+                continue;
+            }
+
+            // see setFromArray for why destinations reachable too little of the time are unreachable on average
+            if (counts[target] >= effectiveIterations * req.reachabilityThreshold)
+                avgs[target] = sums[target] / counts[target];
+
+            // worst case: if it is sometimes unreachable, worst case is unreachable
+            if (reachedCounts[target] != mergedIterations)
+                maxs[target] = Integer.MAX_VALUE;
+        }
+        sums = counts = reachedCounts = null;
+    }
+
     /**
      * Make a ResultEnvelope directly from a given SampleSet.
      * The RaptorWorkerData must have been constructed from the same SampleSet.
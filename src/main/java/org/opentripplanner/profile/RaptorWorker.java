@@ -1,5 +1,6 @@
 package org.opentripplanner.profile;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 import gnu.trove.iterator.TIntIntIterator;
 import gnu.trove.map.TIntIntMap;
@@ -12,10 +13,18 @@ import org.slf4j.LoggerFactory;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 /**
  * A RaptorWorker carries out RAPTOR searches on a pre-filtered, compacted representation of all the trips running
@@ -62,9 +71,24 @@ public class RaptorWorker {
     /** If there are no schedules, the number of Monte Carlo draws to take */
     public static final int TOTAL_MONTE_CARLO_COUNT = 99;
 
+    /** The number of threads searching the departure minutes of parallel searches, including the calling thread. */
+    private static final int N_CHUNK_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Runs the chunks of departure minutes of parallel searches. A chunk that finds all the threads busy, for instance
+     * because several parallel searches are running, is run by the thread of its search rather than queued. This
+     * bounds the number of threads used by all the searches together, without any search waiting for another.
+     */
+    private static final ExecutorService chunkExecutor = new ThreadPoolExecutor(0, Math.max(1, N_CHUNK_THREADS - 1), 60,
+            TimeUnit.SECONDS, new SynchronousQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("RaptorWorker-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
     int max_time = 0;
     int round = 0;
     List<int[]> timesPerStopPerRound;
+    /** The best times for reaching stops via transit rather than via a transfer, per round of range-RAPTOR */
+    List<int[]> nonTransferTimesPerStopPerRound;
     int[] timesPerStop;
     int[] bestTimes;
 
@@ -113,6 +137,9 @@ public class RaptorWorker {
 
     private FrequencyRandomOffsets offsets;
 
+    /** The boarding assumption for the current frequency search, which may be an extreme case of the requested one. */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
@@ -127,6 +154,7 @@ public class RaptorWorker {
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
+        boardingAssumption = req.boardingAssumption;
     }
 
     public void advance () {
@@ -165,7 +193,8 @@ public class RaptorWorker {
         }
 
         // if no frequencies, don't run Monte Carlo
-        int iterations = (req.toTime - fromTime - 60) / 60 + 1;
+        int nMinutes = (req.toTime - fromTime - 60) / 60 + 1;
+        int iterations = nMinutes;
 
         // if we do Monte Carlo, we do more iterations. But we only do monte carlo when we have frequencies.
         // So only update the number of iterations when we're actually going to use all of them, to
@@ -177,32 +206,115 @@ public class RaptorWorker {
 
         ts.searchCount = iterations;
 
-        // Iterate backward through minutes (range-raptor) taking a snapshot of router state after each call
-        int[][] timesAtTargetsEachIteration = new int[iterations][data.nTargets];
-
-        // for each iteration, whether it is the result of a schedule or Monte Carlo search, or whether it is an extrema.
-        // extrema are not included in averages.
-        boolean[] includeIterationInAverages = new boolean[iterations];
-        Arrays.fill(includeIterationInAverages, true);
-
         // TODO don't hardwire timestep below
         ts.timeStep = 60;
 
+        // Iterate backward through minutes (range-raptor), merging the times at targets after each call into the
+        // summary statistics rather than keeping them for every iteration.
+        int iteration;
+        if (req.parallelRaptor && nMinutes > 1) {
+            // Split the departure minutes into contiguous chunks, each searched by its own worker starting from empty
+            // state. Range-raptor only reuses state from later to earlier minutes, so each chunk costs one extra search
+            // from scratch. Each chunk merges its iterations into its own store, so the chunks do not contend for the
+            // shared store, and the chunk stores are combined once they are all done.
+            int nChunks = Math.min(nMinutes, N_CHUNK_THREADS);
+            long[] chunkPropagationTimes = new long[nChunks];
+            long[] chunkWorkerTimes = new long[nChunks];
+            int[] chunkIterations = new int[nChunks];
+            PropagatedTimesStore[] chunkStores = new PropagatedTimesStore[nChunks];
+            final int draws = monteCarloDraws;
+            long beginParallelTime = System.currentTimeMillis();
+            List<Future<?>> chunks = new ArrayList<>();
+            for (int c = 0; c < nChunks; c++) {
+                final int chunk = c;
+                chunks.add(chunkExecutor.submit(() -> {
+                    long beginChunkTime = System.currentTimeMillis();
+                    RaptorWorker worker = new RaptorWorker(data, req);
+                    chunkStores[chunk] = new PropagatedTimesStore(graph, req, data.nTargets);
+                    chunkIterations[chunk] = worker.runMinutes(initialStops, nonTransitTimes,
+                            chunk * nMinutes / nChunks, (chunk + 1) * nMinutes / nChunks, draws, chunkStores[chunk]);
+                    chunkPropagationTimes[chunk] = worker.totalPropagationTime;
+                    chunkWorkerTimes[chunk] = System.currentTimeMillis() - beginChunkTime;
+                }));
+            }
+            for (Future<?> chunk : chunks) {
+                try {
+                    chunk.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException("Parallel RAPTOR search failed", e);
+                }
+            }
+            for (PropagatedTimesStore chunkStore : chunkStores) {
+                propagatedTimesStore.mergeIterations(chunkStore);
+            }
+            long parallelTime = System.currentTimeMillis() - beginParallelTime;
+            long propagationWorkerTime = LongStream.of(chunkPropagationTimes).sum();
+            long totalWorkerTime = LongStream.of(chunkWorkerTimes).sum();
+            // The chunks run concurrently, so their summed times exceed the elapsed time. Attribute the elapsed time
+            // of the parallel section to propagation in proportion to the time the workers spent propagating, so
+            // propagation and transit search times still add up to the elapsed calc time.
+            if (totalWorkerTime > 0) {
+                totalPropagationTime += parallelTime * propagationWorkerTime / totalWorkerTime;
+            }
+            iteration = IntStream.of(chunkIterations).sum();
+            LOG.info("searched {} departure minutes in {} parallel chunks in {}sec, workers busy {}sec, propagating {}sec",
+                    nMinutes, nChunks, parallelTime / 1000.0, totalWorkerTime / 1000.0, propagationWorkerTime / 1000.0);
+        } else {
+            iteration = runMinutes(initialStops, nonTransitTimes, 0, nMinutes, monteCarloDraws, propagatedTimesStore);
+        }
+
+        // make sure we ran every iteration, otherwise results are garbage.
+        // This implies a bug in OTP, but it has happened in the past when we did
+        // not set the number of iterations correctly.
+        if (iteration != iterations)
+            throw new IllegalStateException("Did not run the expected number of iterations");
+
+        long calcTime = System.currentTimeMillis() - beginCalcTime;
+        LOG.info("calc time {}sec", calcTime / 1000.0);
+        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
+        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
+        ts.propagation = (int) totalPropagationTime;
+        ts.transitSearch = (int) (calcTime - totalPropagationTime);
+        // this is equivalent to min_max confidence intervals, which we can use here as we've also run it once with
+        // best case and worst case board, so the best and worst cases are meaningful.
+        propagatedTimesStore.finishIterations();
+        return propagatedTimesStore;
+    }
+
+    /**
+     * Search the departure minutes with indexes [firstMinute, endMinute), where minute 0 departs at req.toTime - 60 and
+     * each subsequent minute departs 60 seconds earlier, merging the elapsed times at targets of each iteration into
+     * the given store. Only two arrays of times at targets are used, however many iterations are run.
+     *
+     * @return the number of iterations merged.
+     */
+    int runMinutes (TIntIntMap initialStops, int[] nonTransitTimes, int firstMinute, int endMinute, int monteCarloDraws,
+            PropagatedTimesStore propagatedTimesStore) {
         // times at targets from scheduled search
         int[] scheduledTimesAtTargets = new int[data.nTargets];
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
-        // current iteration
-        int iteration = 0;
+        // times at targets of the current iteration, reused for every iteration
+        int[] timesAtTargets = new int[data.nTargets];
+
+        // state for the frequency searches, reset from the scheduled search state before each of them
+        int[] bestTimesCopy = new int[bestTimes.length];
+        int[] bestNonTransferTimesCopy = new int[bestNonTransferTimes.length];
+        int[] previousPatternsCopy = new int[previousPatterns.length];
 
-        // FIXME this should be changed to tolerate a zero-width time range
-        for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
+        int nIterations = 0;
+
+        for (int n = firstMinute; n < endMinute; n++) {
+            int departureTime = req.toTime - 60 - n * 60;
             if (n % 15 == 0) {
                 LOG.info("minute {}", n);
             }
 
             // run the scheduled search
-            this.runRaptorScheduled(initialStops, departureTime);
+            if (req.rangeRaptor && !data.hasFrequencies)
+                this.runRaptorScheduledRange(initialStops, departureTime);
+            else
+                this.runRaptorScheduled(initialStops, departureTime);
             this.doPropagation(bestNonTransferTimes, scheduledTimesAtTargets, departureTime);
 
             // pop in the walk only times; we don't want to force people to ride transit instead of
@@ -214,31 +326,36 @@ public class RaptorWorker {
 
             // run the frequency searches
             if (data.hasFrequencies) {
+                if (req.randomSeed != null) {
+                    // Draws depend only on the seed and the minute, so results do not depend on how minutes are
+                    // split between parallel workers.
+                    offsets.setSeed(req.randomSeed * 31 + departureTime);
+                }
                 for (int i = 0; i < monteCarloDraws + 2; i++) {
                     // make copies for just this search. We need copies because we can't use dynamic
                     // programming/range-raptor with randomized schedules
-                    int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
-                    int[] bestNonTransferTimesCopy = Arrays
-                            .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
-                    int[] previousPatternsCopy = Arrays
-                            .copyOf(previousPatterns, previousPatterns.length);
+                    System.arraycopy(bestTimes, 0, bestTimesCopy, 0, bestTimes.length);
+                    System.arraycopy(bestNonTransferTimes, 0, bestNonTransferTimesCopy, 0, bestNonTransferTimes.length);
+                    System.arraycopy(previousPatterns, 0, previousPatternsCopy, 0, previousPatterns.length);
+                    boolean includeInAverages = true;
 
                     // special cases: calculate the best and the worst cases as well
                     // Note that this (intentionally) does not affect searches where the user has requested
                     // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
+                    // The request is shared between parallel workers, so the assumption is kept in a field.
+                    boardingAssumption = req.boardingAssumption;
 
                     if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
                         // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
+                        includeInAverages = false;
                     }
                     else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
                         // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
+                        includeInAverages = false;
                     }
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
+                    else if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
                         // use a new Monte Carlo draw each time
                         // included in averages by default
                         offsets.randomize();
@@ -246,49 +363,29 @@ public class RaptorWorker {
                     this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
                             previousPatternsCopy);
 
-                    req.boardingAssumption = requestedBoardingAssumption;
-
                     // do propagation
-                    int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
-                    System.arraycopy(scheduledTimesAtTargets, 0, frequencyTimesAtTargets, 0,
-                            scheduledTimesAtTargets.length);
-                    // updates timesAtTargetsEachIteration directly because it has a reference into the array.
-                    this.doPropagation(bestNonTransferTimesCopy, frequencyTimesAtTargets,
-                            departureTime);
+                    System.arraycopy(scheduledTimesAtTargets, 0, timesAtTargets, 0, scheduledTimesAtTargets.length);
+                    this.doPropagation(bestNonTransferTimesCopy, timesAtTargets, departureTime);
 
                     // convert to elapsed time
-                    for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
-                        if (frequencyTimesAtTargets[t] != UNREACHED)
-                            frequencyTimesAtTargets[t] -= departureTime;
+                    for (int t = 0; t < timesAtTargets.length; t++) {
+                        if (timesAtTargets[t] != UNREACHED)
+                            timesAtTargets[t] -= departureTime;
                     }
+                    propagatedTimesStore.mergeIteration(timesAtTargets, includeInAverages);
+                    nIterations++;
                 }
+                boardingAssumption = req.boardingAssumption;
             } else {
-                final int dt = departureTime;
-                timesAtTargetsEachIteration[iteration++] = IntStream.of(scheduledTimesAtTargets)
-                        .map(i -> i != UNREACHED ? i - dt : i)
-                        .toArray();
+                for (int t = 0; t < timesAtTargets.length; t++) {
+                    int time = scheduledTimesAtTargets[t];
+                    timesAtTargets[t] = time != UNREACHED ? time - departureTime : time;
+                }
+                propagatedTimesStore.mergeIteration(timesAtTargets, true);
+                nIterations++;
             }
         }
-
-        // make sure we filled the array, otherwise results are garbage.
-        // This implies a bug in OTP, but it has happened in the past when we did
-        // not set the number of iterations correctly.
-        // iteration should be incremented past end of array by ++ in assignment above
-        if (iteration != iterations)
-            throw new IllegalStateException("Iterations did not completely fill output array");
-
-        long calcTime = System.currentTimeMillis() - beginCalcTime;
-        LOG.info("calc time {}sec", calcTime / 1000.0);
-        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
-        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
-        ts.propagation = (int) totalPropagationTime;
-        ts.transitSearch = (int) (calcTime - totalPropagationTime);
-        //dumpVariableByte(timesAtTargetsEachMinute);
-        // we can use min_max here as we've also run it once with best case and worst case board,
-        // so the best and worst cases are meaningful.
-        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
-                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
-        return propagatedTimesStore;
+        return nIterations;
     }
 
     public void dumpVariableByte(int[][] array) {
@@ -335,6 +432,165 @@ public class RaptorWorker {
         }
     }
 
+    /**
+     * Run a range-RAPTOR search not using frequencies. Unlike runRaptorScheduled, which only keeps the best time at each
+     * stop from one departure minute to the next, this keeps a separate array of arrival times for each round, and
+     * boards vehicles in round k only at the times stops were reached in round k - 1. This is range-RAPTOR as described
+     * in the RAPTOR paper: since departure minutes are searched from latest to earliest, the times found for a later
+     * minute remain valid (by waiting) for an earlier one, and each minute only scans patterns from stops it improves.
+     *
+     * bestTimes, bestNonTransferTimes and previousPatterns are kept up to date as the minimum over all rounds, so
+     * propagation and any frequency searches work as they do after runRaptorScheduled. Must not be mixed with calls to
+     * runRaptorScheduled on the same worker.
+     */
+    public void runRaptorScheduledRange (TIntIntMap initialStops, int departureTime) {
+        max_time = departureTime + MAX_DURATION;
+        allStopsTouched.clear();
+
+        if (timesPerStopPerRound == null) {
+            timesPerStopPerRound = new ArrayList<>();
+            nonTransferTimesPerStopPerRound = new ArrayList<>();
+        }
+
+        // Round 0 holds the times at which stops are reached by the initial walk
+        int[] accessTimes = timesForRound(timesPerStopPerRound, 0);
+        BitSet reachedLastRound = new BitSet(data.nStops);
+        TIntIntIterator iterator = initialStops.iterator();
+        while (iterator.hasNext()) {
+            iterator.advance();
+            int stopIndex = iterator.key();
+            int time = iterator.value() + departureTime;
+            if (time < accessTimes[stopIndex]) {
+                accessTimes[stopIndex] = time;
+                reachedLastRound.set(stopIndex);
+                // note not setting bestNonTransferTimes here because the initial walk is effectively a "transfer"
+                bestTimes[stopIndex] = Math.min(time, bestTimes[stopIndex]);
+            }
+        }
+
+        BitSet copied = new BitSet(data.nStops);
+        for (round = 1; !reachedLastRound.isEmpty(); round++) {
+            int[] boardTimes = timesPerStopPerRound.get(round - 1);
+            int[] times = timesForRound(timesPerStopPerRound, round);
+            int[] nonTransferTimes = timesForRound(nonTransferTimesPerStopPerRound, round);
+
+            // A stop reached with k - 1 rides is also reached with k rides.
+            patternsTouched.clear();
+            copied.clear();
+            for (int stop = reachedLastRound.nextSetBit(0); stop >= 0; stop = reachedLastRound.nextSetBit(stop + 1)) {
+                markPatternsForStop(stop);
+                if (boardTimes[stop] < times[stop]) {
+                    times[stop] = boardTimes[stop];
+                    copied.set(stop);
+                }
+            }
+
+            stopsTouched.clear();
+            scanPatternsRange(boardTimes, times, nonTransferTimes);
+
+            if (stopsTouched.isEmpty()) {
+                // No vehicle improved any stop. The stops that were only copied into this round would not improve any
+                // further round either, but they still need to be copied so every round stays at least as good as the
+                // one before it for the next departure minute.
+                for (int r = round + 1; r < timesPerStopPerRound.size(); r++) {
+                    int[] previous = timesPerStopPerRound.get(r - 1);
+                    int[] current = timesPerStopPerRound.get(r);
+                    for (int stop = copied.nextSetBit(0); stop >= 0; stop = copied.nextSetBit(stop + 1)) {
+                        current[stop] = Math.min(current[stop], previous[stop]);
+                    }
+                }
+                break;
+            }
+
+            reachedLastRound.clear();
+            reachedLastRound.or(copied);
+            reachedLastRound.or(stopsTouched);
+            doTransfersRange(times, nonTransferTimes, reachedLastRound);
+        }
+    }
+
+    /** @return the array of times for the given round, adding rounds of unreached stops as needed. */
+    private int[] timesForRound (List<int[]> timesPerRound, int round) {
+        while (timesPerRound.size() <= round) {
+            int[] times = new int[data.nStops];
+            Arrays.fill(times, UNREACHED);
+            timesPerRound.add(times);
+        }
+        return timesPerRound.get(round);
+    }
+
+    /**
+     * Scan the touched patterns for one round of range-RAPTOR, boarding at the times in boardTimes (the previous round)
+     * and recording arrivals in times and nonTransferTimes (this round). Stops improved by riding are set in stopsTouched.
+     */
+    private void scanPatternsRange (int[] boardTimes, int[] times, int[] nonTransferTimes) {
+        for (int p = patternsTouched.nextSetBit(0); p >= 0; p = patternsTouched.nextSetBit(p+1)) {
+            RaptorWorkerTimetable timetable = data.timetablesForPattern.get(p);
+            int onTrip = -1;
+            int stopPositionInPattern = -1; // first increment will land this at zero
+
+            for (int stopIndex : timetable.stopIndices) {
+                stopPositionInPattern += 1;
+                if (onTrip != -1) {
+                    int arrivalTime = timetable.getArrival(onTrip, stopPositionInPattern);
+                    if (arrivalTime < max_time && arrivalTime < nonTransferTimes[stopIndex]) {
+                        nonTransferTimes[stopIndex] = arrivalTime;
+                        stopsTouched.set(stopIndex);
+
+                        if (arrivalTime < times[stopIndex])
+                            times[stopIndex] = arrivalTime;
+
+                        if (arrivalTime < bestNonTransferTimes[stopIndex]) {
+                            bestNonTransferTimes[stopIndex] = arrivalTime;
+                            allStopsTouched.set(stopIndex);
+                        }
+
+                        if (arrivalTime < bestTimes[stopIndex]) {
+                            bestTimes[stopIndex] = arrivalTime;
+                            previousPatterns[stopIndex] = p;
+                        }
+                    }
+                }
+
+                if (boardTimes[stopIndex] == UNREACHED)
+                    continue; // not reached in the previous round, we can't board.
+
+                if (onTrip == -1) {
+                    onTrip = timetable.findDepartureAfter(stopPositionInPattern, boardTimes[stopIndex]);
+                } else {
+                    // Check whether we can back up to an earlier trip, because there was a faster way to get to this stop.
+                    while (onTrip > 0 && timetable.getDeparture(onTrip - 1, stopPositionInPattern) > boardTimes[stopIndex]) {
+                        onTrip--;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply transfers from the stops improved by riding in this round of range-RAPTOR (stopsTouched). Stops improved by
+     * a transfer are set in reached, so that patterns passing through them are scanned in the next round.
+     */
+    private void doTransfersRange (int[] times, int[] nonTransferTimes, BitSet reached) {
+        for (int stop = stopsTouched.nextSetBit(0); stop >= 0; stop = stopsTouched.nextSetBit(stop + 1)) {
+            int fromTime = nonTransferTimes[stop];
+            int[] transfers = data.transfersForStop.get(stop);
+            for (int i = 0; i < transfers.length; i++) {
+                int toStop = transfers[i++]; // increment i
+                int distance = transfers[i]; // i will be incremented at the end of the loop
+                int toTime = fromTime + (int) (distance / req.walkSpeed);
+                if (toTime < max_time && toTime < times[toStop]) {
+                    times[toStop] = toTime;
+                    reached.set(toStop);
+                    if (toTime < bestTimes[toStop]) {
+                        bestTimes[toStop] = toTime;
+                        previousPatterns[toStop] = previousPatterns[stop];
+                    }
+                }
+            }
+        }
+    }
+
     /** Run a RAPTOR search using frequencies */
     public void runRaptorFrequency (int departureTime, int[] bestTimes, int[] bestNonTransferTimes, int[] previousPatterns) {
         max_time = departureTime + MAX_DURATION;
@@ -391,7 +647,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
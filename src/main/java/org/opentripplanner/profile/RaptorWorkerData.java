@@ -99,8 +99,8 @@ public class RaptorWorkerData implements Serializable {
      */
     public final List<int[]> targetsForStop = new ArrayList<>();
 
-    /** The 0-based RAPTOR indices of each stop from their vertex IDs */
-    public transient final TIntIntMap indexForStop;
+    /** The 0-based RAPTOR indices of each stop from their vertex IDs. Needed to find the initial stops of a search. */
+    public final TIntIntMap indexForStop;
      /** Optional debug data: the name of each stop. */
     public transient final List<String> stopNames = new ArrayList<>();
     public transient final List<String> patternNames = new ArrayList<>();
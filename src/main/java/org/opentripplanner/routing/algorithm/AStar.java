@@ -19,6 +19,8 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -50,6 +52,9 @@ public class AStar {
     private static final MonitoringStore store = MonitoringStoreFactory.getStore();
     private static final double OVERSEARCH_MULTIPLIER = 4.0;
 
+    /** Searches check whether they have been cancelled once every (this mask + 1) iterations. */
+    public static final int CANCELLATION_CHECK_MASK = 0xFF;
+
     private boolean verbose = false;
 
     private TraverseVisitor traverseVisitor;
@@ -63,10 +68,18 @@ public class AStar {
 
         public State u;
         public ShortestPathTree spt;
-        BinHeap<State> pq;
+        OTPPriorityQueue<State> pq;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
+        /** The number of states put in the queue, including those replacing a queued state at the same vertex. */
+        public int nEnqueued;
+        /** The number of states taken from the queue that had been dominated since they were enqueued. */
+        public int nStalePops;
+        /** The number of states produced by traversing edges. */
+        public int nCreated;
+        /** The number of new states not enqueued because of the heuristic or the weight and time limits. */
+        public int nPruned;
         public List<State> targetAcceptedStates;
         public RunStatus status;
         private RoutingRequest options;
@@ -120,13 +133,21 @@ public class AStar {
         // Since initial states can be multiple, heuristic cannot depend on the initial state.
         // Initializing the bidirectional heuristic is a pretty complicated operation that involves searching through
         // the streets around the origin and destination.
+        long heuristicStart = System.currentTimeMillis();
         runState.heuristic.initialize(runState.options, abortTime);
+        options.rctx.debugOutput.initializedHeuristic(System.currentTimeMillis() - heuristicStart);
         if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
             LOG.warn("Timeout during initialization of goal direction heuristic.");
             options.rctx.debugOutput.timedOut = true;
             runState = null; // Search timed out
             return;
         }
+        if (options.rctx.cancellationToken.isCancelled()) {
+            LOG.debug("Search cancelled during initialization of goal direction heuristic.");
+            options.rctx.aborted = true;
+            runState = null;
+            return;
+        }
 
         // Priority Queue.
         // The queue is self-resizing, so we initialize it to have size = O(sqrt(|V|)) << |V|.
@@ -134,7 +155,13 @@ public class AStar {
         // before reaching its target.
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<>(initialSize);
+        if (options.indexedPriorityQueue) {
+            // Queued states are identified by their vertex, so a state that dominates the only other state at its
+            // vertex can replace it in the queue rather than leaving it behind as a stale entry.
+            runState.pq = new IndexedDaryHeap<>(initialSize, initialSize, s -> s.getVertex().getIndex());
+        } else {
+            runState.pq = new BinHeap<>(initialSize);
+        }
         runState.nVisited = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
@@ -163,6 +190,7 @@ public class AStar {
         if (!runState.spt.visit(runState.u)) {
             // state has been dominated since it was added to the priority queue, so it is
             // not in any optimal path. drop it on the floor and try the next one.
+            runState.nStalePops += 1;
             return false;
         }
         
@@ -184,6 +212,7 @@ public class AStar {
             // returning NULL), the iteration is over. TODO Use this to board multiple trips.
             for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
                 // Could be: for (State v : traverseEdge...)
+                runState.nCreated += 1;
 
                 if (traverseVisitor != null) {
                     traverseVisitor.visitEdge(edge, v);
@@ -194,6 +223,7 @@ public class AStar {
 //                LOG.info("{} {}", v, remaining_w);
 
                 if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
+                    runState.nPruned += 1;
                     continue;
                 }
                 double estimate = v.getWeight() + remaining_w;
@@ -210,12 +240,14 @@ public class AStar {
                     // too expensive to get here
                     if (verbose)
                         System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
+                    runState.nPruned += 1;
                     continue;
                 }
                 if (isWorstTimeExceeded(v, runState.options)) {
                     // too much time to get here
                     if (verbose)
                         System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
+                    runState.nPruned += 1;
                     continue;
                 }
                 
@@ -225,7 +257,15 @@ public class AStar {
                     if (traverseVisitor != null)
                         traverseVisitor.visitEnqueue(v);
                     //LOG.info("u.w={} v.w={} h={}", runState.u.weight, v.weight, remaining_w);
-                    runState.pq.insert(v, estimate);
+                    runState.nEnqueued += 1;
+                    if (runState.pq.supportsDecreaseKey() && runState.spt.getStates(v.getVertex()).size() == 1) {
+                        // v is now the only state at its vertex, so any state still queued for that vertex has been
+                        // dominated and can be replaced. Incomparable states (bike rental, turn restrictions etc.)
+                        // coexist at a vertex and must each stay in the queue.
+                        runState.pq.insert_or_dec_key(v, estimate);
+                    } else {
+                        runState.pq.insert(v, estimate);
+                    }
                 } 
             }
         }
@@ -235,7 +275,16 @@ public class AStar {
     
     void runSearch(long abortTime){
         /* the core of the A* algorithm */
+        int iterations = 0;
         while (!runState.pq.empty()) { // Until the priority queue is empty:
+            /*
+             * Stop if the results are no longer needed, e.g. because the client has disconnected.
+             */
+            if ((++iterations & CANCELLATION_CHECK_MASK) == 0 && runState.rctx.cancellationToken.isCancelled()) {
+                LOG.debug("Search cancelled. origin={} target={}", runState.rctx.origin, runState.rctx.target);
+                runState.options.rctx.aborted = true;
+                break;
+            }
             /*
              * Terminate based on timeout?
              */
@@ -296,6 +345,14 @@ public class AStar {
             }
 
         }
+        runState.rctx.debugOutput.finishedSearch(runState.nVisited, runState.nCreated, runState.nEnqueued,
+                runState.nStalePops, runState.nPruned);
+        if (LOG.isDebugEnabled()) {
+            int nPopped = runState.nVisited + runState.nStalePops;
+            LOG.debug("{} states enqueued, {} popped, {} stale ({}%) using {}", runState.nEnqueued, nPopped,
+                    runState.nStalePops, nPopped == 0 ? 0 : runState.nStalePops * 100 / nPopped,
+                    runState.pq.getClass().getSimpleName());
+        }
     }
 
     /** @return the shortest path, or null if none is found */
@@ -0,0 +1,334 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A one-to-many Dijkstra search over a CompactStreetGraph for a single non-transit mode (WALK, BICYCLE or CAR).
+ *
+ * Weights and durations are computed exactly as in StreetEdge.traverse, including slopes, wheelchair accessibility,
+ * barriers, bicycle optimization types, walking bikes where cycling is not allowed, and stairs and walk reluctance.
+ * Because there is one label per vertex rather than one State per path, this search does not apply turn costs or
+ * turn restrictions, no-through-traffic rules, or realtime traffic speeds, so it is suitable for distance- and
+ * time-bounded street searches (access, egress, isochrones, heuristics) rather than final itineraries.
+ *
+ * The origin and destination may be temporary vertices created for a request, or transit stops: the search is seeded
+ * across the edges of the origin, and results for such a vertex are computed across its edges. The temporary edges of
+ * a request are never part of the compact graph, so they do not invalidate it.
+ */
+public class CompactStreetSearch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactStreetSearch.class);
+
+    /** Temporary vertices are never further than this many edges from the permanent street network. */
+    private static final int MAX_TEMPORARY_EDGES = 4;
+
+    private final CompactStreetGraph graph;
+
+    private final RoutingRequest options;
+
+    private final TraverseMode mode;
+
+    /** Vertices whose duration from the origin would exceed this number of seconds are not explored. */
+    public double maxDurationSeconds = Double.POSITIVE_INFINITY;
+
+    private final double[] weights;
+
+    private final double[] durations;
+
+    /** The edge id through which each vertex was reached, or -1. */
+    private final int[] backEdges;
+
+    private int nVerticesReached;
+
+    /* A binary heap of vertex ids. Vertices are inserted again when their weight improves, stale entries are skipped. */
+    private double[] heapKeys = new double[64];
+
+    private int[] heapVertices = new int[64];
+
+    private int heapSize;
+
+    public CompactStreetSearch(CompactStreetGraph graph, RoutingRequest options, TraverseMode mode) {
+        if (mode != TraverseMode.WALK && mode != TraverseMode.BICYCLE && mode != TraverseMode.CAR) {
+            throw new IllegalArgumentException("Compact street search does not support mode " + mode);
+        }
+        this.graph = graph;
+        this.options = options;
+        this.mode = mode;
+        weights = new double[graph.nVertices];
+        durations = new double[graph.nVertices];
+        backEdges = new int[graph.nVertices];
+        Arrays.fill(weights, Double.POSITIVE_INFINITY);
+        Arrays.fill(durations, Double.POSITIVE_INFINITY);
+        Arrays.fill(backEdges, -1);
+    }
+
+    /**
+     * Start the search at the given vertex, which is the origin of a depart-after search and the destination of an
+     * arrive-by search. A vertex that is not in the compact graph, such as a transit stop or a temporary vertex created
+     * for the request, is left across its edges and then across temporary edges to the permanent street network.
+     */
+    public void setOrigin(Vertex origin) {
+        addOrigin(new State(origin, options), 0);
+    }
+
+    private void addOrigin(State s, int nEdges) {
+        Vertex vertex = s.getVertex();
+        int v = graph.getVertexId(vertex);
+        if (v >= 0) {
+            addOrigin(v, s.getWeight(), s.getElapsedTimeSeconds());
+            return;
+        }
+        if (nEdges == MAX_TEMPORARY_EDGES) return;
+        for (Edge e : options.arriveBy ? vertex.getIncoming() : vertex.getOutgoing()) {
+            if (nEdges > 0 && !(e instanceof TemporaryEdge)) continue;
+            for (State s1 = e.traverse(s); s1 != null; s1 = s1.getNextResult()) {
+                addOrigin(s1, nEdges + 1);
+            }
+        }
+    }
+
+    /** Add an origin vertex with an initial weight and duration. Several origins may be added before calling route(). */
+    public void addOrigin(int vertexId, double weight, double durationSeconds) {
+        if (weight < weights[vertexId]) {
+            if (weights[vertexId] == Double.POSITIVE_INFINITY) nVerticesReached++;
+            weights[vertexId] = weight;
+            durations[vertexId] = durationSeconds;
+            backEdges[vertexId] = -1;
+            heapInsert(vertexId, weight);
+        }
+    }
+
+    public void route() {
+        long start = System.currentTimeMillis();
+        int nPolled = 0;
+        while (heapSize > 0) {
+            double weight = heapKeys[0];
+            int v = heapExtractMin();
+            if (weight > weights[v]) continue; // stale entry, the vertex was reached again more cheaply
+            nPolled++;
+            if (options.arriveBy) {
+                for (int i = graph.firstIncoming(v), end = graph.endIncoming(v); i < end; i++) {
+                    int e = graph.getIncomingEdge(i);
+                    relax(v, graph.getFromVertex(e), e);
+                }
+            } else {
+                for (int e = graph.firstOutgoingEdge(v), end = graph.endOutgoingEdges(v); e < end; e++) {
+                    relax(v, graph.getToVertex(e), e);
+                }
+            }
+        }
+        LOG.debug("Compact street search polled {} vertices and reached {} in {} msec.", nPolled, nVerticesReached,
+                System.currentTimeMillis() - start);
+    }
+
+    /** Traverse one edge from vertex u to vertex v, recording the result if it improves on the existing one. */
+    private void relax(int u, int v, int e) {
+        TraverseMode traverseMode = mode;
+        RoutingRequest opt = options;
+        if (!canTraverse(e, traverseMode, opt)) {
+            if (traverseMode != TraverseMode.BICYCLE) return;
+            // Attempt to walk the bike, as in StreetEdge.
+            traverseMode = TraverseMode.WALK;
+            opt = options.bikeWalkingOptions;
+            if (!canTraverse(e, traverseMode, opt)) return;
+        }
+        double speed = traverseMode == TraverseMode.CAR ? graph.getCarSpeed(e) : opt.getSpeed(traverseMode);
+        double distance = graph.getDistance(e);
+        double time = distance / speed;
+        double weight;
+        if (opt.wheelchairAccessible) {
+            weight = graph.getSlopeSpeedEffectiveLength(e) / speed;
+        } else if (traverseMode == TraverseMode.BICYCLE) {
+            time = graph.getSlopeSpeedEffectiveLength(e) / speed;
+            double safety = graph.getBicycleSafetyFactor(e);
+            switch (opt.optimize) {
+            case SAFE:
+                weight = safety * distance / speed;
+                break;
+            case GREENWAYS:
+                weight = safety * distance / speed;
+                if (safety <= 0.1) {
+                    // greenways are treated as even safer than they really are, see StreetEdge
+                    weight *= 0.66;
+                }
+                break;
+            case FLAT:
+                weight = distance / speed + graph.getSlopeWorkCostEffectiveLength(e);
+                break;
+            case QUICK:
+                weight = graph.getSlopeSpeedEffectiveLength(e) / speed;
+                break;
+            case TRIANGLE:
+                weight = graph.getSlopeSpeedEffectiveLength(e) * opt.triangleTimeFactor
+                        + graph.getSlopeWorkCostEffectiveLength(e) * opt.triangleSlopeFactor
+                        + safety * distance * opt.triangleSafetyFactor;
+                weight /= speed;
+                break;
+            default:
+                weight = distance / speed;
+            }
+        } else if (traverseMode == TraverseMode.WALK) {
+            // Walking (including walking a bike) takes slopes into account, and the cost is treated as time.
+            weight = graph.getWalkCostLength(e) / speed;
+            time = weight;
+        } else {
+            weight = time;
+        }
+        weight *= graph.hasFlag(e, CompactStreetGraph.FLAG_STAIRS) ? opt.stairsReluctance : opt.walkReluctance;
+
+        double newDuration = durations[u] + time;
+        if (newDuration > maxDurationSeconds) return;
+        double newWeight = weights[u] + weight;
+        if (newWeight < weights[v]) {
+            if (weights[v] == Double.POSITIVE_INFINITY) nVerticesReached++;
+            weights[v] = newWeight;
+            durations[v] = newDuration;
+            backEdges[v] = e;
+            heapInsert(v, newWeight);
+        }
+    }
+
+    private boolean canTraverse(int e, TraverseMode traverseMode, RoutingRequest opt) {
+        if (opt.wheelchairAccessible) {
+            if (!graph.hasFlag(e, CompactStreetGraph.FLAG_WHEELCHAIR_ACCESSIBLE)) return false;
+            if (graph.getMaxSlope(e) > opt.maxSlope) return false;
+        }
+        return graph.allows(e, traverseMode);
+    }
+
+    /** @return the number of vertices reached by the search. */
+    public int getVertexCount() {
+        return nVerticesReached;
+    }
+
+    /** @return the weight of the best path to the given vertex, or positive infinity if it was not reached. */
+    public double getWeight(Vertex vertex) {
+        int v = graph.getVertexId(vertex);
+        return v >= 0 ? weights[v] : acrossEdges(vertex, 0)[0];
+    }
+
+    /** @return the duration in seconds of the best path to the given vertex, or positive infinity if it was not reached. */
+    public double getDurationSeconds(Vertex vertex) {
+        int v = graph.getVertexId(vertex);
+        return v >= 0 ? durations[v] : acrossEdges(vertex, 0)[1];
+    }
+
+    /**
+     * Results for a vertex that is not in the compact graph, such as a transit stop or a temporary vertex created for a
+     * request, are found by traversing its edges from the adjacent vertices, following temporary edges back to the
+     * permanent street network.
+     *
+     * @return the weight and the duration of the best path to the vertex.
+     */
+    private double[] acrossEdges(Vertex vertex, int nEdges) {
+        double[] best = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        if (nEdges == MAX_TEMPORARY_EDGES) return best;
+        for (Edge e : options.arriveBy ? vertex.getOutgoing() : vertex.getIncoming()) {
+            Vertex adjacent = options.arriveBy ? e.getToVertex() : e.getFromVertex();
+            int v = graph.getVertexId(adjacent);
+            double weight, duration;
+            if (v >= 0) {
+                weight = weights[v];
+                duration = durations[v];
+            } else if (e instanceof TemporaryEdge) {
+                double[] across = acrossEdges(adjacent, nEdges + 1);
+                weight = across[0];
+                duration = across[1];
+            } else {
+                continue;
+            }
+            if (weight == Double.POSITIVE_INFINITY) continue;
+            State s = e.traverse(new State(adjacent, options));
+            if (s != null && weight + s.getWeight() < best[0]) {
+                best[0] = weight + s.getWeight();
+                best[1] = duration + s.getElapsedTimeSeconds();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the street edges on the best path to the given permanent vertex in travel order, or null if the vertex
+     * was not reached or is not part of the compact graph.
+     */
+    public List<StreetEdge> getPath(Vertex vertex) {
+        int v = graph.getVertexId(vertex);
+        if (v < 0 || weights[v] == Double.POSITIVE_INFINITY) return null;
+        LinkedList<StreetEdge> path = new LinkedList<StreetEdge>();
+        for (int e = backEdges[v]; e >= 0; e = backEdges[v]) {
+            if (options.arriveBy) {
+                // The search proceeded from the destination, so the back edges are already in travel order.
+                path.addLast(graph.getEdge(e));
+                v = graph.getToVertex(e);
+            } else {
+                path.addFirst(graph.getEdge(e));
+                v = graph.getFromVertex(e);
+            }
+        }
+        return path;
+    }
+
+    private void heapInsert(int vertex, double key) {
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            heapVertices = Arrays.copyOf(heapVertices, heapSize * 2);
+        }
+        int slot = heapSize++;
+        while (slot > 0) {
+            int parent = (slot - 1) / 2;
+            if (heapKeys[parent] <= key) break;
+            heapKeys[slot] = heapKeys[parent];
+            heapVertices[slot] = heapVertices[parent];
+            slot = parent;
+        }
+        heapKeys[slot] = key;
+        heapVertices[slot] = vertex;
+    }
+
+    private int heapExtractMin() {
+        int min = heapVertices[0];
+        heapSize--;
+        double key = heapKeys[heapSize];
+        int vertex = heapVertices[heapSize];
+        int slot = 0;
+        while (true) {
+            int child = slot * 2 + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+            if (heapKeys[child] >= key) break;
+            heapKeys[slot] = heapKeys[child];
+            heapVertices[slot] = heapVertices[child];
+            slot = child;
+        }
+        heapKeys[slot] = key;
+        heapVertices[slot] = vertex;
+        return min;
+    }
+
+}
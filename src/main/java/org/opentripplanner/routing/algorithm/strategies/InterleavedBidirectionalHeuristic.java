@@ -13,9 +13,14 @@
 
 package org.opentripplanner.routing.algorithm.strategies;
 
+import gnu.trove.iterator.TObjectDoubleIterator;
+import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
 import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.StreetTransitLink;
@@ -26,6 +31,7 @@ import org.opentripplanner.routing.location.StreetLocation;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +66,15 @@ import java.util.Set;
  *
  * Note that the backward search does not happen in a separate thread. It is interleaved with the main search in a
  * ratio of N:1 iterations.
+ *
+ * If RoutingRequest.transitLowerBoundTable is set, the backward search through the transit network is instead done all
+ * at once before the main search, on the compact stop-to-stop graph of TransitLowerBounds. This gives the same bounds
+ * the interleaved search eventually reaches, minus boarding costs and dwell times, and they are cached per target.
+ *
+ * If a TargetStreetSearchCache is supplied, the results of the street search around the target are shared between
+ * requests with the same target and street parameters, until a graph updater writes to the graph. The cached street weights are never modified: the lower bounds
+ * found by the search through the transit network are kept in a separate map. They do not include temporary vertices,
+ * whose weight is always estimated as zero.
  */
 public class InterleavedBidirectionalHeuristic implements RemainingWeightHeuristic {
 
@@ -81,11 +96,17 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
 
     /**
      * A lower bound on the weight of the lowest-cost path to the target (the vertex at which the main search ends)
-     * from each vertex within walking distance of the target. As the heuristic progressively improves, this map will
-     * include lower bounds on path weights for an increasing number of vertices on board transit.
+     * from each vertex within walking distance of the target. This map may be shared with other searches through the
+     * street search cache, so it must not be modified.
      */
     TObjectDoubleMap<Vertex> postBoardingWeights;
 
+    /**
+     * Lower bounds on the weight of the path to the target from vertices on board transit. As the heuristic
+     * progressively improves, this map will include an increasing number of vertices.
+     */
+    TObjectDoubleMap<Vertex> transitWeights;
+
     Graph graph;
 
     RoutingRequest routingRequest;
@@ -100,6 +121,24 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     // True when the entire transit network has been explored by the reverse search.
     boolean finished = false;
 
+    // The precomputed stop-to-stop table, if it is used instead of the interleaved search through the transit network.
+    TransitLowerBounds transitLowerBounds;
+
+    // With the table, the weights of the street paths between each stop and the target, then the bounds for each stop.
+    TIntDoubleMap egressWeights;
+    double[] stopBounds;
+
+    // Results of earlier street searches around the target, or null if they are not cached.
+    private final TargetStreetSearchCache streetSearchCache;
+
+    public InterleavedBidirectionalHeuristic() {
+        this(null);
+    }
+
+    public InterleavedBidirectionalHeuristic(TargetStreetSearchCache streetSearchCache) {
+        this.streetSearchCache = streetSearchCache;
+    }
+
     /**
      * Before the main search begins, the heuristic must search on the streets around the origin and destination.
      * This also sets up the initial states for the reverse search through the transit network, which progressively
@@ -120,18 +159,53 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         request.softWalkLimiting = false;
         request.softPreTransitLimiting = false;
         transitQueue = new BinHeap<>();
+        transitWeights = new TObjectDoubleHashMap<>(100, 0.5f, Double.POSITIVE_INFINITY);
+        if (request.transitLowerBoundTable) {
+            transitLowerBounds = graph.getTransitLowerBounds();
+            egressWeights = new TIntDoubleHashMap(100, 0.5f, -1, Double.POSITIVE_INFINITY);
+        }
         // Forward street search first, mark street vertices around the origin so H evaluates to 0
-        TObjectDoubleMap<Vertex> forwardStreetSearchResults = streetSearch(request, false, abortTime);
+        TObjectDoubleMap<Vertex> forwardStreetSearchResults = streetSearch(request, false, abortTime, null);
         if (forwardStreetSearchResults == null) {
             return; // Search timed out
         }
         preTransitVertices = forwardStreetSearchResults.keySet();
         LOG.debug("end forward street search {} ms", System.currentTimeMillis() - start);
-        postBoardingWeights = streetSearch(request, true, abortTime);
-        if (postBoardingWeights == null) {
-            return; // Search timed out
+        TargetStreetSearchCache.Result egress = streetSearchCache == null ? null : streetSearchCache.get(request);
+        if (egress == null) {
+            long updaterWriteCount = graph.getUpdaterWriteCount();
+            TObjectDoubleMap<TransitStop> stopWeights =
+                    new TObjectDoubleHashMap<>(100, 0.5f, Double.POSITIVE_INFINITY);
+            TObjectDoubleMap<Vertex> weights = streetSearch(request, true, abortTime, stopWeights);
+            if (weights == null) {
+                return; // Search timed out
+            }
+            TransitStop[] stops = new TransitStop[stopWeights.size()];
+            double[] weightOfStop = new double[stopWeights.size()];
+            int i = 0;
+            for (TObjectDoubleIterator<TransitStop> it = stopWeights.iterator(); it.hasNext(); i++) {
+                it.advance();
+                stops[i] = it.key();
+                weightOfStop[i] = it.value();
+            }
+            egress = new TargetStreetSearchCache.Result(weights, stops, weightOfStop);
+            if (streetSearchCache != null) {
+                streetSearchCache.put(request, egress, updaterWriteCount);
+            }
+            LOG.debug("end backward street search {} ms", System.currentTimeMillis() - start);
+        } else {
+            LOG.debug("Reusing cached backward street search.");
+        }
+        postBoardingWeights = egress.weights;
+        // Place the transit stops near the target on the queue so we can explore the transit network backward later.
+        for (int i = 0; i < egress.stops.length; i++) {
+            seedTransitSearch(egress.stops[i], egress.stopWeights[i]);
+        }
+        if (transitLowerBounds != null) {
+            stopBounds = transitLowerBounds.getBounds(request, egressWeights);
+            finished = true;
+            LOG.debug("end transit lower bound search {} ms", System.currentTimeMillis() - start);
         }
-        LOG.debug("end backward street search {} ms", System.currentTimeMillis() - start);
         // once street searches are done, raise the limits to max
         // because hard walk limiting is incorrect and is observed to cause problems 
         // for trips near the cutoff
@@ -151,16 +225,16 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     @Override
     public double estimateRemainingWeight (State s) {
         final Vertex v = s.getVertex();
-        if (v instanceof StreetLocation) {
-            // Temporary vertices (StreetLocations) might not be found in the street searches.
+        if (v instanceof StreetLocation || v instanceof TemporaryVertex) {
+            // Temporary vertices are not recorded by the street searches, which may be shared with other requests.
             // Zero is always an underestimate.
             return 0;
         }
         if (v instanceof StreetVertex) {
             // The main search is on the streets, not on transit.
             if (s.isEverBoarded()) {
-                // If we have already ridden transit we must be near the destination. If not the map returns INF.
-                return postBoardingWeights.get(v);
+                // If we have already ridden transit we must be near the destination. If not the maps return INF.
+                return postBoardingWeight(v);
             } else {
                 // We have not boarded transit yet. We have no idea what the weight to the target is so return zero.
                 // We could also use a Euclidean heuristic here.
@@ -170,11 +244,15 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                     return Double.POSITIVE_INFINITY;
                 }
             }
+        } else if (stopBounds != null) {
+            // The main search is probably on transit. Look up the bound for the stop of this transit vertex.
+            int stop = transitLowerBounds.getStop(v);
+            return stop < 0 ? 0 : stopBounds[stop];
         } else {
             // The main search is not currently on a street vertex, it's probably on transit.
             // If the current part of the transit network has been explored, then return the stored lower bound.
             // Otherwise return the highest lower bound yet seen -- this location must have a higher cost than that.
-            double h = postBoardingWeights.get(v);
+            double h = postBoardingWeight(v);
             if (h == Double.POSITIVE_INFINITY) {
                 return maxWeightSeen;
             } else {
@@ -183,6 +261,26 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         }
     }
 
+    /** @return the lowest known bound on the weight of the path from the given vertex to the target, or INF. */
+    private double postBoardingWeight(Vertex v) {
+        return Math.min(postBoardingWeights.get(v), transitWeights.get(v));
+    }
+
+    /** Start the backward search through the transit network (or the lower bound table) at the given stop. */
+    private void seedTransitSearch(TransitStop stop, double weight) {
+        if (egressWeights != null) {
+            int index = transitLowerBounds.getStop(stop);
+            if (index >= 0 && weight < egressWeights.get(index)) {
+                egressWeights.put(index, weight);
+            }
+        } else {
+            transitQueue.insert(stop, weight);
+            if (weight > maxWeightSeen) {
+                maxWeightSeen = weight;
+            }
+        }
+    }
+
     @Override
     public void reset() { }
 
@@ -206,10 +304,10 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
             maxWeightSeen = uWeight;
             // Now that this vertex is closed, we can store its weight for use as a lower bound / heuristic value.
             // We don't implement decrease-key operations though, so check whether a smaller value is already known.
-            double uWeightOld = postBoardingWeights.get(u);
+            double uWeightOld = postBoardingWeight(u);
             if (uWeight < uWeightOld) {
                 // Including when uWeightOld is infinite because the vertex is not yet closed.
-                postBoardingWeights.put(u, uWeight);
+                transitWeights.put(u, uWeight);
             } else {
                 // The vertex was already closed. This time it necessarily has a higher weight, so skip it.
                 continue;
@@ -229,7 +327,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                     continue;
                 }
                 double vWeight = uWeight + edgeWeight;
-                double vWeightOld = postBoardingWeights.get(v);
+                double vWeightOld = postBoardingWeight(v);
                 if (vWeight < vWeightOld) {
                     // Should only happen when vWeightOld is infinite because it is not yet closed.
                     transitQueue.insert(v, vWeight);
@@ -240,8 +338,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
 
     /**
      * Explore the streets around the origin or target, recording the minimum weight of a path to each street vertex.
-     * When searching around the target, also retain the states that reach transit stops since we'll want to
-     * explore the transit network backward, in order to guide the main forward search.
+     * When searching around the target, also record the weight at which each transit stop is reached in stopWeights,
+     * since we'll want to explore the transit network backward from them, in order to guide the main forward search.
      *
      * The main search always proceeds from the "origin" to the "target" (names remain unchanged in arriveBy mode).
      * The reverse heuristic search always proceeds outward from the target (name remains unchanged in arriveBy).
@@ -264,7 +362,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
      *
      * TODO what if the egress segment is by bicycle or car mode? This is no longer admissible.
      */
-    private TObjectDoubleMap<Vertex> streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime) {
+    private TObjectDoubleMap<Vertex> streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime,
+            TObjectDoubleMap<TransitStop> stopWeights) {
         LOG.debug("Heuristic street search around the {}.", fromTarget ? "target" : "origin");
         rr = rr.clone();
         if (fromTarget) {
@@ -278,8 +377,14 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         Vertex initVertex = fromTarget ? rr.rctx.target : rr.rctx.origin;
         State initState = new State(initVertex, rr);
         pq.insert(initState, 0);
-        while ( ! pq.empty()) {
+        CancellationToken cancellationToken = rr.rctx.cancellationToken;
+        for (int iteration = 0; ! pq.empty(); iteration++) {
             if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
+                spt.release();
+                return null;
+            }
+            if ((iteration & AStar.CANCELLATION_CHECK_MASK) == 0 && cancellationToken.isCancelled()) {
+                spt.release();
                 return null;
             }
             State s = pq.extract_min();
@@ -288,20 +393,17 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
             // This is the lowest cost we will ever see for this vertex. We can record the cost to reach it.
             if (v instanceof TransitStop) {
                 // We don't want to continue into the transit network yet, but when searching around the target
-                // place vertices on the transit queue so we can explore the transit network backward later.
-                if (fromTarget) {
-                    double weight = s.getWeight();
-                    transitQueue.insert(v, weight);
-                    if (weight > maxWeightSeen) {
-                        maxWeightSeen = weight;
-                    }
+                // record the stops so we can explore the transit network backward later.
+                if (fromTarget && s.getWeight() < stopWeights.get(v)) {
+                    stopWeights.put((TransitStop) v, s.getWeight());
                 }
                 continue;
             }
             // We don't test whether we're on an instanceof StreetVertex here because some other vertex types
             // (park and ride or bike rental related) that should also be explored and marked as usable.
-            // Record the cost to reach this vertex.
-            if (!vertices.containsKey(v)) {
+            // Record the cost to reach this vertex. Temporary vertices are left out: the results may be cached, and
+            // another request to the same place links it to the graph with its own temporary vertices.
+            if (!vertices.containsKey(v) && !(v instanceof TemporaryVertex)) {
                 vertices.put(v, (int) s.getWeight()); // FIXME time or weight? is RR using right mode?
             }
             for (Edge e : rr.arriveBy ? v.getIncoming() : v.getOutgoing()) {
@@ -316,8 +418,11 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                 }
             }
         }
+        spt.release();
         LOG.debug("Heuristric street search hit {} vertices.", vertices.size());
-        LOG.debug("Heuristric street search hit {} transit stops.", transitQueue.size());
+        if (fromTarget) {
+            LOG.debug("Heuristric street search hit {} transit stops.", stopWeights.size());
+        }
         return vertices;
     }
  
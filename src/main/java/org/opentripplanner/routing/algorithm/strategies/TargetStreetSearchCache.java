@@ -0,0 +1,148 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import gnu.trove.map.TObjectDoubleMap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SimpleIntersectionTraversalCostModel;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Caches the results of the street search around the target that InterleavedBidirectionalHeuristic performs before
+ * every transit search, so that requests to a popular destination (an airport, a stadium, a downtown hub) can skip it.
+ * There is one cache per Router, since the results refer to the vertices of its graph. It is disabled by default.
+ *
+ * Entries are keyed on the target and on every request parameter that affects the costs on the streets. A temporary
+ * target vertex is new for each request, so it is identified by its coordinates, which link it to the graph in the
+ * same way each time. The results only contain permanent vertices, so they do not keep the temporary vertices and edges
+ * of earlier requests alive. The cached results are never modified, so they can be shared by concurrent searches.
+ *
+ * Searches that depend on the request time or on realtime state are never cached: driving, whose speeds and turn
+ * restrictions can depend on the time, and bike rental and park and ride, which depend on the availability of bikes
+ * and parking spaces. The whole cache is cleared whenever a graph updater writes to the graph, since any cached
+ * weight that became too high would make the heuristic inadmissible.
+ *
+ * TransitLowerBounds caches the bounds it derives from the results of this search under the same key.
+ */
+public class TargetStreetSearchCache {
+
+    private final Cache<List<Object>, Result> cache;
+
+    /** The updater write count of the graph when the cache was last cleared. */
+    private long updaterWriteCount = 0;
+
+    public TargetStreetSearchCache(int maximumSize) {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /** The result of a street search around a target. */
+    public static class Result {
+
+        /** The weight of the path between each street vertex and the target. */
+        final TObjectDoubleMap<Vertex> weights;
+
+        /** The transit stops reached by the search, and the weight of the path between each of them and the target. */
+        final TransitStop[] stops;
+        final double[] stopWeights;
+
+        Result(TObjectDoubleMap<Vertex> weights, TransitStop[] stops, double[] stopWeights) {
+            this.weights = weights;
+            this.stops = stops;
+            this.stopWeights = stopWeights;
+        }
+    }
+
+    /** @return the cached result of the street search around the target of the given request, or null. */
+    Result get(RoutingRequest request) {
+        if (!isCacheable(request)) return null;
+        clearIfUpdated(request.rctx.graph);
+        return cache.getIfPresent(targetKey(request));
+    }
+
+    /**
+     * @param updaterWriteCount the updater write count of the graph when the street search started. If an updater has
+     *                          written to the graph since then, the result may be stale and is not cached.
+     */
+    void put(RoutingRequest request, Result result, long updaterWriteCount) {
+        if (!isCacheable(request)) return;
+        if (updaterWriteCount != request.rctx.graph.getUpdaterWriteCount()) return;
+        cache.put(targetKey(request), result);
+    }
+
+    /**
+     * Clear the cache if a graph updater has written to the graph since it was last cleared. A search that overlapped
+     * with the write may have stored its result with the old count, so it is cleared along with the rest.
+     */
+    private synchronized void clearIfUpdated(Graph graph) {
+        long count = graph.getUpdaterWriteCount();
+        if (count != updaterWriteCount) {
+            cache.invalidateAll();
+            updaterWriteCount = count;
+        }
+    }
+
+    /**
+     * @return whether the street search around the target of the given request only depends on the request parameters
+     * in the target key and on the permanent street network, and not on the request time or on realtime state.
+     */
+    static boolean isCacheable(RoutingRequest request) {
+        return !request.modes.getCar() && !request.useTraffic && !request.allowBikeRental
+                && !request.bikeParkAndRide && !request.parkAndRide && !request.kissAndRide
+                && request.traversalCostModel.getClass() == SimpleIntersectionTraversalCostModel.class;
+    }
+
+    /**
+     * @return a key identifying the target of the request and every request parameter that affects the street search
+     * around it. Requests with equal keys find the same weights at the permanent vertices around the target, as long as
+     * they are cacheable.
+     */
+    static List<Object> targetKey(RoutingRequest request) {
+        Vertex target = request.rctx.target;
+        Object targetKey = target instanceof TemporaryVertex ?
+                Arrays.asList(target.getLon(), target.getLat()) : target;
+        RoutingRequest bikeWalking = request.bikeWalkingOptions;
+        return Arrays.asList(targetKey, request.arriveBy, request.modes.getMask(), request.walkSpeed,
+                request.walkReluctance, request.maxWalkDistance, request.maxPreTransitTime,
+                request.wheelchairAccessible, request.maxSlope, request.stairsReluctance, request.turnReluctance,
+                request.bikeSpeed, request.optimize, request.triangleTimeFactor, request.triangleSlopeFactor,
+                request.triangleSafetyFactor, request.carSpeed, request.driveOnRight, request.useTraffic,
+                request.allowBikeRental, request.useBikeRentalAvailabilityInformation, request.bikeRentalPickupTime,
+                request.bikeRentalPickupCost, request.bikeRentalDropoffTime, request.bikeRentalDropoffCost,
+                request.bikeParkAndRide, request.bikeParkTime, request.bikeParkCost, request.parkAndRide,
+                request.kissAndRide, request.bikeSwitchTime, request.bikeSwitchCost, request.carDropoffTime,
+                request.elevatorBoardTime, request.elevatorBoardCost, request.elevatorHopTime,
+                request.elevatorHopCost, request.traversalCostModel.getClass(), bikeWalking.walkSpeed,
+                bikeWalking.walkReluctance, bikeWalking.stairsReluctance, bikeWalking.maxWalkDistance,
+                bikeWalking.modes.getMask());
+    }
+
+    /** @return hit and miss counts and rates since the router started. */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+}
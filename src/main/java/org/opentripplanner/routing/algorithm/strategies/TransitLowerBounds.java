@@ -0,0 +1,274 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.routing.vertextype.TransitVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact stop-to-stop graph of the transit network, used to find lower bounds on the weight of the remaining path to
+ * a search target from every transit stop with a single Dijkstra search over primitive arrays, rather than by exploring
+ * the full transit layer of the graph edge by edge as InterleavedBidirectionalHeuristic otherwise does.
+ *
+ * Each pair of consecutive stops in a trip pattern becomes a hop weighted by the best running time between them in the
+ * scheduled timetable, and each SimpleTransfer becomes a transfer weighted by its walking time and walk reluctance.
+ * These are the same lower bounds the edges themselves return from weightLowerBound. Boarding costs and dwell times are
+ * ignored, which can only lower the bounds. The bounds therefore remain admissible and consistent.
+ *
+ * The table is built once per graph. Bounds for a given target are cached, since the same destination is often
+ * requested repeatedly. They only depend on the scheduled timetables, so realtime updates do not invalidate them.
+ */
+public class TransitLowerBounds {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransitLowerBounds.class);
+
+    /** The number of targets for which the lower bounds are cached. */
+    private static final int CACHED_TARGETS = 32;
+
+    /** The number of stops, which are numbered from zero in this table. */
+    final int nStops;
+
+    /** For each vertex index, the index of the stop of that transit vertex, or -1 if it is not a transit vertex. */
+    private final int[] stopForVertex;
+
+    /** The trip patterns, and the pattern of each hop. Transfers have no pattern. */
+    private final TripPattern[] patterns;
+
+    /** Connections between stops: hops first, then transfers. */
+    private final int[] fromStop, toStop, hopPattern;
+
+    /** The best running time of each hop, or the walking distance in meters of each transfer. */
+    private final double[] hopTimes;
+
+    private final int nHops;
+
+    /** Outgoing and incoming connections of each stop, in compressed sparse row form. */
+    private final int[] outgoingOffsets, outgoing, incomingOffsets, incoming;
+
+    /** Lower bounds for recently requested targets. Access is synchronized on the map. */
+    private final Map<List<Object>, double[]> cache = new LinkedHashMap<List<Object>, double[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, double[]> eldest) {
+            return size() > CACHED_TARGETS;
+        }
+    };
+
+    public TransitLowerBounds(Graph graph) {
+        long start = System.currentTimeMillis();
+        TObjectIntMap<Stop> indexForStop = new TObjectIntHashMap<>(100, 0.5f, -1);
+        for (Stop stop : graph.index.stopVertexForStop.keySet()) {
+            indexForStop.put(stop, indexForStop.size());
+        }
+        nStops = indexForStop.size();
+
+        stopForVertex = new int[Vertex.getMaxIndex()];
+        Arrays.fill(stopForVertex, -1);
+        List<SimpleTransfer> transfers = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof TransitVertex && v.getIndex() < stopForVertex.length) {
+                stopForVertex[v.getIndex()] = indexForStop.get(((TransitVertex) v).getStop());
+            }
+            if (v instanceof TransitStop) {
+                for (Edge e : v.getOutgoing()) {
+                    if (e instanceof SimpleTransfer) {
+                        transfers.add((SimpleTransfer) e);
+                    }
+                }
+            }
+        }
+
+        patterns = graph.index.patternForId.values().toArray(new TripPattern[0]);
+        int nHops = 0;
+        for (TripPattern pattern : patterns) {
+            nHops += pattern.stopPattern.size - 1;
+        }
+        this.nHops = nHops;
+        int nConnections = nHops + transfers.size();
+        fromStop = new int[nConnections];
+        toStop = new int[nConnections];
+        hopPattern = new int[nHops];
+        hopTimes = new double[nConnections];
+        int c = 0;
+        for (int p = 0; p < patterns.length; p++) {
+            TripPattern pattern = patterns[p];
+            Stop[] stops = pattern.stopPattern.stops;
+            for (int s = 0; s < stops.length - 1; s++, c++) {
+                fromStop[c] = indexForStop.get(stops[s]);
+                toStop[c] = indexForStop.get(stops[s + 1]);
+                hopPattern[c] = p;
+                hopTimes[c] = pattern.scheduledTimetable.getBestRunningTime(s);
+                if (fromStop[c] < 0 || toStop[c] < 0) {
+                    // a stop without a vertex, which should not happen; connect the stop to itself so it has no effect
+                    fromStop[c] = toStop[c] = Math.max(0, Math.max(fromStop[c], toStop[c]));
+                }
+            }
+        }
+        for (SimpleTransfer transfer : transfers) {
+            fromStop[c] = indexForStop.get(((TransitStop) transfer.getFromVertex()).getStop());
+            toStop[c] = indexForStop.get(((TransitStop) transfer.getToVertex()).getStop());
+            hopTimes[c] = transfer.getDistance();
+            c++;
+        }
+
+        outgoingOffsets = new int[nStops + 1];
+        outgoing = new int[nConnections];
+        incomingOffsets = new int[nStops + 1];
+        incoming = new int[nConnections];
+        index(fromStop, outgoingOffsets, outgoing);
+        index(toStop, incomingOffsets, incoming);
+        LOG.info("Built transit lower bound table with {} stops, {} hops and {} transfers in {} msec.", nStops, nHops,
+                transfers.size(), System.currentTimeMillis() - start);
+    }
+
+    /** Fill in a compressed sparse row index of the connections, grouped by the given stop of each connection. */
+    private void index(int[] stopOfConnection, int[] offsets, int[] connections) {
+        for (int stop : stopOfConnection) {
+            offsets[stop + 1]++;
+        }
+        for (int s = 0; s < nStops; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        int[] next = Arrays.copyOf(offsets, nStops);
+        for (int c = 0; c < stopOfConnection.length; c++) {
+            connections[next[stopOfConnection[c]]++] = c;
+        }
+    }
+
+    /** @return the index of the stop of the given transit vertex, or -1 if it is not part of this table. */
+    public int getStop(Vertex v) {
+        int index = v.getIndex();
+        return index < stopForVertex.length ? stopForVertex[index] : -1;
+    }
+
+    /** @return the index of the given transit stop, or -1 if it is not part of this table. */
+    public int getStop(TransitStop stop) {
+        return getStop((Vertex) stop);
+    }
+
+    /**
+     * Get lower bounds on the weight of the path from each stop to the target of the given request (or from the target
+     * to each stop in an arriveBy search). Stops that cannot reach the target have the highest bound found for any
+     * other stop, as this is still an underestimate if the table does not know of some connection, e.g. one added by
+     * a realtime update.
+     *
+     * The bounds are reused by later requests with the same target and street search parameters, as identified by
+     * TargetStreetSearchCache, which the egress weights depend on, until a graph updater writes to the graph.
+     *
+     * @param egressWeights the weight of the street path between each stop index and the target.
+     */
+    public double[] getBounds(RoutingRequest request, TIntDoubleMap egressWeights) {
+        BitSet usablePatterns = usablePatterns(request);
+        if (!TargetStreetSearchCache.isCacheable(request)) {
+            return search(request, egressWeights, usablePatterns);
+        }
+        List<Object> key = new ArrayList<>(TargetStreetSearchCache.targetKey(request));
+        key.add(usablePatterns);
+        // Bounds found before an updater changed the streets around the target are not reused.
+        key.add(request.rctx.graph.getUpdaterWriteCount());
+        synchronized (cache) {
+            double[] bounds = cache.get(key);
+            if (bounds != null) return bounds;
+        }
+        double[] bounds = search(request, egressWeights, usablePatterns);
+        synchronized (cache) {
+            cache.put(key, bounds);
+        }
+        return bounds;
+    }
+
+    /** @return the patterns whose mode is allowed and that have service running on the days of the search. */
+    private BitSet usablePatterns(RoutingRequest request) {
+        BitSet usable = new BitSet(patterns.length);
+        PATTERNS: for (int p = 0; p < patterns.length; p++) {
+            if (!request.modes.contains(patterns[p].mode)) continue;
+            for (ServiceDay sd : request.rctx.serviceDays) {
+                if (sd.anyServiceRunning(patterns[p].getServices())) {
+                    usable.set(p);
+                    continue PATTERNS;
+                }
+            }
+        }
+        return usable;
+    }
+
+    private double[] search(RoutingRequest request, TIntDoubleMap egressWeights, BitSet usablePatterns) {
+        double[] bounds = new double[nStops];
+        Arrays.fill(bounds, Double.POSITIVE_INFINITY);
+        boolean[] closed = new boolean[nStops];
+        IndexedDaryHeap<Integer> queue = new IndexedDaryHeap<>(nStops, nStops, Integer::intValue);
+        for (TIntDoubleIterator it = egressWeights.iterator(); it.hasNext(); ) {
+            it.advance();
+            if (it.value() < bounds[it.key()]) {
+                bounds[it.key()] = it.value();
+                queue.insert_or_dec_key(it.key(), it.value());
+            }
+        }
+        // The search proceeds backward relative to the main search: toward the target along incoming connections,
+        // or away from it along outgoing connections in an arriveBy search.
+        int[] offsets = request.arriveBy ? outgoingOffsets : incomingOffsets;
+        int[] connections = request.arriveBy ? outgoing : incoming;
+        int[] otherStop = request.arriveBy ? toStop : fromStop;
+        double maxBound = 0;
+        while (!queue.empty()) {
+            double weight = queue.peek_min_key();
+            int stop = queue.extract_min();
+            closed[stop] = true;
+            maxBound = weight;
+            for (int i = offsets[stop]; i < offsets[stop + 1]; i++) {
+                int c = connections[i];
+                double connectionWeight;
+                if (c < nHops) {
+                    if (!usablePatterns.get(hopPattern[c])) continue;
+                    connectionWeight = hopTimes[c];
+                } else {
+                    // same as SimpleTransfer.weightLowerBound
+                    connectionWeight = (int) (hopTimes[c] / request.walkSpeed) * request.walkReluctance;
+                }
+                int other = otherStop[c];
+                double otherWeight = weight + connectionWeight;
+                if (!closed[other] && otherWeight < bounds[other]) {
+                    bounds[other] = otherWeight;
+                    queue.insert_or_dec_key(other, otherWeight);
+                }
+            }
+        }
+        for (int s = 0; s < nStops; s++) {
+            if (bounds[s] == Double.POSITIVE_INFINITY) bounds[s] = maxBound;
+        }
+        return bounds;
+    }
+
+}
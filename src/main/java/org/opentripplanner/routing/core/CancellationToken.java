@@ -0,0 +1,49 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+/**
+ * Allows the work done for a request to be abandoned from another thread, e.g. when the client disconnects, or once a
+ * deadline has passed. Long-running searches check it regularly and stop as soon as they see it has been cancelled.
+ * A single token may be shared by all the searches made for one request, including concurrent ones.
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled = false;
+
+    /** The time after which the token is cancelled, in milliseconds since the epoch, or zero for no deadline. */
+    private final long deadline;
+
+    /** Create a token that is only cancelled by calling cancel(). */
+    public CancellationToken() {
+        this(0);
+    }
+
+    /** @param deadline the time in milliseconds since the epoch after which the token is cancelled, or zero. */
+    public CancellationToken(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        if (!cancelled && deadline > 0 && System.currentTimeMillis() > deadline) {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+
+}
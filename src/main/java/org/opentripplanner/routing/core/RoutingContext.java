@@ -123,6 +123,9 @@ public class RoutingContext implements Cloneable {
     /** Indicates that the search timed out or was otherwise aborted. */
     public boolean aborted;
 
+    /** Signals that the searches should stop because their results are no longer needed. Never null. */
+    public final CancellationToken cancellationToken;
+
     /** Indicates that a maximum slope constraint was specified but was removed during routing to produce a result. */
     public boolean slopeRestrictionRemoved = false;
 
@@ -210,6 +213,8 @@ public class RoutingContext implements Cloneable {
         }
         this.opt = routingRequest;
         this.graph = graph;
+        this.cancellationToken = routingRequest.cancellationToken != null ?
+                routingRequest.cancellationToken : new CancellationToken();
         this.debugOutput.startedCalculating();
 
         // The following block contains potentially resource-intensive things that are only relevant for transit.
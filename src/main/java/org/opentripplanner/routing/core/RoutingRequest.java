@@ -381,6 +381,12 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public RoutingContext rctx;
 
+    /**
+     * Allows the searches for this request to be abandoned, e.g. when the client disconnects. It is shared with any
+     * clones of this request, and checked by the searches through the routing context. Null if it cannot be cancelled.
+     */
+    public CancellationToken cancellationToken;
+
     /** A transit stop that this trip must start from */
     public AgencyAndId startingTransitStopId;
     
@@ -417,6 +423,36 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** The function that compares paths converging on the same vertex to decide which ones continue to be explored. */
     public DominanceFunction dominanceFunction = new DominanceFunction.Pareto();
 
+    /**
+     * Whether to store the shortest path tree in arrays indexed by vertex rather than in a map. The two give the same
+     * results, but the arrays are only worth allocating when the caller releases the tree after use so they can be
+     * recycled by the next search. The trip planner does, so this can be enabled in the routingDefaults of a router.
+     * Off by default, since other searches that do not release their trees share this default. See
+     * IndexedShortestPathTree for the memory held by the recycled arrays.
+     */
+    public boolean indexedShortestPathTree = false;
+
+    /**
+     * Whether AStar should use a priority queue with a decrease-key operation, replacing dominated states at a vertex
+     * in the queue instead of leaving them to be discarded when they are dequeued. Off by default: fewer stale states
+     * are dequeued, but each queue operation is more expensive, and no benchmark has yet shown a net gain.
+     */
+    public boolean indexedPriorityQueue = false;
+
+    /**
+     * Whether the transit heuristic should take its lower bounds from a precomputed stop-to-stop table of the transit
+     * network, rather than exploring the transit layer backward from the target as the main search proceeds.
+     * See TransitLowerBounds.
+     */
+    public boolean transitLowerBoundTable = false;
+
+    /**
+     * Whether to search for the itineraries after the first one concurrently, each banning different trips of the first
+     * itinerary, rather than one after another. This implies transitLowerBoundTable, so that the searches can share
+     * the heuristic. The searches run on routing threads that are idle, and on the thread of the request otherwise.
+     */
+    public boolean parallelItineraries = false;
+
     /** Accept only paths that use transit (no street-only paths). */
     public boolean onlyTransitTrips = false;
 
@@ -13,7 +13,6 @@
 
 package org.opentripplanner.routing.core;
 
-import java.util.Arrays;
 import java.util.Date;
 import java.util.Set;
 
@@ -63,9 +62,6 @@ public class State implements Cloneable {
     // The time traveled pre-transit, for park and ride or kiss and ride searches
     int preTransitTime;
 
-    // track the states of all path parsers -- probably changes frequently
-    protected int[] pathParserStates;
-    
     private static final Logger LOG = LoggerFactory.getLogger(State.class);
 
     /* CONSTRUCTORS */
@@ -147,6 +143,67 @@ public class State implements Cloneable {
         return new StateEditor(this, e);
     }
 
+    /**
+     * Make the state that results from traversing a street edge from this state. This is equivalent to editing a child
+     * state with a StateEditor, setting the back mode and incrementing the time, weight, walk distance and pre-transit
+     * time, but it does not allocate an editor and only clones the StateData when one of its fields changes. It is
+     * used by StreetEdge, which is traversed far more often than any other edge in most searches.
+     *
+     * @param toggleCarParked whether to park or unpark the car, switching the non-transit mode to WALK or CAR.
+     * @param seconds the time taken to traverse the edge, which is subtracted from the time in an arriveBy search.
+     * @param weight the weight of the new state.
+     * @param walkDistance the walk distance of the new state.
+     * @param preTransitTime the pre-transit time of the new state.
+     * @return the new state, or null if the traversal is not valid.
+     */
+    public State makeStreetChild(Edge edge, TraverseMode backMode, boolean backWalkingBike,
+            boolean enteredNoThroughTrafficArea, boolean toggleCarParked, int seconds, double weight,
+            double walkDistance, int preTransitTime) {
+        if (seconds < 0 || !(weight >= this.weight) || walkDistance < this.walkDistance
+                || preTransitTime < this.preTransitTime) {
+            LOG.warn("A state is being incremented by a negative or NaN amount while traversing edge {}", edge);
+            return null;
+        }
+        boolean arriveBy = stateData.opt.arriveBy;
+        if (!vertex.equals(arriveBy ? edge.getToVertex() : edge.getFromVertex())) {
+            LOG.warn("Edge is not connected to parent state in the direction of traversal: {}", edge);
+            return null;
+        }
+        State child = clone();
+        child.backState = this;
+        child.backEdge = edge;
+        child.next = null;
+        child.vertex = arriveBy ? edge.getFromVertex() : edge.getToVertex();
+        if (backMode != stateData.backMode || backWalkingBike != stateData.backWalkingBike || toggleCarParked
+                || enteredNoThroughTrafficArea && !stateData.enteredNoThroughTrafficArea) {
+            StateData data = stateData.clone();
+            data.backMode = backMode;
+            data.backWalkingBike = backWalkingBike;
+            data.enteredNoThroughTrafficArea |= enteredNoThroughTrafficArea;
+            if (toggleCarParked) {
+                data.carParked = !data.carParked;
+                data.nonTransitMode = data.carParked ? TraverseMode.WALK : TraverseMode.CAR;
+            }
+            child.stateData = data;
+        }
+        child.time += arriveBy ? -seconds * 1000L : seconds * 1000L;
+        child.weight = weight;
+        child.walkDistance = walkDistance;
+        child.preTransitTime = preTransitTime;
+        return child;
+    }
+
+    /**
+     * @return whether the given distance exceeds the hard walk limit of the given request. The limit only applies in
+     * the transit case, or in one-to-many requests with hard walk limiting.
+     */
+    public static boolean isWalkDistanceExceeded(double walkDistance, RoutingRequest options) {
+        if (options.modes.isTransit() || !options.softWalkLimiting && options.batch)
+            return walkDistance >= options.maxWalkDistance;
+
+        return false;
+    }
+
     protected State clone() {
         State ret;
         try {
@@ -621,16 +678,6 @@ public class State implements Cloneable {
         return foundAlternatePaths;
     }
     
-    public String getPathParserStates() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("( ");
-        for (int i : pathParserStates) {
-            sb.append(String.format("%02d ", i));
-        }
-        sb.append(")");
-        return sb.toString();
-    }
-
     /** @return the last TripPattern used in this path (which is set when leaving the vehicle). */
     public TripPattern getLastPattern() {
         return stateData.lastPattern;
@@ -786,10 +833,6 @@ public class State implements Cloneable {
                 LOG.warn("Initial wait time not propagated: is "
                         + reversed.stateData.initialWaitTime + ", should be " + newInitialWaitTime);
 
-            // copy the path parser states so this path is not thrown out going forward
-//            reversed.pathParserStates = 
-//                    Arrays.copyOf(this.pathParserStates, this.pathParserStates.length, newLength);
-            
             // copy things that didn't get copied
             reversed.initializeFieldsFrom(this);
             return reversed;
@@ -141,10 +141,7 @@ public class StateEditor {
     public boolean weHaveWalkedTooFar(RoutingRequest options) {
         // Only apply limit in transit-only case, unless this is a one-to-many request with hard
         // walk limiting, in which case we want to cut off the search.
-        if (options.modes.isTransit() || !options.softWalkLimiting && options.batch)
-            return child.walkDistance >= options.maxWalkDistance;
-
-        return false;
+        return State.isWalkDistanceExceeded(child.walkDistance, options);
     }
 
     public boolean isMaxPreTransitTimeExceeded(RoutingRequest options) {
@@ -264,6 +261,7 @@ public class StateEditor {
     }
 
     public void setEnteredNoThroughTrafficArea() {
+        cloneStateDataAsNeeded();
         child.stateData.enteredNoThroughTrafficArea = true;
     }
     
@@ -15,6 +15,7 @@ package org.opentripplanner.routing.edgetype;
 
 import com.google.common.collect.Iterables;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.LineString;
 import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.TurnRestrictionType;
@@ -23,6 +24,8 @@ import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.core.*;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.MappedEdgeData;
+import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.util.ElevationUtils;
 import org.opentripplanner.routing.vertextype.BarrierVertex;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
@@ -38,6 +41,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.List;
@@ -96,7 +100,11 @@ public class StreetEdge extends Edge implements Cloneable {
      */
     protected float bicycleSafetyFactor;
 
-    private int[] compactGeometry;
+    /** Transient, but written in writeObject unless it is stored in a separate MappedEdgeData file. */
+    private transient volatile int[] compactGeometry;
+
+    /** If not null, the file from which geometry (and elevation) is read the first time it is requested. */
+    private transient MappedEdgeData mappedEdgeData;
     
     private I18NString name;
 
@@ -257,42 +265,39 @@ public class StreetEdge extends Edge implements Cloneable {
     public State traverse(State s0) {
         final RoutingRequest options = s0.getOptions();
         final TraverseMode currMode = s0.getNonTransitMode();
-        StateEditor editor = doTraverse(s0, options, s0.getNonTransitMode());
-        State state = (editor == null) ? null : editor.makeState();
+        State state = doTraverse(s0, options, s0.getNonTransitMode(), false);
         /* Kiss and ride support. Mode transitions occur without the explicit loop edges used in park-and-ride. */
         if (options.kissAndRide) {
             if (options.arriveBy) {
                 // Branch search to "unparked" CAR mode ASAP after transit has been used.
                 // Final WALK check prevents infinite recursion.
                 if (s0.isCarParked() && s0.isEverBoarded() && currMode == TraverseMode.WALK) {
-                    editor = doTraverse(s0, options, TraverseMode.CAR);
-                    if (editor != null) {
-                        editor.setCarParked(false); // Also has the effect of switching to CAR
-                        State forkState = editor.makeState();
-                        if (forkState != null) {
-                            forkState.addToExistingResultChain(state);
-                            return forkState; // return both parked and unparked states
-                        }
+                    // Unparking also has the effect of switching to CAR
+                    State forkState = doTraverse(s0, options, TraverseMode.CAR, true);
+                    if (forkState != null) {
+                        forkState.addToExistingResultChain(state);
+                        return forkState; // return both parked and unparked states
                     }
                 }
             } else { /* departAfter */
                 // Irrevocable transition from driving to walking. "Parking" means being dropped off in this case.
                 // Final CAR check needed to prevent infinite recursion.
                 if ( ! s0.isCarParked() && ! getPermission().allows(TraverseMode.CAR) && currMode == TraverseMode.CAR) {
-                    editor = doTraverse(s0, options, TraverseMode.WALK);
-                    if (editor != null) {
-                        editor.setCarParked(true); // has the effect of switching to WALK and preventing further car use
-                        return editor.makeState(); // return only the "parked" walking state
-                    }
-
+                    // Parking has the effect of switching to WALK and preventing further car use.
+                    // Return only the "parked" walking state.
+                    return doTraverse(s0, options, TraverseMode.WALK, true);
                 }
             }
         }
         return state;
     }
 
-    /** return a StateEditor rather than a State so that we can make parking/mode switch modifications for kiss-and-ride. */
-    private StateEditor doTraverse(State s0, RoutingRequest options, TraverseMode traverseMode) {
+    /**
+     * Compute the changes to the state in local variables and create the new state in one step at the end, rather than
+     * through a StateEditor, as this is the most frequent traversal in any search.
+     * @param toggleCarParked whether to park or unpark the car while traversing this edge, for kiss-and-ride.
+     */
+    private State doTraverse(State s0, RoutingRequest options, TraverseMode traverseMode, boolean toggleCarParked) {
         boolean walkingBike = options.walkingBike;
         boolean backWalkingBike = s0.isBackWalkingBike();
         TraverseMode backMode = s0.getBackMode();
@@ -316,7 +321,7 @@ public class StreetEdge extends Edge implements Cloneable {
         /* Check whether this street allows the current mode. If not and we are biking, attempt to walk the bike. */
         if (!canTraverse(options, traverseMode)) {
             if (traverseMode == TraverseMode.BICYCLE) {
-                return doTraverse(s0, options.bikeWalkingOptions, TraverseMode.WALK);
+                return doTraverse(s0, options.bikeWalkingOptions, TraverseMode.WALK, toggleCarParked);
             }
             return null;
         }
@@ -394,21 +399,25 @@ public class StreetEdge extends Edge implements Cloneable {
             weight *= options.walkReluctance;
         }
 
-        StateEditor s1 = s0.edit(this);
-        s1.setBackMode(traverseMode);
-        s1.setBackWalkingBike(walkingBike);
+        // The walk distance and pre-transit time of the new state, and the increments to its time and weight.
+        double walkDistance = s0.getWalkDistance();
+        int preTransitTime = s0.getPreTransitTime();
+        int seconds = 0;
+        double switchCost = 0;
 
         /* Handle no through traffic areas. */
+        boolean enteredNoThroughTrafficArea = false;
         if (this.isNoThruTraffic()) {
             // Record transition into no-through-traffic area.
             if (backEdge instanceof StreetEdge && !((StreetEdge)backEdge).isNoThruTraffic()) {
-                s1.setEnteredNoThroughTrafficArea();
+                enteredNoThroughTrafficArea = true;
             }
             // If we transitioned into a no-through-traffic area at some point, check if we are exiting it.
-            if (s1.hasEnteredNoThroughTrafficArea()) {
+            if (enteredNoThroughTrafficArea || s0.hasEnteredNoThruTrafficArea()) {
                 // Only Edges are marked as no-thru, but really we need to avoid creating dominant, pruned states
                 // on thru _Vertices_. This could certainly be improved somehow.
-                for (StreetEdge se : Iterables.filter(s1.getVertex().getOutgoing(), StreetEdge.class)) {
+                Vertex nextVertex = options.arriveBy ? fromv : tov;
+                for (StreetEdge se : Iterables.filter(nextVertex.getOutgoing(), StreetEdge.class)) {
                     if (!se.isNoThruTraffic()) {
                         // This vertex has at least one through-traffic edge. We can't dominate it with a no-thru state.
                         return null;
@@ -463,7 +472,7 @@ public class StreetEdge extends Edge implements Cloneable {
             }
 
             if (!traverseMode.isDriving()) {
-                s1.incrementWalkDistance(realTurnCost / 100);  // just a tie-breaker
+                walkDistance += realTurnCost / 100;  // just a tie-breaker
             }
 
             long turnTime = (long) Math.ceil(realTurnCost);
@@ -474,26 +483,26 @@ public class StreetEdge extends Edge implements Cloneable {
 
         if (walkingBike || TraverseMode.BICYCLE.equals(traverseMode)) {
             if (!(backWalkingBike || TraverseMode.BICYCLE.equals(backMode))) {
-                s1.incrementTimeInSeconds(options.bikeSwitchTime);
-                s1.incrementWeight(options.bikeSwitchCost);
+                seconds += options.bikeSwitchTime;
+                switchCost = options.bikeSwitchCost;
             }
         }
 
         if (!traverseMode.isDriving()) {
-            s1.incrementWalkDistance(getDistance());
+            walkDistance += getDistance();
         }
 
         /* On the pre-kiss/pre-park leg, limit both walking and driving, either soft or hard. */
         int roundedTime = (int) Math.ceil(time);
         if (options.kissAndRide || options.parkAndRide) {
             if (options.arriveBy) {
-                if (!s0.isCarParked()) s1.incrementPreTransitTime(roundedTime);
+                if (!s0.isCarParked()) preTransitTime += roundedTime;
             } else {
-                if (!s0.isEverBoarded()) s1.incrementPreTransitTime(roundedTime);
+                if (!s0.isEverBoarded()) preTransitTime += roundedTime;
             }
-            if (s1.isMaxPreTransitTimeExceeded(options)) {
+            if (preTransitTime > options.maxPreTransitTime) {
                 if (options.softPreTransitLimiting) {
-                    weight += calculateOverageWeight(s0.getPreTransitTime(), s1.getPreTransitTime(),
+                    weight += calculateOverageWeight(s0.getPreTransitTime(), preTransitTime,
                             options.maxPreTransitTime, options.preTransitPenalty,
                                     options.preTransitOverageRate);
                 } else return null;
@@ -501,12 +510,12 @@ public class StreetEdge extends Edge implements Cloneable {
         }
         
         /* Apply a strategy for avoiding walking too far, either soft (weight increases) or hard limiting (pruning). */
-        if (s1.weHaveWalkedTooFar(options)) {
+        if (State.isWalkDistanceExceeded(walkDistance, options)) {
 
             // if we're using a soft walk-limit
             if( options.softWalkLimiting ){
-                // just slap a penalty for the overage onto s1
-                weight += calculateOverageWeight(s0.getWalkDistance(), s1.getWalkDistance(),
+                // just slap a penalty for the overage onto the new state
+                weight += calculateOverageWeight(s0.getWalkDistance(), walkDistance,
                         options.getMaxWalkDistance(), options.softWalkPenalty,
                                 options.softWalkOverageRate);
             } else {
@@ -516,11 +525,10 @@ public class StreetEdge extends Edge implements Cloneable {
             }
         }
 
-        s1.incrementTimeInSeconds(roundedTime);
-        
-        s1.incrementWeight(weight);
+        seconds += roundedTime;
 
-        return s1;
+        return s0.makeStreetChild(this, traverseMode, walkingBike, enteredNoThroughTrafficArea, toggleCarParked,
+                seconds, s0.getWeight() + switchCost + weight, walkDistance, preTransitTime);
     }
 
     private double calculateOverageWeight(double firstValue, double secondValue, double maxValue,
@@ -604,6 +612,21 @@ public class StreetEdge extends Edge implements Cloneable {
 
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
+        out.writeObject(MappedEdgeData.isWritingExternally() ? null : getCompactGeometry());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        compactGeometry = (int[]) in.readObject();
+    }
+
+    /** Read geometry and elevation data that were left out of the serialized graph from the given file. */
+    public void setMappedEdgeData(MappedEdgeData mappedEdgeData) {
+        this.mappedEdgeData = mappedEdgeData;
+    }
+
+    protected MappedEdgeData getMappedEdgeData() {
+        return mappedEdgeData;
     }
 
     public String toString() {
@@ -665,7 +688,32 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public LineString getGeometry() {
-		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), compactGeometry, isBack());
+		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), getCompactGeometry(), isBack());
+	}
+
+	/**
+	 * Unlike getGeometry(), this does not materialize a geometry that is still in the mapped edge data file, so the
+	 * spatial index can be built without reading every geometry.
+	 */
+	@Override
+	public Envelope getEnvelope() {
+		if (compactGeometry == null && mappedEdgeData != null) {
+			Envelope envelope = mappedEdgeData.getEnvelope(getId());
+			if (envelope != null) return envelope;
+		}
+		return super.getEnvelope();
+	}
+
+	/** @return the delta coded intermediate coordinates of this edge, as used by CompactLineString. May be null. */
+	public int[] getCompactGeometry() {
+		int[] geometry = compactGeometry;
+		if (geometry == null && mappedEdgeData != null) {
+			// Materialize the geometry on first use. The field is volatile so the array is safely published; racing
+			// threads would read identical arrays.
+			geometry = mappedEdgeData.getCompactGeometry(getId());
+			compactGeometry = geometry;
+		}
+		return geometry;
 	}
 
 	private void setGeometry(LineString geometry) {
@@ -673,7 +721,7 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public void shareData(StreetEdge reversedEdge) {
-	    if (Arrays.equals(compactGeometry, reversedEdge.compactGeometry)) {
+	    if (Arrays.equals(getCompactGeometry(), reversedEdge.getCompactGeometry())) {
 	        compactGeometry = reversedEdge.compactGeometry;
 	    } else {
 	        LOG.warn("Can't share geometry between {} and {}", this, reversedEdge);
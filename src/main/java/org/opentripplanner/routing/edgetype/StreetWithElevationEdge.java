@@ -13,8 +13,13 @@
 
 package org.opentripplanner.routing.edgetype;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import org.opentripplanner.common.geometry.CompactElevationProfile;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.routing.graph.MappedEdgeData;
 import org.opentripplanner.routing.util.ElevationUtils;
 import org.opentripplanner.routing.util.SlopeCosts;
 import org.opentripplanner.routing.vertextype.StreetVertex;
@@ -32,7 +37,8 @@ public class StreetWithElevationEdge extends StreetEdge {
 
     private static final long serialVersionUID = 1L;
 
-    private byte[] packedElevationProfile;
+    /** Transient, but written in writeObject unless it is stored in a separate MappedEdgeData file. */
+    private transient volatile byte[] packedElevationProfile;
 
     private float slopeSpeedFactor = 1.0f;
 
@@ -80,7 +86,28 @@ public class StreetWithElevationEdge extends StreetEdge {
 
     @Override
     public PackedCoordinateSequence getElevationProfile() {
-        return CompactElevationProfile.uncompactElevationProfile(packedElevationProfile);
+        return CompactElevationProfile.uncompactElevationProfile(getPackedElevationProfile());
+    }
+
+    /** @return the elevation profile in the compact form of CompactElevationProfile, or null if there is none. */
+    public byte[] getPackedElevationProfile() {
+        byte[] packed = packedElevationProfile;
+        if (packed == null && getMappedEdgeData() != null) {
+            // Volatile, like the geometry in StreetEdge, so the lazily read profile is safely published.
+            packed = getMappedEdgeData().getPackedElevationProfile(getId());
+            packedElevationProfile = packed;
+        }
+        return packed;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(MappedEdgeData.isWritingExternally() ? null : getPackedElevationProfile());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        packedElevationProfile = (byte[]) in.readObject();
     }
 
     @Override
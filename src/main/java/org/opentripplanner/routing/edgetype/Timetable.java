@@ -33,6 +33,7 @@ import org.opentripplanner.routing.core.StopTransfer;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.trippattern.FrequencyEntry;
 import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.trippattern.TripTimesIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -87,7 +88,19 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
-    
+
+    /**
+     * Patterns with fewer trips than this are not indexed: a linear scan is as fast as a binary search
+     * on so few trips and we avoid the memory overhead of the index.
+     */
+    private static final int MIN_INDEXED_TRIPS = 16;
+
+    /**
+     * Sorted per-stop departure and arrival times of the TripTimes (not the FrequencyEntries) in this
+     * Timetable, allowing binary search for the next trip. Null when this Timetable is not indexed.
+     */
+    private transient TripTimesIndex tripTimesIndex;
+
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
         this.pattern = pattern;
@@ -101,6 +114,15 @@ public class Timetable implements Serializable {
         tripTimes.addAll(tt.tripTimes);
         this.serviceDate = serviceDate;
         this.pattern = tt.pattern;
+        // Copy rather than rebuild the index, so that it can be updated incrementally as realtime updates arrive.
+        if (tt.isIndexed()) {
+            this.tripTimesIndex = new TripTimesIndex(tt.tripTimesIndex);
+        }
+    }
+
+    /** @return whether the TripTimesIndex of this Timetable exists and covers all of its TripTimes. */
+    private boolean isIndexed() {
+        return tripTimesIndex != null && tripTimesIndex.size() == tripTimes.size();
     }
 
     /**
@@ -146,37 +168,81 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
-            if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
+        if (isIndexed()) {
+            // Binary search in the per-stop index, then step forward (backward) until an acceptable trip is found.
+            // Each stop is sorted independently, so this remains correct when realtime updates leave the trips in
+            // a different order at different stops. The transfer-adjusted time is never earlier (later) than the
+            // search time, so the first acceptable trip found is also the best one.
+            if (tripTimesIndex.anyServiceRunning(serviceDay)) {
+                if (boarding) {
+                    int nTrips = tripTimesIndex.size();
+                    for (int i = tripTimesIndex.firstDepartureAtOrAfter(stopIndex, time); i < nTrips; i++) {
+                        int depTime = tripTimesIndex.getDepartureTime(stopIndex, i);
+                        if (depTime < 0) continue; // see comment in linear search below
+                        TripTimes tt = tripTimes.get(tripTimesIndex.getDepartureTrip(stopIndex, i));
+                        if (tt.isCanceled()) continue;
+                        if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+                        if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                        int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                        if (adjustedTime == -1) continue;
+                        if (depTime >= adjustedTime) {
+                            bestTrip = tt;
+                            bestTime = depTime;
+                            break;
+                        }
+                    }
+                } else {
+                    for (int i = tripTimesIndex.lastArrivalAtOrBefore(stopIndex, time); i >= 0; i--) {
+                        int arvTime = tripTimesIndex.getArrivalTime(stopIndex, i);
+                        if (arvTime < 0) break; // all remaining arrivals are negative too
+                        // Keep scanning trips with the same arrival time, so ties go to the lowest trip index
+                        // as they do in the linear search.
+                        if (bestTrip != null && arvTime < bestTime) break;
+                        TripTimes tt = tripTimes.get(tripTimesIndex.getArrivalTrip(stopIndex, i));
+                        if (tt.isCanceled()) continue;
+                        if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+                        if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                        int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                        if (adjustedTime == -1) continue;
+                        if (arvTime <= adjustedTime) {
+                            bestTrip = tt;
+                            bestTime = arvTime;
+                        }
+                    }
                 }
-            } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
+            }
+        } else {
+            // Linear search through the timetable looking for the best departure.
+            // This is used for small timetables and those that have been modified without being re-indexed.
+            // We cannot simply sort the TripTimes and binary search them because:
+            // 1. we allow combining trips from different service IDs on the same tripPattern.
+            // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
+            // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
+            // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+            // We could invert this and skip some service days based on schedule overlap as in RRRR.
+            for (TripTimes tt : tripTimes) {
+                if (tt.isCanceled()) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (boarding) {
+                    int depTime = tt.getDepartureTime(stopIndex);
+                    if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                               // now its not sure if this check should be still in place because there is a boolean field
+                                               // for canceled trips
+                    if (depTime >= adjustedTime && depTime < bestTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                    }
+                } else {
+                    int arvTime = tt.getArrivalTime(stopIndex);
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime && arvTime > bestTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
                 }
             }
         }
@@ -215,6 +281,40 @@ public class Timetable implements Serializable {
         return bestTrip;
     }
 
+    /**
+     * Get the first trips departing from the specified stop at or after the specified time, in order of departure at
+     * that stop, as shown on a departure board. Unlike getNextTrip this ignores transfer rules and boarding times, and
+     * does not include FrequencyEntries.
+     *
+     * @param time the search time in seconds since midnight on the given service day
+     * @param maxDepartures the maximum number of trips to return
+     */
+    public List<TripTimes> getNextDepartures(ServiceDay serviceDay, int stopIndex, int time, int maxDepartures) {
+        List<TripTimes> departures = Lists.newArrayList();
+        if (isIndexed()) {
+            // The index is sorted by departure time at each stop, so we can stop at the first trips that are running.
+            if ( ! tripTimesIndex.anyServiceRunning(serviceDay)) return departures;
+            int nTrips = tripTimesIndex.size();
+            for (int i = tripTimesIndex.firstDepartureAtOrAfter(stopIndex, time);
+                 i < nTrips && departures.size() < maxDepartures; i++) {
+                if (tripTimesIndex.getDepartureTime(stopIndex, i) == -1) continue;
+                TripTimes tt = tripTimes.get(tripTimesIndex.getDepartureTrip(stopIndex, i));
+                if (serviceDay.serviceRunning(tt.serviceCode)) departures.add(tt);
+            }
+        } else {
+            for (TripTimes tt : tripTimes) {
+                int depTime = tt.getDepartureTime(stopIndex);
+                if (depTime == -1 || depTime < time) continue;
+                if (serviceDay.serviceRunning(tt.serviceCode)) departures.add(tt);
+            }
+            departures.sort((tt1, tt2) -> tt1.getDepartureTime(stopIndex) - tt2.getDepartureTime(stopIndex));
+            if (departures.size() > maxDepartures) {
+                departures = departures.subList(0, maxDepartures);
+            }
+        }
+        return departures;
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State,
      * return the boarding time t0 adjusted for this particular trip's minimum transfer time,
@@ -295,6 +395,12 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        /* Build the per-stop departure and arrival index, unless it has been kept up to date incrementally. */
+        if (tripTimes.size() < MIN_INDEXED_TRIPS) {
+            tripTimesIndex = null;
+        } else if ( ! isIndexed()) {
+            tripTimesIndex = new TripTimesIndex(tripTimes, nStops);
+        }
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -338,7 +444,12 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
-        return tripTimes.set(tripIndex, tt);
+        boolean indexed = isIndexed();
+        TripTimes old = tripTimes.set(tripIndex, tt);
+        if (indexed) {
+            tripTimesIndex.replace(tripIndex, old, tt);
+        }
+        return old;
     }
 
     /**
@@ -518,7 +629,12 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        boolean indexed = isIndexed();
         tripTimes.add(tt);
+        // The index (unlike the rest of the Timetable) is cheap to update one trip at a time.
+        if (indexed) {
+            tripTimesIndex.add(tt);
+        }
     }
 
     /**
@@ -562,6 +678,8 @@ public class Timetable implements Serializable {
     /** Find and cache service codes. Duplicates information in trip.getServiceId for optimization. */
     // TODO maybe put this is a more appropriate place
     public void setServiceCodes (Map<AgencyAndId, Integer> serviceCodes) {
+        // The index records service codes, so it must be rebuilt by finish() once they change.
+        tripTimesIndex = null;
         for (TripTimes tt : this.tripTimes) {
             tt.serviceCode = serviceCodes.get(tt.trip.getServiceId());
         }
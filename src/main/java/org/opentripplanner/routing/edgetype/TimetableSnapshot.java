@@ -14,9 +14,9 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.util.*;
-import java.util.Map.Entry;
 
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.PersistentHashMap;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,12 +96,11 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
+    // A persistent map, so that a commit can share it with the new snapshot instead of copying it.
+    // Each update then only copies the path to the updated pattern, leaving the committed snapshots unchanged.
     // The SortedSet members are copy-on-write
     // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    private PersistentHashMap<TripPattern, SortedSet<Timetable>> timetables = PersistentHashMap.empty();
 
     /**
      * <p>
@@ -110,10 +109,10 @@ public class TimetableSnapshot {
      * with trip times of a trip that didn't exist yet in the trip pattern.
      * </p>
      * <p>
-     * This is a HashMap and not a Map so the clone function is available.
+     * Like the timetables, this is a persistent map shared with the snapshots committed from this one.
      * </p>
      */
-    private HashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new HashMap<>();
+    private PersistentHashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = PersistentHashMap.empty();
     
     /**
      * Boolean value indicating that timetable snapshot is read only if true. Once it is true, it shouldn't
@@ -204,7 +203,7 @@ public class TimetableSnapshot {
             if(old.serviceDate != null)
                 sortedTimetables.remove(old);
             sortedTimetables.add(tt);
-            timetables.put(pattern, sortedTimetables);
+            timetables = timetables.plus(pattern, sortedTimetables);
             dirtyTimetables.add(tt);
             dirty = true;
         }
@@ -218,20 +217,21 @@ public class TimetableSnapshot {
             // Remember this pattern for the added trip id and service date
             String tripId = updatedTripTimes.trip.getId().getId();
             TripIdAndServiceDate tripIdAndServiceDate = new TripIdAndServiceDate(feedId, tripId, serviceDate);
-            lastAddedTripPattern.put(tripIdAndServiceDate, pattern);
+            lastAddedTripPattern = lastAddedTripPattern.plus(tripIdAndServiceDate, pattern);
         } else {
             // Set updated trip times of trip
             tt.setTripTimes(tripIndex, updatedTripTimes);
         }
         
-        // The time tables are finished during the commit
+        // The trip times index is updated incrementally above, the rest of the time tables are finished during the commit
         
         return true;
     }
 
     /**
      * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * the indexing step. The maps are persistent, so the committed snapshot shares them with
+     * this one in constant time rather than copying them, however many patterns they contain.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
@@ -243,7 +243,6 @@ public class TimetableSnapshot {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableSnapshot commit(boolean force) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
@@ -254,9 +253,8 @@ public class TimetableSnapshot {
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
-        ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
-                this.lastAddedTripPattern.clone();
+        ret.timetables = this.timetables;
+        ret.lastAddedTripPattern = this.lastAddedTripPattern;
         this.dirtyTimetables.clear();
         this.dirty = false;
 
@@ -290,7 +288,11 @@ public class TimetableSnapshot {
      * @return true if the timetable changed as a result of the call
      */
     protected boolean clearTimetable(String feedId) {
-        return timetables.keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+        PersistentHashMap<TripPattern, SortedSet<Timetable>> cleared =
+                timetables.minusIf((tripPattern, sortedTimetables) -> feedId.equals(tripPattern.getFeedId()));
+        boolean modified = cleared != timetables;
+        timetables = cleared;
+        return modified;
     }
 
     /**
@@ -300,7 +302,11 @@ public class TimetableSnapshot {
      * @return true if the lastAddedTripPattern changed as a result of the call
      */
     protected boolean clearLastAddedTripPattern(String feedId) {
-        return lastAddedTripPattern.keySet().removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
+        PersistentHashMap<TripIdAndServiceDate, TripPattern> cleared = lastAddedTripPattern.minusIf(
+                (tripIdAndServiceDate, pattern) -> feedId.equals(tripIdAndServiceDate.getFeedId()));
+        boolean modified = cleared != lastAddedTripPattern;
+        lastAddedTripPattern = cleared;
+        return modified;
     }
 
     /**
@@ -311,35 +317,35 @@ public class TimetableSnapshot {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
         }
 
-        boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
-            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+        // Collect the changes first, since the map is replaced rather than modified by each of them
+        Map<TripPattern, SortedSet<Timetable>> changedPatterns = new HashMap<>();
+        timetables.forEach((pattern, sortedTimetables) -> {
             SortedSet<Timetable> toKeepTimetables =
                     new TreeSet<Timetable>(new SortedTimetableComparator());
             for(Timetable timetable : sortedTimetables) {
                 if(serviceDate.compareTo(timetable.serviceDate) < 0) {
                     toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
                 }
             }
-
-            if(toKeepTimetables.isEmpty()) {
-                it.remove();
+            if (toKeepTimetables.size() < sortedTimetables.size()) {
+                changedPatterns.put(pattern, toKeepTimetables);
+            }
+        });
+        for (Map.Entry<TripPattern, SortedSet<Timetable>> entry : changedPatterns.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                timetables = timetables.minus(entry.getKey());
             } else {
-                timetables.put(pattern, toKeepTimetables);
+                timetables = timetables.plus(entry.getKey(), entry.getValue());
             }
         }
-        
+        boolean modified = !changedPatterns.isEmpty();
+
         // Also remove last added trip pattern for days that are purged
-        for (Iterator<Entry<TripIdAndServiceDate, TripPattern>> iterator = lastAddedTripPattern
-                .entrySet().iterator(); iterator.hasNext();) {
-            TripIdAndServiceDate tripIdAndServiceDate = iterator.next().getKey();
-            if (serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0) {
-                iterator.remove();
-                modified = true;
-            }
+        PersistentHashMap<TripIdAndServiceDate, TripPattern> purged = lastAddedTripPattern.minusIf(
+                (tripIdAndServiceDate, pattern) -> serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0);
+        if (purged != lastAddedTripPattern) {
+            lastAddedTripPattern = purged;
+            modified = true;
         }
 
         return modified;
@@ -0,0 +1,250 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A binary graph file format based on fst serialization, as a faster alternative to the Java serialization used by
+ * Graph.save and Graph.load.
+ *
+ * The file begins with a fixed header (magic bytes, format version, flags, build id, and vertex and edge counts)
+ * written in plain DataOutput form, so the format can be recognized and rejected cheaply without deserializing
+ * anything. It is followed by an fst stream containing the Graph object itself, then the edges in blocks of
+ * EDGES_PER_BLOCK, each preceded by its length and terminated by a zero length, then the graph builder annotations if
+ * the graph contains debug data. Object references are shared across the whole stream, so vertices, trip patterns,
+ * timetables etc. are written only once. Reading the edges block by block lets the vertex table be filled as the edges
+ * arrive, without holding a second list of all edges in memory as Graph.load does.
+ *
+ * The Java serialization hooks (readObject / writeObject) of the graph classes are honored by fst, so edge lists,
+ * vertex indexes and timetable indexes are rebuilt exactly as they are when loading a Java serialized graph.
+ * The format version must be incremented whenever the layout of this file changes.
+ *
+ * Optionally the street geometries and elevation profiles are left out of the graph file and written to a
+ * MappedEdgeData file in the same directory, which is memory mapped rather than read when the graph is loaded. Both
+ * files carry the same random build id, and a graph is only loaded with an edge data file written along with it. Both
+ * files are written beside the old ones and then moved into place, so a crash or failure while writing leaves the old
+ * pair intact.
+ */
+public class BinaryGraphFormat {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryGraphFormat.class);
+
+    private static final byte[] MAGIC = "OTPGRAPH".getBytes(StandardCharsets.US_ASCII);
+
+    public static final int FORMAT_VERSION = 3;
+
+    /** Header flag: street geometries and elevation profiles are in a separate MappedEdgeData file. */
+    private static final int FLAG_MAPPED_EDGE_DATA = 1;
+
+    private static final int EDGES_PER_BLOCK = 100000;
+
+    /**
+     * @return whether the given stream starts with the header of this format. The stream must support mark and reset,
+     * and is reset to its initial position.
+     */
+    public static boolean isBinaryGraph(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        try {
+            byte[] header = new byte[MAGIC.length];
+            int n = 0;
+            while (n < header.length) {
+                int read = in.read(header, n, header.length - n);
+                if (read < 0) return false;
+                n += read;
+            }
+            return Arrays.equals(MAGIC, header);
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Write the given graph to a file in the binary format. The graph is written to a temporary file that replaces the
+     * given file only once it is complete.
+     * @param mappedEdgeData if true, write street geometries and elevation profiles to a MappedEdgeData file beside
+     *                       the graph file instead of including them in the graph file.
+     */
+    public static void write(Graph graph, File file, boolean mappedEdgeData) throws IOException {
+        LOG.info("Main graph size: |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+        long buildId = new SecureRandom().nextLong();
+        File edgeDataFile = new File(file.getAbsoluteFile().getParentFile(), MappedEdgeData.FILENAME);
+        File tempEdgeDataFile = new File(edgeDataFile.getPath() + ".tmp");
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            if (mappedEdgeData) {
+                MappedEdgeData.write(graph, tempEdgeDataFile, buildId);
+            }
+            LOG.info("Writing binary graph " + file.getAbsolutePath() + " ...");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                write(graph, out, mappedEdgeData, buildId);
+            }
+            // Replace rather than overwrite, as another process may be reading or mapping the old files.
+            if (mappedEdgeData) {
+                Files.move(tempEdgeDataFile.toPath(), edgeDataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // remove half-written files
+            tempEdgeDataFile.delete();
+            tempFile.delete();
+        }
+    }
+
+    public static void write(Graph graph, OutputStream out) throws IOException {
+        write(graph, out, false, 0);
+    }
+
+    private static void write(Graph graph, OutputStream out, boolean mappedEdgeData, long buildId)
+            throws IOException {
+        long startTime = System.currentTimeMillis();
+        LOG.debug("Assigning vertex/edge ID numbers...");
+        graph.rebuildVertexAndEdgeIndices();
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.writeInt(mappedEdgeData ? FLAG_MAPPED_EDGE_DATA : 0);
+        header.writeLong(buildId);
+        header.writeInt(graph.countVertices());
+        header.writeInt(graph.countEdges());
+        header.flush();
+        FSTObjectOutput fst = new FSTObjectOutput(out, FSTConfiguration.createDefaultConfiguration());
+        MappedEdgeData.setWritingExternally(mappedEdgeData);
+        try {
+            writeObjects(graph, fst);
+        } finally {
+            MappedEdgeData.setWritingExternally(false);
+        }
+        LOG.info("Binary graph written in {} msec.", System.currentTimeMillis() - startTime);
+    }
+
+    private static void writeObjects(Graph graph, FSTObjectOutput fst) throws IOException {
+        fst.writeObject(graph);
+        List<Edge> block = new ArrayList<Edge>(EDGES_PER_BLOCK);
+        for (Vertex v : graph.getVertices()) {
+            // there are assumed to be no edges in an incoming list that are not in an outgoing list
+            for (Edge e : v.getOutgoing()) {
+                block.add(e);
+                if (block.size() == EDGES_PER_BLOCK) {
+                    writeBlock(fst, block);
+                }
+            }
+            if (v.getDegreeOut() + v.getDegreeIn() == 0)
+                LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
+        }
+        writeBlock(fst, block);
+        fst.writeInt(0);
+        if (graph.hasDebugData()) {
+            LOG.debug("Writing debug data...");
+            fst.writeObject(graph.getBuilderAnnotations());
+        }
+        fst.flush();
+    }
+
+    private static void writeBlock(FSTObjectOutput fst, List<Edge> block) throws IOException {
+        if (block.isEmpty()) return;
+        fst.writeInt(block.size());
+        fst.writeObject(block.toArray(new Edge[block.size()]));
+        block.clear();
+    }
+
+    /**
+     * Read a graph in the binary format from the given stream, which must be positioned at the start of the header.
+     * The load levels have the same meaning as in Graph.load.
+     * @param edgeDataFile the MappedEdgeData file to map if the graph was written without its street geometries and
+     *                     elevation profiles. May be null for graphs that include them.
+     */
+    @SuppressWarnings("unchecked")
+    public static Graph read(InputStream in, LoadLevel level, StreetVertexIndexFactory indexFactory,
+            File edgeDataFile) throws IOException, ClassNotFoundException {
+        long startTime = System.currentTimeMillis();
+        DataInputStream header = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        header.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a binary OTP graph file.");
+        }
+        int version = header.readInt();
+        if (version != FORMAT_VERSION) {
+            LOG.error("Binary graph format version {} is not supported by this version of OTP, which reads version {}."
+                    + " Please rebuild the graph.", version, FORMAT_VERSION);
+            throw new IllegalStateException("Stored Graph version error");
+        }
+        int flags = header.readInt();
+        long buildId = header.readLong();
+        MappedEdgeData mappedEdgeData = null;
+        if ((flags & FLAG_MAPPED_EDGE_DATA) != 0 && level != LoadLevel.BASIC) {
+            if (edgeDataFile == null || !edgeDataFile.canRead()) {
+                throw new IOException("Graph requires the edge data file " + MappedEdgeData.FILENAME
+                        + ", which was not found beside it.");
+            }
+            mappedEdgeData = MappedEdgeData.map(edgeDataFile, buildId);
+        }
+        int nVertices = header.readInt();
+        int nEdges = header.readInt();
+        FSTObjectInput fst = new FSTObjectInput(in, FSTConfiguration.createDefaultConfiguration());
+        Graph graph = (Graph) fst.readObject();
+        LOG.debug("Basic graph info read.");
+        if (graph.graphVersionMismatch())
+            throw new RuntimeException("Graph version mismatch detected.");
+        if (level == LoadLevel.BASIC)
+            return graph;
+        LOG.debug("Loading {} edges...", nEdges);
+        graph.initVertices(nVertices);
+        for (int blockSize = fst.readInt(); blockSize > 0; blockSize = fst.readInt()) {
+            Edge[] block = (Edge[]) fst.readObject();
+            graph.addEdgeVertices(Arrays.asList(block));
+        }
+        if (mappedEdgeData != null) {
+            mappedEdgeData.attach(graph);
+        }
+        LOG.info("Main graph read in {} msec. |V|={} |E|={}", System.currentTimeMillis() - startTime,
+                graph.countVertices(), graph.countEdges());
+        graph.index(indexFactory);
+        if (level == LoadLevel.FULL) {
+            return graph;
+        }
+        if (graph.hasDebugData()) {
+            graph.setBuilderAnnotations((List<GraphBuilderAnnotation>) fst.readObject());
+            LOG.debug("Debug info read.");
+        } else {
+            LOG.warn("Graph file does not contain debug data.");
+        }
+        return graph;
+    }
+
+}
@@ -0,0 +1,338 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opentripplanner.common.geometry.CompactLineString;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.util.ElevationUtils;
+import org.opentripplanner.routing.vertextype.BarrierVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * An immutable, array-based view of the street layer of a Graph, in compressed sparse row (CSR) form.
+ *
+ * Vertices that have at least one StreetEdge are numbered densely from zero. Street edges are numbered in order of
+ * their from-vertex, so the outgoing edges of vertex v are the edge ids outgoingOffsets[v] (inclusive) to
+ * outgoingOffsets[v + 1] (exclusive). A second offsets array and a permutation of edge ids gives the incoming edges
+ * for arriveBy searches. All per-edge attributes needed to compute street traversal times are held in parallel
+ * primitive arrays, so a search touches a few contiguous arrays rather than chasing Vertex, Edge and Edge[] objects.
+ *
+ * The snapshot reflects the Graph at the time it was built. It is built when the Graph is indexed, and dropped by
+ * Graph.invalidateCompactStreetGraph() whenever permanent vertices or edges are added or removed (e.g. splitting edges
+ * to link a stop), so that the next call to Graph.getCompactStreetGraph() builds a new one. Temporary vertices and edges
+ * created per request are not included. The original Vertex and StreetEdge objects are kept only to translate search
+ * results back into the object graph.
+ */
+public class CompactStreetGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactStreetGraph.class);
+
+    /* Bits in the flags array. */
+    public static final int FLAG_BACK = 1;
+    public static final int FLAG_ROUNDABOUT = 1 << 1;
+    public static final int FLAG_STAIRS = 1 << 2;
+    public static final int FLAG_NO_THRU_TRAFFIC = 1 << 3;
+    public static final int FLAG_WHEELCHAIR_ACCESSIBLE = 1 << 4;
+
+    /** The number of vertices and edges in the snapshot. */
+    public final int nVertices, nEdges;
+
+    /** For each Vertex.getIndex(), the compact vertex id, or -1 if the vertex is not in this snapshot. */
+    private final int[] vertexIdForIndex;
+
+    /** For each compact vertex id, the original vertex. */
+    private final Vertex[] vertices;
+
+    /** Vertex coordinates, by compact vertex id. */
+    private final double[] lats, lons;
+
+    /** CSR offsets into the edge ids for outgoing edges, and into incomingEdges for incoming edges. Length nVertices + 1. */
+    private final int[] outgoingOffsets, incomingOffsets;
+
+    /** Edge ids sorted by to-vertex. */
+    private final int[] incomingEdges;
+
+    /* Per-edge attributes, by edge id. */
+
+    private final int[] fromVertex, toVertex;
+
+    /** Length in millimeters, as stored in StreetEdge. */
+    private final int[] lengthMm;
+
+    /** Length adjusted for the effect of slope on speed (for cycling and walking bikes), in millimeters. */
+    private final int[] slopeSpeedLengthMm;
+
+    /** Length adjusted for the work of climbing (used by the FLAT and TRIANGLE bicycle optimizations), in millimeters. */
+    private final int[] slopeWorkCostLengthMm;
+
+    /** Equivalent flat walking length accounting for slope, in millimeters (see ElevationUtils.getWalkCostsForSlope). */
+    private final int[] walkCostLengthMm;
+
+    /** StreetTraversalPermission codes, already intersected with any barrier permissions at the edge ends. */
+    private final byte[] permissions;
+
+    private final byte[] flags;
+
+    private final float[] carSpeeds;
+
+    private final float[] bicycleSafetyFactors;
+
+    private final float[] maxSlopes;
+
+    /** Offsets into the geometry array. The compact geometry of edge e is geometry[geometryOffsets[e], geometryOffsets[e + 1]). */
+    private final int[] geometryOffsets;
+
+    /** The concatenated compact (delta coded) intermediate coordinates of all edges. See CompactLineString. */
+    private final int[] geometry;
+
+    /** The original edges, by edge id. */
+    private final StreetEdge[] edges;
+
+    /** Build a snapshot of the permanent street edges currently in the given Graph. */
+    public CompactStreetGraph(Graph graph) {
+        long start = System.currentTimeMillis();
+        vertexIdForIndex = new int[Vertex.getMaxIndex()];
+        Arrays.fill(vertexIdForIndex, -1);
+        List<Vertex> vertexList = new ArrayList<>();
+        List<StreetEdge> edgeList = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            boolean hasStreetEdge = false;
+            for (Edge e : v.getOutgoing()) {
+                if (isPermanentStreetEdge(e)) {
+                    edgeList.add((StreetEdge) e);
+                    hasStreetEdge = true;
+                }
+            }
+            for (Edge e : v.getIncoming()) {
+                if (isPermanentStreetEdge(e)) {
+                    hasStreetEdge = true;
+                }
+            }
+            if (hasStreetEdge) {
+                vertexIdForIndex[v.getIndex()] = vertexList.size();
+                vertexList.add(v);
+            }
+        }
+        nVertices = vertexList.size();
+        nEdges = edgeList.size();
+        vertices = vertexList.toArray(new Vertex[nVertices]);
+        edges = edgeList.toArray(new StreetEdge[nEdges]);
+        lats = new double[nVertices];
+        lons = new double[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            lats[v] = vertices[v].getLat();
+            lons[v] = vertices[v].getLon();
+        }
+
+        fromVertex = new int[nEdges];
+        toVertex = new int[nEdges];
+        lengthMm = new int[nEdges];
+        slopeSpeedLengthMm = new int[nEdges];
+        slopeWorkCostLengthMm = new int[nEdges];
+        walkCostLengthMm = new int[nEdges];
+        permissions = new byte[nEdges];
+        flags = new byte[nEdges];
+        carSpeeds = new float[nEdges];
+        bicycleSafetyFactors = new float[nEdges];
+        maxSlopes = new float[nEdges];
+        geometryOffsets = new int[nEdges + 1];
+        int nGeometryInts = 0;
+        for (int e = 0; e < nEdges; e++) {
+            int[] compactGeometry = edges[e].getCompactGeometry();
+            if (compactGeometry != null) nGeometryInts += compactGeometry.length;
+        }
+        geometry = new int[nGeometryInts];
+
+        // Edges were collected by from-vertex, in vertex order, so the outgoing edges of each vertex are contiguous.
+        outgoingOffsets = new int[nVertices + 1];
+        int[] inDegree = new int[nVertices];
+        for (int e = 0; e < nEdges; e++) {
+            StreetEdge se = edges[e];
+            int from = vertexIdForIndex[se.getFromVertex().getIndex()];
+            int to = vertexIdForIndex[se.getToVertex().getIndex()];
+            fromVertex[e] = from;
+            toVertex[e] = to;
+            outgoingOffsets[from + 1] += 1;
+            inDegree[to] += 1;
+            double distance = se.getDistance();
+            lengthMm[e] = toMillimeters(distance);
+            slopeSpeedLengthMm[e] = toMillimeters(se.getSlopeSpeedEffectiveLength());
+            slopeWorkCostLengthMm[e] = toMillimeters(se.getSlopeWorkCostEffectiveLength());
+            walkCostLengthMm[e] = toMillimeters(
+                    ElevationUtils.getWalkCostsForSlope(distance, se.getMaxSlope()) * 4.0 / 3.0);
+            permissions[e] = (byte) effectivePermission(se).code;
+            flags[e] = (byte) ((se.isBack() ? FLAG_BACK : 0)
+                    | (se.isRoundabout() ? FLAG_ROUNDABOUT : 0)
+                    | (se.isStairs() ? FLAG_STAIRS : 0)
+                    | (se.isNoThruTraffic() ? FLAG_NO_THRU_TRAFFIC : 0)
+                    | (se.isWheelchairAccessible() ? FLAG_WHEELCHAIR_ACCESSIBLE : 0));
+            carSpeeds[e] = se.getCarSpeed();
+            bicycleSafetyFactors[e] = se.getBicycleSafetyFactor();
+            maxSlopes[e] = se.getMaxSlope();
+            int[] compactGeometry = se.getCompactGeometry();
+            int geometryLength = compactGeometry == null ? 0 : compactGeometry.length;
+            if (geometryLength > 0) {
+                System.arraycopy(compactGeometry, 0, geometry, geometryOffsets[e], geometryLength);
+            }
+            geometryOffsets[e + 1] = geometryOffsets[e] + geometryLength;
+        }
+        for (int v = 0; v < nVertices; v++) {
+            outgoingOffsets[v + 1] += outgoingOffsets[v];
+        }
+        // Counting sort of edge ids by to-vertex.
+        incomingOffsets = new int[nVertices + 1];
+        for (int v = 0; v < nVertices; v++) {
+            incomingOffsets[v + 1] = incomingOffsets[v] + inDegree[v];
+        }
+        incomingEdges = new int[nEdges];
+        int[] fill = Arrays.copyOf(incomingOffsets, nVertices);
+        for (int e = 0; e < nEdges; e++) {
+            incomingEdges[fill[toVertex[e]]++] = e;
+        }
+        LOG.info("Built compact street graph with {} vertices and {} edges in {} msec.", nVertices, nEdges,
+                System.currentTimeMillis() - start);
+    }
+
+    /** Temporary edges may be attached to permanent vertices while requests are in progress. Leave them out. */
+    private static boolean isPermanentStreetEdge(Edge e) {
+        return e instanceof StreetEdge && !(e instanceof TemporaryEdge);
+    }
+
+    private static int toMillimeters(double meters) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(meters * 1000));
+    }
+
+    /** The same permission intersection as StreetEdge.canTraverseIncludingBarrier. */
+    private static StreetTraversalPermission effectivePermission(StreetEdge se) {
+        StreetTraversalPermission permission = se.getPermission();
+        if (se.getFromVertex() instanceof BarrierVertex) {
+            permission = permission.intersection(((BarrierVertex) se.getFromVertex()).getBarrierPermissions());
+        }
+        if (se.getToVertex() instanceof BarrierVertex) {
+            permission = permission.intersection(((BarrierVertex) se.getToVertex()).getBarrierPermissions());
+        }
+        return permission;
+    }
+
+    /** @return the compact id of the given vertex, or -1 if it is not part of this snapshot. */
+    public int getVertexId(Vertex vertex) {
+        int index = vertex.getIndex();
+        return index < vertexIdForIndex.length ? vertexIdForIndex[index] : -1;
+    }
+
+    public Vertex getVertex(int vertexId) {
+        return vertices[vertexId];
+    }
+
+    public double getLat(int vertexId) {
+        return lats[vertexId];
+    }
+
+    public double getLon(int vertexId) {
+        return lons[vertexId];
+    }
+
+    /** @return the first outgoing edge id of the given vertex. Outgoing edge ids are contiguous. */
+    public int firstOutgoingEdge(int vertexId) {
+        return outgoingOffsets[vertexId];
+    }
+
+    /** @return one past the last outgoing edge id of the given vertex. */
+    public int endOutgoingEdges(int vertexId) {
+        return outgoingOffsets[vertexId + 1];
+    }
+
+    /** @return the first position in the incoming edge list of the given vertex, to be passed to getIncomingEdge. */
+    public int firstIncoming(int vertexId) {
+        return incomingOffsets[vertexId];
+    }
+
+    /** @return one past the last position in the incoming edge list of the given vertex. */
+    public int endIncoming(int vertexId) {
+        return incomingOffsets[vertexId + 1];
+    }
+
+    public int getIncomingEdge(int position) {
+        return incomingEdges[position];
+    }
+
+    public int getFromVertex(int edgeId) {
+        return fromVertex[edgeId];
+    }
+
+    public int getToVertex(int edgeId) {
+        return toVertex[edgeId];
+    }
+
+    public StreetEdge getEdge(int edgeId) {
+        return edges[edgeId];
+    }
+
+    public double getDistance(int edgeId) {
+        return lengthMm[edgeId] / 1000.0;
+    }
+
+    public double getSlopeSpeedEffectiveLength(int edgeId) {
+        return slopeSpeedLengthMm[edgeId] / 1000.0;
+    }
+
+    public double getSlopeWorkCostEffectiveLength(int edgeId) {
+        return slopeWorkCostLengthMm[edgeId] / 1000.0;
+    }
+
+    /** @return the flat walking distance that costs as much as walking this edge, see ElevationUtils. */
+    public double getWalkCostLength(int edgeId) {
+        return walkCostLengthMm[edgeId] / 1000.0;
+    }
+
+    public boolean allows(int edgeId, TraverseMode mode) {
+        return StreetTraversalPermission.get(permissions[edgeId]).allows(mode);
+    }
+
+    public boolean hasFlag(int edgeId, int flag) {
+        return (flags[edgeId] & flag) != 0;
+    }
+
+    public float getCarSpeed(int edgeId) {
+        return carSpeeds[edgeId];
+    }
+
+    public float getBicycleSafetyFactor(int edgeId) {
+        return bicycleSafetyFactors[edgeId];
+    }
+
+    public float getMaxSlope(int edgeId) {
+        return maxSlopes[edgeId];
+    }
+
+    /** Rebuild the JTS geometry of an edge from the vertex coordinates and the packed intermediate points. */
+    public LineString getGeometry(int edgeId) {
+        int from = fromVertex[edgeId];
+        int to = toVertex[edgeId];
+        int[] coords = Arrays.copyOfRange(geometry, geometryOffsets[edgeId], geometryOffsets[edgeId + 1]);
+        return CompactLineString.uncompactLineString(lons[from], lats[from], lons[to], lats[to], coords,
+                hasFlag(edgeId, FLAG_BACK));
+    }
+
+}
@@ -13,6 +13,7 @@
 
 package org.opentripplanner.routing.graph;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.LineString;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.common.MavenVersion;
@@ -202,6 +203,12 @@ public abstract class Edge implements Serializable {
         return null;
     }
 
+    /** @return the bounding box of the geometry of this edge, or null if it has no geometry. */
+    public Envelope getEnvelope() {
+        LineString geometry = getGeometry();
+        return geometry == null ? null : geometry.getEnvelopeInternal();
+    }
+
     /**
      * Returns the azimuth of this edge from head to tail.
      * 
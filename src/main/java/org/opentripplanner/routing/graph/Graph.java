@@ -37,12 +37,14 @@ import org.opentripplanner.common.geometry.GraphUtils;
 import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.graph_builder.annotation.NoFutureDates;
 import org.opentripplanner.model.GraphBundle;
+import org.opentripplanner.routing.algorithm.strategies.TransitLowerBounds;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.EdgeWithCleanup;
 import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
 import org.opentripplanner.routing.services.StreetVertexIndexFactory;
@@ -50,6 +52,7 @@ import org.opentripplanner.routing.services.StreetVertexIndexService;
 import org.opentripplanner.routing.services.notes.StreetNotesService;
 import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.opentripplanner.routing.vertextype.PatternArriveVertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.opentripplanner.traffic.StreetSpeedSnapshotSource;
 import org.opentripplanner.updater.GraphUpdaterConfigurator;
@@ -114,6 +117,10 @@ public class Graph implements Serializable {
 
     private transient SampleFactory sampleFactory;
 
+    private transient TransitLowerBounds transitLowerBounds;
+
+    private transient volatile CompactStreetGraph compactStreetGraph;
+
     public final Deduplicator deduplicator = new Deduplicator();
 
     /**
@@ -172,6 +179,12 @@ public class Graph implements Serializable {
      */
     public transient GraphUpdaterManager updaterManager = null;
 
+    /**
+     * The number of graph writer runnables the updaters have run on this graph. Caches of search results compare it
+     * to the value when the results were stored, to tell when the graph they were computed on has changed.
+     */
+    private transient volatile long updaterWriteCount = 0;
+
     public final Date buildTime = new Date();
 
     /** True if OSM data was loaded into this Graph. */
@@ -213,6 +226,7 @@ public class Graph implements Serializable {
      * Add the given vertex to the graph. Ideally, only vertices should add themselves to the graph, when they are constructed or deserialized.
      */
     public void addVertex(Vertex v) {
+        if (!(v instanceof TemporaryVertex)) invalidateCompactStreetGraph();
         Vertex old = vertices.put(v.getLabel(), v);
         if (old != null) {
             if (old == v)
@@ -230,6 +244,7 @@ public class Graph implements Serializable {
      * @param v
      */
     public void removeVertex(Vertex v) {
+        invalidateCompactStreetGraph();
         if (vertices.remove(v.getLabel()) != v) {
             LOG.error(
                     "attempting to remove vertex that is not in graph (or mapping value was null): {}",
@@ -243,6 +258,7 @@ public class Graph implements Serializable {
      */
     public void removeEdge(Edge e) {
         if (e != null) {
+            if (!(e instanceof TemporaryEdge)) invalidateCompactStreetGraph();
             synchronized (alertPatches) {   // This synchronization is somewhat silly because this
                 alertPatches.remove(e);     // method isn't thread-safe anyway, but it is consistent
             }
@@ -656,24 +672,63 @@ public class Graph implements Serializable {
         BASIC, FULL, DEBUG;
     }
 
+    /**
+     * Load a graph file in either format, along with the MappedEdgeData file next to it if there is one.
+     */
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
-        // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        return load(in, level);
+        try (InputStream in = new FileInputStream(file)) {
+            return load(in, level, new DefaultStreetVertexIndexFactory(), edgeDataFileFor(file));
+        }
     }
 
+    /**
+     * Load a graph file in either format, resolving the classes of a Java serialized graph with the given class loader.
+     */
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level)
             throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " with alternate classloader ...");
-        ObjectInputStream in = new GraphObjectInputStream(new BufferedInputStream(
-                new FileInputStream(file)), classLoader);
-        return load(in, level);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            if (BinaryGraphFormat.isBinaryGraph(in)) {
+                LOG.info("Graph is in binary format.");
+                return BinaryGraphFormat.read(in, level, new DefaultStreetVertexIndexFactory(), edgeDataFileFor(file));
+            }
+            return load(new GraphObjectInputStream(in, classLoader), level);
+        }
+    }
+
+    /** @return the MappedEdgeData file saved alongside the given graph file, or null if there is none. */
+    private static File edgeDataFileFor(File graphFile) {
+        File edgeDataFile = new File(graphFile.getAbsoluteFile().getParentFile(), MappedEdgeData.FILENAME);
+        return edgeDataFile.exists() ? edgeDataFile : null;
     }
 
     public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
             IOException {
-        return load(new ObjectInputStream(is), level);
+        return load(is, level, new DefaultStreetVertexIndexFactory());
+    }
+
+    /**
+     * Load a graph from a stream containing either a Java serialized graph or a graph in the faster
+     * BinaryGraphFormat, which is recognized by its header.
+     */
+    public static Graph load(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws ClassNotFoundException, IOException {
+        return load(is, level, indexFactory, null);
+    }
+
+    /**
+     * @param edgeDataFile the MappedEdgeData file to memory map, for binary graphs that were written without their
+     *                     street geometries and elevation profiles. May be null.
+     */
+    public static Graph load(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory,
+            File edgeDataFile) throws ClassNotFoundException, IOException {
+        InputStream in = new BufferedInputStream(is);
+        if (BinaryGraphFormat.isBinaryGraph(in)) {
+            LOG.info("Graph is in binary format.");
+            return BinaryGraphFormat.read(in, level, indexFactory, edgeDataFile);
+        }
+        return load(new ObjectInputStream(in), level, indexFactory);
     }
 
     /**
@@ -710,6 +765,7 @@ public class Graph implements Serializable {
         }
         // TODO: Move this ^ stuff into the graph index
         this.index = new GraphIndex(this);
+        this.compactStreetGraph = new CompactStreetGraph(this);
     }
     
     /**
@@ -735,12 +791,8 @@ public class Graph implements Serializable {
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
             List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();
-            
-            for (Edge e : edges) {
-                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
-            }
+            graph.initVertices(edges.size() / 2);
+            graph.addEdgeVertices(edges);
 
             LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
             graph.index(indexFactory);
@@ -762,6 +814,27 @@ public class Graph implements Serializable {
         }
     }
 
+    /** Create an empty vertex table after deserialization, vertices are then added from the edges. */
+    void initVertices(int expectedSize) {
+        vertices = new HashMap<String, Vertex>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+    }
+
+    /** Add the endpoints of the given deserialized edges to the vertex table. */
+    void addEdgeVertices(Collection<Edge> edges) {
+        for (Edge e : edges) {
+            vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+            vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+        }
+    }
+
+    boolean hasDebugData() {
+        return debugData;
+    }
+
+    void setBuilderAnnotations(List<GraphBuilderAnnotation> graphBuilderAnnotations) {
+        this.graphBuilderAnnotations = graphBuilderAnnotations;
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -769,7 +842,7 @@ public class Graph implements Serializable {
      * @return false if Maven versions match (even if commit ids do not match), true if Maven version of graph does not match this version of OTP or
      *         graphs are otherwise obviously incompatible.
      */
-    private boolean graphVersionMismatch() {
+    boolean graphVersionMismatch() {
         MavenVersion v = MavenVersion.VERSION;
         MavenVersion gv = this.mavenVersion;
         LOG.info("Graph version: {}", gv);
@@ -1022,6 +1095,49 @@ public class Graph implements Serializable {
         return this.sampleFactory;	
     }
 
+    /** @return the number of graph writer runnables the updaters have run on this graph. */
+    public long getUpdaterWriteCount() {
+        return updaterWriteCount;
+    }
+
+    /** Called by the GraphUpdaterManager after each graph writer runnable, from its single writer thread. */
+    public void countUpdaterWrite() {
+        updaterWriteCount++;
+    }
+
+    /**
+     * @return the array-based snapshot of the street layer used by CompactStreetSearch. It is built when the graph is
+     * indexed, and rebuilt here after it has been invalidated by a change to the permanent street network.
+     */
+    public synchronized CompactStreetGraph getCompactStreetGraph() {
+        CompactStreetGraph compactStreetGraph = this.compactStreetGraph;
+        if (compactStreetGraph == null) {
+            compactStreetGraph = new CompactStreetGraph(this);
+            this.compactStreetGraph = compactStreetGraph;
+        }
+        return compactStreetGraph;
+    }
+
+    /**
+     * Drop the street layer snapshot. Adding or removing permanent vertices and edges, e.g. when a stop or bike rental
+     * station is linked to the streets by splitting an edge, calls this. Code that changes the attributes of existing
+     * street edges in place must call it too. Temporary vertices and edges are not part of the snapshot, so they do
+     * not invalidate it: CompactStreetSearch crosses them at the origin and destination of a request.
+     */
+    public void invalidateCompactStreetGraph() {
+        this.compactStreetGraph = null;
+    }
+
+    /**
+     * Lazily build the stop-to-stop table of the transit network used by the transit heuristic. Like the graph index,
+     * it does not follow later changes to the trip patterns of the graph.
+     */
+    public synchronized TransitLowerBounds getTransitLowerBounds() {
+        if (this.transitLowerBounds == null)
+            this.transitLowerBounds = new TransitLowerBounds(this);
+        return this.transitLowerBounds;
+    }
+
     /**
      * Calculates Transit center from median of coordinates of all transitStops if graph
      * has transit. If it doesn't it isn't calculated. (mean walue of min, max latitude and longitudes are used)
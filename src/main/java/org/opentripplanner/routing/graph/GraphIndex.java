@@ -17,6 +17,7 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import graphql.ExecutionResult;
 import graphql.GraphQL;
+import graphql.schema.GraphQLSchema;
 import org.apache.lucene.util.PriorityQueue;
 import org.joda.time.LocalDate;
 import org.onebusaway.gtfs.model.Agency;
@@ -31,6 +32,8 @@ import org.opentripplanner.common.geometry.HashGridSpatialIndex;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.index.GraphQLQueryLimits;
+import org.opentripplanner.index.IndexGraphQLContext;
 import org.opentripplanner.index.IndexGraphQLSchema;
 import org.opentripplanner.index.model.StopTimesInPattern;
 import org.opentripplanner.index.model.TripTimeShort;
@@ -38,17 +41,14 @@ import org.opentripplanner.profile.ProfileTransfer;
 import org.opentripplanner.profile.StopCluster;
 import org.opentripplanner.profile.StopNameNormalizer;
 import org.opentripplanner.profile.StopTreeCache;
-import org.opentripplanner.routing.algorithm.AStar;
-import org.opentripplanner.routing.algorithm.TraverseVisitor;
+import org.opentripplanner.routing.algorithm.CompactStreetSearch;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.ServiceDay;
-import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.TablePatternEdge;
 import org.opentripplanner.routing.edgetype.Timetable;
 import org.opentripplanner.routing.edgetype.TimetableSnapshot;
 import org.opentripplanner.routing.edgetype.TripPattern;
-import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.trippattern.FrequencyEntry;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.TransitStop;
@@ -59,12 +59,16 @@ import javax.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class contains all the transient indexes of graph elements -- those that are not
@@ -116,6 +120,9 @@ public class GraphIndex {
 
     public GraphQL graphQL;
 
+    /** Limits on the size of the GraphQL queries accepted by getGraphQLResponse. */
+    public GraphQLQueryLimits graphQLQueryLimits;
+
     /** Store distances from each stop to all nearby street intersections. Useful in speeding up analyst requests. */
     private transient StopTreeCache stopTreeCache = null;
 
@@ -177,9 +184,20 @@ public class GraphIndex {
         calendarService = graph.getCalendarService();
         serviceCodes = graph.serviceCodes;
         this.graph = graph;
-        graphQL = new GraphQL(new IndexGraphQLSchema(this).indexSchema, Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder().setNameFormat("GraphQLExecutor-" + graph.routerId + "-%d").build()
-        ));
+        // The fields of a query are resolved in parallel, each task waiting for the tasks of its nested fields.
+        // So rather than being queued, which could leave all the threads waiting for tasks that never run, a task
+        // that finds all the threads busy is run by the thread submitting it. This bounds the number of threads
+        // without deadlocks. Only half the cores are used, leaving the others to the trip planner.
+        int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        ExecutorService graphQLExecutor = new ThreadPoolExecutor(0, nThreads, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("GraphQLExecutor-" + graph.routerId + "-%d").setDaemon(true)
+                .build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        GraphQLSchema graphQLSchema = new IndexGraphQLSchema(this).indexSchema;
+        graphQL = new GraphQL(graphQLSchema, graphQLExecutor);
+        graphQLQueryLimits = new GraphQLQueryLimits(graphQLSchema, GraphQLQueryLimits.DEFAULT_MAX_DEPTH,
+                GraphQLQueryLimits.DEFAULT_MAX_FIELDS, GraphQLQueryLimits.DEFAULT_LIST_FAN_OUT);
         LOG.info("Done indexing graph.");
     }
 
@@ -303,7 +321,7 @@ public class GraphIndex {
     /* TODO: an almost similar function exists in ProfileRouter, combine these.
     *  Should these live in a separate class? */
     public List<StopAndDistance> findClosestStopsByWalking(float lat, float lon, int radius) {
-        // Make a normal OTP routing request so we can traverse edges and use GenericAStar
+        // Make a normal OTP routing request so we can link the location to the streets and traverse edges
         // TODO make a function that builds normal routing requests from profile requests
         RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
         rr.from = new GenericLocation(lat, lon);
@@ -312,18 +330,25 @@ public class GraphIndex {
         rr.setRoutingContext(graph);
         rr.batch = true;
         rr.walkSpeed = 1;
-        rr.dominanceFunction = new DominanceFunction.LeastWalk();
-        // RR dateTime defaults to currentTime.
-        // If elapsed time is not capped, searches are very slow.
-        rr.worstTime = (rr.dateTime + radius);
-        AStar astar = new AStar();
-        rr.setNumItineraries(1);
-        StopFinderTraverseVisitor visitor = new StopFinderTraverseVisitor();
-        astar.setTraverseVisitor(visitor);
-        astar.getShortestPathTree(rr, 1); // timeout in seconds
+        // Search the compact street graph. At 1 m/s the radius in meters also bounds the walking time in seconds.
+        CompactStreetSearch search = new CompactStreetSearch(graph.getCompactStreetGraph(), rr, TraverseMode.WALK);
+        search.maxDurationSeconds = radius;
+        search.setOrigin(rr.rctx.origin);
+        search.route();
+        // Only stops within the radius as the crow flies can be reached.
+        Envelope env = new Envelope(new Coordinate(lon, lat));
+        env.expandBy(SphericalDistanceLibrary.metersToLonDegrees(radius, lat),
+                SphericalDistanceLibrary.metersToDegrees(radius));
+        List<StopAndDistance> stopsFound = new ArrayList<>();
+        for (TransitStop stopVertex : graph.streetIndex.getTransitStopForEnvelope(env)) {
+            double duration = search.getDurationSeconds(stopVertex);
+            if (duration <= radius) {
+                stopsFound.add(new StopAndDistance(stopVertex.getStop(), (int) duration));
+            }
+        }
         // Destroy the routing context, to clean up the temporary edges & vertices
         rr.rctx.destroy();
-        return visitor.stopsFound;
+        return stopsFound;
     }
 
     public static class StopAndDistance {
@@ -336,21 +361,6 @@ public class GraphIndex {
         }
     }
 
-    static private class StopFinderTraverseVisitor implements TraverseVisitor {
-        List<StopAndDistance> stopsFound = new ArrayList<>();
-        @Override public void visitEdge(Edge edge, State state) { }
-        @Override public void visitEnqueue(State state) { }
-        // Accumulate stops into ret as the search runs.
-        @Override public void visitVertex(State state) {
-            Vertex vertex = state.getVertex();
-            if (vertex instanceof TransitStop) {
-                stopsFound.add(new StopAndDistance(((TransitStop) vertex).getStop(),
-                    (int) state.getElapsedTimeSeconds()));
-            }
-        }
-    }
-
-
     /** An OBA Service Date is a local date without timezone, only year month and day. */
     public BitSet servicesRunning (ServiceDate date) {
         BitSet services = new BitSet(calendarService.getServiceIds().size());
@@ -393,6 +403,8 @@ public class GraphIndex {
      * It uses a priority queue to keep track of the next departures. The queue is shared between all dates, as services
      * from the previous service date can visit the stop later than the current service date's services. This happens
      * eg. with sleeper trains.
+     * The next departures on each date are found by binary search in the per-stop index of the (possibly realtime
+     * updated) timetable, so only the returned trips are examined, however many trips the pattern has.
      *
      * TODO: Add frequency based trips
      * @param stop Stop object to perform the search for
@@ -402,16 +414,25 @@ public class GraphIndex {
      * @return
      */
     public List<StopTimesInPattern> stopTimesForStop(Stop stop, long startTime, int timeRange, int numberOfDepartures) {
+        return stopTimesForStop(stop, startTime, timeRange, numberOfDepartures, currentTimetableSnapshot());
+    }
+
+    /**
+     * Fetch upcoming vehicle departures from a stop, as above, using the given realtime timetables.
+     * @param snapshot the realtime timetables to use, or null to use the scheduled ones
+     */
+    public List<StopTimesInPattern> stopTimesForStop(Stop stop, long startTime, int timeRange, int numberOfDepartures,
+                                                     TimetableSnapshot snapshot) {
 
         if (startTime == 0) {
             startTime = System.currentTimeMillis() / 1000;
         }
         List<StopTimesInPattern> ret = new ArrayList<>();
-        TimetableSnapshot snapshot = null;
-        if (graph.timetableSnapshotSource != null) {
-            snapshot = graph.timetableSnapshotSource.getTimetableSnapshot();
-        }
-        ServiceDate[] serviceDates = {new ServiceDate().previous(), new ServiceDate(), new ServiceDate().next()};
+        // The service dates around the start time, so that departures can also be looked up for another day.
+        ServiceDate startDate = new ServiceDate(new Date(startTime * 1000));
+        ServiceDate[] serviceDates = {startDate.previous(), startDate, startDate.next()};
+        // Most patterns at a stop belong to the same agency, so they can share their service days.
+        Map<String, ServiceDay[]> serviceDaysForAgency = new HashMap<>();
 
         for (TripPattern pattern : patternsForStop.get(stop)) {
 
@@ -426,8 +447,15 @@ public class GraphIndex {
             };
 
             // Loop through all possible days
-            for (ServiceDate serviceDate : serviceDates) {
-                ServiceDay sd = new ServiceDay(graph, serviceDate, calendarService, pattern.route.getAgency().getId());
+            String agencyId = pattern.route.getAgency().getId();
+            ServiceDay[] serviceDays =
+                    serviceDaysForAgency.computeIfAbsent(agencyId, id -> new ServiceDay[serviceDates.length]);
+            for (int d = 0; d < serviceDates.length; d++) {
+                ServiceDate serviceDate = serviceDates[d];
+                if (serviceDays[d] == null) {
+                    serviceDays[d] = new ServiceDay(graph, serviceDate, calendarService, agencyId);
+                }
+                ServiceDay sd = serviceDays[d];
                 Timetable tt;
                 if (snapshot != null){
                     tt = snapshot.resolve(pattern, serviceDate);
@@ -441,12 +469,8 @@ public class GraphIndex {
                 int sidx = 0;
                 for (Stop currStop : pattern.stopPattern.stops) {
                     if (currStop == stop) {
-                        for (TripTimes t : tt.tripTimes) {
-                            if (!sd.serviceRunning(t.serviceCode)) continue;
-                            if (t.getDepartureTime(sidx) != -1 &&
-                                    t.getDepartureTime(sidx) >= secondsSinceMidnight) {
-                                pq.insertWithOverflow(new TripTimeShort(t, sidx, stop, sd));
-                            }
+                        for (TripTimes t : tt.getNextDepartures(sd, sidx, secondsSinceMidnight, numberOfDepartures)) {
+                            pq.insertWithOverflow(new TripTimeShort(t, sidx, stop, sd));
                         }
 
                         // TODO: This needs to be adapted after #1647 is merged
@@ -488,11 +512,17 @@ public class GraphIndex {
      * @return
      */
     public List<StopTimesInPattern> getStopTimesForStop(Stop stop, ServiceDate serviceDate) {        
+        return getStopTimesForStop(stop, serviceDate, currentTimetableSnapshot());
+    }
+
+    /**
+     * Get a list of all trips that pass through a stop during a single ServiceDate, as above, using the given realtime
+     * timetables.
+     * @param snapshot the realtime timetables to use, or null to use the scheduled ones
+     */
+    public List<StopTimesInPattern> getStopTimesForStop(Stop stop, ServiceDate serviceDate,
+                                                        TimetableSnapshot snapshot) {
         List<StopTimesInPattern> ret = new ArrayList<>();
-        TimetableSnapshot snapshot = null;
-        if (graph.timetableSnapshotSource != null) {
-            snapshot = graph.timetableSnapshotSource.getTimetableSnapshot();
-        }
         Collection<TripPattern> patterns = patternsForStop.get(stop);
         for (TripPattern pattern : patterns) {
             StopTimesInPattern stopTimes = new StopTimesInPattern(pattern);
@@ -518,6 +548,11 @@ public class GraphIndex {
         return ret;
     }
 
+    /** @return the current realtime timetables, or null if there are no realtime updates. */
+    public TimetableSnapshot currentTimetableSnapshot() {
+        return graph.timetableSnapshotSource == null ? null : graph.timetableSnapshotSource.getTimetableSnapshot();
+    }
+
     /** Fetch a cache of nearby intersection distances for every transit stop in this graph, lazy-building as needed. */
     public StopTreeCache getStopTreeCache() {
         if (stopTreeCache == null) {
@@ -593,7 +628,13 @@ public class GraphIndex {
     }
 
     public Response getGraphQLResponse(String query, Map<String, Object> variables) {
-        ExecutionResult executionResult = graphQL.execute(query, null, null, variables);
+        String limitExceeded = query == null ? null : graphQLQueryLimits.check(query);
+        if (limitExceeded != null) {
+            HashMap<String, Object> content = new HashMap<>();
+            content.put("errors", Lists.newArrayList(limitExceeded));
+            return Response.status(Response.Status.BAD_REQUEST).entity(content).build();
+        }
+        ExecutionResult executionResult = graphQL.execute(query, null, new IndexGraphQLContext(this), variables);
         Response.ResponseBuilder res = Response.status(Response.Status.OK);
         HashMap<String, Object> content = new HashMap<>();
         if (!executionResult.getErrors().isEmpty()) {
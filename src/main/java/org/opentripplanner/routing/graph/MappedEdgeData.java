@@ -0,0 +1,256 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Street edge geometries and elevation profiles stored in a separate file, which is memory mapped read-only when the
+ * graph is loaded rather than deserialized onto the heap. Each StreetEdge then materializes its geometry or elevation
+ * profile from the mapped file the first time it is requested. Bounding boxes are stored separately so the spatial
+ * index can be built without materializing any geometry.
+ *
+ * Geometries and elevation profiles are only needed to link stops and to produce itineraries, not to route, so most
+ * of them are never touched. Because the mapped pages belong to the operating system's page cache, several JVMs
+ * serving the same graph on one host share a single copy, and a router started or reloaded from a file that is
+ * already cached does not need to read or allocate this data at all.
+ *
+ * The file is indexed by edge id. It contains a header (magic bytes, version, the build id of the graph file it was
+ * written with, number of edge ids), then the bounding box of each geometry (min x, max x, min y, max y), then the
+ * offsets and contents of the compact geometries (see CompactLineString), then the offsets and contents of the packed
+ * elevation profiles (see CompactElevationProfile). BinaryGraphFormat always writes a new file beside the old one and
+ * moves it into place, so routers still mapping the old file are not affected by a rebuild.
+ */
+public class MappedEdgeData {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedEdgeData.class);
+
+    /** The name of the file, in the same directory as the graph it belongs to. */
+    public static final String FILENAME = "Graph.edgedata";
+
+    private static final byte[] MAGIC = "OTPEDATA".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int VERSION = 3;
+
+    /** Set while a graph is being serialized with its edge data written to a separate file, see isWritingExternally. */
+    private static final ThreadLocal<Boolean> writingExternally = new ThreadLocal<Boolean>();
+
+    /** The random id shared with the header of the graph file this data belongs to. */
+    private final long buildId;
+
+    private final int nEdgeIds;
+
+    private final DoubleBuffer envelopes;
+
+    private final IntBuffer geometryOffsets;
+
+    private final IntBuffer geometry;
+
+    private final IntBuffer elevationOffsets;
+
+    private final ByteBuffer elevation;
+
+    private MappedEdgeData(MappedByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not an OTP edge data file.");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Edge data file version " + version + " is not supported, please rebuild the graph.");
+        }
+        buildId = buffer.getLong();
+        nEdgeIds = buffer.getInt();
+        int geometryLength = buffer.getInt();
+        int elevationLength = buffer.getInt();
+        // Absolute gets on these views do not modify any buffer state, so they can be shared between threads.
+        envelopes = slice(buffer, nEdgeIds * 4 * 8).asDoubleBuffer();
+        geometryOffsets = slice(buffer, (nEdgeIds + 1) * 4).asIntBuffer();
+        geometry = slice(buffer, geometryLength * 4).asIntBuffer();
+        elevationOffsets = slice(buffer, (nEdgeIds + 1) * 4).asIntBuffer();
+        elevation = slice(buffer, elevationLength);
+    }
+
+    /** @return a view of the next length bytes of the buffer, advancing its position past them. */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * Memory map an edge data file. The mapping stays valid after the file is closed.
+     * @param buildId the build id in the header of the graph file, which must match the one in the edge data file.
+     */
+    public static MappedEdgeData map(File file, long buildId) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Edge data file " + file + " is too large to be mapped.");
+            }
+            MappedEdgeData data = new MappedEdgeData(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (data.buildId != buildId) {
+                throw new IOException("Edge data file " + file
+                        + " was not written with this graph, please rebuild the graph.");
+            }
+            LOG.info("Mapped {} MB of edge data from {}.", channel.size() / 1024 / 1024, file);
+            return data;
+        }
+    }
+
+    /**
+     * @return whether the current thread is serializing a graph whose geometries and elevation profiles are written
+     * to an edge data file. StreetEdges then leave them out of the serialized graph.
+     */
+    public static boolean isWritingExternally() {
+        return writingExternally.get() != null;
+    }
+
+    static void setWritingExternally(boolean external) {
+        if (external) {
+            writingExternally.set(Boolean.TRUE);
+        } else {
+            writingExternally.remove();
+        }
+    }
+
+    /**
+     * Write the geometries and elevation profiles of all street edges in the graph to the given file.
+     * @param buildId the build id written in the header of the graph file.
+     */
+    static void write(Graph graph, File file, long buildId) throws IOException {
+        int nEdgeIds = 0;
+        int geometryLength = 0;
+        int elevationLength = 0;
+        for (StreetEdge se : graph.getStreetEdges()) {
+            nEdgeIds = Math.max(nEdgeIds, se.getId() + 1);
+            int[] compactGeometry = se.getCompactGeometry();
+            if (compactGeometry != null) geometryLength += compactGeometry.length;
+            byte[] packedElevation = packedElevationProfile(se);
+            if (packedElevation != null) elevationLength += packedElevation.length;
+        }
+        Envelope[] envelopes = new Envelope[nEdgeIds];
+        int[][] geometries = new int[nEdgeIds][];
+        byte[][] elevations = new byte[nEdgeIds][];
+        for (StreetEdge se : graph.getStreetEdges()) {
+            envelopes[se.getId()] = se.getGeometry().getEnvelopeInternal();
+            geometries[se.getId()] = se.getCompactGeometry();
+            elevations[se.getId()] = packedElevationProfile(se);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(buildId);
+            out.writeInt(nEdgeIds);
+            out.writeInt(geometryLength);
+            out.writeInt(elevationLength);
+            for (Envelope env : envelopes) {
+                // Ids without a street edge get a null (NaN) envelope.
+                out.writeDouble(env == null ? Double.NaN : env.getMinX());
+                out.writeDouble(env == null ? Double.NaN : env.getMaxX());
+                out.writeDouble(env == null ? Double.NaN : env.getMinY());
+                out.writeDouble(env == null ? Double.NaN : env.getMaxY());
+            }
+            int offset = 0;
+            out.writeInt(offset);
+            for (int[] g : geometries) {
+                if (g != null) offset += g.length;
+                out.writeInt(offset);
+            }
+            for (int[] g : geometries) {
+                if (g == null) continue;
+                for (int i : g) out.writeInt(i);
+            }
+            offset = 0;
+            out.writeInt(offset);
+            for (byte[] e : elevations) {
+                if (e != null) offset += e.length;
+                out.writeInt(offset);
+            }
+            for (byte[] e : elevations) {
+                if (e != null) out.write(e);
+            }
+        }
+        LOG.info("Wrote geometries and elevation profiles of {} edge ids to {}.", nEdgeIds, file);
+    }
+
+    private static byte[] packedElevationProfile(StreetEdge se) {
+        return se instanceof StreetWithElevationEdge ?
+                ((StreetWithElevationEdge) se).getPackedElevationProfile() : null;
+    }
+
+    /** @return the bounding box of the geometry of the edge with the given id, or null if it is not in the file. */
+    public Envelope getEnvelope(int edgeId) {
+        if (edgeId < 0 || edgeId >= nEdgeIds) return null;
+        int i = edgeId * 4;
+        double minX = envelopes.get(i);
+        if (Double.isNaN(minX)) return null;
+        return new Envelope(minX, envelopes.get(i + 1), envelopes.get(i + 2), envelopes.get(i + 3));
+    }
+
+    /** @return the compact geometry of the edge with the given id, or null if it has no intermediate points. */
+    public int[] getCompactGeometry(int edgeId) {
+        if (edgeId < 0 || edgeId >= nEdgeIds) return null;
+        int start = geometryOffsets.get(edgeId);
+        int end = geometryOffsets.get(edgeId + 1);
+        if (start == end) return null;
+        int[] coords = new int[end - start];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = geometry.get(start + i);
+        }
+        return coords;
+    }
+
+    /** @return the packed elevation profile of the edge with the given id, or null if it has none. */
+    public byte[] getPackedElevationProfile(int edgeId) {
+        if (edgeId < 0 || edgeId >= nEdgeIds) return null;
+        int start = elevationOffsets.get(edgeId);
+        int end = elevationOffsets.get(edgeId + 1);
+        if (start == end) return null;
+        byte[] packed = new byte[end - start];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = elevation.get(start + i);
+        }
+        return packed;
+    }
+
+    /** Make all the street edges of a freshly loaded graph read their geometry and elevation from this file. */
+    void attach(Graph graph) {
+        for (StreetEdge se : graph.getStreetEdges()) {
+            se.setMappedEdgeData(this);
+        }
+    }
+
+}
@@ -32,14 +32,20 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.standalone.RoutingExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -59,6 +65,12 @@ import java.util.stream.Stream;
  * More information is available on the OTP wiki at:
  * https://github.com/openplans/OpenTripPlanner/wiki/LargeGraphs
  *
+ * If RoutingRequest.parallelItineraries is set, the searches for the second and later itineraries are run concurrently
+ * on the idle threads of the RoutingExecutor once the first itinerary is found. Each of them bans a different set of
+ * trips used by the first itinerary, and they share its goal direction heuristic, which does not change once it is
+ * built from the transit lower bound table. Any itineraries still missing afterwards are searched for one after another
+ * as usual.
+ *
  * One instance of this class should be constructed per search (i.e. per RoutingRequest: it is request-scoped).
  * Its behavior is undefined if it is reused for more than one search.
  *
@@ -73,8 +85,16 @@ public class GraphPathFinder {
 
     Router router;
 
+    /** Runs the searches for alternatives concurrently. If it is null they are run one after another. */
+    RoutingExecutor routingExecutor;
+
     public GraphPathFinder(Router router) {
+        this(router, null);
+    }
+
+    public GraphPathFinder(Router router, RoutingExecutor routingExecutor) {
         this.router = router;
+        this.routingExecutor = routingExecutor;
     }
 
     /**
@@ -107,6 +127,13 @@ public class GraphPathFinder {
             options.numItineraries = 1;
         }
         options.dominanceFunction = new DominanceFunction.MinimumWeight(); // FORCING the dominance function to weight only
+        // Concurrent searches would all report to the visualizer, which is not thread safe.
+        if (options.parallelItineraries && router.graphVisualizer == null && options.numItineraries > 1) {
+            // The concurrent searches share the heuristic, which must not be modified once it is initialized.
+            options.transitLowerBoundTable = true;
+        } else {
+            options.parallelItineraries = false;
+        }
         LOG.debug("rreq={}", options);
 
         // Choose an appropriate heuristic for goal direction.
@@ -117,7 +144,7 @@ public class GraphPathFinder {
             // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
             // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
             // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
-            heuristic = new InterleavedBidirectionalHeuristic();
+            heuristic = new InterleavedBidirectionalHeuristic(router.targetStreetSearchCache);
         } else {
             heuristic = new EuclideanRemainingWeightHeuristic();
         }
@@ -142,29 +169,30 @@ public class GraphPathFinder {
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
         while (paths.size() < options.numItineraries) {
-            // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
-            int timeoutIndex = paths.size();
-            if (timeoutIndex >= router.timeouts.length) {
-                timeoutIndex = router.timeouts.length - 1;
-            }
-            double timeout = searchBeginTime + (router.timeouts[timeoutIndex] * 1000);
-            timeout -= System.currentTimeMillis(); // Convert from absolute to relative time
-            timeout /= 1000; // Convert milliseconds to seconds
+            double timeout = relativeTimeout(paths.size(), searchBeginTime);
             if (timeout <= 0) {
                 // Catch the case where advancing to the next (lower) timeout value means the search is timed out
                 // before it even begins. Passing a negative relative timeout in the SPT call would mean "no timeout".
                 options.rctx.aborted = true;
                 break;
             }
-            aStar.getShortestPathTree(options, timeout);
+            ShortestPathTree spt = aStar.getShortestPathTree(options, timeout);
             if (options.rctx.aborted) {
+                if (spt != null) spt.release();
                 break; // Search timed out or was gracefully aborted for some other reason.
             }
             // Don't dig through the SPT object, just ask the A star algorithm for the states that reached the target.
             List<GraphPath> newPaths = aStar.getPathsToTarget();
+            // The paths only refer to States, so the tree itself can be recycled by the next search.
+            if (spt != null) spt.release();
             if (newPaths.isEmpty()) {
                 break;
             }
+            // Before banning the trips of the first path, prepare the searches for alternatives to it.
+            List<RoutingRequest> alternativeRequests = null;
+            if (options.parallelItineraries && paths.isEmpty()) {
+                alternativeRequests = alternativeRequests(options, newPaths.get(0));
+            }
             // Find all trips used in this path and ban them for the remaining searches
             for (GraphPath path : newPaths) {
                 // path.dump();
@@ -189,13 +217,130 @@ public class GraphPathFinder {
             	paths.addAll(pathsToAdd);
             }
             
+            if (alternativeRequests != null && paths.size() < options.numItineraries) {
+                double alternativeTimeout = relativeTimeout(paths.size(), searchBeginTime);
+                if (alternativeTimeout <= 0) {
+                    options.rctx.aborted = true;
+                    break;
+                }
+                for (GraphPath path : findAlternatives(alternativeRequests, paths, alternativeTimeout,
+                        routingExecutor)) {
+                    if (paths.size() >= options.numItineraries) break;
+                    paths.add(path);
+                    List<AgencyAndId> tripIds = path.getTrips();
+                    for (AgencyAndId tripId : tripIds) {
+                        options.banTrip(tripId);
+                    }
+                    if (tripIds.isEmpty()) {
+                        options.onlyTransitTrips = true;
+                    }
+                }
+                if (options.rctx.aborted) {
+                    break;
+                }
+            }
+
             LOG.debug("we have {} paths", paths.size());
         }
         LOG.debug("END SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+        if (router.targetStreetSearchCache != null) {
+            LOG.debug("Target street search cache: {}", router.targetStreetSearchCache.getStats());
+        }
         Collections.sort(paths, new PathComparator(options.arriveBy));
         return paths;
     }
 
+    /**
+     * @return the time in seconds that remains for the search for the itinerary with the given index, relative to now.
+     * All values in the timeouts array are relative to the beginning of the search for the first itinerary.
+     */
+    private double relativeTimeout(int itineraryIndex, long searchBeginTime) {
+        // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
+        int timeoutIndex = itineraryIndex;
+        if (timeoutIndex >= router.timeouts.length) {
+            timeoutIndex = router.timeouts.length - 1;
+        }
+        double timeout = searchBeginTime + (router.timeouts[timeoutIndex] * 1000);
+        timeout -= System.currentTimeMillis(); // Convert from absolute to relative time
+        return timeout / 1000; // Convert milliseconds to seconds
+    }
+
+    /**
+     * Make the requests for alternatives to the given path, to be searched concurrently. Each one bans the trip of one
+     * transit leg of the path, and one more bans all of them, since banning any single trip may not be enough to
+     * find a different path. A path without transit has a single alternative that must use transit.
+     */
+    static List<RoutingRequest> alternativeRequests(RoutingRequest options, GraphPath path) {
+        List<AgencyAndId> tripIds = path.getTrips();
+        List<RoutingRequest> requests = new ArrayList<>();
+        if (tripIds.size() > 1) {
+            for (AgencyAndId tripId : tripIds) {
+                RoutingRequest request = options.clone();
+                request.banTrip(tripId);
+                requests.add(request);
+            }
+        }
+        RoutingRequest request = options.clone();
+        for (AgencyAndId tripId : tripIds) {
+            request.banTrip(tripId);
+        }
+        if (tripIds.isEmpty()) {
+            request.onlyTransitTrips = true;
+        }
+        requests.add(request);
+        return requests;
+    }
+
+    /**
+     * Search for paths using the given requests, concurrently on the given executor if it is not null. The requests
+     * share the routing context and the heuristic of the main request, which has already been initialized.
+     * @return the paths found that do not use the same trips as a path already found, best first.
+     */
+    static List<GraphPath> findAlternatives(List<RoutingRequest> requests, List<GraphPath> paths,
+            double timeoutSeconds, RoutingExecutor routingExecutor) {
+        List<List<GraphPath>> results;
+        if (routingExecutor == null) {
+            results = requests.stream().map(request -> findAlternatives(request, timeoutSeconds))
+                    .collect(Collectors.toList());
+        } else {
+            List<Callable<List<GraphPath>>> searches = new ArrayList<>();
+            for (RoutingRequest request : requests) {
+                searches.add(() -> findAlternatives(request, timeoutSeconds));
+            }
+            results = routingExecutor.invokeAll(searches);
+        }
+        List<GraphPath> alternatives = results.stream().flatMap(List::stream)
+                .sorted(Comparator.comparingDouble(GraphPath::getWeight)).collect(Collectors.toList());
+        Set<List<AgencyAndId>> tripsUsed = new HashSet<>();
+        for (GraphPath path : paths) {
+            tripsUsed.add(path.getTrips());
+        }
+        List<GraphPath> distinct = new ArrayList<>();
+        for (GraphPath path : alternatives) {
+            if (tripsUsed.add(path.getTrips())) {
+                distinct.add(path);
+            }
+        }
+        LOG.debug("{} concurrent searches found {} distinct alternatives", requests.size(), distinct.size());
+        return distinct;
+    }
+
+    /** Search for paths using one of the requests for alternatives. */
+    private static List<GraphPath> findAlternatives(RoutingRequest request, double timeoutSeconds) {
+        AStar aStar = new AStar();
+        ShortestPathTree spt = aStar.getShortestPathTree(request, timeoutSeconds);
+        if (spt == null) {
+            return Collections.emptyList(); // Timed out while initializing the heuristic
+        }
+        // Take the paths even if another of the searches has set the shared aborted flag.
+        List<GraphPath> newPaths = aStar.getPathsToTarget();
+        spt.release();
+        return newPaths.stream()
+                .filter(path -> request.maxTransferTime == Integer.MAX_VALUE
+                        || !graphPathExceedsMaxTransferTime(path, request))
+                .collect(Collectors.toList());
+    }
+
     private static boolean graphPathExceedsMaxTransferTime(GraphPath path, RoutingRequest options) {
     	
     	long lastTransitDeparture = -1;
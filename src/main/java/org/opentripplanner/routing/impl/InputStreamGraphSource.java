@@ -20,9 +20,11 @@ import com.fasterxml.jackson.databind.node.MissingNode;
 import com.google.common.io.ByteStreams;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.graph.MappedEdgeData;
 import org.opentripplanner.routing.services.GraphSource;
 import org.opentripplanner.routing.services.StreetVertexIndexFactory;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.HeapUsage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,7 +32,7 @@ import java.io.*;
 
 /**
  * The primary implementation of the GraphSource interface. The graph is loaded from a serialized
- * graph from a given source.
+ * graph from a given source, either Java serialized or in the binary format of BinaryGraphFormat.
  * 
  */
 public class InputStreamGraphSource implements GraphSource {
@@ -205,13 +207,18 @@ public class InputStreamGraphSource implements GraphSource {
         final Graph newGraph;
         try (InputStream is = streams.getGraphInputStream()) {
             LOG.info("Loading graph...");
+            long startTime = System.currentTimeMillis();
+            HeapUsage.resetPeakUsage();
             try {
-                newGraph = Graph.load(new ObjectInputStream(is), loadLevel,
-                        streetVertexIndexFactory);
+                // Java serialized and binary format graphs are told apart by their header.
+                newGraph = Graph.load(is, loadLevel, streetVertexIndexFactory,
+                        streams.getEdgeDataFile());
             } catch (Exception ex) {
                 LOG.error("Exception while loading graph '{}'.", routerId, ex);
                 return null;
             }
+            LOG.info("Graph '{}' loaded in {} msec, peak heap usage during load at most {} MB.", routerId,
+                    System.currentTimeMillis() - startTime, HeapUsage.getPeakUsage() / 1024 / 1024);
 
             newGraph.routerId = (routerId);
         } catch (IOException e) {
@@ -252,6 +259,9 @@ public class InputStreamGraphSource implements GraphSource {
         public abstract InputStream getConfigInputStream() throws IOException;
 
         public abstract long getLastModified();
+
+        /** @return the memory mappable edge data file of the graph, or null if there is none. */
+        public abstract File getEdgeDataFile();
     }
 
     private static class FileStreams implements Streams {
@@ -285,6 +295,12 @@ public class InputStreamGraphSource implements GraphSource {
             // Note: this returns 0L if the file does not exists
             return new File(path, GRAPH_FILENAME).lastModified();
         }
+
+        @Override
+        public File getEdgeDataFile() {
+            File edgeDataFile = new File(path, MappedEdgeData.FILENAME);
+            return edgeDataFile.exists() ? edgeDataFile : null;
+        }
     }
 
     private static class ClasspathStreams implements Streams {
@@ -319,6 +335,12 @@ public class InputStreamGraphSource implements GraphSource {
         public long getLastModified() {
             return 0L;
         }
+
+        /** Classpath resources cannot be memory mapped. */
+        @Override
+        public File getEdgeDataFile() {
+            return null;
+        }
     }
 
     /**
@@ -229,15 +229,12 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
             for (Edge e : gv.getOutgoing()) {
                 if (e instanceof PatternEdge || e instanceof SimpleTransfer)
                     continue;
-                LineString geometry = e.getGeometry();
-                if (geometry == null) {
+                // Index the envelope rather than the geometry, which street edges may not have materialized yet.
+                Envelope env = e.getEnvelope();
+                if (env == null) {
                     continue;
                 }
-                Envelope env = geometry.getEnvelopeInternal();
-                if (edgeTree instanceof HashGridSpatialIndex)
-                    ((HashGridSpatialIndex)edgeTree).insert(geometry, e);
-                else
-                    edgeTree.insert(env, e);
+                edgeTree.insert(env, e);
             }
             if (v instanceof TransitStop) {
                 Envelope env = new Envelope(v.getCoordinate());
@@ -285,8 +282,7 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
         List<Edge> edges = edgeTree.query(envelope);
         for (Iterator<Edge> ie = edges.iterator(); ie.hasNext();) {
             Edge e = ie.next();
-            Envelope eenv = e.getGeometry().getEnvelopeInternal();
-            //Envelope eenv = e.getEnvelope();
+            Envelope eenv = e.getEnvelope();
             if (!envelope.intersects(eenv))
                 ie.remove();
         }
@@ -81,8 +81,12 @@ public abstract class DominanceFunction implements Serializable {
     /**
      * Create a new shortest path tree using this function, considering whether it allows co-dominant States.
      * MultiShortestPathTree is the general case -- it will work with both single- and multi-state functions.
+     * The array-based implementation is used when the request asks for it.
      */
      public ShortestPathTree getNewShortestPathTree(RoutingRequest routingRequest) {
+        if (routingRequest.indexedShortestPathTree) {
+            return new IndexedShortestPathTree(routingRequest, this);
+        }
         return new ShortestPathTree(routingRequest, this);
      }
 
@@ -197,14 +197,6 @@ public class GraphPath {
                states.getLast().getWalkDistance());
     }
 
-    public void dumpPathParser() {
-        System.out.println(" --- BEGIN GRAPHPATH DUMP ---");
-        System.out.println(this.toString());
-        for (State s : states) 
-            System.out.println(s.getPathParserStates() + s + " via " + s.getBackEdge());
-        System.out.println(" --- END GRAPHPATH DUMP ---");
-    }
-
     public double getWalkDistance() {
         return walkDistance;
     }
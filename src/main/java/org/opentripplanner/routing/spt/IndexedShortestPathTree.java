@@ -0,0 +1,322 @@
+/* This program is free software: you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public License
+as published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+
+/**
+ * A ShortestPathTree that stores its states in arrays indexed by Vertex.getIndex() rather than in an
+ * IdentityHashMap of Lists. This avoids allocating a map entry and an ArrayList for every vertex reached.
+ *
+ * Most vertices only ever hold a single state (always the case for MinimumWeight and EarliestArrival dominance,
+ * except where states are incomparable due to turn restrictions, bike rental, parking etc.) so each vertex has a
+ * single state slot. A List is only created for vertices that actually hold several co-dominant states, which is
+ * mostly the case for Pareto dominance.
+ *
+ * The arrays are sized to the number of vertices in the graph, so allocating and clearing them would cost as much
+ * as the search itself for short searches on large graphs. They are therefore recycled through a small pool shared
+ * by all threads: when release() is called the slots that were used are cleared and the arrays are handed to the next
+ * tree created. A tree must not be used after it is released. Trees that are never released are simply garbage
+ * collected, but on large graphs this makes the map-based ShortestPathTree a better choice for searches whose callers
+ * do not release them.
+ *
+ * Each pooled set of arrays holds two references per vertex of the graph, about 8 bytes per vertex with compressed
+ * object pointers, or 80 MB for a graph of 10 million vertices. The pool keeps at most maxPooled sets (by default the
+ * two trees used one after the other by a single planner search), only softly references them so they can be
+ * reclaimed when memory runs low, and drops arrays much larger than the current graph (e.g. left over from a graph
+ * that has since been replaced).
+ */
+public class IndexedShortestPathTree extends ShortestPathTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedShortestPathTree.class);
+
+    /**
+     * The default number of sets of arrays kept for reuse. A planner search uses one tree for the main search, and
+     * one after the other for the street searches of its heuristic.
+     */
+    static final int DEFAULT_MAX_POOLED = 2;
+
+    /** The maximum number of sets of arrays kept for reuse, shared by all threads. */
+    private static volatile int maxPooled = DEFAULT_MAX_POOLED;
+
+    /** Released arrays for reuse, most recently released first. Guarded by itself. */
+    private static final Deque<SoftReference<Storage>> POOL = new ArrayDeque<SoftReference<Storage>>();
+
+    private Storage storage;
+
+    public IndexedShortestPathTree(RoutingRequest options, DominanceFunction dominanceFunction) {
+        super(dominanceFunction, options);
+        storage = acquire(Vertex.getMaxIndex());
+    }
+
+    /** @return cleared arrays from the pool that fit a graph with the given number of vertices, or new ones. */
+    private static Storage acquire(int nVertices) {
+        synchronized (POOL) {
+            while (!POOL.isEmpty()) {
+                Storage storage = POOL.pollFirst().get();
+                if (storage != null && storage.fits(nVertices)) {
+                    return storage;
+                }
+            }
+        }
+        return new Storage(nVertices);
+    }
+
+    /**
+     * Set the maximum number of sets of arrays kept for reuse, shared by all threads. Raising it to the number of
+     * trees in use at once by concurrent searches avoids allocating arrays for each search, at the memory cost
+     * described above for each set.
+     */
+    public static void setMaxPooled(int max) {
+        synchronized (POOL) {
+            maxPooled = max;
+            while (POOL.size() > max) {
+                POOL.pollLast();
+            }
+        }
+    }
+
+    static int getMaxPooled() {
+        return maxPooled;
+    }
+
+    /** @return the number of sets of arrays currently in the pool, including those that were garbage collected. */
+    static int pooledCount() {
+        synchronized (POOL) {
+            return POOL.size();
+        }
+    }
+
+    /**
+     * The arrays backing a tree. Only the slots whose indexes are listed in "touched" are non-null, which allows
+     * clearing them in time proportional to the size of the search rather than the size of the graph.
+     */
+    private static class Storage {
+
+        /** The single state at each vertex, or null if the vertex has none or has several (see overflow). */
+        State[] states;
+
+        /** All states at each vertex that has more than one. */
+        List<State>[] overflow;
+
+        /** The indexes of all the vertices that have been reached, in the order they were reached. */
+        int[] touched;
+
+        int nTouched;
+
+        Storage(int nVertices) {
+            allocate(Math.max(nVertices, 16));
+            touched = new int[64];
+        }
+
+        @SuppressWarnings("unchecked")
+        private void allocate(int size) {
+            states = new State[size];
+            overflow = new List[size];
+        }
+
+        /**
+         * @return whether these arrays are worth keeping for a graph with the given number of vertices. Smaller arrays
+         *         are grown as needed, but much larger ones would waste memory.
+         */
+        boolean fits(int nVertices) {
+            return states.length <= 2 * Math.max(nVertices, 16);
+        }
+
+        /** Make sure the given vertex index can be stored. Temporary vertices may be created after the tree. */
+        void ensureCapacity(int index) {
+            if (index >= states.length) {
+                int size = Math.max(index + 1, states.length + (states.length >> 1));
+                states = Arrays.copyOf(states, size);
+                overflow = Arrays.copyOf(overflow, size);
+            }
+        }
+
+        void touch(int index) {
+            if (nTouched == touched.length) {
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            }
+            touched[nTouched++] = index;
+        }
+
+        void clear() {
+            for (int i = 0; i < nTouched; i++) {
+                int index = touched[i];
+                states[index] = null;
+                overflow[index] = null;
+            }
+            nTouched = 0;
+        }
+    }
+
+    @Override
+    public boolean add(State newState) {
+        int index = newState.getVertex().getIndex();
+        storage.ensureCapacity(index);
+        State[] states = storage.states;
+        List<State> stateList = storage.overflow[index];
+        if (stateList == null) {
+            State oldState = states[index];
+            if (oldState == null) {
+                // The vertex has no states yet.
+                states[index] = newState;
+                storage.touch(index);
+                return true;
+            }
+            // Fast path for the usual case of a single existing state.
+            // Order is important, because in the case of a tie we want to reject the new state.
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState)) {
+                return false;
+            }
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                states[index] = newState;
+                return true;
+            }
+            // The two states are co-dominant, switch this vertex over to a list.
+            stateList = new ArrayList<State>(4);
+            stateList.add(oldState);
+            stateList.add(newState);
+            storage.overflow[index] = stateList;
+            states[index] = null;
+            return true;
+        }
+        // Same logic as the map-based ShortestPathTree.
+        Iterator<State> it = stateList.iterator();
+        while (it.hasNext()) {
+            State oldState = it.next();
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState))
+                it.remove();
+        }
+        stateList.add(newState);
+        return true;
+    }
+
+    @Override
+    public boolean visit(State state) {
+        int index = state.getVertex().getIndex();
+        if (index >= storage.states.length) return false;
+        State single = storage.states[index];
+        if (single != null) return single == state;
+        List<State> stateList = storage.overflow[index];
+        if (stateList == null) return false;
+        for (State s : stateList) {
+            if (s == state) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        int index = dest.getIndex();
+        if (index >= storage.states.length) return null;
+        State single = storage.states[index];
+        if (single != null) return Collections.singletonList(single);
+        return storage.overflow[index];
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        int index = dest.getIndex();
+        if (index >= storage.states.length) return null;
+        State single = storage.states[index];
+        if (single != null) return single.isFinal() ? single : null;
+        List<State> stateList = storage.overflow[index];
+        if (stateList == null) return null;
+        State ret = null;
+        for (State s : stateList) {
+            if ((ret == null || s.weight < ret.weight) && s.isFinal()) {
+                ret = s;
+            }
+        }
+        return ret;
+    }
+
+    /** @return a list of the states at the given vertex index, possibly empty. Never null. */
+    private List<State> statesAt(int index) {
+        State single = storage.states[index];
+        if (single != null) return Collections.singletonList(single);
+        List<State> stateList = storage.overflow[index];
+        return stateList == null ? Collections.<State>emptyList() : stateList;
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        Set<Vertex> vertices = Collections.newSetFromMap(new IdentityHashMap<Vertex, Boolean>(storage.nTouched));
+        for (int i = 0; i < storage.nTouched; i++) {
+            // A vertex never loses all its states once it has been reached.
+            vertices.add(statesAt(storage.touched[i]).get(0).getVertex());
+        }
+        return vertices;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return storage.nTouched;
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        ArrayList<State> allStates = new ArrayList<State>();
+        for (int i = 0; i < storage.nTouched; i++) {
+            allStates.addAll(statesAt(storage.touched[i]));
+        }
+        return allStates;
+    }
+
+    @Override
+    public void dump() {
+        int statesCount = 0;
+        int maxSize = 0;
+        for (int i = 0; i < storage.nTouched; i++) {
+            int size = statesAt(storage.touched[i]).size();
+            statesCount += size;
+            if (size > maxSize) {
+                maxSize = size;
+            }
+        }
+        LOG.info("SPT: vertices: " + storage.nTouched + " states: total: "
+                + statesCount + " per vertex max: " + maxSize + " avg: "
+                + (statesCount * 1.0 / storage.nTouched));
+    }
+
+    /** Clear the slots used by this tree and return its arrays to the pool, unless it is full. */
+    @Override
+    public void release() {
+        if (storage == null) return;
+        Storage released = storage;
+        storage = null;
+        if (!released.fits(Vertex.getMaxIndex())) return;
+        released.clear();
+        synchronized (POOL) {
+            if (POOL.size() < maxPooled) {
+                POOL.addFirst(new SoftReference<Storage>(released));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedShortestPathTree(" + (storage == null ? "released" : storage.nTouched + " vertices") + ")";
+    }
+
+}
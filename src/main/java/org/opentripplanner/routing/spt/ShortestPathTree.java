@@ -52,6 +52,12 @@ public class ShortestPathTree {
         stateSets = new IdentityHashMap<Vertex, List<State>>();
     }
 
+    /** For subclasses that provide their own storage and override all the methods that use the stateSets map. */
+    protected ShortestPathTree (DominanceFunction dominanceFunction, RoutingRequest options) {
+        this.options = options;
+        this.dominanceFunction = dominanceFunction;
+    }
+
     /** @return a list of GraphPaths, sometimes empty but never null. */
     public List<GraphPath> getPaths(Vertex dest, boolean optimize) {
         List<? extends State> stateList = getStates(dest);
@@ -233,6 +239,12 @@ public class ShortestPathTree {
         return allStates;
     }
 
+    /**
+     * Signal that this tree will no longer be used, so that any storage it holds can be recycled by later searches.
+     * The States in the tree (and any GraphPaths made from them) remain valid. This implementation does nothing.
+     */
+    public void release() { }
+
     public String toString() {
         return "ShortestPathTree(" + this.stateSets.size() + " vertices)";
     }
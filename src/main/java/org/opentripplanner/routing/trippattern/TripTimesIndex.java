@@ -0,0 +1,255 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.trippattern;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.opentripplanner.routing.core.ServiceDay;
+
+/**
+ * A per-stop index of the departure and arrival times of all the TripTimes in a Timetable, allowing
+ * the next departure (previous arrival) at a stop to be found by binary search rather than by
+ * scanning every trip on the pattern.
+ *
+ * For each stop we keep a sorted array of times and a parallel array of indexes into the
+ * Timetable's tripTimes list. Because each stop is sorted independently, this remains correct when
+ * trips overtake one another or realtime updates leave the trips in a non-FIFO order. Entries with
+ * equal times are ordered by trip index, so searches visit trips in the same order as a linear scan.
+ *
+ * The index is kept up to date incrementally when a single TripTimes is replaced or appended, which
+ * is what happens when realtime updates are applied to a Timetable in a TimetableSnapshot. It does
+ * not cover FrequencyEntries, which are few per pattern and still searched linearly.
+ */
+public class TripTimesIndex {
+
+    private final int nStops;
+
+    /** The number of trips currently indexed. The arrays below may have spare capacity. */
+    private int nTrips;
+
+    /** For each stop, all departure times at that stop in ascending order. */
+    private final int[][] departureTimes;
+
+    /** For each stop, the index of the trip having the departure at the same position in departureTimes. */
+    private final int[][] departureTrips;
+
+    /** For each stop, all arrival times at that stop in ascending order. */
+    private final int[][] arrivalTimes;
+
+    /** For each stop, the index of the trip having the arrival at the same position in arrivalTimes. */
+    private final int[][] arrivalTrips;
+
+    /**
+     * The service codes of all indexed trips. This may contain codes that are no longer in use after
+     * incremental updates, so it can only be used to rule out a service day, never to rule one in.
+     */
+    private final BitSet serviceCodes = new BitSet();
+
+    /** Build an index over the given trips, which must all have the given number of stops. */
+    public TripTimesIndex(List<TripTimes> tripTimes, int nStops) {
+        this.nStops = nStops;
+        this.nTrips = tripTimes.size();
+        departureTimes = new int[nStops][];
+        departureTrips = new int[nStops][];
+        arrivalTimes = new int[nStops][];
+        arrivalTrips = new int[nStops][];
+        // Pack each (time, trip index) pair into a long so a single primitive sort orders by time then by trip.
+        long[] packed = new long[nTrips];
+        for (int s = 0; s < nStops; s++) {
+            for (int t = 0; t < nTrips; t++) {
+                packed[t] = pack(tripTimes.get(t).getDepartureTime(s), t);
+            }
+            departureTimes[s] = new int[nTrips];
+            departureTrips[s] = new int[nTrips];
+            unpackSorted(packed, departureTimes[s], departureTrips[s]);
+            for (int t = 0; t < nTrips; t++) {
+                packed[t] = pack(tripTimes.get(t).getArrivalTime(s), t);
+            }
+            arrivalTimes[s] = new int[nTrips];
+            arrivalTrips[s] = new int[nTrips];
+            unpackSorted(packed, arrivalTimes[s], arrivalTrips[s]);
+        }
+        for (TripTimes tt : tripTimes) {
+            addServiceCode(tt);
+        }
+    }
+
+    /** Copy constructor. The copy can be updated without affecting the original. */
+    public TripTimesIndex(TripTimesIndex other) {
+        this.nStops = other.nStops;
+        this.nTrips = other.nTrips;
+        departureTimes = new int[nStops][];
+        departureTrips = new int[nStops][];
+        arrivalTimes = new int[nStops][];
+        arrivalTrips = new int[nStops][];
+        for (int s = 0; s < nStops; s++) {
+            departureTimes[s] = Arrays.copyOf(other.departureTimes[s], nTrips);
+            departureTrips[s] = Arrays.copyOf(other.departureTrips[s], nTrips);
+            arrivalTimes[s] = Arrays.copyOf(other.arrivalTimes[s], nTrips);
+            arrivalTrips[s] = Arrays.copyOf(other.arrivalTrips[s], nTrips);
+        }
+        serviceCodes.or(other.serviceCodes);
+    }
+
+    private static long pack(int time, int trip) {
+        return ((long) time << 32) | (trip & 0xFFFFFFFFL);
+    }
+
+    private static void unpackSorted(long[] packed, int[] times, int[] trips) {
+        Arrays.sort(packed);
+        for (int i = 0; i < packed.length; i++) {
+            times[i] = (int) (packed[i] >> 32);
+            trips[i] = (int) packed[i];
+        }
+    }
+
+    private void addServiceCode(TripTimes tt) {
+        if (tt.serviceCode >= 0) serviceCodes.set(tt.serviceCode);
+    }
+
+    /** @return the number of trips in this index, which must match the size of the indexed Timetable. */
+    public int size() {
+        return nTrips;
+    }
+
+    /** @return false if none of the indexed trips can be running on the given service day. */
+    public boolean anyServiceRunning(ServiceDay serviceDay) {
+        return serviceDay.anyServiceRunning(serviceCodes);
+    }
+
+    /** @return the position of the first departure at the given stop at or after the given time. May be size(). */
+    public int firstDepartureAtOrAfter(int stop, int time) {
+        return lowerBound(departureTimes[stop], time);
+    }
+
+    /** @return the position of the last arrival at the given stop at or before the given time. May be -1. */
+    public int lastArrivalAtOrBefore(int stop, int time) {
+        // Everything before the first time strictly greater than the given time.
+        return time == Integer.MAX_VALUE ? nTrips - 1 : lowerBound(arrivalTimes[stop], time + 1) - 1;
+    }
+
+    public int getDepartureTime(int stop, int position) {
+        return departureTimes[stop][position];
+    }
+
+    public int getDepartureTrip(int stop, int position) {
+        return departureTrips[stop][position];
+    }
+
+    public int getArrivalTime(int stop, int position) {
+        return arrivalTimes[stop][position];
+    }
+
+    public int getArrivalTrip(int stop, int position) {
+        return arrivalTrips[stop][position];
+    }
+
+    /** @return the position of the first element of times[0, nTrips) that is greater than or equal to the key. */
+    private int lowerBound(int[] times, int key) {
+        int lo = 0;
+        int hi = nTrips;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Append a trip to the index. The trip must have been appended to the end of the indexed
+     * Timetable's list of TripTimes, i.e. its trip index is the previous size of this index.
+     */
+    public void add(TripTimes tt) {
+        int trip = nTrips;
+        for (int s = 0; s < nStops; s++) {
+            if (departureTimes[s].length == nTrips) {
+                int capacity = nTrips + (nTrips >> 3) + 1;
+                departureTimes[s] = Arrays.copyOf(departureTimes[s], capacity);
+                departureTrips[s] = Arrays.copyOf(departureTrips[s], capacity);
+                arrivalTimes[s] = Arrays.copyOf(arrivalTimes[s], capacity);
+                arrivalTrips[s] = Arrays.copyOf(arrivalTrips[s], capacity);
+            }
+            insert(departureTimes[s], departureTrips[s], nTrips, tt.getDepartureTime(s), trip);
+            insert(arrivalTimes[s], arrivalTrips[s], nTrips, tt.getArrivalTime(s), trip);
+        }
+        nTrips += 1;
+        addServiceCode(tt);
+    }
+
+    /**
+     * Replace the times of the trip at the given trip index. The previous TripTimes for that trip must
+     * be supplied so that its entries can be found by binary search.
+     */
+    public void replace(int trip, TripTimes oldTimes, TripTimes newTimes) {
+        for (int s = 0; s < nStops; s++) {
+            int dep = remove(departureTimes[s], departureTrips[s], oldTimes.getDepartureTime(s), trip);
+            insert(departureTimes[s], departureTrips[s], dep, newTimes.getDepartureTime(s), trip);
+            int arr = remove(arrivalTimes[s], arrivalTrips[s], oldTimes.getArrivalTime(s), trip);
+            insert(arrivalTimes[s], arrivalTrips[s], arr, newTimes.getArrivalTime(s), trip);
+        }
+        addServiceCode(newTimes);
+    }
+
+    /**
+     * Remove the entry for the given trip from one sorted stop array, shifting the following entries
+     * down by one. The removed entry is expected at the given time, but we fall back on a linear scan
+     * in case the old TripTimes was modified in place after it was indexed.
+     * @return the number of entries left in the array.
+     */
+    private int remove(int[] times, int[] trips, int time, int trip) {
+        int pos = -1;
+        for (int i = lowerBound(times, time); i < nTrips && times[i] == time; i++) {
+            if (trips[i] == trip) {
+                pos = i;
+                break;
+            }
+        }
+        if (pos < 0) {
+            for (int i = 0; i < nTrips; i++) {
+                if (trips[i] == trip) {
+                    pos = i;
+                    break;
+                }
+            }
+        }
+        if (pos < 0) {
+            throw new IllegalStateException("Trip " + trip + " is missing from the trip times index.");
+        }
+        System.arraycopy(times, pos + 1, times, pos, nTrips - pos - 1);
+        System.arraycopy(trips, pos + 1, trips, pos, nTrips - pos - 1);
+        return nTrips - 1;
+    }
+
+    /**
+     * Insert a (time, trip) pair into the first n entries of a sorted stop array, which must have room
+     * for one more element. Ties on time are broken by trip index.
+     */
+    private static void insert(int[] times, int[] trips, int n, int time, int trip) {
+        int pos = n;
+        while (pos > 0 && (times[pos - 1] > time || (times[pos - 1] == time && trips[pos - 1] > trip))) {
+            pos--;
+        }
+        System.arraycopy(times, pos, times, pos + 1, n - pos);
+        System.arraycopy(trips, pos, trips, pos + 1, n - pos);
+        times[pos] = time;
+        trips[pos] = trip;
+    }
+
+}
@@ -139,6 +139,34 @@ public class CommandLineParameters implements Cloneable {
     @Parameter(names = {"--accessLog" }, description = "Log server accesses to a file", validateWith = AccessLog.class)
     public String accessLog = null;
 
+    @Parameter(names = {"--routingThreads"},
+            description = "Number of threads running trip planning and profile requests. Defaults to the number of cores.")
+    public Integer routingThreads;
+
+    @Parameter(names = {"--routingQueueSize"},
+            description = "Maximum number of routing requests waiting for a thread.")
+    public int routingQueueSize = 100;
+
+    @Parameter(names = {"--routingQueueTimeout"},
+            description = "Seconds a routing request may wait for a thread before it is rejected with status 429.")
+    public int routingQueueTimeout = 10;
+
+    @Parameter(names = {"--requestTimeout"},
+            description = "Seconds after which the routing for a request is abandoned, including time spent queued.")
+    public int requestTimeout = 60;
+
+    @Parameter(names = {"--maxProfileRequests"},
+            description = "Maximum number of queued and running profile requests. Defaults to the number of routing threads.")
+    public Integer maxProfileRequests;
+
+    @Parameter(names = {"--sptPoolSize"},
+            description = "Number of array-based shortest path trees kept for reuse by searches with indexedShortestPathTree.")
+    public int sptPoolSize = 2;
+
+    @Parameter(names = {"--responseCacheSize"},
+            description = "Megabytes of index API responses to cache, tagged with ETags. 0 disables the cache.")
+    public int responseCacheSize = 64;
+
     /** Set some convenience parameters based on other parameters' values. */
     public void infer() {
         server |= (inMemory || preFlight || port != null);
@@ -117,6 +117,24 @@ public class GraphBuilderParameters {
      */
     public int maxInterlineDistance = 200;
 
+    /**
+     * Save the graph in the fst-based BinaryGraphFormat rather than with Java serialization. Both formats are
+     * recognized when loading a graph.
+     */
+    public final boolean binaryGraphFormat;
+
+    /**
+     * With the binary graph format, write street geometries and elevation profiles to a separate file that is memory
+     * mapped when the graph is loaded, so they are only read into the heap when used.
+     */
+    public final boolean mappedEdgeData;
+
+    /**
+     * Read the inputs of the graph builder modules (e.g. the OSM and GTFS files) concurrently, ahead of building the
+     * graph. This shortens the build but needs more memory, as all the inputs are then held at the same time.
+     */
+    public final boolean concurrentInputLoading;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -144,6 +162,9 @@ public class GraphBuilderParameters {
         staticBikeParkAndRide = config.path("staticBikeParkAndRide").asBoolean(false);
         maxHtmlAnnotationsPerFile = config.path("maxHtmlAnnotationsPerFile").asInt(1000);
         maxInterlineDistance = config.path("maxInterlineDistance").asInt(200);
+        binaryGraphFormat = config.path("binaryGraphFormat").asBoolean(false);
+        mappedEdgeData = config.path("mappedEdgeData").asBoolean(false);
+        concurrentInputLoading = config.path("concurrentInputLoading").asBoolean(false);
     }
 
 }
@@ -64,14 +64,16 @@ public class GrizzlyServer {
         sslConfig.setKeyStoreFile(new File(params.basePath, "keystore").getAbsolutePath());
         sslConfig.setKeyStorePass("opentrip");
 
-        /* OTP is CPU-bound, so we want only as many worker threads as we have cores. */
+        /*
+         * OTP is CPU-bound, so we want only as many worker threads as we have cores. Routing requests are handed over
+         * to the server's RoutingExecutor, so these threads remain free to reject requests when it is saturated.
+         */
         ThreadPoolConfig threadPoolConfig = ThreadPoolConfig.defaultConfig()
             .setCorePoolSize(1)
             .setMaxPoolSize(Runtime.getRuntime().availableProcessors());
 
         /* HTTP (non-encrypted) listener */
         NetworkListener httpListener = new NetworkListener("otp_insecure", params.bindAddress, params.port);
-        // OTP is CPU-bound, we don't want more threads than cores. TODO: We should switch to async handling.
         httpListener.setSecure(false);
 
         /* HTTPS listener */
@@ -139,6 +141,7 @@ public class GrizzlyServer {
             LOG.info("Interrupted, shutting down.");
         }
         httpServer.shutdown();
+        server.routingExecutor.shutdown();
 
     }
 }
@@ -92,6 +92,7 @@ public class OTPApplication extends Application {
             GraphInspectorTileResource.class,
             ScriptResource.class,
             UpdaterStatusResource.class,
+            SearchMetricsResource.class,
             ScenarioResource.class,
             RepeatedRaptorTestResource.class,
             /* Features and Filters: extend Jersey, manipulate requests and responses. */
@@ -117,7 +118,7 @@ public class OTPApplication extends Application {
      */
     @Override
     public Set<Object> getSingletons() {
-        return Sets.newHashSet (
+        Set<Object> singletons = Sets.newHashSet (
             // Show exception messages in responses
             new OTPExceptionMapper(),
             // Enable Jackson JSON response serialization
@@ -129,6 +130,11 @@ public class OTPApplication extends Application {
             // Allow injecting the OTP server object into Jersey resource classes
             server.makeBinder()
         );
+        if (server.params != null && server.params.responseCacheSize > 0) {
+            // Cache the responses of the index API and answer revalidation requests using ETags
+            singletons.add(new ResponseCacheFilter(server, server.params.responseCacheSize));
+        }
+        return singletons;
     }
 
     /**
@@ -9,6 +9,7 @@ import org.opentripplanner.analyst.PointSetCache;
 import org.opentripplanner.analyst.SurfaceCache;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
 import org.opentripplanner.scripting.impl.ScriptingService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,9 @@ public class OTPServer {
 
     public CommandLineParameters params;
 
+    /** Runs trip planning and profile requests from the web services. */
+    public RoutingExecutor routingExecutor;
+
     public OTPServer (CommandLineParameters params, GraphService gs) {
         LOG.info("Wiring up and configuring server.");
 
@@ -48,6 +52,15 @@ public class OTPServer {
             pointSetCache = new DiskBackedPointSetCache(100, params.pointSetDirectory);
         }
 
+        int routingThreads = params.routingThreads != null ?
+                params.routingThreads : Runtime.getRuntime().availableProcessors();
+        routingExecutor = new RoutingExecutor(routingThreads, params.routingQueueSize, params.routingQueueTimeout,
+                params.requestTimeout);
+        // Profile requests take much longer than trip planning requests, so keep them from filling the queue.
+        routingExecutor.limit("profile", params.maxProfileRequests != null ?
+                params.maxProfileRequests : routingThreads);
+        IndexedShortestPathTree.setMaxPooled(params.sptPoolSize);
+
         scriptingService = new ScriptingService(this);
         scriptingService.enableScriptingWebService = params.enableScriptingWebService;
         if (params.enableScriptingWebService) {
@@ -0,0 +1,201 @@
+package org.opentripplanner.standalone;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.api.common.CachedResponse;
+import org.opentripplanner.routing.error.GraphNotFoundException;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Method;
+import java.net.URI;
+
+/**
+ * Caches the serialized responses of the web resource methods annotated with CachedResponse, and tags them with ETags
+ * so that clients can revalidate them cheaply with If-None-Match.
+ *
+ * The ETag of a response is derived from the request (its method, path, query and, for POST requests such as GraphQL
+ * queries, its body) and from the version of the data it was computed from: the build time of the router's graph and,
+ * for responses including realtime data, the generation of the current TimetableSnapshot and the current service date.
+ * A request carrying a matching If-None-Match header gets an empty 304 response, and a request whose response is in the
+ * cache with the current ETag gets it without calling the resource method or serializing anything. Responses computed
+ * from older versions of the data are never hit again, and are evicted as the cache fills up.
+ */
+public class ResponseCacheFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCacheFilter.class);
+
+    /** Requests with larger bodies are not cached, so that a few huge queries cannot crowd out all the others. */
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+
+    /* Names of the request properties that carry the cache key and ETag from the request filter to the response. */
+    private static final String KEY_PROPERTY = ResponseCacheFilter.class.getName() + ".key";
+    private static final String ETAG_PROPERTY = ResponseCacheFilter.class.getName() + ".etag";
+
+    private final OTPServer otpServer;
+
+    private final Cache<String, CachedEntity> cache;
+
+    @Context
+    ResourceInfo resourceInfo;
+
+    /** A serialized response body, with the ETag of the data it was computed from. */
+    private static class CachedEntity {
+        final String etag;
+        final byte[] body;
+        final MediaType mediaType;
+
+        CachedEntity(String etag, byte[] body, MediaType mediaType) {
+            this.etag = etag;
+            this.body = body;
+            this.mediaType = mediaType;
+        }
+    }
+
+    /** @param maxMegabytes the maximum total size of the cached keys and response bodies. */
+    public ResponseCacheFilter(OTPServer otpServer, int maxMegabytes) {
+        this.otpServer = otpServer;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxMegabytes * 1024L * 1024L)
+                .weigher((String key, CachedEntity entity) -> key.length() * 2 + entity.body.length)
+                .build();
+        LOG.info("Caching up to {} MB of index responses.", maxMegabytes);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        Method method = resourceInfo.getResourceMethod();
+        CachedResponse annotation = method == null ? null : method.getAnnotation(CachedResponse.class);
+        if (annotation == null) return;
+        String key = key(request);
+        if (key == null) return;
+        String etag = etag(request, key, annotation.realtime());
+        if (etag == null) return;
+        if (matches(request.getHeaderString(HttpHeaders.IF_NONE_MATCH), etag)) {
+            request.abortWith(Response.notModified(new EntityTag(etag)).build());
+            return;
+        }
+        CachedEntity cached = cache.getIfPresent(key);
+        if (cached != null && cached.etag.equals(etag)) {
+            request.abortWith(Response.ok(cached.body, cached.mediaType).tag(new EntityTag(etag)).build());
+            return;
+        }
+        request.setProperty(KEY_PROPERTY, key);
+        request.setProperty(ETAG_PROPERTY, etag);
+    }
+
+    /** Tag successful responses to cacheable requests, and let the writer interceptor cache their bodies. */
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        String etag = (String) request.getProperty(ETAG_PROPERTY);
+        if (etag == null) return;
+        String cacheControl = response.getHeaderString(HttpHeaders.CACHE_CONTROL);
+        if (response.getStatus() != Response.Status.OK.getStatusCode() || !response.hasEntity() ||
+                (cacheControl != null && cacheControl.contains("no-store"))) {
+            request.removeProperty(KEY_PROPERTY);
+            return;
+        }
+        response.getHeaders().putSingle(HttpHeaders.ETAG, new EntityTag(etag));
+    }
+
+    /** Serialize the entities of cacheable responses into a buffer, so they can be cached as well as sent. */
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        String key = (String) context.getProperty(KEY_PROPERTY);
+        if (key == null) {
+            context.proceed();
+            return;
+        }
+        OutputStream out = context.getOutputStream();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        context.setOutputStream(buffer);
+        context.proceed();
+        byte[] body = buffer.toByteArray();
+        cache.put(key, new CachedEntity((String) context.getProperty(ETAG_PROPERTY), body, context.getMediaType()));
+        context.setOutputStream(out);
+        out.write(body);
+    }
+
+    /**
+     * @return a key identifying the response to the given request for a given version of the data, or null if the
+     *         request should not be cached. The body of the request is read, and replaced so the resource can read it.
+     */
+    private static String key(ContainerRequestContext request) throws IOException {
+        URI uri = request.getUriInfo().getRequestUri();
+        StringBuilder key = new StringBuilder(request.getMethod()).append(' ').append(uri.getRawPath());
+        if (uri.getRawQuery() != null) {
+            key.append('?').append(uri.getRawQuery());
+        }
+        if (HttpMethod.POST.equals(request.getMethod())) {
+            InputStream entityStream = request.getEntityStream();
+            byte[] body = ByteStreams.toByteArray(ByteStreams.limit(entityStream, MAX_BODY_BYTES + 1));
+            if (body.length > MAX_BODY_BYTES) {
+                request.setEntityStream(new SequenceInputStream(new ByteArrayInputStream(body), entityStream));
+                return null;
+            }
+            request.setEntityStream(new ByteArrayInputStream(body));
+            key.append(' ').append(request.getMediaType()).append('\n').append(new String(body, Charsets.UTF_8));
+        }
+        return key.toString();
+    }
+
+    /** @return the ETag of the response to the given request for the current version of the data, or null. */
+    private String etag(ContainerRequestContext request, String key, boolean realtime) {
+        String routerId = request.getUriInfo().getPathParameters().getFirst("routerId");
+        Graph graph;
+        try {
+            graph = otpServer.getRouter(routerId).graph;
+        } catch (GraphNotFoundException e) {
+            return null; // let the resource report the missing router
+        }
+        StringBuilder etag = new StringBuilder(Long.toHexString(graph.buildTime.getTime()));
+        if (realtime) {
+            TimetableSnapshotSource snapshotSource = graph.timetableSnapshotSource;
+            if (snapshotSource != null) {
+                // Commit any pending updates first, so the generation is at least that of the data the resource sees.
+                snapshotSource.getTimetableSnapshot();
+                etag.append('-').append(snapshotSource.getSnapshotGeneration());
+            }
+            etag.append('-').append(new ServiceDate().getAsString());
+        }
+        etag.append('-').append(Hashing.murmur3_128().hashString(key, Charsets.UTF_8));
+        return etag.toString();
+    }
+
+    /** @return whether the given If-None-Match header value contains the given (unquoted) ETag. */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals('"' + etag + '"')) return true;
+        }
+        return false;
+    }
+
+}
@@ -9,8 +9,10 @@ import ch.qos.logback.core.FileAppender;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.opentripplanner.analyst.request.*;
 import org.opentripplanner.analyst.scenario.ScenarioStore;
+import org.opentripplanner.api.resource.SearchMetrics;
 import org.opentripplanner.inspector.TileRendererManager;
 import org.opentripplanner.reflect.ReflectiveInitializer;
+import org.opentripplanner.routing.algorithm.strategies.TargetStreetSearchCache;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
@@ -60,6 +62,15 @@ public class Router {
     /** Storage for non-destructive alternatives analysis scenarios. */
     public ScenarioStore scenarioStore = new ScenarioStore();
 
+    /**
+     * Results of the street searches around recent transit search targets, shared by the goal direction heuristics
+     * of all requests to this router. Null if caching is disabled, which is the default.
+     */
+    public TargetStreetSearchCache targetStreetSearchCache = null;
+
+    /** Phase timings and search counters of the trip planning requests made to this router. */
+    public final SearchMetrics searchMetrics = new SearchMetrics();
+
     public Router(String id, Graph graph) {
         this.id = id;
         this.graph = graph;
@@ -132,6 +143,17 @@ public class Router {
             LOG.info("Incoming requests will not be logged.");
         }
 
+        JsonNode targetStreetSearchCacheSize = config.get("targetStreetSearchCacheSize");
+        if (targetStreetSearchCacheSize != null) {
+            if (targetStreetSearchCacheSize.isInt() && targetStreetSearchCacheSize.intValue() >= 0) {
+                int size = targetStreetSearchCacheSize.intValue();
+                this.targetStreetSearchCache = size > 0 ? new TargetStreetSearchCache(size) : null;
+                LOG.info("Caching street searches around up to {} targets.", size);
+            } else {
+                LOG.error("The 'targetStreetSearchCacheSize' configuration option should be a non-negative integer.");
+            }
+        }
+
         JsonNode boardTimes = config.get("boardTimes");
         if (boardTimes != null && boardTimes.isObject()) {
             graph.boardTimes = new EnumMap<>(TraverseMode.class);
@@ -0,0 +1,245 @@
+package org.opentripplanner.standalone;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.server.Request;
+import org.opentripplanner.routing.core.CancellationToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs trip planning and profile requests on a dedicated pool of threads, one per core since routing is CPU-bound,
+ * with a bounded queue in front of it. The HTTP worker threads only hand requests over to this pool, so they remain
+ * available to reject requests quickly when the server is overloaded.
+ *
+ * A request is rejected with status 429 and a Retry-After header, before any routing work is done, when the queue is
+ * full, when its endpoint already has as many requests in progress as it is allowed, or when the time it would wait
+ * in the queue (estimated from the number of queued requests and the mean time taken by recent requests) exceeds the
+ * queue timeout. A request that nevertheless waits longer than the queue timeout is rejected when it reaches the head
+ * of the queue rather than run, since its client has probably given up by then.
+ *
+ * Each request gets a CancellationToken, which is cancelled when its connection is closed or when the request timeout
+ * has passed since it was received. The routing code checks it regularly, so abandoned requests stop using the routing
+ * threads within milliseconds.
+ *
+ * A request may split its work into subtasks with invokeAll. These run on routing threads that are idle, and on the
+ * thread of the request itself otherwise, so a request never uses more threads than the pool has to spare, and the
+ * threads busy with its subtasks are counted by the admission control like any other busy thread.
+ */
+public class RoutingExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingExecutor.class);
+
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    /** The weight of each new execution time in the moving average. */
+    private static final double SMOOTHING = 0.05;
+
+    private final int nThreads;
+
+    private final long queueTimeoutMillis;
+
+    private final long requestTimeoutMillis;
+
+    private final ThreadPoolExecutor executor;
+
+    /** Limits on the number of queued and running requests, by endpoint. */
+    private final Map<String, Semaphore> endpointLimits = new ConcurrentHashMap<>();
+
+    /**
+     * An exponential moving average of the time taken to execute requests, in milliseconds. Updates from concurrent
+     * requests may occasionally be lost, which is acceptable for an estimate.
+     */
+    private volatile double meanExecutionMillis = 0;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /** The work done for a request on a routing thread, which should stop when the token is cancelled. */
+    public interface Task {
+        Object run(CancellationToken cancellationToken) throws Exception;
+    }
+
+    public RoutingExecutor(int nThreads, int queueSize, int queueTimeoutSeconds, int requestTimeoutSeconds) {
+        this.nThreads = nThreads;
+        this.queueTimeoutMillis = queueTimeoutSeconds * 1000L;
+        this.requestTimeoutMillis = requestTimeoutSeconds * 1000L;
+        executor = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("routing-%d").setDaemon(true).build());
+        LOG.info("Routing requests run on {} threads with a queue of {} requests and a queue timeout of {} sec.",
+                nThreads, queueSize, queueTimeoutSeconds);
+    }
+
+    /** Limit the number of requests to the given endpoint that can be queued or running at once. */
+    public void limit(String endpoint, int maxRequests) {
+        endpointLimits.put(endpoint, new Semaphore(maxRequests));
+    }
+
+    /**
+     * Run the given task on a routing thread and resume the suspended response with its result, or reject the request
+     * immediately if the server is overloaded. Exceptions thrown by the task are passed on to the response, so that
+     * they are mapped to responses as usual.
+     *
+     * @param grizzlyRequest the HTTP request, whose connection is watched so the task can be cancelled if it closes.
+     */
+    public void execute(String endpoint, Request grizzlyRequest, AsyncResponse asyncResponse, Task task) {
+        CancellationToken cancellationToken = new CancellationToken(System.currentTimeMillis() + requestTimeoutMillis);
+        cancelOnClose(grizzlyRequest, asyncResponse, cancellationToken);
+        execute(endpoint, cancellationToken, asyncResponse, task);
+    }
+
+    /** Admit the request and queue the task, or reject the request. */
+    void execute(String endpoint, CancellationToken cancellationToken, AsyncResponse asyncResponse, Task task) {
+        long estimatedWait = estimatedWaitMillis();
+        if (estimatedWait > queueTimeoutMillis) {
+            reject(asyncResponse, endpoint, estimatedWait);
+            return;
+        }
+        Semaphore limit = endpointLimits.get(endpoint);
+        if (limit != null && !limit.tryAcquire()) {
+            reject(asyncResponse, endpoint, Math.max(estimatedWait, (long) meanExecutionMillis));
+            return;
+        }
+        long queued = System.currentTimeMillis();
+        try {
+            executor.execute(() -> run(endpoint, asyncResponse, task, cancellationToken, queued, limit));
+        } catch (RejectedExecutionException e) {
+            if (limit != null) limit.release();
+            reject(asyncResponse, endpoint, estimatedWait);
+        }
+    }
+
+    private void run(String endpoint, AsyncResponse asyncResponse, Task task, CancellationToken cancellationToken,
+                     long queued, Semaphore limit) {
+        try {
+            if (!asyncResponse.isSuspended()) {
+                return; // the response was cancelled or timed out while queued
+            }
+            if (cancellationToken.isCancelled()) {
+                asyncResponse.cancel(); // the client disconnected while the request was queued
+                return;
+            }
+            long start = System.currentTimeMillis();
+            if (start - queued > queueTimeoutMillis) {
+                reject(asyncResponse, endpoint, estimatedWaitMillis());
+                return;
+            }
+            try {
+                asyncResponse.resume(task.run(cancellationToken));
+            } catch (Throwable t) {
+                asyncResponse.resume(t);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            meanExecutionMillis = meanExecutionMillis == 0 ? elapsed :
+                    meanExecutionMillis + SMOOTHING * (elapsed - meanExecutionMillis);
+        } finally {
+            if (limit != null) limit.release();
+        }
+    }
+
+    /**
+     * Run the given subtasks of a request, usually from the routing thread of that request. Subtasks are handed to the
+     * pool only while no request is waiting in the queue, and no more of them than there are idle routing threads. The
+     * calling thread then runs every subtask that no routing thread has started yet, so that it never waits for a
+     * subtask still in the queue. Subtasks are not subject to the endpoint limits or the queue timeout, since their
+     * request has already been admitted.
+     *
+     * @return the results of the subtasks, in the same order. An exception thrown by a subtask is rethrown.
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> subtasks) {
+        List<FutureTask<T>> futures = new ArrayList<>();
+        for (Callable<T> subtask : subtasks) {
+            futures.add(new FutureTask<>(subtask));
+        }
+        // The calling thread is busy too, so it keeps the first subtask for itself.
+        int idle = executor.getQueue().isEmpty() ? nThreads - executor.getActiveCount() : 0;
+        for (int i = 1; i < futures.size() && i <= idle; i++) {
+            try {
+                executor.execute(futures.get(i));
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        // A FutureTask runs only once, so the copy left in the queue does nothing if the calling thread ran it first.
+        for (FutureTask<T> future : futures) {
+            future.run();
+        }
+        List<T> results = new ArrayList<>();
+        for (FutureTask<T> future : futures) {
+            try {
+                results.add(Uninterruptibles.getUninterruptibly(future));
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Cancel the token if the connection of the given request is closed before the response is complete. The token is
+     * also cancelled once the response is complete, in case some work for the request is still in progress.
+     */
+    private static void cancelOnClose(Request grizzlyRequest, AsyncResponse asyncResponse,
+                                      CancellationToken cancellationToken) {
+        Connection connection = grizzlyRequest.getContext().getConnection();
+        CloseListener closeListener = (closeable, type) -> cancellationToken.cancel();
+        connection.addCloseListener(closeListener);
+        asyncResponse.register((CompletionCallback) throwable -> {
+            connection.removeCloseListener(closeListener);
+            cancellationToken.cancel();
+        });
+    }
+
+    /** @return the estimated time a request submitted now would wait before running, in milliseconds. */
+    long estimatedWaitMillis() {
+        int queued = executor.getQueue().size();
+        if (queued == 0 && executor.getActiveCount() < nThreads) {
+            return 0;
+        }
+        return (long) ((queued + 1) * meanExecutionMillis / nThreads);
+    }
+
+    private void reject(AsyncResponse asyncResponse, String endpoint, long estimatedWaitMillis) {
+        long retryAfterSeconds = Math.max(1, (estimatedWaitMillis + 999) / 1000);
+        if (rejected.incrementAndGet() % 100 == 1) {
+            LOG.warn("Rejecting {} request, routing threads are saturated. {} requests rejected so far.", endpoint,
+                    rejected.get());
+        }
+        asyncResponse.resume(Response.status(TOO_MANY_REQUESTS)
+                .header("Retry-After", retryAfterSeconds)
+                .type(MediaType.TEXT_PLAIN)
+                .entity("The server is busy, please retry in " + retryAfterSeconds + " seconds.")
+                .build());
+    }
+
+    /** @return the number of requests rejected since the server started. */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
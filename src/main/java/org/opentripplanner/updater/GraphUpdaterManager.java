@@ -195,6 +195,9 @@ public class GraphUpdaterManager {
                 } catch (Exception e) {
                     LOG.error("Error while running graph writer {}:", runnable.getClass().getName(),
                             e);
+                } finally {
+                    // Even a failed writer may have changed part of the graph.
+                    graph.countUpdaterWrite();
                 }
             }
         });
@@ -83,6 +83,12 @@ public class TimetableSnapshotSource {
      */
     private volatile TimetableSnapshot snapshot = null;
 
+    /**
+     * The number of snapshots committed so far, which identifies the version of the realtime data in the current
+     * snapshot. Caches of data derived from the snapshots can use it to tell whether they are still valid.
+     */
+    private volatile long snapshotGeneration = 0;
+
     /**
      * The working copy of the timetable snapshot. Should not be visible to routing threads. Should
      * only be modified by a thread that holds a lock on {@link #bufferLock}. All public methods that
@@ -157,6 +163,7 @@ public class TimetableSnapshotSource {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
                 snapshot = buffer.commit(force);
+                snapshotGeneration += 1; // only ever written by the thread holding the buffer lock
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
@@ -167,6 +174,14 @@ public class TimetableSnapshotSource {
         return snapshot;
     }
 
+    /**
+     * @return the generation of the snapshot returned by the last call to getTimetableSnapshot, which increases each
+     *         time a new snapshot is committed.
+     */
+    public long getSnapshotGeneration() {
+        return snapshotGeneration;
+    }
+
     /**
      * Method to apply a trip update list to the most recent version of the timetable snapshot. A
      * GTFS-RT feed is always applied against a single static feed (indicated by feedId).
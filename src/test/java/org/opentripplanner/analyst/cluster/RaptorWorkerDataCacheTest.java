@@ -0,0 +1,87 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test that RAPTOR data saved by the cache are only loaded again for a graph with the same vertex indexes.
+ */
+public class RaptorWorkerDataCacheTest extends TestCase {
+
+    @Test
+    public void testSaveAndLoad () throws Exception {
+        File directory = Files.createTempDirectory("raptordata").toFile();
+        try {
+            Graph graph = buildGraph();
+            ProfileRequest req = buildRequest();
+
+            RaptorWorkerData built = new RaptorWorkerDataCache(100, directory, new ObjectMapper())
+                    .get("graph", graph, req, null, null, new TaskStatistics());
+            assertEquals(1, directory.listFiles().length);
+
+            // A new cache, as in a restarted worker, loads the saved data for the same graph.
+            RaptorWorkerData loaded = new RaptorWorkerDataCache(100, directory, new ObjectMapper())
+                    .get("graph", graph, req, null, null, new TaskStatistics());
+            assertNotSame(built, loaded);
+            assertEquals(built.nStops, loaded.nStops);
+            assertEquals(built.nPatterns, loaded.nPatterns);
+            assertEquals(built.nTargets, loaded.nTargets);
+            assertEquals(built.indexForStop, loaded.indexForStop);
+            for (int stop = 0; stop < built.nStops; stop++) {
+                assertTrue(Arrays.equals(built.targetsForStop.get(stop), loaded.targetsForStop.get(stop)));
+                assertTrue(Arrays.equals(built.transfersForStop.get(stop), loaded.transfersForStop.get(stop)));
+            }
+
+            // Building the same graph again assigns other vertex indexes, so the saved data must not be used.
+            Graph reloaded = buildGraph();
+            RaptorWorkerData rebuilt = new RaptorWorkerDataCache(100, directory, new ObjectMapper())
+                    .get("graph", reloaded, req, null, null, new TaskStatistics());
+            assertEquals(2, directory.listFiles().length);
+            assertEquals(built.nStops, rebuilt.nStops);
+            assertEquals(built.nPatterns, rebuilt.nPatterns);
+            for (TransitStop stop : reloaded.index.stopVertexForStop.values()) {
+                assertTrue(rebuilt.indexForStop.containsKey(stop.getIndex()));
+            }
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static Graph buildGraph () throws Exception {
+        Graph graph = buildGraphNoTransit();
+        addTransit(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        return graph;
+    }
+
+    private static ProfileRequest buildRequest () {
+        ProfileRequest req = new ProfileRequest();
+        req.date = new LocalDate(2015, 6, 10);
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.fromLat = req.toLat = 39.9621;
+        req.fromLon = req.toLon = -83.0007;
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        return req;
+    }
+}
@@ -0,0 +1,127 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.resource;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchMetricsTest {
+
+    @Test
+    public void testBuckets() {
+        SearchMetrics.Histogram histogram = new SearchMetrics.Histogram(new long[] {10, 100, 1000});
+        // Bounds are inclusive, and values above the last bound go in the overflow bucket.
+        for (long value : new long[] {0, 10, 11, 100, 101, 1000, 1001, 5000}) {
+            histogram.add(value);
+        }
+        StringBuilder sb = new StringBuilder();
+        histogram.writePrometheus(sb, "h", "a=\"b\"", 1);
+        String text = sb.toString();
+        assertTrue(text, text.contains("h_bucket{a=\"b\",le=\"10.0\"} 2\n"));
+        assertTrue(text, text.contains("h_bucket{a=\"b\",le=\"100.0\"} 4\n"));
+        assertTrue(text, text.contains("h_bucket{a=\"b\",le=\"1000.0\"} 6\n"));
+        assertTrue(text, text.contains("h_bucket{a=\"b\",le=\"+Inf\"} 8\n"));
+        assertTrue(text, text.contains("h_sum{a=\"b\"} 7223.0\n"));
+        assertTrue(text, text.contains("h_count{a=\"b\"} 8\n"));
+    }
+
+    @Test
+    public void testPrometheusScale() {
+        SearchMetrics.Histogram histogram = new SearchMetrics.Histogram(new long[] {500, 2000});
+        histogram.add(1500);
+        StringBuilder sb = new StringBuilder();
+        histogram.writePrometheus(sb, "t", "p=\"x\"", 1000);
+        String text = sb.toString();
+        assertTrue(text, text.contains("t_bucket{p=\"x\",le=\"0.5\"} 0\n"));
+        assertTrue(text, text.contains("t_bucket{p=\"x\",le=\"2.0\"} 1\n"));
+        assertTrue(text, text.contains("t_sum{p=\"x\"} 1.5\n"));
+    }
+
+    @Test
+    public void testPercentiles() {
+        SearchMetrics.Histogram histogram = new SearchMetrics.Histogram(new long[] {10, 100, 1000});
+        assertEquals(0, histogram.percentile(50));
+
+        // 90 values in the first bucket, 9 in the second and 1 in the third.
+        for (int i = 0; i < 90; i++) histogram.add(5);
+        for (int i = 0; i < 9; i++) histogram.add(50);
+        histogram.add(700);
+        assertEquals(10, histogram.percentile(50));
+        assertEquals(10, histogram.percentile(90));
+        assertEquals(100, histogram.percentile(95));
+        assertEquals(100, histogram.percentile(99));
+        // The upper bound of the last bucket is capped at the maximum value recorded.
+        assertEquals(700, histogram.percentile(100));
+
+        // A percentile in the overflow bucket is the maximum, any other the upper bound of its bucket.
+        histogram = new SearchMetrics.Histogram(new long[] {10});
+        histogram.add(3);
+        histogram.add(42);
+        assertEquals(10, histogram.percentile(50));
+        assertEquals(42, histogram.percentile(99));
+
+        Map<String, Object> summary = histogram.summarize();
+        assertEquals(2L, summary.get("count"));
+        assertEquals(22L, summary.get("mean"));
+        assertEquals(10L, summary.get("p50"));
+        assertEquals(42L, summary.get("p99"));
+        assertEquals(42L, summary.get("max"));
+    }
+
+    @Test
+    public void testRecord() {
+        SearchMetrics metrics = new SearchMetrics();
+
+        // A request that failed before rendering only counts as failed.
+        DebugOutput failed = new DebugOutput();
+        failed.startedCalculating();
+        metrics.record(failed);
+
+        DebugOutput debugOutput = new DebugOutput();
+        debugOutput.startedCalculating();
+        debugOutput.finishedSearch(1200, 3000, 2500, 40, 7);
+        debugOutput.finishedSearch(800, 1000, 900, 10, 3);
+        debugOutput.finishedCalculating();
+        debugOutput.finishedRendering();
+        debugOutput.timedOut = true;
+        metrics.record(debugOutput);
+
+        assertEquals(2, metrics.requests.get());
+        assertEquals(1, metrics.failed.get());
+        assertEquals(1, metrics.timedOut.get());
+        assertEquals(1L, metrics.phases.get("total").summarize().get("count"));
+        Map<String, Object> visited = metrics.counters.get("visited").summarize();
+        assertEquals(1L, visited.get("count"));
+        assertEquals(2000L, visited.get("max"));
+        // 2000 visited vertices fall in the bucket with an upper bound of 10000, capped at the maximum.
+        assertEquals(2000L, visited.get("p50"));
+        assertEquals(4000L, metrics.counters.get("created").summarize().get("max"));
+        assertEquals(10L, metrics.counters.get("pruned").summarize().get("max"));
+
+        StringBuilder sb = new StringBuilder();
+        metrics.writePrometheus(sb, "default");
+        String text = sb.toString();
+        assertTrue(text, text.contains("otp_plan_requests_total{router=\"default\"} 2\n"));
+        assertTrue(text, text.contains("otp_plan_failed_total{router=\"default\"} 1\n"));
+        assertTrue(text, text.contains(
+                "otp_plan_search_states_bucket{router=\"default\",counter=\"visited\",le=\"1000.0\"} 0\n"));
+        assertTrue(text, text.contains(
+                "otp_plan_search_states_bucket{router=\"default\",counter=\"visited\",le=\"10000.0\"} 1\n"));
+    }
+
+}
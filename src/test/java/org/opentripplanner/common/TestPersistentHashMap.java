@@ -0,0 +1,96 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class TestPersistentHashMap extends TestCase {
+
+    /** A key whose hash codes collide often, to exercise the collision nodes. */
+    private static class Key {
+        final int id;
+
+        Key(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 50;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).id == id;
+        }
+    }
+
+    @Test
+    public void testSimple() {
+        PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> one = empty.plus("cats", 1);
+        PersistentHashMap<String, Integer> two = one.plus("dogs", 2);
+        assertEquals(0, empty.size());
+        assertNull(empty.get("cats"));
+        assertEquals(1, one.size());
+        assertNull(one.get("dogs"));
+        assertEquals(2, two.size());
+        assertEquals(Integer.valueOf(2), two.get("dogs"));
+        assertSame(two, two.plus("cats", two.get("cats")));
+        assertSame(two, two.minus("birds"));
+        assertEquals(1, two.minus("cats").size());
+        assertEquals(Integer.valueOf(1), two.get("cats"));
+        assertTrue(one.minus("cats").isEmpty());
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(1);
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            Key key = new Key(random.nextInt(2000));
+            PersistentHashMap<Key, Integer> previous = map;
+            int previousSize = previous.size();
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.get(key), map.get(key));
+            // Older versions are unaffected by changes
+            assertEquals(previousSize, previous.size());
+        }
+        for (int id = 0; id < 2000; id++) {
+            assertEquals(expected.get(new Key(id)), map.get(new Key(id)));
+        }
+        Map<Key, Integer> iterated = new HashMap<Key, Integer>();
+        map.forEach(iterated::put);
+        assertEquals(expected, iterated);
+        PersistentHashMap<Key, Integer> odd = map.minusIf((key, value) -> key.id % 2 == 0);
+        for (Key key : expected.keySet()) {
+            assertEquals(key.id % 2 == 0 ? null : expected.get(key), odd.get(key));
+        }
+    }
+
+}
@@ -25,7 +25,7 @@ import junit.framework.TestCase;
 public class TestPQueues extends TestCase { 
     private static final int N = 50000;
 
-    public void doQueue(BinHeap<Integer> q,
+    public void doQueue(OTPPriorityQueue<Integer> q,
                         List<Integer> input, List<Integer> expected) {
         List<Integer> result = new ArrayList<Integer>(N);
         int expectedSum = 0;
@@ -58,7 +58,7 @@ public class TestPQueues extends TestCase {
         assertTrue(sum == expectedSum);
     }
     
-    public void fillQueue(BinHeap<Integer> q, List<Integer> input) {
+    public void fillQueue(OTPPriorityQueue<Integer> q, List<Integer> input) {
         for (Integer i : input) {
             q.insert(i, i * 0.5);
         }
@@ -90,6 +90,39 @@ public class TestPQueues extends TestCase {
         }
         doQueue(new BinHeap<Integer>(), input, expected);
         fillQueue(new BinHeap<Integer>(), input);
+        doQueue(new IndexedDaryHeap<Integer>(1000, 10000, i -> i), input, expected);
+        fillQueue(new IndexedDaryHeap<Integer>(1000, 10000, i -> i), input);
+    }
+
+    /*
+     * Elements with the same handle replace one another, whether their keys go up or down.
+     */
+    public void testDecreaseKey() {
+        IndexedDaryHeap<Integer> q = new IndexedDaryHeap<Integer>(10, 10, i -> i % 100);
+        for (int i = 0; i < 1000; i++) {
+            q.insert_or_dec_key(i, 1000 - i);
+        }
+        // Only the last element inserted for each handle remains, with its own key.
+        assertEquals(100, q.size());
+        q.insert_or_dec_key(950, 2000);
+        q.insert_or_dec_key(1001, 0);
+        assertEquals(100, q.size());
+        assertEquals(0.0, q.peek_min_key());
+        assertEquals(Integer.valueOf(1001), q.extract_min());
+        int previous = Integer.MAX_VALUE;
+        while (q.size() > 1) {
+            int i = q.extract_min();
+            assertTrue(i < previous);
+            previous = i;
+        }
+        assertEquals(Integer.valueOf(950), q.extract_min());
+        assertTrue(q.empty());
+        assertFalse(q.contains(50));
+        // Plain insertions are never replaced.
+        q.insert(5, 5);
+        q.insert(5, 6);
+        q.insert_or_dec_key(5, 4);
+        assertEquals(3, q.size());
     }
 
     /*
@@ -0,0 +1,109 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.graph_builder.module.GtfsFeedId;
+import org.opentripplanner.graph_builder.module.GtfsModule;
+import org.opentripplanner.graph_builder.module.PruneFloatingIslands;
+import org.opentripplanner.graph_builder.module.StreetLinkerModule;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.SplitterVertex;
+
+public class GraphBuilderTest {
+
+    /**
+     * Loading the inputs of the modules concurrently, ahead of building the graph, must give the same graph as loading
+     * them in the modules one after the other.
+     */
+    @Test
+    public void testConcurrentInputLoading() throws Exception {
+        File gtfs = FakeGraph.writeTransit();
+        Graph serial = build(gtfs, false);
+        Graph concurrent = build(gtfs, true);
+
+        List<String> edges = describeEdges(serial);
+        assertFalse(edges.isEmpty());
+        assertTrue(edges.stream().anyMatch(e -> e.startsWith(StreetTransitLink.class.getSimpleName())));
+        assertEquals(describeVertices(serial), describeVertices(concurrent));
+        assertEquals(edges, describeEdges(concurrent));
+        assertEquals(serial.getFeedIds(), concurrent.getFeedIds());
+        assertEquals(serial.getTimeZone(), concurrent.getTimeZone());
+        assertEquals(serial.getTransitModes(), concurrent.getTransitModes());
+        assertEquals(serial.serviceCodes, concurrent.serviceCodes);
+        assertEquals(serial.getCalendarService().getServiceIds(), concurrent.getCalendarService().getServiceIds());
+        assertEquals(serial.getBuilderAnnotations().size(), concurrent.getBuilderAnnotations().size());
+    }
+
+    private static Graph build(File gtfs, boolean concurrentInputLoading) throws Exception {
+        GtfsBundle gtfsBundle = new GtfsBundle(gtfs);
+        // Give both graphs the same feed ID, rather than the next one from the counter.
+        gtfsBundle.setFeedId(new GtfsFeedId.Builder().id("test").build());
+
+        GraphBuilder graphBuilder = new GraphBuilder();
+        graphBuilder.serializeGraph = false;
+        graphBuilder.concurrentInputLoading = concurrentInputLoading;
+        graphBuilder.addModule(FakeGraph.osmModule());
+        graphBuilder.addModule(new PruneFloatingIslands());
+        graphBuilder.addModule(new GtfsModule(Arrays.asList(gtfsBundle)));
+        graphBuilder.addModule(new StreetLinkerModule());
+        graphBuilder.run();
+        return graphBuilder.getGraph();
+    }
+
+    /**
+     * Describe the vertices of a graph in a way that does not depend on the edge IDs, which are unique across graphs.
+     * Splitter vertices are labeled with the ID of the edge they split, so they are described by their position.
+     */
+    private static List<String> describeVertices(Graph graph) {
+        List<String> vertices = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) vertices.add(describe(v));
+        Collections.sort(vertices);
+        return vertices;
+    }
+
+    private static List<String> describeEdges(Graph graph) {
+        List<String> edges = new ArrayList<>();
+        for (Edge e : graph.getEdges()) {
+            String edge = String.format("%s %s -> %s %s %.3f", e.getClass().getSimpleName(),
+                    describe(e.getFromVertex()), describe(e.getToVertex()), e.getName(), e.getDistance());
+            if (e instanceof StreetEdge) edge += " " + ((StreetEdge) e).getPermission();
+            edges.add(edge);
+        }
+        Collections.sort(edges);
+        return edges;
+    }
+
+    private static String describe(Vertex v) {
+        String label = v instanceof SplitterVertex ? "split" : v.getLabel();
+        return String.format("%s %s (%.7f, %.7f)", v.getClass().getSimpleName(), label, v.getX(), v.getY());
+    }
+
+}
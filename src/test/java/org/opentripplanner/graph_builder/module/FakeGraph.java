@@ -35,7 +35,12 @@ public class FakeGraph {
     /** Build a graph in Columbus, OH with no transit */
     public static Graph buildGraphNoTransit () throws UnsupportedEncodingException {
         Graph gg = new Graph();
+        osmModule().buildGraph(gg, new HashMap<Class<?>, Object>());
+        return gg;
+    }
 
+    /** Make a module loading the streets of Columbus, OH */
+    public static OpenStreetMapModule osmModule () throws UnsupportedEncodingException {
         OpenStreetMapModule loader = new OpenStreetMapModule();
         loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
         AnyFileBasedOpenStreetMapProviderImpl provider = new AnyFileBasedOpenStreetMapProviderImpl();
@@ -46,13 +51,17 @@ public class FakeGraph {
 
         provider.setPath(file);
         loader.setProvider(provider);
-
-        loader.buildGraph(gg, new HashMap<Class<?>, Object>());
-        return gg;
+        return loader;
     }
 
     /** Add transit (not just stops) to a Columbus graph */
     public static void addTransit (Graph gg) throws Exception {
+        GtfsModule gtfs = new GtfsModule(Arrays.asList(new GtfsBundle(writeTransit())));
+        gtfs.buildGraph(gg, new HashMap<>());
+    }
+
+    /** Write a GTFS feed with a single route in Columbus, OH to a temporary file */
+    public static File writeTransit () throws Exception {
         // using conveyal GTFS lib to build GTFS so a lot of code does not have to be rewritten later
         // once we're using the conveyal GTFS lib for everything we ought to be able to do this
         // without even writing out the GTFS to a file.
@@ -110,10 +119,7 @@ public class FakeGraph {
 
         File tempFile = File.createTempFile("gtfs", ".zip");
         feed.toFile(tempFile.getAbsolutePath());
-
-        // phew. load it into the graph.
-        GtfsModule gtfs = new GtfsModule(Arrays.asList(new GtfsBundle(tempFile)));
-        gtfs.buildGraph(gg, new HashMap<>());
+        return tempFile;
     }
 
     /** Add many transit lines to a lot of stops */
@@ -14,6 +14,8 @@ import org.junit.Test;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.graph_builder.annotation.StopUnlinked;
+import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
 import org.opentripplanner.profile.StopTreeCache;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTransitLink;
@@ -28,7 +30,10 @@ import org.opentripplanner.routing.vertextype.StreetVertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -151,6 +156,59 @@ public class LinkingTest {
         }
     }
 
+    /**
+     * Linking all the stops at once finds the edges to link them to in parallel before splitting any edge. Check that
+     * it gives the same links and split edges as linking the stops one by one, also for stops that are duplicated or
+     * close to each other, which split the same edges.
+     */
+    @Test
+    public void testTwoPhaseLinkingMatchesSerial () throws UnsupportedEncodingException {
+        Graph serial = buildGraphNoTransit();
+        addRegularStopGrid(serial);
+        addExtraStops(serial);
+        SimpleStreetSplitter splitter = new SimpleStreetSplitter(serial);
+        List<TransitStop> stops = new ArrayList<>();
+        for (Vertex v : serial.getVertices()) {
+            if (v instanceof TransitStop) stops.add((TransitStop) v);
+        }
+        for (TransitStop stop : stops) {
+            if (!splitter.link(stop)) serial.addBuilderAnnotation(new StopUnlinked(stop));
+        }
+
+        Graph twoPhase = buildGraphNoTransit();
+        addRegularStopGrid(twoPhase);
+        addExtraStops(twoPhase);
+        link(twoPhase);
+
+        List<String> edges = describeEdges(serial);
+        assertTrue(edges.stream().anyMatch(e -> e.startsWith("StreetTransitLink")));
+        assertTrue(serial.getVertices().stream().anyMatch(v -> v instanceof SplitterVertex));
+        assertEquals(edges, describeEdges(twoPhase));
+        assertEquals(serial.getVertices().size(), twoPhase.getVertices().size());
+        assertEquals(serial.getBuilderAnnotations().size(), twoPhase.getBuilderAnnotations().size());
+    }
+
+    /**
+     * Describe the edges of a graph in a way that does not depend on the edge IDs, which are unique across graphs.
+     * Splitter vertices are labeled with the ID of the edge they split, so they are described by their position.
+     */
+    private static List<String> describeEdges (Graph graph) {
+        List<String> edges = new ArrayList<>();
+        for (Edge e : graph.getEdges()) {
+            String edge = String.format("%s %s -> %s %s %.3f", e.getClass().getSimpleName(),
+                    describe(e.getFromVertex()), describe(e.getToVertex()), e.getName(), e.getDistance());
+            if (e instanceof StreetEdge) edge += " " + ((StreetEdge) e).getPermission();
+            edges.add(edge);
+        }
+        Collections.sort(edges);
+        return edges;
+    }
+
+    private static String describe (Vertex v) {
+        String label = v instanceof SplitterVertex ? "split" : v.getLabel();
+        return String.format("%s (%.7f, %.7f)", label, v.getX(), v.getY());
+    }
+
     private TObjectIntMap<String> jaggedArrayToVertexMap(int[] value, Graph g) {
         TObjectIntMap<String> ret = new TObjectIntHashMap<String>();
 
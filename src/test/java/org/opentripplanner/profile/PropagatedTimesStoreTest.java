@@ -66,4 +66,58 @@ public class PropagatedTimesStoreTest extends TestCase {
         // 1000 should not be included in average
         assertEquals(1, pts.avgs[0]);
     }
-}
\ No newline at end of file
+
+    /** Test that merging iterations one at a time gives the same results as setting them from an array. */
+    @Test
+    public static void testMergeIterations () {
+        ProfileRequest pr = new ProfileRequest();
+        Graph g = new Graph();
+
+        int U = RaptorWorker.UNREACHED;
+        // targets: always reachable, reachable only in an extremum, reachable half the time, never reachable
+        int[][] times = new int[][] {
+                new int[] { 100, U,   10, U },
+                new int[] { 300, 50,  U,  U },
+                new int[] { 200, U,   30, U },
+                new int[] { 600, U,   U,  U }
+        };
+        boolean[] includeInAverages = new boolean[] { true, false, true, true };
+
+        PropagatedTimesStore fromArray = new PropagatedTimesStore(g, pr, 4);
+        fromArray.setFromArray(times, includeInAverages, PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+
+        PropagatedTimesStore merged = new PropagatedTimesStore(g, pr, 4);
+        // order should not matter
+        for (int i = times.length - 1; i >= 0; i--) {
+            merged.mergeIteration(times[i], includeInAverages[i]);
+        }
+        merged.finishIterations();
+
+        for (int target = 0; target < 4; target++) {
+            assertEquals(fromArray.mins[target], merged.mins[target]);
+            assertEquals(fromArray.avgs[target], merged.avgs[target]);
+            assertEquals(fromArray.maxs[target], merged.maxs[target]);
+        }
+        assertEquals(300, merged.avgs[0]);
+        assertEquals(600, merged.maxs[0]);
+
+        // Iterations merged into separate stores, as parallel searches do, combine to the same results.
+        PropagatedTimesStore combined = new PropagatedTimesStore(g, pr, 4);
+        PropagatedTimesStore first = new PropagatedTimesStore(g, pr, 4);
+        PropagatedTimesStore second = new PropagatedTimesStore(g, pr, 4);
+        first.mergeIteration(times[0], includeInAverages[0]);
+        first.mergeIteration(times[2], includeInAverages[2]);
+        second.mergeIteration(times[1], includeInAverages[1]);
+        second.mergeIteration(times[3], includeInAverages[3]);
+        combined.mergeIterations(second);
+        combined.mergeIterations(first);
+        combined.mergeIterations(new PropagatedTimesStore(g, pr, 4));
+        combined.finishIterations();
+
+        for (int target = 0; target < 4; target++) {
+            assertEquals(fromArray.mins[target], combined.mins[target]);
+            assertEquals(fromArray.avgs[target], combined.avgs[target]);
+            assertEquals(fromArray.maxs[target], combined.maxs[target]);
+        }
+    }
+}
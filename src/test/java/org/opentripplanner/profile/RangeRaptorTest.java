@@ -0,0 +1,136 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.analyst.scenario.ConvertToFrequency;
+import org.opentripplanner.analyst.scenario.Scenario;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Make sure that range-RAPTOR finds the same travel times as searching every departure minute with runRaptorScheduled,
+ * and that parallel searches find the same travel times as serial ones.
+ */
+public class RangeRaptorTest extends TestCase {
+
+    @Test
+    public void testRangeRaptorMatchesPerMinuteSearch () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addPerpendicularRoutes(g);
+        link(g);
+        g.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = new ProfileRequest();
+        req.fromLon = req.toLon = -83.0118;
+        req.fromLat = req.toLat = 39.9908;
+        req.date = new LocalDate(2015, 9, 17);
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.walkSpeed = 1.3f;
+        req.maxWalkTime = 20;
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, null, new TaskStatistics());
+        assertFalse(data.hasFrequencies);
+        TIntIntMap initialStops = new RepeatedRaptorProfileRouter(g, req).findInitialStops(false, data);
+        assertFalse(initialStops.isEmpty());
+
+        // Leave out the walk only times, so that the times at all targets come from the transit search.
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        req.rangeRaptor = false;
+        PropagatedTimesStore perMinute = new RaptorWorker(data, req)
+                .runRaptor(g, initialStops, nonTransitTimes, new TaskStatistics());
+
+        req.rangeRaptor = true;
+        PropagatedTimesStore range = new RaptorWorker(data, req)
+                .runRaptor(g, initialStops, nonTransitTimes, new TaskStatistics());
+
+        // Each parallel chunk starts range-RAPTOR from empty state at its latest minute.
+        req.parallelRaptor = true;
+        PropagatedTimesStore parallelRange = new RaptorWorker(data, req)
+                .runRaptor(g, initialStops, nonTransitTimes, new TaskStatistics());
+
+        boolean reachedByTransit = false;
+        for (int target = 0; target < data.nTargets; target++) {
+            reachedByTransit |= perMinute.mins[target] != RaptorWorker.UNREACHED;
+        }
+        assertTrue(reachedByTransit);
+
+        for (PropagatedTimesStore store : Arrays.asList(range, parallelRange)) {
+            assertTrue(Arrays.equals(perMinute.mins, store.mins));
+            assertTrue(Arrays.equals(perMinute.avgs, store.avgs));
+            assertTrue(Arrays.equals(perMinute.maxs, store.maxs));
+        }
+    }
+
+    /**
+     * With a random seed, the Monte Carlo draws of the frequency searches depend only on the departure minute, so
+     * searching the minutes in parallel chunks gives the same travel times as searching them one after another.
+     */
+    @Test
+    public void testParallelMonteCarloMatchesSerial () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addPerpendicularRoutes(g);
+        link(g);
+        g.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = new ProfileRequest();
+        req.fromLon = req.toLon = -83.0118;
+        req.fromLat = req.toLat = 39.9908;
+        req.date = new LocalDate(2015, 9, 17);
+        req.fromTime = 7 * 3600;
+        req.toTime = 8 * 3600;
+        req.walkSpeed = 1.3f;
+        req.maxWalkTime = 20;
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.randomSeed = 42L;
+
+        // Run the vertical routes by frequency and keep the schedules of the horizontal ones, so that every minute
+        // has a scheduled search followed by Monte Carlo draws.
+        ConvertToFrequency ctf = new ConvertToFrequency();
+        ctf.groupBy = ConvertToFrequency.ConversionGroup.ROUTE_DIRECTION;
+        ctf.routeId = new String[60];
+        for (int i = 0; i < ctf.routeId.length; i++) {
+            ctf.routeId[i] = "verticalroute" + i;
+        }
+        ctf.windowStart = 5 * 3600;
+        ctf.windowEnd = 10 * 3600;
+        req.scenario = new Scenario(0);
+        req.scenario.modifications = Arrays.asList(ctf);
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, null, new TaskStatistics());
+        assertTrue(data.hasFrequencies);
+        assertTrue(data.hasSchedules);
+        TIntIntMap initialStops = new RepeatedRaptorProfileRouter(g, req).findInitialStops(false, data);
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        PropagatedTimesStore serial = new RaptorWorker(data, req)
+                .runRaptor(g, initialStops, nonTransitTimes, new TaskStatistics());
+        req.parallelRaptor = true;
+        PropagatedTimesStore parallel = new RaptorWorker(data, req)
+                .runRaptor(g, initialStops, nonTransitTimes, new TaskStatistics());
+
+        boolean reachedByTransit = false;
+        for (int target = 0; target < data.nTargets; target++) {
+            reachedByTransit |= serial.avgs[target] != RaptorWorker.UNREACHED;
+        }
+        assertTrue(reachedByTransit);
+        assertTrue(Arrays.equals(serial.mins, parallel.mins));
+        assertTrue(Arrays.equals(serial.avgs, parallel.avgs));
+        assertTrue(Arrays.equals(serial.maxs, parallel.maxs));
+    }
+}
@@ -14,8 +14,10 @@
 package org.opentripplanner.routing.algorithm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.util.HashSet;
 import java.util.List;
@@ -25,8 +27,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opentripplanner.routing.algorithm.strategies.MultiTargetTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
+import org.opentripplanner.routing.core.CancellationToken;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.SimpleConcreteEdge;
 import org.opentripplanner.routing.graph.SimpleConcreteVertex;
@@ -34,6 +38,7 @@ import org.opentripplanner.routing.graph.TemporaryConcreteEdge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -244,6 +249,78 @@ public class AStarTest {
         }
     }
 
+    @Test
+    public void testIndexedShortestPathTree() {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.batch = true;
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        ShortestPathTree mapTree = new AStar().getShortestPathTree(options);
+
+        options.indexedShortestPathTree = true;
+        // Run twice, releasing the first tree so the second one reuses its storage.
+        for (int i = 0; i < 2; i++) {
+            ShortestPathTree indexedTree = new AStar().getShortestPathTree(options);
+            assertTrue(indexedTree instanceof IndexedShortestPathTree);
+            assertEquals(mapTree.getVertexCount(), indexedTree.getVertexCount());
+            assertEquals(mapTree.getVertices(), indexedTree.getVertices());
+            for (Vertex v : mapTree.getVertices()) {
+                assertEquals(mapTree.getState(v).getWeight(), indexedTree.getState(v).getWeight(), 0.0);
+            }
+            indexedTree.release();
+        }
+    }
+
+    @Test
+    public void testCancelledBeforeSearch() {
+        RoutingRequest options = new RoutingRequest();
+        options.cancellationToken = new CancellationToken();
+        options.cancellationToken.cancel();
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        assertNull(new AStar().getShortestPathTree(options));
+        assertTrue(options.rctx.aborted);
+    }
+
+    @Test
+    public void testCancelledDuringSearch() {
+        int size = 40;
+        grid(size);
+        RoutingRequest full = new RoutingRequest();
+        full.batch = true;
+        full.setRoutingContext(_graph, _graph.getVertex("grid_0_0"), _graph.getVertex("grid_0_0"));
+        new AStar().getShortestPathTree(full);
+        assertFalse(full.rctx.aborted);
+        assertTrue(full.rctx.debugOutput.visitedVertices >= size * size);
+
+        // Cancel the search, e.g. as a client disconnecting would, after it has visited 100 vertices.
+        RoutingRequest options = new RoutingRequest();
+        options.batch = true;
+        options.cancellationToken = new CancellationToken();
+        options.setRoutingContext(_graph, _graph.getVertex("grid_0_0"), _graph.getVertex("grid_0_0"));
+        AStar aStar = new AStar();
+        aStar.setTraverseVisitor(new TraverseVisitor() {
+            int visited = 0;
+
+            @Override
+            public void visitEdge(Edge edge, State state) { }
+
+            @Override
+            public void visitVertex(State state) {
+                if (++visited == 100) options.cancellationToken.cancel();
+            }
+
+            @Override
+            public void visitEnqueue(State state) { }
+        });
+        assertNotNull(aStar.getShortestPathTree(options));
+        assertTrue(options.rctx.aborted);
+        assertFalse(options.rctx.debugOutput.timedOut);
+        // The token is checked once every CANCELLATION_CHECK_MASK + 1 iterations.
+        long visited = options.rctx.debugOutput.visitedVertices;
+        assertTrue(visited >= 100);
+        assertTrue(visited <= 100 + AStar.CANCELLATION_CHECK_MASK + 1);
+    }
+
     /****
      * Private Methods
      ****/
@@ -253,6 +330,21 @@ public class AStarTest {
         return v;
     }
 
+    /** Add a grid of vertices with the given number of rows and columns, connected in both directions. */
+    private void grid(int size) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                vertex("grid_" + i + "_" + j, 47.6 + i * 0.001, -122.3 + j * 0.001);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (i + 1 < size) edges("grid_" + i + "_" + j, "grid_" + (i + 1) + "_" + j);
+                if (j + 1 < size) edges("grid_" + i + "_" + j, "grid_" + i + "_" + (j + 1));
+            }
+        }
+    }
+
     private void edges(String... vLabels) {
         for (int i = 0; i < vLabels.length - 1; i++) {
             Vertex vA = _graph.getVertex(vLabels[i]);
@@ -29,6 +29,7 @@ import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.GraphPath;
@@ -214,6 +215,55 @@ public class TurnCostTest {
         assertEquals(380, states.get(4).getElapsedTimeSeconds()); // broad2_3 = 100
     }
 
+    @Test
+    public void testCompactStreetSearch() {
+        RoutingRequest options = proto.clone();
+        CompactStreetSearch search = new CompactStreetSearch(_graph.getCompactStreetGraph(), options, TraverseMode.WALK);
+        search.setOrigin(topRight);
+        search.route();
+        // Same as the walking path without turn costs, 2x100 + 2x50 = 300.
+        assertEquals(300.0, search.getWeight(bottomLeft), 0.001);
+        assertEquals(300.0, search.getDurationSeconds(bottomLeft), 0.001);
+        List<StreetEdge> path = search.getPath(bottomLeft);
+        assertEquals(4, path.size());
+        assertEquals(topRight, path.get(0).getFromVertex());
+        assertEquals(bottomLeft, path.get(3).getToVertex());
+
+        options.setArriveBy(true);
+        search = new CompactStreetSearch(_graph.getCompactStreetGraph(), options, TraverseMode.WALK);
+        search.setOrigin(bottomLeft);
+        search.route();
+        assertEquals(300.0, search.getWeight(topRight), 0.001);
+        path = search.getPath(topRight);
+        assertEquals(topRight, path.get(0).getFromVertex());
+        assertEquals(bottomLeft, path.get(3).getToVertex());
+    }
+
+    @Test
+    public void testCompactStreetGraphInvalidation() {
+        CompactStreetGraph compactGraph = _graph.getCompactStreetGraph();
+        assertSame(compactGraph, _graph.getCompactStreetGraph());
+
+        // Removing a street edge drops the snapshot, and searches no longer use the edge.
+        _graph.removeEdge(maple_main1);
+        CompactStreetGraph rebuilt = _graph.getCompactStreetGraph();
+        assertNotSame(compactGraph, rebuilt);
+        assertEquals(compactGraph.nEdges - 1, rebuilt.nEdges);
+        CompactStreetSearch search = new CompactStreetSearch(rebuilt, proto.clone(), TraverseMode.WALK);
+        search.setOrigin(topRight);
+        search.route();
+        // Along Maple to 2nd instead, 100 + 50 + 50 + 100 = 300.
+        assertEquals(300.0, search.getWeight(bottomLeft), 0.001);
+        assertFalse(search.getPath(bottomLeft).contains(maple_main1));
+
+        // So does adding a permanent vertex, which is not in the old snapshot.
+        Vertex added = vertex("broad_4th", -1.0, 0.0);
+        assertEquals(-1, rebuilt.getVertexId(added));
+        edge((StreetVertex) bottomLeft, (StreetVertex) added, 100.0, false);
+        assertNotSame(rebuilt, _graph.getCompactStreetGraph());
+        assertTrue(_graph.getCompactStreetGraph().getVertexId(added) >= 0);
+    }
+
     /****
      * Private Methods
      ****/
@@ -0,0 +1,124 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.junit.Test;
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.Leg;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.resource.GraphPathToTripPlanConverter;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.impl.MemoryGraphSource;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.standalone.CommandLineParameters;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.updater.GraphUpdaterManager;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TargetStreetSearchCacheTest {
+
+    /**
+     * Planning to the same coordinate again reuses the street search around the target, which was made with the
+     * temporary vertices of the first request. The itinerary must be the same as without the cache.
+     */
+    @Test
+    public void testSameItineraryWhenPlanningToSameCoordinate() throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addPerpendicularRoutes(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        OTPServer otpServer = new OTPServer(new CommandLineParameters(), new GraphService());
+        otpServer.getGraphService().registerGraph("A", new MemoryGraphSource("A", graph));
+        Router router = otpServer.getGraphService().getRouter("A");
+
+        assertNull(router.targetStreetSearchCache);
+        Itinerary uncached = plan(router);
+        TargetStreetSearchCache cache = new TargetStreetSearchCache(100);
+
+        router.targetStreetSearchCache = cache;
+        Itinerary first = plan(router);
+        assertTrue(cache.size() > 0);
+        long hits = cache.getStats().hitCount();
+        Itinerary second = plan(router);
+        assertTrue(cache.getStats().hitCount() > hits);
+
+        assertSameItinerary(uncached, first);
+        assertSameItinerary(uncached, second);
+
+        // A write by a graph updater clears the cache.
+        GraphUpdaterManager updaterManager = new GraphUpdaterManager(router.graph);
+        updaterManager.executeBlocking(graph -> { });
+        updaterManager.stop();
+        long misses = cache.getStats().missCount();
+        Itinerary third = plan(router);
+        assertTrue(cache.getStats().missCount() > misses);
+        assertSameItinerary(uncached, third);
+    }
+
+    /** Street searches that depend on the request time or on realtime availability are not cached. */
+    @Test
+    public void testTimeDependentSearchesNotCached() {
+        assertTrue(TargetStreetSearchCache.isCacheable(new RoutingRequest("TRANSIT,WALK")));
+        assertTrue(TargetStreetSearchCache.isCacheable(new RoutingRequest("TRANSIT,BICYCLE")));
+        assertFalse(TargetStreetSearchCache.isCacheable(new RoutingRequest("TRANSIT,CAR")));
+
+        RoutingRequest request = new RoutingRequest("TRANSIT,WALK");
+        request.allowBikeRental = true;
+        assertFalse(TargetStreetSearchCache.isCacheable(request));
+        request = new RoutingRequest("TRANSIT,WALK");
+        request.bikeParkAndRide = true;
+        assertFalse(TargetStreetSearchCache.isCacheable(request));
+        request = new RoutingRequest("TRANSIT,WALK");
+        request.traversalCostModel = new ConstantIntersectionTraversalCostModel(10);
+        assertFalse(TargetStreetSearchCache.isCacheable(request));
+    }
+
+    private static Itinerary plan(Router router) {
+        RoutingRequest request = new RoutingRequest("TRANSIT,WALK");
+        request.setDateTime("2016-04-20", "13:00", router.graph.getTimeZone());
+        request.from = new GenericLocation(39.9308, -83.0118);
+        request.to = new GenericLocation(39.9998, -83.0198);
+        List<GraphPath> paths = new GraphPathFinder(router).graphPathFinderEntryPoint(request);
+        TripPlan plan = GraphPathToTripPlanConverter.generatePlan(paths, request);
+        assertFalse(plan.itinerary.isEmpty());
+        return plan.itinerary.get(0);
+    }
+
+    private static void assertSameItinerary(Itinerary expected, Itinerary actual) {
+        assertEquals(expected.startTime, actual.startTime);
+        assertEquals(expected.endTime, actual.endTime);
+        assertEquals(expected.walkDistance, actual.walkDistance, 1e-6);
+        assertEquals(expected.legs.size(), actual.legs.size());
+        for (int i = 0; i < expected.legs.size(); i++) {
+            Leg expectedLeg = expected.legs.get(i);
+            Leg actualLeg = actual.legs.get(i);
+            assertEquals(expectedLeg.mode, actualLeg.mode);
+            assertEquals(expectedLeg.routeId, actualLeg.routeId);
+            assertEquals(expectedLeg.tripId, actualLeg.tripId);
+            assertEquals(expectedLeg.startTime, actualLeg.startTime);
+            assertEquals(expectedLeg.endTime, actualLeg.endTime);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import junit.framework.TestCase;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.algorithm.GenericDijkstra;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.TestUtils;
+
+import java.util.List;
+
+public class TransitLowerBoundsTest extends TestCase {
+
+    /**
+     * The bounds from the table must never exceed the weight of the best path from a stop to the target, as found by
+     * a plain Dijkstra search backward from the target.
+     */
+    public void testBoundsAreAdmissible() {
+        Graph graph = ConstantsForTests.buildGraph(ConstantsForTests.PORTLAND_GTFS);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex origin = graph.getVertex(feedId + ":8371");
+        Vertex target = graph.getVertex(feedId + ":8374");
+
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.transitLowerBoundTable = true;
+        options.setRoutingContext(graph, origin, target);
+        InterleavedBidirectionalHeuristic heuristic = new InterleavedBidirectionalHeuristic();
+        heuristic.initialize(options, Long.MAX_VALUE);
+
+        RoutingRequest dijkstraOptions = new RoutingRequest();
+        dijkstraOptions.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 20, 0, 0);
+        dijkstraOptions.setArriveBy(true);
+        dijkstraOptions.batch = true;
+        dijkstraOptions.setRoutingContext(graph, origin, target);
+        ShortestPathTree spt = new GenericDijkstra(dijkstraOptions)
+                .getShortestPathTree(new State(target, dijkstraOptions));
+
+        int stopsReached = 0;
+        for (TransitStop stop : graph.index.stopVertexForStop.values()) {
+            List<State> states = spt.getStates(stop);
+            if (states == null || states.isEmpty()) continue;
+            double weight = Double.POSITIVE_INFINITY;
+            for (State state : states) {
+                weight = Math.min(weight, state.getWeight());
+            }
+            double bound = heuristic.estimateRemainingWeight(new State(stop, options));
+            assertTrue("Bound " + bound + " exceeds weight " + weight + " at " + stop, bound <= weight);
+            stopsReached++;
+        }
+        assertTrue(stopsReached > 10);
+    }
+}
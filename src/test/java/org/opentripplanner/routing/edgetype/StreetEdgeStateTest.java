@@ -0,0 +1,276 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * StreetEdge makes its states directly with State.makeStreetChild rather than through a StateEditor. Check the fields
+ * of the states it makes, including the mode and parking changes of kiss-and-ride, and that their parents are not
+ * changed. The vertices are in a straight line, so that no turn costs are added.
+ */
+public class StreetEdgeStateTest {
+
+    private static final double DELTA = 1e-6;
+
+    private Graph graph;
+    private IntersectionVertex v0, v1, v2, v3;
+    private RoutingRequest proto;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        v0 = new IntersectionVertex(graph, "v0", 0.0, 0.0);
+        v1 = new IntersectionVertex(graph, "v1", 0.001, 0.0);
+        v2 = new IntersectionVertex(graph, "v2", 0.002, 0.0);
+        v3 = new IntersectionVertex(graph, "v3", 0.003, 0.0);
+
+        proto = new RoutingRequest();
+        proto.carSpeed = 15.0f;
+        proto.walkSpeed = 1.3;
+        proto.bikeSpeed = 5.0f;
+        proto.setModes(TraverseModeSet.allModes());
+    }
+
+    @Test
+    public void testWalk() {
+        StreetEdge e0 = edge(v0, v1, 100.0, StreetTraversalPermission.ALL);
+        StreetEdge e1 = edge(v1, v2, 150.0, StreetTraversalPermission.ALL);
+
+        RoutingRequest options = options(TraverseMode.WALK, false);
+        State s0 = new State(v0, options);
+        // Walking time is the distance at the walk speed, and its weight is doubled by the default walk reluctance.
+        State s1 = e0.traverse(s0);
+        assertStreetChild(s1, s0, e0, TraverseMode.WALK, 77, 2.0 * 100 / 1.3, 100, 0);
+        State s2 = e1.traverse(s1);
+        assertStreetChild(s2, s1, e1, TraverseMode.WALK, 116, 2.0 * 150 / 1.3, 150, 0);
+        assertEquals(TraverseMode.WALK, s2.getNonTransitMode());
+        assertFalse(s2.isBackWalkingBike());
+        assertNull(s2.getNextResult());
+    }
+
+    @Test
+    public void testArriveBy() {
+        StreetEdge e0 = edge(v0, v1, 100.0, StreetTraversalPermission.ALL);
+        StreetEdge e1 = edge(v1, v2, 150.0, StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE);
+
+        RoutingRequest options = options(TraverseMode.BICYCLE, true);
+        State s0 = new State(v2, options);
+        // The states go back in time, from the to vertex of each edge to its from vertex.
+        State s1 = e1.traverse(s0);
+        assertStreetChild(s1, s0, e1, TraverseMode.BICYCLE, 30, 2.0 * 150 / 5.0, 150, 0);
+        State s2 = e0.traverse(s1);
+        assertStreetChild(s2, s1, e0, TraverseMode.BICYCLE, 20, 2.0 * 100 / 5.0, 100, 0);
+        assertEquals(s0.getTimeInMillis() - 50 * 1000, s2.getTimeInMillis());
+    }
+
+    /** A rented bike is walked along a pedestrian street and ridden again after it. */
+    @Test
+    public void testBikeRental() {
+        StreetEdge e0 = edge(v0, v1, 100.0, StreetTraversalPermission.ALL);
+        StreetEdge e1 = edge(v1, v2, 50.0, StreetTraversalPermission.PEDESTRIAN);
+        StreetEdge e2 = edge(v2, v3, 80.0, StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE);
+
+        RoutingRequest options = options(TraverseMode.BICYCLE, false);
+        options.allowBikeRental = true;
+        options.bikeSwitchTime = 17;
+        options.bikeSwitchCost = 11;
+        StateEditor editor = new StateEditor(options, v0);
+        editor.setBikeRenting(true);
+        State s0 = editor.makeState();
+
+        // Getting on the bike costs the switch time and cost.
+        State s1 = e0.traverse(s0);
+        assertStreetChild(s1, s0, e0, TraverseMode.BICYCLE, 20 + 17, 2.0 * 100 / 5.0 + 11, 100, 0);
+        assertFalse(s1.isBackWalkingBike());
+
+        // The bike is walked slowly and painfully, without switching, as if still riding it.
+        RoutingRequest bikeWalking = options.bikeWalkingOptions;
+        State s2 = e1.traverse(s1);
+        assertStreetChild(s2, s1, e1, TraverseMode.WALK, (int) Math.ceil(50 / bikeWalking.walkSpeed),
+                bikeWalking.walkReluctance * 50 / bikeWalking.walkSpeed, 50, 0);
+        assertTrue(s2.isBackWalkingBike());
+        assertEquals(TraverseMode.BICYCLE, s2.getNonTransitMode());
+
+        // Riding again after walking the bike does not count as a switch.
+        State s3 = e2.traverse(s2);
+        assertStreetChild(s3, s2, e2, TraverseMode.BICYCLE, 16, 2.0 * 80 / 5.0, 80, 0);
+        assertFalse(s3.isBackWalkingBike());
+        assertTrue(s3.isBikeRenting());
+    }
+
+    /** Being dropped off: a car state entering a street closed to cars continues on foot with the car parked. */
+    @Test
+    public void testKissAndRideDepartAfter() {
+        StreetEdge e0 = edge(v0, v1, 100.0, StreetTraversalPermission.ALL);
+        StreetEdge e1 = edge(v1, v2, 50.0, StreetTraversalPermission.PEDESTRIAN);
+
+        RoutingRequest options = options(TraverseMode.CAR, false);
+        options.kissAndRide = true;
+        State s0 = new State(v0, options);
+        assertFalse(s0.isCarParked());
+
+        // Driving adds to the pre-transit time, but not to the walk distance.
+        State s1 = e0.traverse(s0);
+        assertStreetChild(s1, s0, e0, TraverseMode.CAR, 9, 2.0 * 100 / StreetEdge.DEFAULT_CAR_SPEED, 0, 9);
+        assertEquals(TraverseMode.CAR, s1.getNonTransitMode());
+        assertFalse(s1.isCarParked());
+
+        State s2 = e1.traverse(s1);
+        assertStreetChild(s2, s1, e1, TraverseMode.WALK, 39, 2.0 * 50 / 1.3, 50, 39);
+        assertTrue(s2.isCarParked());
+        assertEquals(TraverseMode.WALK, s2.getNonTransitMode());
+        assertNull(s2.getNextResult());
+
+        // The parent state is not changed by parking the car in its child.
+        assertFalse(s1.isCarParked());
+        assertEquals(TraverseMode.CAR, s1.getNonTransitMode());
+    }
+
+    /** Searching backward after transit, the walking state forks into a state where the car is unparked. */
+    @Test
+    public void testKissAndRideArriveBy() {
+        StreetEdge e1 = edge(v1, v2, 150.0, StreetTraversalPermission.ALL);
+
+        RoutingRequest options = options(TraverseMode.CAR, true);
+        options.kissAndRide = true;
+        StateEditor editor = new StateEditor(options, v2);
+        editor.setEverBoarded(true);
+        State s0 = editor.makeState();
+        assertTrue(s0.isCarParked());
+
+        // Both states start from a parked car, so neither adds to the pre-transit time.
+        State unparked = e1.traverse(s0);
+        assertStreetChild(unparked, s0, e1, TraverseMode.CAR, 14, 2.0 * 150 / StreetEdge.DEFAULT_CAR_SPEED, 0, 0);
+        assertFalse(unparked.isCarParked());
+        assertEquals(TraverseMode.CAR, unparked.getNonTransitMode());
+
+        State parked = unparked.getNextResult();
+        assertStreetChild(parked, s0, e1, TraverseMode.WALK, 116, 2.0 * 150 / 1.3, 150, 0);
+        assertTrue(parked.isCarParked());
+        assertEquals(TraverseMode.WALK, parked.getNonTransitMode());
+        assertNull(parked.getNextResult());
+
+        assertTrue(s0.isCarParked());
+        assertNull(s0.getNextResult());
+    }
+
+    @Test
+    public void testPreTransitLimit() {
+        StreetEdge e0 = edge(v0, v1, 1000.0, StreetTraversalPermission.ALL);
+
+        RoutingRequest options = options(TraverseMode.CAR, false);
+        options.parkAndRide = true;
+        options.maxPreTransitTime = 10;
+        options.softPreTransitLimiting = true;
+        // The soft limit adds the penalty and the overage rate for each second over the limit.
+        State s0 = new State(v0, options);
+        State s1 = e0.traverse(s0);
+        assertStreetChild(s1, s0, e0, TraverseMode.CAR, 90,
+                2.0 * 1000 / StreetEdge.DEFAULT_CAR_SPEED + 300 + 10 * (90 - 10), 0, 90);
+
+        options.softPreTransitLimiting = false;
+        assertNull(e0.traverse(new State(v0, options)));
+    }
+
+    @Test
+    public void testWalkLimit() {
+        StreetEdge e0 = edge(v0, v1, 1000.0, StreetTraversalPermission.ALL);
+
+        RoutingRequest options = options(TraverseMode.WALK, false);
+        options.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        options.maxWalkDistance = 500;
+        options.softWalkLimiting = true;
+        // The soft limit adds the penalty and the overage rate for each meter over the limit.
+        State s0 = new State(v0, options);
+        State s1 = e0.traverse(s0);
+        assertStreetChild(s1, s0, e0, TraverseMode.WALK, 770, 2.0 * 1000 / 1.3 + 60 + 5 * (1000 - 500), 1000, 0);
+
+        options.softWalkLimiting = false;
+        assertNull(e0.traverse(new State(v0, options)));
+    }
+
+    @Test
+    public void testNoThroughTraffic() {
+        StreetEdge e0 = edge(v0, v1, 100.0, StreetTraversalPermission.ALL);
+        StreetEdge e1 = edge(v1, v2, 100.0, StreetTraversalPermission.ALL);
+        StreetEdge e2 = edge(v2, v3, 100.0, StreetTraversalPermission.ALL);
+        e1.setNoThruTraffic(true);
+        e2.setNoThruTraffic(true);
+
+        RoutingRequest options = options(TraverseMode.CAR, false);
+        State s0 = new State(v0, options);
+        State s1 = e0.traverse(s0);
+        assertStreetChild(s1, s0, e0, TraverseMode.CAR, 9, 2.0 * 100 / StreetEdge.DEFAULT_CAR_SPEED, 0, 0);
+        State s2 = e1.traverse(s1);
+        assertStreetChild(s2, s1, e1, TraverseMode.CAR, 9, 2.0 * 100 / StreetEdge.DEFAULT_CAR_SPEED, 0, 0);
+        assertTrue(s2.hasEnteredNoThruTrafficArea());
+        assertFalse(s1.hasEnteredNoThruTrafficArea());
+        assertTrue(e2.traverse(s2).hasEnteredNoThruTrafficArea());
+
+        // A state entering the area at a vertex with a through street would dominate through traffic.
+        edge(v2, v0, 100.0, StreetTraversalPermission.ALL);
+        assertNull(e1.traverse(s1));
+    }
+
+    /**
+     * Check a state made by traversing the given edge from the given parent, given what the traversal should add to
+     * the time, weight, walk distance and pre-transit time of the parent.
+     */
+    private static void assertStreetChild(State child, State parent, StreetEdge edge, TraverseMode backMode,
+            int seconds, double weight, double walkDistance, int preTransitTime) {
+        assertNotNull(child);
+        boolean arriveBy = parent.getOptions().arriveBy;
+        assertSame(parent, child.getBackState());
+        assertSame(edge, child.getBackEdge());
+        assertSame(arriveBy ? edge.getFromVertex() : edge.getToVertex(), child.getVertex());
+        assertEquals(backMode, child.getBackMode());
+        assertEquals(parent.getTimeInMillis() + (arriveBy ? -seconds : seconds) * 1000L, child.getTimeInMillis());
+        assertEquals(parent.getWeight() + weight, child.getWeight(), DELTA);
+        assertEquals(parent.getWalkDistance() + walkDistance, child.getWalkDistance(), DELTA);
+        assertEquals(parent.getPreTransitTime() + preTransitTime, child.getPreTransitTime());
+        assertEquals(parent.isBikeRenting(), child.isBikeRenting());
+        assertEquals(parent.isEverBoarded(), child.isEverBoarded());
+    }
+
+    private RoutingRequest options(TraverseMode mode, boolean arriveBy) {
+        RoutingRequest options = proto.clone();
+        options.setMode(mode);
+        options.setArriveBy(arriveBy);
+        options.setRoutingContext(graph, v0, v3);
+        return options;
+    }
+
+    private StreetEdge edge(StreetVertex vA, StreetVertex vB, double length, StreetTraversalPermission perm) {
+        Coordinate[] coords = new Coordinate[] { vA.getCoordinate(), vB.getCoordinate() };
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        return new StreetEdge(vA, vB, geom, vA.getLabel() + "_" + vB.getLabel(), length, perm, false);
+    }
+
+}
@@ -0,0 +1,237 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.index.model.StopTimesInPattern;
+import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+/**
+ * Timetable.getNextDepartures and GraphIndex.stopTimesForStop find departures by binary search in the TripTimesIndex
+ * of large timetables. Check that they find the same departures as a scan of all the trips, for scheduled and realtime
+ * updated timetables, and for trips of the previous service day that depart after midnight.
+ */
+public class TimetableDeparturesTest {
+
+    /** The smallest timetable that is indexed. */
+    private static final int MIN_INDEXED_TRIPS = 16;
+
+    private static final int[] MAX_DEPARTURES = {1, 3, 100};
+
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/Los_Angeles");
+
+    /** A Wednesday, when the weekday trains run after midnight. */
+    private static final ServiceDate WEDNESDAY = new ServiceDate(2010, 1, 13);
+
+    private static Graph graph;
+
+    private static String agencyId;
+
+    @BeforeClass
+    public static void setUp() {
+        graph = ConstantsForTests.buildGraph(ConstantsForTests.CALTRAIN_GTFS);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        agencyId = graph.index.patternForId.values().iterator().next().route.getAgency().getId();
+    }
+
+    @Test
+    public void testScheduledDepartures() {
+        int indexed = 0;
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            if (pattern.scheduledTimetable.tripTimes.size() >= MIN_INDEXED_TRIPS) indexed++;
+            for (ServiceDate serviceDate : new ServiceDate[] {WEDNESDAY, new ServiceDate(2010, 1, 16)}) {
+                assertSameDepartures(pattern.scheduledTimetable, serviceDay(serviceDate));
+            }
+        }
+        assertTrue(indexed > 0);
+    }
+
+    @Test
+    public void testRealtimeDepartures() {
+        TimetableSnapshot snapshot = delayedSnapshot();
+        int updated = 0;
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            for (ServiceDate serviceDate : new ServiceDate[] {WEDNESDAY.previous(), WEDNESDAY}) {
+                Timetable timetable = snapshot.resolve(pattern, serviceDate);
+                if (timetable != pattern.scheduledTimetable) updated++;
+                assertSameDepartures(timetable, serviceDay(serviceDate));
+            }
+        }
+        assertTrue(updated > 0);
+    }
+
+    @Test
+    public void testStopTimesForStop() {
+        long midnight = WEDNESDAY.getAsDate(TIME_ZONE).getTime() / 1000;
+        TimetableSnapshot snapshot = delayedSnapshot();
+        int afterMidnight = 0;
+        for (Stop stop : graph.index.stopForId.values()) {
+            for (int time : new int[] {15 * 60, 6 * 3600, 17 * 3600 + 600, 23 * 3600 + 50 * 60}) {
+                for (int n : MAX_DEPARTURES) {
+                    assertSameStopTimes(stop, midnight + time, n, null);
+                    assertSameStopTimes(stop, midnight + time, n, snapshot);
+                }
+            }
+            // Late trains of the previous day are found after midnight.
+            for (StopTimesInPattern stopTimes : graph.index.stopTimesForStop(stop, midnight + 60, 7200, 100, null)) {
+                for (TripTimeShort t : stopTimes.times) {
+                    if (t.serviceDay < midnight) afterMidnight++;
+                }
+            }
+        }
+        assertTrue(afterMidnight > 0);
+    }
+
+    /**
+     * Check getNextDepartures against a scan of the timetable at every stop of the pattern, for times over the
+     * whole service day and past its end.
+     */
+    private static void assertSameDepartures(Timetable timetable, ServiceDay serviceDay) {
+        for (int stopIndex = 0; stopIndex < timetable.pattern.getStops().size(); stopIndex++) {
+            for (int time = 0; time < 28 * 3600; time += 1237) {
+                for (int n : MAX_DEPARTURES) {
+                    List<TripTimes> expected = scanDepartures(timetable, serviceDay, stopIndex, time, n);
+                    List<TripTimes> actual = timetable.getNextDepartures(serviceDay, stopIndex, time, n);
+                    assertEquals(departureTimes(expected, stopIndex), departureTimes(actual, stopIndex));
+                    if (expected.size() < n) {
+                        // All the departures are returned, so trips that depart at the same time can't differ.
+                        assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<TripTimes> scanDepartures(Timetable timetable, ServiceDay serviceDay, int stopIndex, int time,
+            int n) {
+        List<TripTimes> departures = new ArrayList<>();
+        for (TripTimes tt : timetable.tripTimes) {
+            int departureTime = tt.getDepartureTime(stopIndex);
+            if (departureTime != -1 && departureTime >= time && serviceDay.serviceRunning(tt.serviceCode)) {
+                departures.add(tt);
+            }
+        }
+        departures.sort((tt1, tt2) -> tt1.getDepartureTime(stopIndex) - tt2.getDepartureTime(stopIndex));
+        return departures.size() > n ? departures.subList(0, n) : departures;
+    }
+
+    private static List<Integer> departureTimes(List<TripTimes> departures, int stopIndex) {
+        List<Integer> times = new ArrayList<>();
+        for (TripTimes tt : departures) times.add(tt.getDepartureTime(stopIndex));
+        return times;
+    }
+
+    /**
+     * Check stopTimesForStop against a scan of the timetables of every pattern at the stop, on the service days
+     * before, of and after the start time.
+     */
+    private static void assertSameStopTimes(Stop stop, long startTime, int n, TimetableSnapshot snapshot) {
+        int timeRange = 24 * 3600;
+        Map<String, List<Long>> actual = new HashMap<>();
+        Map<String, Set<String>> actualTrips = new HashMap<>();
+        for (StopTimesInPattern stopTimes : graph.index.stopTimesForStop(stop, startTime, timeRange, n, snapshot)) {
+            List<Long> times = new ArrayList<>();
+            Set<String> trips = new HashSet<>();
+            for (TripTimeShort t : stopTimes.times) {
+                times.add(t.serviceDay + t.realtimeDeparture);
+                trips.add(t.tripId + "@" + t.serviceDay);
+            }
+            actual.put(stopTimes.pattern.id, times);
+            actualTrips.put(stopTimes.pattern.id, trips);
+        }
+
+        ServiceDate startDate = new ServiceDate(new Date(startTime * 1000));
+        Map<String, List<Long>> expected = new HashMap<>();
+        for (TripPattern pattern : graph.index.patternsForStop.get(stop)) {
+            List<Long> times = new ArrayList<>();
+            Set<String> trips = new HashSet<>();
+            for (ServiceDate serviceDate : new ServiceDate[] {startDate.previous(), startDate, startDate.next()}) {
+                ServiceDay serviceDay = serviceDay(serviceDate);
+                Timetable timetable = snapshot == null ?
+                        pattern.scheduledTimetable : snapshot.resolve(pattern, serviceDate);
+                if ( ! timetable.temporallyViable(serviceDay, startTime, timeRange, true)) continue;
+                for (int stopIndex = 0; stopIndex < pattern.getStops().size(); stopIndex++) {
+                    if (pattern.getStop(stopIndex) != stop) continue;
+                    for (TripTimes tt : scanDepartures(timetable, serviceDay, stopIndex,
+                            serviceDay.secondsSinceMidnight(startTime), Integer.MAX_VALUE)) {
+                        times.add(serviceDay.time(tt.getDepartureTime(stopIndex)));
+                        trips.add(tt.trip.getId() + "@" + serviceDay.time(0));
+                    }
+                }
+            }
+            if (times.isEmpty()) continue;
+            Collections.sort(times);
+            if (times.size() > n) {
+                times = times.subList(0, n);
+            } else {
+                assertEquals(trips, actualTrips.get(pattern.code));
+            }
+            expected.put(pattern.code, times);
+        }
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Delay trips of every pattern on the day before and the day of the Wednesday, by different amounts so that
+     * their order changes and some of the late trains are pushed further past midnight.
+     */
+    private static TimetableSnapshot delayedSnapshot() {
+        String feedId = graph.getFeedIds().iterator().next();
+        TimetableSnapshot snapshot = new TimetableSnapshot();
+        int[] delays = {0, 2 * 3600, -300, 45 * 60};
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            for (ServiceDate serviceDate : new ServiceDate[] {WEDNESDAY.previous(), WEDNESDAY}) {
+                List<TripTimes> scheduled = pattern.scheduledTimetable.tripTimes;
+                for (int i = 0; i < scheduled.size(); i++) {
+                    int delay = delays[i % delays.length];
+                    if (delay == 0) continue;
+                    TripTimes updated = new TripTimes(scheduled.get(i));
+                    for (int stop = 0; stop < updated.getNumStops(); stop++) {
+                        updated.updateArrivalDelay(stop, delay);
+                        updated.updateDepartureDelay(stop, delay);
+                    }
+                    assertTrue(snapshot.update(feedId, pattern, updated, serviceDate));
+                }
+            }
+        }
+        // The indexes of the updated timetables were updated incrementally, and are kept when they are committed.
+        return snapshot.commit();
+    }
+
+    private static ServiceDay serviceDay(ServiceDate serviceDate) {
+        return new ServiceDay(graph, serviceDate, graph.getCalendarService(), agencyId);
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.opentripplanner.routing.graph;
 
 import graphql.ExecutionResult;
+import graphql.schema.GraphQLSchema;
 import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Route;
@@ -8,6 +9,8 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.GtfsTest;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.index.GraphQLQueryLimits;
+import org.opentripplanner.index.IndexGraphQLSchema;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
@@ -15,6 +18,8 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 
+import javax.ws.rs.core.Response;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -131,6 +136,40 @@ public class GraphIndexTest extends GtfsTest {
 
     }
 
+    public void testGraphQLQueryLimits() {
+        GraphQLQueryLimits limits = new GraphQLQueryLimits(3, 5);
+        assertNull(limits.check("{ viewer { agency(id: \"agency\") { name } } }"));
+        assertNotNull(limits.check("{ viewer { agency(id: \"agency\") { routes { shortName } } } }"));
+        // Fields are counted wherever their fragment is spread
+        assertNotNull(limits.check("{ viewer { a: agency(id: \"agency\") { ...names } b: agency(id: \"agency\") " +
+                "{ ...names } } } fragment names on Agency { name url }"));
+        // Syntax errors are left for the execution to report
+        assertNull(limits.check("{ viewer { "));
+
+        graph.index.graphQLQueryLimits = limits;
+        Response response = graph.index.getGraphQLResponse(
+                "{ viewer { agency(id: \"agency\") { routes { shortName } } } }", new HashMap<>());
+        assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+    }
+
+    /** Fields nested in lists are counted once for each element expected in the lists. */
+    public void testGraphQLQueryLimitsListFanOut() {
+        GraphQLSchema schema = new IndexGraphQLSchema(graph.index).indexSchema;
+        GraphQLQueryLimits limits = new GraphQLQueryLimits(schema, 15, 1000, 10);
+        String nested = "{ stops { patterns { trips { stoptimes { scheduledArrival } } } } }";
+        // The query has five fields, but would return about 11111.
+        assertNull(new GraphQLQueryLimits(15, 1000).check(nested));
+        assertNotNull(limits.check(nested));
+        assertNull(limits.check("{ stops { patterns { trips { gtfsId } } } }"));
+        // Single objects do not multiply the fields within them.
+        assertNull(limits.check("{ viewer { agency(id: \"agency\") { name url timezone lang phone } } }"));
+        // The types of fragments are known from their type conditions.
+        assertNotNull(limits.check("{ stops { ...patterns } } " +
+                "fragment patterns on Stop { patterns { trips { stoptimes { scheduledArrival } } } }"));
+        assertNotNull(limits.check(
+                "{ stops { patterns { ... on Pattern { trips { stoptimes { scheduledArrival } } } } } }"));
+    }
+
     public void testGraphQLIntrospectionQuery() {
         String query = "  query IntrospectionQuery {\n"
             + "    __schema {\n"
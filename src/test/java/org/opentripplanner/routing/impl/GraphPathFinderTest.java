@@ -0,0 +1,89 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import org.junit.Test;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.standalone.RoutingExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GraphPathFinderTest {
+
+    /**
+     * The concurrent searches for alternatives share the routing context and the heuristic of the main request. They
+     * must find the same paths as the same searches run one after the other.
+     */
+    @Test
+    public void testParallelAlternativesMatchSerial() throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addPerpendicularRoutes(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        RoutingRequest options = new RoutingRequest("TRANSIT,WALK");
+        options.setDateTime("2016-04-20", "13:00", graph.getTimeZone());
+        options.from = new GenericLocation(39.9308, -83.0118);
+        options.to = new GenericLocation(39.9998, -83.0198);
+        options.dominanceFunction = new DominanceFunction.MinimumWeight();
+        options.transitLowerBoundTable = true;
+        options.longDistance = true;
+        options.maxWalkDistance = 2000;
+        options.setRoutingContext(graph);
+        options.rctx.remainingWeightHeuristic = new InterleavedBidirectionalHeuristic();
+        RoutingExecutor routingExecutor = new RoutingExecutor(4, 10, 60, 60);
+        try {
+            AStar aStar = new AStar();
+            aStar.getShortestPathTree(options, 60).release();
+            List<GraphPath> paths = aStar.getPathsToTarget();
+            assertFalse(paths.isEmpty());
+            GraphPath first = paths.get(0);
+            assertFalse(first.getTrips().isEmpty());
+
+            // Repeat the requests so that several searches always run at once.
+            List<RoutingRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                requests.addAll(GraphPathFinder.alternativeRequests(options, first));
+            }
+            List<GraphPath> serial = GraphPathFinder.findAlternatives(requests,
+                    Collections.singletonList(first), 60, null);
+            assertFalse(serial.isEmpty());
+            for (int i = 0; i < 3; i++) {
+                List<GraphPath> parallel = GraphPathFinder.findAlternatives(requests,
+                        Collections.singletonList(first), 60, routingExecutor);
+                assertEquals(serial.size(), parallel.size());
+                for (int p = 0; p < serial.size(); p++) {
+                    assertEquals(serial.get(p).getTrips(), parallel.get(p).getTrips());
+                    assertEquals(serial.get(p).getWeight(), parallel.get(p).getWeight(), 0.0);
+                    assertEquals(serial.get(p).getStartTime(), parallel.get(p).getStartTime());
+                    assertEquals(serial.get(p).getEndTime(), parallel.get(p).getEndTime());
+                }
+            }
+        } finally {
+            routingExecutor.shutdown();
+            options.rctx.destroy();
+        }
+    }
+}
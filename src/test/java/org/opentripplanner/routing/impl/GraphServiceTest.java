@@ -19,19 +19,25 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.file.Files;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
 import junit.framework.TestCase;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.error.GraphNotFoundException;
+import org.opentripplanner.routing.graph.BinaryGraphFormat;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.MappedEdgeData;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
@@ -204,6 +210,110 @@ public class GraphServiceTest extends TestCase {
         assertEquals(0, graphService.getRouterIds().size());
     }
 
+    @Test
+    public final void testGraphServiceBinaryFormat() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryGraphFormat.write(smallGraph, baos);
+        byte[] binaryGraphData = baos.toByteArray();
+
+        GraphService graphService = new GraphService();
+        InputStreamGraphSource.FileFactory graphSourceFactory = new InputStreamGraphSource.FileFactory(basePath);
+        graphSourceFactory.save("A", new ByteArrayInputStream(binaryGraphData));
+        boolean registered = graphService.registerGraph("A",
+                graphSourceFactory.createGraphSource("A"));
+        assertTrue(registered);
+
+        // The binary graph is recognized by its header and loads the same vertices and edges.
+        Graph graph = graphService.getRouter("A").graph;
+        assertEquals(smallGraph.getVertices().size(), graph.getVertices().size());
+        assertEquals(smallGraph.getEdges().size(), graph.getEdges().size());
+        assertNotNull(graph.getVertex("v1"));
+        assertEquals(1, graph.getVertex("v1").getDegreeOut());
+        assertEquals(1, graph.getVertex("v2").getDegreeIn());
+    }
+
+    @Test
+    public final void testGraphServiceMappedEdgeData() throws IOException {
+        Graph graph = new Graph();
+        StreetVertex v1 = new IntersectionVertex(graph, "v1", 0, 0);
+        StreetVertex v2 = new IntersectionVertex(graph, "v2", 0, 0.1);
+        LineString geometry = GeometryUtils.makeLineString(0, 0, 0.05, 0.01, 0, 0.1);
+        new StreetEdge(v1, v2, geometry, "v1v2", 11000, StreetTraversalPermission.PEDESTRIAN, false);
+        File directory = new File(basePath, "A");
+        directory.mkdirs();
+        BinaryGraphFormat.write(graph, new File(directory, InputStreamGraphSource.GRAPH_FILENAME), true);
+        assertTrue(new File(directory, MappedEdgeData.FILENAME).canRead());
+
+        GraphService graphService = new GraphService();
+        InputStreamGraphSource.FileFactory graphSourceFactory = new InputStreamGraphSource.FileFactory(basePath);
+        assertTrue(graphService.registerGraph("A", graphSourceFactory.createGraphSource("A")));
+
+        // The envelope used by the spatial index is stored in the mapped file, and found in the index.
+        Graph loaded = graphService.getRouter("A").graph;
+        StreetEdge edge = (StreetEdge) loaded.getVertex("v1").getOutgoing().iterator().next();
+        Envelope envelope = edge.getEnvelope();
+        assertEquals(0, envelope.getMinX(), 1e-6);
+        assertEquals(0.05, envelope.getMaxX(), 1e-6);
+        assertEquals(0, envelope.getMinY(), 1e-6);
+        assertEquals(0.1, envelope.getMaxY(), 1e-6);
+        assertTrue(loaded.streetIndex.getEdgesForEnvelope(new Envelope(0.04, 0.05, 0, 0.02)).contains(edge));
+
+        // The intermediate point of the geometry is read from the mapped file.
+        assertEquals(3, edge.getGeometry().getNumPoints());
+        assertEquals(0.05, edge.getGeometry().getCoordinateN(1).x, 1e-6);
+    }
+
+    @Test
+    public final void testLoadBinaryGraphFile() throws Exception {
+        Graph graph = new Graph();
+        StreetVertex v1 = new IntersectionVertex(graph, "v1", 0, 0);
+        StreetVertex v2 = new IntersectionVertex(graph, "v2", 0, 0.1);
+        LineString geometry = GeometryUtils.makeLineString(0, 0, 0.05, 0.01, 0, 0.1);
+        new StreetEdge(v1, v2, geometry, "v1v2", 11000, StreetTraversalPermission.PEDESTRIAN, false);
+        File graphFile = new File(basePath, InputStreamGraphSource.GRAPH_FILENAME);
+        BinaryGraphFormat.write(graph, graphFile, true);
+
+        // Both file entry points recognize the binary format and map the edge data saved alongside the graph.
+        Graph[] loaded = new Graph[] {
+            Graph.load(graphFile, Graph.LoadLevel.FULL),
+            Graph.load(getClass().getClassLoader(), graphFile, Graph.LoadLevel.FULL)
+        };
+        for (Graph loadedGraph : loaded) {
+            assertEquals(2, loadedGraph.getVertices().size());
+            StreetEdge edge = (StreetEdge) loadedGraph.getVertex("v1").getOutgoing().iterator().next();
+            assertEquals(3, edge.getGeometry().getNumPoints());
+            assertEquals(0.05, edge.getGeometry().getCoordinateN(1).x, 1e-6);
+        }
+    }
+
+    @Test
+    public final void testMismatchedEdgeData() throws Exception {
+        Graph graph = new Graph();
+        StreetVertex v1 = new IntersectionVertex(graph, "v1", 0, 0);
+        StreetVertex v2 = new IntersectionVertex(graph, "v2", 0, 0.1);
+        LineString geometry = GeometryUtils.makeLineString(0, 0, 0.05, 0.01, 0, 0.1);
+        new StreetEdge(v1, v2, geometry, "v1v2", 11000, StreetTraversalPermission.PEDESTRIAN, false);
+        File graphFile = new File(basePath, InputStreamGraphSource.GRAPH_FILENAME);
+        File edgeDataFile = new File(basePath, MappedEdgeData.FILENAME);
+        BinaryGraphFormat.write(graph, graphFile, true);
+        byte[] firstEdgeData = Files.readAllBytes(edgeDataFile.toPath());
+
+        // Writing the graph again gives it a new build id. No temporary files are left behind.
+        BinaryGraphFormat.write(graph, graphFile, true);
+        assertFalse(new File(graphFile.getPath() + ".tmp").exists());
+        assertFalse(new File(edgeDataFile.getPath() + ".tmp").exists());
+        assertEquals(2, Graph.load(graphFile, Graph.LoadLevel.FULL).getVertices().size());
+
+        // The edge data of the first build is not mapped with the graph of the second one.
+        Files.write(edgeDataFile.toPath(), firstEdgeData);
+        try {
+            Graph.load(graphFile, Graph.LoadLevel.FULL);
+            fail("Loaded a graph with the edge data file of another build.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(MappedEdgeData.FILENAME));
+        }
+    }
+
     @Test
     public final void testGraphServiceAutoscan() throws IOException {
 
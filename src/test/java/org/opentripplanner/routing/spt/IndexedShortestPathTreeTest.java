@@ -0,0 +1,52 @@
+package org.opentripplanner.routing.spt;
+
+import junit.framework.TestCase;
+import org.opentripplanner.routing.core.RoutingRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class IndexedShortestPathTreeTest extends TestCase {
+
+    /** Releasing many trees, e.g. from many threads, must not keep more than a bounded number of arrays alive. */
+    public void testPoolIsBounded() {
+        RoutingRequest options = new RoutingRequest();
+        DominanceFunction dominanceFunction = new DominanceFunction.MinimumWeight();
+        List<IndexedShortestPathTree> trees = new ArrayList<>();
+        for (int i = 0; i < IndexedShortestPathTree.getMaxPooled() + 5; i++) {
+            trees.add(new IndexedShortestPathTree(options, dominanceFunction));
+        }
+        for (IndexedShortestPathTree tree : trees) {
+            tree.release();
+        }
+        assertTrue(IndexedShortestPathTree.pooledCount() <= IndexedShortestPathTree.getMaxPooled());
+
+        // Released arrays are reused rather than piling up.
+        for (int i = 0; i < 10; i++) {
+            new IndexedShortestPathTree(options, dominanceFunction).release();
+        }
+        assertTrue(IndexedShortestPathTree.pooledCount() <= IndexedShortestPathTree.getMaxPooled());
+    }
+
+    /** Lowering the size of the pool drops the arrays beyond it. */
+    public void testSetMaxPooled() {
+        RoutingRequest options = new RoutingRequest();
+        DominanceFunction dominanceFunction = new DominanceFunction.MinimumWeight();
+        try {
+            IndexedShortestPathTree.setMaxPooled(4);
+            List<IndexedShortestPathTree> trees = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                trees.add(new IndexedShortestPathTree(options, dominanceFunction));
+            }
+            for (IndexedShortestPathTree tree : trees) {
+                tree.release();
+            }
+            assertEquals(4, IndexedShortestPathTree.pooledCount());
+            IndexedShortestPathTree.setMaxPooled(1);
+            assertEquals(1, IndexedShortestPathTree.pooledCount());
+        } finally {
+            IndexedShortestPathTree.setMaxPooled(IndexedShortestPathTree.DEFAULT_MAX_POOLED);
+        }
+    }
+
+}
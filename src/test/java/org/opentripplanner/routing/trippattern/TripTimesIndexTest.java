@@ -0,0 +1,100 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.trippattern;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+public class TripTimesIndexTest {
+
+    private static final int N_STOPS = 3;
+
+    private final Deduplicator deduplicator = new Deduplicator();
+
+    /** Make a trip departing the first stop at the given time, with the given running time between stops. */
+    private TripTimes makeTripTimes(String id, int departure, int runningTime) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", id));
+        List<StopTime> stopTimes = new ArrayList<StopTime>();
+        for (int s = 0; s < N_STOPS; s++) {
+            StopTime stopTime = new StopTime();
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", "S" + s));
+            stopTime.setStop(stop);
+            stopTime.setArrivalTime(departure + s * runningTime);
+            stopTime.setDepartureTime(departure + s * runningTime);
+            stopTime.setStopSequence(s);
+            stopTimes.add(stopTime);
+        }
+        return new TripTimes(trip, stopTimes, deduplicator);
+    }
+
+    @Test
+    public void testOvertakingTrips() {
+        List<TripTimes> trips = new ArrayList<TripTimes>();
+        trips.add(makeTripTimes("slow", 1000, 600));
+        trips.add(makeTripTimes("fast", 1300, 100));
+        TripTimesIndex index = new TripTimesIndex(trips, N_STOPS);
+
+        // At the first stop the slow trip comes first, at the last stop the fast trip has overtaken it.
+        assertEquals(0, index.getDepartureTrip(0, index.firstDepartureAtOrAfter(0, 900)));
+        assertEquals(1, index.getDepartureTrip(2, index.firstDepartureAtOrAfter(2, 900)));
+        assertEquals(1500, index.getDepartureTime(2, index.firstDepartureAtOrAfter(2, 900)));
+        assertEquals(2, index.firstDepartureAtOrAfter(2, 2201));
+        assertEquals(0, index.getArrivalTrip(2, index.lastArrivalAtOrBefore(2, 2200)));
+        assertEquals(-1, index.lastArrivalAtOrBefore(2, 1499));
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        List<TripTimes> trips = new ArrayList<TripTimes>();
+        for (int i = 0; i < 10; i++) {
+            trips.add(makeTripTimes("t" + i, 1000 + 300 * i, 120));
+        }
+        TripTimesIndex index = new TripTimesIndex(trips, N_STOPS);
+
+        // Delay the first trip so it runs after all the others, then add a trip at the very beginning.
+        TripTimes delayed = new TripTimes(trips.get(0));
+        for (int s = 0; s < N_STOPS; s++) {
+            delayed.updateArrivalDelay(s, 3600);
+            delayed.updateDepartureDelay(s, 3600);
+        }
+        index.replace(0, trips.set(0, delayed), delayed);
+        TripTimes added = makeTripTimes("added", 500, 120);
+        trips.add(added);
+        index.add(added);
+
+        TripTimesIndex rebuilt = new TripTimesIndex(trips, N_STOPS);
+        assertEquals(rebuilt.size(), index.size());
+        for (int s = 0; s < N_STOPS; s++) {
+            for (int i = 0; i < index.size(); i++) {
+                assertEquals(rebuilt.getDepartureTime(s, i), index.getDepartureTime(s, i));
+                assertEquals(rebuilt.getDepartureTrip(s, i), index.getDepartureTrip(s, i));
+                assertEquals(rebuilt.getArrivalTime(s, i), index.getArrivalTime(s, i));
+                assertEquals(rebuilt.getArrivalTrip(s, i), index.getArrivalTrip(s, i));
+            }
+        }
+        assertEquals(10, index.getDepartureTrip(0, 0));
+        assertEquals(0, index.getDepartureTrip(0, index.size() - 1));
+    }
+
+}
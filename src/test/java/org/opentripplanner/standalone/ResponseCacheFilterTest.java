@@ -0,0 +1,289 @@
+package org.opentripplanner.standalone;
+
+import com.google.common.base.Charsets;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.index.IndexAPI;
+import org.opentripplanner.index.IndexGraphQLSchema;
+import org.opentripplanner.routing.error.GraphNotFoundException;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResponseCacheFilterTest {
+
+    private static final String INDEX = "/otp/routers/default/index";
+
+    private static final String STATIC_QUERY = "{stop(id: \"F:X\") {name}}";
+
+    private Graph graph;
+
+    private OTPServer otpServer;
+
+    private ResponseCacheFilter filter;
+
+    private TimetableSnapshotSource snapshotSource;
+
+    /** The number of requests that reached the resource method, because the filter did not answer them. */
+    private int resourceCalls;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+        graph.index(new DefaultStreetVertexIndexFactory());
+        snapshotSource = mock(TimetableSnapshotSource.class);
+        when(snapshotSource.getSnapshotGeneration()).thenReturn(1L);
+        graph.timetableSnapshotSource = snapshotSource;
+        otpServer = mock(OTPServer.class);
+        when(otpServer.getRouter("default")).thenReturn(new Router("default", graph));
+        when(otpServer.getRouter("missing")).thenThrow(new GraphNotFoundException());
+        filter = new ResponseCacheFilter(otpServer, 1);
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        Method getFeeds = IndexAPI.class.getMethod("getFeeds");
+        Result first = get(getFeeds, INDEX + "/feeds", null);
+        assertEquals(200, first.status);
+        assertEquals(1, resourceCalls);
+        assertNotNull(first.etag);
+
+        // A client that has the current version of the response gets a 304, also if it sends a weak or a list of tags.
+        for (String ifNoneMatch : new String[] {'"' + first.etag + '"', "W/\"" + first.etag + '"',
+                "\"other\", \"" + first.etag + '"', "*"}) {
+            Result revalidated = get(getFeeds, INDEX + "/feeds", ifNoneMatch);
+            assertEquals(304, revalidated.status);
+            assertEquals(first.etag, revalidated.etag);
+            assertNull(revalidated.body);
+        }
+
+        // A client with another version gets the cached response, without the resource being called again.
+        Result cached = get(getFeeds, INDEX + "/feeds", "\"other\"");
+        assertEquals(200, cached.status);
+        assertEquals(first.etag, cached.etag);
+        assertEquals(first.body, cached.body);
+        assertEquals(1, resourceCalls);
+
+        // Other requests have other tags.
+        Result other = get(getFeeds, INDEX + "/feeds?x=1", null);
+        assertEquals(2, resourceCalls);
+        assertNotEquals(first.etag, other.etag);
+    }
+
+    @Test
+    public void testUncachedRequests() throws Exception {
+        // Resource methods without the annotation, such as departures from now on, are not tagged or cached.
+        Method stoptimes = IndexAPI.class.getMethod("getStoptimesForStop", String.class, long.class, int.class,
+                int.class);
+        Result first = get(stoptimes, INDEX + "/stops/F:X/stoptimes", null);
+        assertNull(first.etag);
+        get(stoptimes, INDEX + "/stops/F:X/stoptimes", "*");
+        assertEquals(2, resourceCalls);
+
+        // Nor are the responses for a missing router, which the resource reports.
+        Method getFeeds = IndexAPI.class.getMethod("getFeeds");
+        assertNull(get(getFeeds, "/otp/routers/missing/index/feeds", null).etag);
+        get(getFeeds, "/otp/routers/missing/index/feeds", null);
+        assertEquals(4, resourceCalls);
+
+        // Nor are errors.
+        Result error = send(getFeeds, HttpMethod.GET, INDEX + "/feeds", null, null,
+                Response.status(Response.Status.NOT_FOUND).entity("not found").build());
+        assertEquals(404, error.status);
+        assertNull(error.etag);
+        get(getFeeds, INDEX + "/feeds", null);
+        assertEquals(6, resourceCalls);
+    }
+
+    /** The tag of responses including realtime data changes when a new TimetableSnapshot is committed. */
+    @Test
+    public void testSnapshotGenerationChange() throws Exception {
+        Method stoptimes = IndexAPI.class.getMethod("getStoptimesForStopAndDate", String.class, String.class);
+        Method getFeeds = IndexAPI.class.getMethod("getFeeds");
+        String uri = INDEX + "/stops/F:X/stoptimes/20160420";
+        Result realtime = get(stoptimes, uri, null);
+        Result scheduled = get(getFeeds, INDEX + "/feeds", null);
+        assertEquals(2, resourceCalls);
+        // Pending realtime updates are committed before the generation is read.
+        verify(snapshotSource, atLeastOnce()).getTimetableSnapshot();
+        assertEquals(304, get(stoptimes, uri, '"' + realtime.etag + '"').status);
+
+        when(snapshotSource.getSnapshotGeneration()).thenReturn(2L);
+        Result updated = get(stoptimes, uri, '"' + realtime.etag + '"');
+        assertEquals(200, updated.status);
+        assertEquals(3, resourceCalls);
+        assertNotEquals(realtime.etag, updated.etag);
+        assertEquals(200, get(stoptimes, uri, null).status);
+        assertEquals(3, resourceCalls);
+
+        // Responses without realtime data stay valid.
+        assertEquals(304, get(getFeeds, INDEX + "/feeds", '"' + scheduled.etag + '"').status);
+        assertEquals(3, resourceCalls);
+    }
+
+    /** GraphQL queries are cached by their body, except those with fields that depend on the current time. */
+    @Test
+    public void testGraphQLQueries() throws Exception {
+        Result first = graphQL(STATIC_QUERY);
+        assertEquals(200, first.status);
+        assertNotNull(first.etag);
+        assertEquals(first.body, graphQL(STATIC_QUERY).body);
+        assertEquals(1, resourceCalls);
+        assertNotEquals(first.etag, graphQL("{stop(id: \"F:Y\") {name}}").etag);
+        assertEquals(2, resourceCalls);
+
+        Map<String, String> timeDependentQueries = new HashMap<>();
+        timeDependentQueries.put("stoptimesForPatterns",
+                "{stop(id: \"F:X\") {stoptimesForPatterns {stoptimes {scheduledDeparture}}}}");
+        timeDependentQueries.put("stoptimesWithoutPatterns",
+                "{stop(id: \"F:X\") {stoptimesWithoutPatterns {scheduledDeparture}}}");
+        assertEquals(timeDependentQueries.keySet(), new HashSet<>(IndexGraphQLSchema.TIME_DEPENDENT_FIELDS));
+        for (String query : timeDependentQueries.values()) {
+            int calls = resourceCalls;
+            Result result = graphQL(query);
+            assertEquals(200, result.status);
+            assertNull(result.etag);
+            assertEquals(result.body, graphQL(query).body);
+            assertEquals(calls + 2, resourceCalls);
+        }
+    }
+
+    private Result graphQL(String query) throws Exception {
+        Method getGraphQL = IndexAPI.class.getMethod("getGraphQL", String.class);
+        Response response = new IndexAPI(otpServer, "default").getGraphQL(query);
+        return send(getGraphQL, HttpMethod.POST, INDEX + "/graphql", query, null, response);
+    }
+
+    private Result get(Method resourceMethod, String uri, String ifNoneMatch) throws Exception {
+        return send(resourceMethod, HttpMethod.GET, uri, null, ifNoneMatch, Response.ok("response to " + uri).build());
+    }
+
+    /** The status, ETag and body of a response, as received by the client. */
+    private static class Result {
+        int status;
+        String etag;
+        String body;
+    }
+
+    /**
+     * Send a request through the filter, which either answers it or lets the resource method answer it with the given
+     * response, which is then serialized through the filter.
+     */
+    private Result send(Method resourceMethod, String httpMethod, String uri, String body, String ifNoneMatch,
+            Response resourceResponse) throws Exception {
+        ResourceInfo resourceInfo = mock(ResourceInfo.class);
+        when(resourceInfo.getResourceMethod()).thenReturn(resourceMethod);
+        filter.resourceInfo = resourceInfo;
+
+        URI requestUri = URI.create("http://localhost:8080" + uri);
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getRequestUri()).thenReturn(requestUri);
+        MultivaluedMap<String, String> pathParameters = new MultivaluedHashMap<>();
+        pathParameters.putSingle("routerId", uri.split("/")[3]);
+        when(uriInfo.getPathParameters()).thenReturn(pathParameters);
+
+        Map<String, Object> properties = new HashMap<>();
+        Response[] aborted = new Response[1];
+        InputStream[] entityStream = {new ByteArrayInputStream(body == null ? new byte[0] : body.getBytes(Charsets.UTF_8))};
+        ContainerRequestContext request = mock(ContainerRequestContext.class);
+        when(request.getUriInfo()).thenReturn(uriInfo);
+        when(request.getMethod()).thenReturn(httpMethod);
+        when(request.getMediaType()).thenReturn(body == null ? null : new MediaType("application", "graphql"));
+        when(request.getHeaderString(HttpHeaders.IF_NONE_MATCH)).thenReturn(ifNoneMatch);
+        when(request.getEntityStream()).thenAnswer(invocation -> entityStream[0]);
+        doAnswer(invocation -> entityStream[0] = (InputStream) invocation.getArguments()[0])
+                .when(request).setEntityStream(any(InputStream.class));
+        when(request.getProperty(anyString())).thenAnswer(invocation -> properties.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> properties.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+                .when(request).setProperty(anyString(), any());
+        doAnswer(invocation -> properties.remove(invocation.getArguments()[0]))
+                .when(request).removeProperty(anyString());
+        doAnswer(invocation -> aborted[0] = (Response) invocation.getArguments()[0])
+                .when(request).abortWith(any(Response.class));
+
+        filter.filter(request);
+        Result result = new Result();
+        if (aborted[0] != null) {
+            result.status = aborted[0].getStatus();
+            result.etag = aborted[0].getEntityTag() == null ? null : aborted[0].getEntityTag().getValue();
+            result.body = aborted[0].hasEntity() ? new String((byte[]) aborted[0].getEntity(), Charsets.UTF_8) : null;
+            return result;
+        }
+
+        // The resource reads the request body, which the filter must have left in place.
+        resourceCalls += 1;
+        if (body != null) {
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            for (int b = entityStream[0].read(); b != -1; b = entityStream[0].read()) read.write(b);
+            assertEquals(body, new String(read.toByteArray(), Charsets.UTF_8));
+        }
+
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        ContainerResponseContext response = mock(ContainerResponseContext.class);
+        when(response.getStatus()).thenReturn(resourceResponse.getStatus());
+        when(response.hasEntity()).thenReturn(resourceResponse.hasEntity());
+        when(response.getHeaders()).thenReturn(headers);
+        when(response.getHeaderString(anyString())).thenAnswer(invocation ->
+                resourceResponse.getHeaderString((String) invocation.getArguments()[0]));
+        filter.filter(request, response);
+
+        OutputStream[] outputStream = {new ByteArrayOutputStream()};
+        OutputStream client = outputStream[0];
+        WriterInterceptorContext writer = mock(WriterInterceptorContext.class);
+        when(writer.getProperty(anyString())).thenAnswer(invocation -> properties.get(invocation.getArguments()[0]));
+        when(writer.getMediaType()).thenReturn(MediaType.APPLICATION_JSON_TYPE);
+        when(writer.getOutputStream()).thenAnswer(invocation -> outputStream[0]);
+        doAnswer(invocation -> outputStream[0] = (OutputStream) invocation.getArguments()[0])
+                .when(writer).setOutputStream(any(OutputStream.class));
+        doAnswer(invocation -> {
+            outputStream[0].write(String.valueOf(resourceResponse.getEntity()).getBytes(Charsets.UTF_8));
+            return null;
+        }).when(writer).proceed();
+        filter.aroundWriteTo(writer);
+        assertSame(client, outputStream[0]);
+
+        result.status = resourceResponse.getStatus();
+        EntityTag etag = (EntityTag) headers.getFirst(HttpHeaders.ETAG);
+        result.etag = etag == null ? null : etag.getValue();
+        result.body = new String(((ByteArrayOutputStream) client).toByteArray(), Charsets.UTF_8);
+        assertFalse(result.body.isEmpty());
+        return result;
+    }
+
+}
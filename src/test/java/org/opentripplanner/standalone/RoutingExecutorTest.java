@@ -0,0 +1,241 @@
+package org.opentripplanner.standalone;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opentripplanner.routing.core.CancellationToken;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RoutingExecutorTest {
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private RoutingExecutor executor;
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /** A task that runs until it is released, so that the routing threads stay busy. */
+    private final RoutingExecutor.Task blocking = cancellationToken -> {
+        started.countDown();
+        release.await();
+        return "blocking";
+    };
+
+    @After
+    public void after() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testEndpointLimit() throws Exception {
+        executor = new RoutingExecutor(1, 10, 60, 60);
+        executor.limit("profile", 1);
+        AsyncResponse first = asyncResponse();
+        executor.execute("profile", new CancellationToken(), first, blocking);
+        started.await();
+
+        AsyncResponse second = asyncResponse();
+        AtomicBoolean ran = new AtomicBoolean();
+        executor.execute("profile", new CancellationToken(), second, cancellationToken -> ran.getAndSet(true));
+        assertRejected(second);
+
+        // Other endpoints are not limited, so this request is queued.
+        AsyncResponse plan = asyncResponse();
+        executor.execute("plan", new CancellationToken(), plan, cancellationToken -> "plan");
+
+        release.countDown();
+        verify(first, timeout(TIMEOUT_MILLIS)).resume("blocking");
+        verify(plan, timeout(TIMEOUT_MILLIS)).resume("plan");
+
+        // The plan request ran after the first profile request finished and released its permit.
+        AsyncResponse third = asyncResponse();
+        executor.execute("profile", new CancellationToken(), third, cancellationToken -> "third");
+        verify(third, timeout(TIMEOUT_MILLIS)).resume("third");
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        executor = new RoutingExecutor(1, 1, 60, 60);
+        executor.execute("plan", new CancellationToken(), asyncResponse(), blocking);
+        started.await();
+        AsyncResponse queued = asyncResponse();
+        executor.execute("plan", new CancellationToken(), queued, cancellationToken -> "queued");
+
+        AsyncResponse rejected = asyncResponse();
+        executor.execute("plan", new CancellationToken(), rejected, cancellationToken -> "rejected");
+        assertRejected(rejected);
+        assertEquals(1, executor.getRejectedCount());
+
+        release.countDown();
+        verify(queued, timeout(TIMEOUT_MILLIS)).resume("queued");
+    }
+
+    /** A request is rejected before it is queued when the wait estimated from recent requests exceeds the timeout. */
+    @Test
+    public void testEstimatedWaitExceedsQueueTimeout() throws Exception {
+        executor = new RoutingExecutor(1, 10, 0, 60);
+        AsyncResponse slow = asyncResponse();
+        executor.execute("plan", new CancellationToken(), slow, cancellationToken -> {
+            Thread.sleep(20);
+            return "slow";
+        });
+        verify(slow, timeout(TIMEOUT_MILLIS)).resume("slow");
+        // Wait until the routing thread is idle again, with the time of the slow request in its average.
+        while (executor.estimatedWaitMillis() > 0) Thread.sleep(1);
+
+        executor.execute("plan", new CancellationToken(), asyncResponse(), blocking);
+        started.await();
+        assertTrue(executor.estimatedWaitMillis() > 0);
+
+        AsyncResponse rejected = asyncResponse();
+        AtomicBoolean ran = new AtomicBoolean();
+        executor.execute("plan", new CancellationToken(), rejected, cancellationToken -> ran.getAndSet(true));
+        Response response = assertRejected(rejected);
+        assertEquals("1", String.valueOf(response.getMetadata().getFirst("Retry-After")));
+        assertFalse(ran.get());
+    }
+
+    /** A request that was queued because no wait was expected is still rejected if it waited too long. */
+    @Test
+    public void testQueueTimeoutWhenDequeued() throws Exception {
+        executor = new RoutingExecutor(1, 10, 0, 60);
+        executor.execute("plan", new CancellationToken(), asyncResponse(), blocking);
+        started.await();
+
+        AsyncResponse queued = asyncResponse();
+        AtomicBoolean ran = new AtomicBoolean();
+        executor.execute("plan", new CancellationToken(), queued, cancellationToken -> ran.getAndSet(true));
+        Thread.sleep(10);
+        release.countDown();
+        assertRejected(queued);
+        assertFalse(ran.get());
+    }
+
+    /** A request whose client disconnected while it was queued is dropped without running. */
+    @Test
+    public void testCancelledWhileQueued() throws Exception {
+        executor = new RoutingExecutor(1, 10, 60, 60);
+        executor.execute("plan", new CancellationToken(), asyncResponse(), blocking);
+        started.await();
+
+        AsyncResponse queued = asyncResponse();
+        CancellationToken cancellationToken = new CancellationToken();
+        AtomicBoolean ran = new AtomicBoolean();
+        executor.execute("plan", cancellationToken, queued, token -> ran.getAndSet(true));
+        cancellationToken.cancel();
+        release.countDown();
+        verify(queued, timeout(TIMEOUT_MILLIS)).cancel();
+        assertFalse(ran.get());
+    }
+
+    /** The task sees the token of its request, which is cancelled once its deadline has passed. */
+    @Test
+    public void testCancellationDeadline() throws Exception {
+        executor = new RoutingExecutor(1, 10, 60, 60);
+        CancellationToken cancellationToken = new CancellationToken(System.currentTimeMillis() + 50);
+        AsyncResponse asyncResponse = asyncResponse();
+        executor.execute("plan", cancellationToken, asyncResponse, token -> {
+            while (!token.isCancelled()) Thread.sleep(1);
+            return "cancelled";
+        });
+        verify(asyncResponse, timeout(TIMEOUT_MILLIS)).resume("cancelled");
+        assertTrue(cancellationToken.isCancelled());
+    }
+
+    @Test
+    public void testTaskException() throws Exception {
+        executor = new RoutingExecutor(1, 10, 60, 60);
+        AsyncResponse asyncResponse = asyncResponse();
+        executor.execute("plan", new CancellationToken(), asyncResponse, cancellationToken -> {
+            throw new IllegalStateException();
+        });
+        verify(asyncResponse, timeout(TIMEOUT_MILLIS)).resume(isA(IllegalStateException.class));
+    }
+
+    /** Subtasks run on idle routing threads, and their results are returned in order. */
+    @Test
+    public void testInvokeAllOnIdleThreads() throws Exception {
+        executor = new RoutingExecutor(4, 10, 60, 60);
+        CountDownLatch running = new CountDownLatch(4);
+        List<Callable<String>> subtasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String name = "subtask" + i;
+            subtasks.add(() -> {
+                // All the subtasks must be running at once for any of them to finish.
+                running.countDown();
+                assertTrue(running.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                return name + " " + Thread.currentThread().getName().startsWith("routing-");
+            });
+        }
+        // The calling thread runs the first subtask, and the routing threads the others.
+        assertEquals(Arrays.asList("subtask0 false", "subtask1 true", "subtask2 true", "subtask3 true"),
+                executor.invokeAll(subtasks));
+    }
+
+    /**
+     * When the routing threads are busy, a request running on one of them runs all its subtasks itself rather than
+     * waiting for them behind the queued requests.
+     */
+    @Test
+    public void testInvokeAllOnBusyPool() throws Exception {
+        executor = new RoutingExecutor(1, 10, 60, 60);
+        AsyncResponse asyncResponse = asyncResponse();
+        executor.execute("plan", new CancellationToken(), asyncResponse, cancellationToken -> {
+            List<Callable<String>> subtasks = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                subtasks.add(() -> Thread.currentThread().getName());
+            }
+            return executor.invokeAll(subtasks);
+        });
+        verify(asyncResponse, timeout(TIMEOUT_MILLIS)).resume(Arrays.asList("routing-0", "routing-0", "routing-0"));
+        assertEquals(0, executor.getRejectedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvokeAllException() {
+        executor = new RoutingExecutor(2, 10, 60, 60);
+        executor.invokeAll(Arrays.<Callable<String>>asList(() -> "ok", () -> {
+            throw new IllegalStateException();
+        }));
+    }
+
+    static AsyncResponse asyncResponse() {
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        when(asyncResponse.isSuspended()).thenReturn(true);
+        return asyncResponse;
+    }
+
+    /** Check that the request was answered with status 429 and a Retry-After header of at least one second. */
+    static Response assertRejected(AsyncResponse asyncResponse) {
+        ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+        verify(asyncResponse, timeout(TIMEOUT_MILLIS)).resume(captor.capture());
+        assertTrue(captor.getValue() instanceof Response);
+        Response response = (Response) captor.getValue();
+        assertEquals(RoutingExecutor.TOO_MANY_REQUESTS, response.getStatus());
+        assertTrue(Long.parseLong(String.valueOf(response.getMetadata().getFirst("Retry-After"))) >= 1);
+        return response;
+    }
+
+}